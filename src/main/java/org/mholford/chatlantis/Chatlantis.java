@@ -4,6 +4,7 @@ import com.fasterxml.jackson.databind.ObjectMapper;
 import org.mholford.chatlantis.bot.Bot;
 import org.mholford.chatlantis.bot.BotConfig;
 import org.mholford.chatlantis.bot.BotRegistry;
+import org.mholford.chatlantis.bot.DictionaryStatsRegistry;
 import org.mholford.chatlantis.utterance.Utterance;
 import org.mholford.chatlantis.utterance.UtteranceFactory;
 
@@ -23,12 +24,18 @@ import java.util.Map;
  * Utterance Processing.  The raw user input is sent to the appropriate bot which provides
  * a spoken answer for Chatlantis.
  * </p>
+ * <p>
+ * The dictionaries of all the Bots are loaded in parallel through the DictionaryRegistry, and
+ * initialization waits for them all.  They are held under a Lease, which is released when the
+ * instance is cleared or reloaded.
+ * </p>
  */
 public class Chatlantis implements Utils {
   private static Chatlantis INSTANCE;
   private Map<String, Conversation> conversations;
   private Map<String, User> users;
   private final ObjectMapper objectMapper = new ObjectMapper();
+  private DictionaryRegistry.Lease dictionaries;
   
   private Chatlantis() throws IOException, ReflectiveOperationException {
     users = new HashMap<>();
@@ -55,9 +62,29 @@ public class Chatlantis implements Utils {
    * primarily useful for testing purposes.
    */
   public static void clear() {
+    if (INSTANCE != null) {
+      INSTANCE.dictionaries.release();
+    }
     INSTANCE = null;
   }
   
+  /**
+   * Replaces the singleton instance with a new one, configured from the current
+   * chatlantis.json.  The dictionaries of the previous instance are only released once the
+   * new one is configured, so those still in use are not loaded again.
+   * @return New singleton instance, fully configured
+   * @throws IOException If could not read configuration
+   * @throws ReflectiveOperationException If could not instantiate classes
+   */
+  public static Chatlantis reload() throws IOException, ReflectiveOperationException {
+    Chatlantis previous = INSTANCE;
+    INSTANCE = new Chatlantis();
+    if (previous != null) {
+      previous.dictionaries.release();
+    }
+    return INSTANCE;
+  }
+  
   /**
    * Main entry point to Chatlantis utterance processing.  Looks up provided user, conversation
    * and bot.  Creates a new Utterance based on this and the raw user input.  This initial
@@ -101,10 +128,23 @@ public class Chatlantis implements Utils {
       InputStream defConfig = getResource("chatlantis.json");
       config = objectMapper.readValue(defConfig, Config.class);
     }
-  
+    
+    DictionaryRegistry registry = DictionaryRegistry.get();
     List<Bot> bots = new ArrayList<>();
-    for (BotConfig bc : config.getBotConfigs()) {
-      bots.add(bc.init());
+    dictionaries = registry.openLease();
+    try {
+      for (BotConfig bc : config.getBotConfigs()) {
+        bots.add(bc.init());
+      }
+      registry.awaitLoaded();
+    } catch (IOException | ReflectiveOperationException | RuntimeException e) {
+      dictionaries.release();
+      throw e;
+    } finally {
+      dictionaries.close();
+    }
+    for (Bot bot : bots) {
+      DictionaryStatsRegistry.get().register(bot);
     }
     BotRegistry.get().init(bots);
   }
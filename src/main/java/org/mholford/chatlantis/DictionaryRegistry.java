@@ -0,0 +1,288 @@
+package org.mholford.chatlantis;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.mholford.fstdict.FSTDictionaryManager;
+import org.mholford.fstdict.FSTDictionaryManagerFactory;
+import org.mholford.fstdict.TokenVocabulary;
+
+import java.io.FileNotFoundException;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Process-wide registry of the dictionaries loaded by UtteranceProcessors, Validators and the
+ * like, so that a dictionary used by several components (or several Bots) is only loaded once.
+ * Dictionaries are keyed by their resource path, the analyzer they are tokenized with and a
+ * variant naming how they are loaded (e.g. the kind of dictionary manager and its options);
+ * components that ask for the same key share one read-only instance.
+ * <p/>
+ * Loads run on the common ForkJoinPool: acquire() returns a Handle straight away, so the
+ * dictionaries of all the components being configured are built in parallel, and a Handle
+ * only waits for its dictionary when it is first used.  awaitLoaded() waits for all pending
+ * loads, e.g. to report failures at startup rather than on the first Utterance.
+ * <p/>
+ * Each Handle holds a reference to its dictionary, which is dropped from the registry when the
+ * last one is released.  Handles acquired on a thread while a Lease is open on it are recorded
+ * in the Lease, so that a configuration can release all of its dictionaries at once when it is
+ * reloaded (see Chatlantis.reload()); dictionaries still used by the new configuration are kept.
+ * The TokenVocabulary of the dictionaries keyed on token ids is held the same way (see
+ * acquireVocabulary()).
+ * DictionaryRegistry is a singleton class; the instance should be obtained by calling
+ * DictionaryRegistry.get().
+ */
+public class DictionaryRegistry {
+  /** Variant of the dictionaries loaded by acquireFST() */
+  public static final String FST_VARIANT = "fst";
+  /** Variant of the vocabulary acquired by acquireVocabulary() */
+  public static final String VOCABULARY_VARIANT = "vocabulary";
+  private static final DictionaryRegistry INSTANCE = new DictionaryRegistry();
+  private final Map<Key, Entry> entries = new ConcurrentHashMap<>();
+  private final ThreadLocal<Lease> leases = new ThreadLocal<>();
+  
+  private DictionaryRegistry() {
+  }
+  
+  /**
+   * Gets the singleton instance
+   * @return Singleton instance
+   */
+  public static DictionaryRegistry get() {
+    return INSTANCE;
+  }
+  
+  /**
+   * Gets a handle on the dictionary with the specified key, loading it in the background if
+   * it is not in the registry yet.  The dictionary must not be modified by the caller, as it
+   * may be shared.
+   * @param path Resource path of the dictionary
+   * @param analyzer Analyzer the dictionary is tokenized with, or null if it isn't
+   * @param variant How the dictionary is loaded from the resource
+   * @param loader Loads the dictionary if it is not in the registry
+   * @param <T> Type of the dictionary
+   * @return Handle on the shared dictionary; release it once it is no longer used
+   */
+  public <T> Handle<T> acquire(String path, Analyzer analyzer, String variant,
+                               Loader<T> loader) {
+    Key key = new Key(path, analyzer == null ? null : analyzer.getClass().getName(), variant);
+    Entry entry = entries.compute(key, (k, e) -> {
+      // A failed load is retried; handles on the failed entry keep failing
+      if (e == null || e.value.isCompletedExceptionally()) {
+        e = new Entry(CompletableFuture.<Object>supplyAsync(() -> {
+          try {
+            return loader.load();
+          } catch (IOException ex) {
+            throw new UncheckedIOException(ex);
+          }
+        }));
+      }
+      e.refs++;
+      return e;
+    });
+    Handle<T> handle = new Handle<>(key, entry);
+    Lease lease = leases.get();
+    if (lease != null) {
+      lease.handles.add(handle);
+    }
+    return handle;
+  }
+  
+  /**
+   * Gets a handle on the FSTDictionaryManager loaded from the specified CSV resource with the
+   * default analyzer.  Components that only need to find or check the terms of a dictionary
+   * file (e.g. EEUtteranceProcessor and OneOf) acquire it this way, so that they share it.
+   * @param path Resource path of the dictionary; the CSV must be sorted
+   * @return Handle on the shared dictionary; release it once it is no longer used
+   */
+  public Handle<FSTDictionaryManager> acquireFST(String path) {
+    FSTDictionaryManagerFactory factory = FSTDictionaryManagerFactory.get();
+    return acquire(path, factory.getDefaultAnalyzer(), FST_VARIANT, () -> {
+      InputStream in = DictionaryRegistry.class.getClassLoader().getResourceAsStream(path);
+      if (in == null) {
+        throw new FileNotFoundException("Dictionary not found: " + path);
+      }
+      FSTDictionaryManager dm = factory.createDefault();
+      dm.loadDictionary(in);
+      return dm;
+    });
+  }
+  
+  /**
+   * Gets a handle on the TokenVocabulary that dictionaries keyed on token ids (see
+   * TokenIdDictionaryManager) add their tokens to, creating a new one if there is none in the
+   * registry.  Components hold a handle on the vocabulary for as long as they use such a
+   * dictionary, so that its tokens are dropped with the last of them (e.g. once a reloaded
+   * configuration no longer uses any), rather than kept for the life of the process.
+   * @return Handle on the shared vocabulary; release it once it is no longer used
+   */
+  public Handle<TokenVocabulary> acquireVocabulary() {
+    return acquire(null, null, VOCABULARY_VARIANT, TokenVocabulary::new);
+  }
+  
+  /**
+   * Waits for all the dictionaries being loaded to be loaded
+   * @throws IOException If a dictionary could not be loaded
+   */
+  public void awaitLoaded() throws IOException {
+    for (Entry entry : new ArrayList<>(entries.values())) {
+      entry.join();
+    }
+  }
+  
+  /**
+   * Opens a Lease on the calling thread.  Handles acquired on the thread until the Lease is
+   * closed are recorded in it.
+   * @return New lease
+   */
+  public Lease openLease() {
+    Lease lease = new Lease();
+    leases.set(lease);
+    return lease;
+  }
+  
+  /**
+   * Gets the number of dictionaries in the registry, counting the vocabulary if there is one
+   * @return Number of dictionaries
+   */
+  public int size() {
+    return entries.size();
+  }
+  
+  private void release(Key key, Entry entry) {
+    entries.computeIfPresent(key, (k, e) -> e != entry || --e.refs > 0 ? e : null);
+  }
+  
+  /**
+   * Loads a dictionary from its resource
+   * @param <T> Type of the dictionary
+   */
+  public interface Loader<T> {
+    T load() throws IOException;
+  }
+  
+  /**
+   * Shared, read-only reference to a dictionary in the registry
+   * @param <T> Type of the dictionary
+   */
+  public final class Handle<T> {
+    private final Key key;
+    private final Entry entry;
+    private boolean released;
+    
+    private Handle(Key key, Entry entry) {
+      this.key = key;
+      this.entry = entry;
+    }
+    
+    /**
+     * Gets the dictionary, waiting for it to be loaded if necessary
+     * @return The dictionary
+     * @throws IOException If the dictionary could not be loaded
+     */
+    @SuppressWarnings("unchecked")
+    public T get() throws IOException {
+      return (T) entry.join();
+    }
+    
+    /**
+     * Drops this reference to the dictionary.  The dictionary is removed from the registry
+     * once all its handles are released.  Releasing a handle more than once has no effect.
+     */
+    public synchronized void release() {
+      if (!released) {
+        released = true;
+        DictionaryRegistry.this.release(key, entry);
+      }
+    }
+  }
+  
+  /**
+   * Records the handles acquired on a thread while it is open, typically those of one
+   * configuration, so that they can be released together
+   */
+  public final class Lease implements AutoCloseable {
+    private final List<Handle<?>> handles = new ArrayList<>();
+    
+    private Lease() {
+    }
+    
+    /**
+     * Stops recording the handles acquired on the calling thread
+     */
+    @Override
+    public void close() {
+      if (leases.get() == this) {
+        leases.remove();
+      }
+    }
+    
+    /**
+     * Releases all the handles recorded in this lease
+     */
+    public void release() {
+      close();
+      handles.forEach(Handle::release);
+      handles.clear();
+    }
+  }
+  
+  private static final class Entry {
+    private final CompletableFuture<Object> value;
+    private int refs;
+    
+    private Entry(CompletableFuture<Object> value) {
+      this.value = value;
+    }
+    
+    private Object join() throws IOException {
+      try {
+        return value.join();
+      } catch (CompletionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof UncheckedIOException) {
+          throw ((UncheckedIOException) cause).getCause();
+        } else if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        throw new IOException(cause);
+      }
+    }
+  }
+  
+  private static final class Key {
+    private final String path;
+    private final String analyzer;
+    private final String variant;
+    
+    private Key(String path, String analyzer, String variant) {
+      this.path = path;
+      this.analyzer = analyzer;
+      this.variant = variant;
+    }
+    
+    @Override
+    public boolean equals(Object o) {
+      if (this == o) {
+        return true;
+      }
+      if (!(o instanceof Key)) {
+        return false;
+      }
+      Key key = (Key) o;
+      return Objects.equals(path, key.path) && Objects.equals(analyzer, key.analyzer) &&
+          Objects.equals(variant, key.variant);
+    }
+    
+    @Override
+    public int hashCode() {
+      return Objects.hash(path, analyzer, variant);
+    }
+  }
+}
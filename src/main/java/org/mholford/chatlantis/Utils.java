@@ -1,15 +1,15 @@
 package org.mholford.chatlantis;
 
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.TokenStream;
 import org.apache.lucene.analysis.core.WhitespaceAnalyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
-import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
 import org.mholford.chatlantis.context.*;
 import org.mholford.chatlantis.lookup.instruction.*;
+import org.mholford.fstdict.OffsetTokenizer;
 import org.mholford.fstdict.Range;
 
 import java.io.*;
+import java.net.URL;
 import java.util.*;
 import java.util.function.Function;
 import java.util.function.Predicate;
@@ -46,9 +46,11 @@ public interface Utils {
     WHITESPACE(whitespaceAnalyzer);
     
     private final Analyzer analyzer;
+    private final OffsetTokenizer tokenizer;
     
     TokenizerMode(Analyzer analyzer) {
       this.analyzer = analyzer;
+      this.tokenizer = new OffsetTokenizer(analyzer);
     }
   
     /**
@@ -58,6 +60,14 @@ public interface Utils {
     public Analyzer getAnalyzer() {
       return analyzer;
     }
+    
+    /**
+     * Gets the per-thread tokenizer, which keeps the offsets of the tokens
+     * @return Offset tokenizer
+     */
+    public OffsetTokenizer getTokenizer() {
+      return tokenizer;
+    }
   }
   
   /**
@@ -161,20 +171,7 @@ public interface Utils {
    * @return List of tokens
    */
   default List<String> tokenize(String input, TokenizerMode tm) {
-    List<String> output = new ArrayList<>();
-    Analyzer analyzer = tm.analyzer;
-    try {
-      TokenStream tstream = analyzer.tokenStream(null, new StringReader(input));
-      tstream.reset();
-      while (tstream.incrementToken()) {
-        output.add(tstream.getAttribute(CharTermAttribute.class).toString());
-      }
-      tstream.close();
-    } catch (IOException e) {
-      // Won't happen b/c we're using StringReader and not an IO-based reader
-      throw new RuntimeException();
-    }
-    return output;
+    return new ArrayList<>(tm.tokenizer.tokenize(input).terms());
   }
   
   /**
@@ -186,6 +183,15 @@ public interface Utils {
     return Utils.class.getClassLoader().getResourceAsStream(path);
   }
   
+  /**
+   * Shortcut method to get the URL of a classpath resource
+   * @param path Path to resource
+   * @return URL of resource
+   */
+  default URL getResourceURL(String path) {
+    return Utils.class.getClassLoader().getResource(path);
+  }
+  
   /**
    * Lists all the ways a list of ranges can be permuted.  Impossible range lists
    * (i.e. those containing overlapping ranges are removed)
@@ -0,0 +1,102 @@
+package org.mholford.chatlantis.bot;
+
+import org.mholford.chatlantis.workflow.UtteranceProcessor;
+import org.mholford.chatlantis.workflow.Workflow;
+import org.mholford.fstdict.DictionaryManager;
+import org.mholford.fstdict.DictionaryStats;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Supplier;
+
+/**
+ * Registry of the dictionaries used by the configured Bots, so that their size and lookup
+ * statistics can be reported, e.g. by a metrics endpoint.  Dictionaries are keyed by the name
+ * of the Bot and by their alias; the lookup table of each Bot is registered under the
+ * LOOKUP_TABLE alias.  The registry holds suppliers rather than snapshots, so each call to
+ * get() reports the current figures.  It gets populated by Chatlantis once the dictionaries
+ * of the Bots are loaded.  Bots that share a dictionary (see DictionaryRegistry) report the
+ * same figures for it, lookup counters included.
+ * DictionaryStatsRegistry is a singleton class; the instance should be obtained by calling
+ * DictionaryStatsRegistry.get().
+ */
+public class DictionaryStatsRegistry {
+  public static final String LOOKUP_TABLE = "lookupTable";
+  private final Map<String, Map<String, Supplier<DictionaryStats>>> map;
+  private static DictionaryStatsRegistry INSTANCE;
+  
+  private DictionaryStatsRegistry() {
+    map = new ConcurrentHashMap<>();
+  }
+  
+  /**
+   * Gets the singleton instance, creating it if necessary.
+   * @return Singleton instance
+   */
+  public static DictionaryStatsRegistry get() {
+    if (INSTANCE == null) {
+      INSTANCE = new DictionaryStatsRegistry();
+    }
+    return INSTANCE;
+  }
+  
+  /**
+   * Registers the statistics of a dictionary, replacing any registered under the same Bot
+   * name and alias
+   * @param bot Name of the Bot
+   * @param alias Alias of the dictionary
+   * @param stats Supplies the current statistics of the dictionary
+   */
+  public void register(String bot, String alias, Supplier<DictionaryStats> stats) {
+    map.computeIfAbsent(bot, b -> new ConcurrentHashMap<>()).put(alias, stats);
+  }
+  
+  /**
+   * Registers the statistics of the lookup table of the specified Bot, and of the
+   * dictionaries of the UtteranceProcessors of its Workflows.  The dictionaries must be
+   * loaded, as getting them waits for them.
+   * @param bot Bot to register
+   */
+  public void register(Bot bot) {
+    register(bot.getName(), LOOKUP_TABLE, bot.getLookupTable()::getStats);
+    for (Workflow workflow : bot.getWorkflows()) {
+      for (UtteranceProcessor up : workflow.getProcessors()) {
+        for (Map.Entry<String, DictionaryManager> dict : up.getDictionaries().entrySet()) {
+          register(bot.getName(), dict.getKey(), dict.getValue()::getStats);
+        }
+      }
+    }
+  }
+  
+  /**
+   * Gets the current statistics of the specified dictionary
+   * @param bot Name of the Bot
+   * @param alias Alias of the dictionary
+   * @return Dictionary statistics, or null if there is no such dictionary
+   */
+  public DictionaryStats get(String bot, String alias) {
+    Supplier<DictionaryStats> stats = map.getOrDefault(bot, Collections.emptyMap()).get(alias);
+    return stats == null ? null : stats.get();
+  }
+  
+  /**
+   * Gets the current statistics of all the dictionaries of the specified Bot
+   * @param bot Name of the Bot
+   * @return Dictionary statistics keyed by alias; empty if the Bot has none registered
+   */
+  public Map<String, DictionaryStats> getAll(String bot) {
+    Map<String, DictionaryStats> all = new LinkedHashMap<>();
+    map.getOrDefault(bot, Collections.emptyMap()).forEach((alias, s) -> all.put(alias, s.get()));
+    return all;
+  }
+  
+  /**
+   * Removes the dictionaries of the specified Bot
+   * @param bot Name of the Bot
+   */
+  public void unregister(String bot) {
+    map.remove(bot);
+  }
+}
@@ -2,7 +2,6 @@ package org.mholford.chatlantis.lookup;
 
 import java.util.ArrayList;
 import java.util.EnumSet;
-import java.util.Iterator;
 import java.util.List;
 
 /**
@@ -198,29 +197,48 @@ public class ClauseConf implements Permutable {
   
   @Override
   public List<ClausePermutation> getPermutations() {
-    List<ClausePermutation> perms = new ArrayList<>();
-    perms.add(new ClausePermutation(""));
-    Iterator<Permutable> elemIter = elements.iterator();
-    while (elemIter.hasNext()) {
-      Permutable elem = elemIter.next();
-      List<ClausePermutation> addPerms = elem.getPermutations();
-      List<ClausePermutation> newPerms = new ArrayList<>();
-      for (ClausePermutation cp : perms) {
-        if (elem.hasAttribute(GenAttr.OPTIONAL)) {
-          newPerms.add(new ClausePermutation(cp.getOutput(), cp.getMarkerInfo()));
+    List<PermutationPath> paths = expand();
+    List<ClausePermutation> perms = new ArrayList<>(paths.size());
+    for (PermutationPath path : paths) {
+      perms.add(path.toPermutation());
+    }
+    return perms;
+  }
+  
+  /**
+   * Expands the clause into the compact paths of its permutations, in the order of
+   * getPermutations().  Each element adds one small object per permutation, sharing the
+   * permutations of the elements and their markers; outputs are only built when a path is
+   * materialized.
+   * @return Paths of the permutations
+   */
+  List<PermutationPath> expand() {
+    List<PermutationPath> paths = new ArrayList<>();
+    paths.add(PermutationPath.EMPTY);
+    for (Permutable elem : elements) {
+      List<PermutationPath> addPaths;
+      if (elem instanceof ClauseConf) {
+        addPaths = ((ClauseConf) elem).expand();
+      } else {
+        addPaths = new ArrayList<>();
+        for (ClausePermutation cp : elem.getPermutations()) {
+          addPaths.add(PermutationPath.leaf(cp));
+        }
+      }
+      boolean optional = elem.hasAttribute(GenAttr.OPTIONAL);
+      List<PermutationPath> newPaths =
+          new ArrayList<>(paths.size() * (addPaths.size() + (optional ? 1 : 0)));
+      for (PermutationPath path : paths) {
+        if (optional) {
+          newPaths.add(path);
         }
-        for (ClausePermutation cap : addPerms) {
-          List<MarkerConf> markerInfo = cp.cloneMarkerInfo();
-          if (cap.hasMarkers()) {
-            markerInfo.addAll(cap.getMarkerInfo());
-          }
-          String space = cp.getOutput().length() > 0 ? " " : "";
-          newPerms.add(new ClausePermutation(cp.getOutput() + space + cap.getOutput(), markerInfo));
+        for (PermutationPath addPath : addPaths) {
+          newPaths.add(path.append(addPath));
         }
       }
-      perms = newPerms;
+      paths = newPaths;
     }
-    return perms;
+    return paths;
   }
   
   /**
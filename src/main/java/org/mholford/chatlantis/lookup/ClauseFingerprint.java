@@ -0,0 +1,105 @@
+package org.mholford.chatlantis.lookup;
+
+import org.mholford.chatlantis.lookup.instruction.Instruction;
+
+import java.nio.charset.StandardCharsets;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.EnumSet;
+import java.util.List;
+
+/**
+ * Hash of everything the lookup entries of a clause are generated from: its elements, down to
+ * each phrase variant, marker alias and retention policy, their GenAttr attributes, and the
+ * Context DSL statements of its Instructions along with the markers they take.  Two clauses
+ * with the same fingerprint generate the same entries, so the entries generated for one can
+ * be reused for the other.
+ */
+final class ClauseFingerprint {
+  // Bump when the way entries are generated changes, so that older segments are not reused
+  private static final int VERSION = 1;
+  private final MessageDigest digest;
+  
+  private ClauseFingerprint() {
+    try {
+      digest = MessageDigest.getInstance("SHA-256");
+    } catch (NoSuchAlgorithmException e) {
+      throw new IllegalStateException("SHA-256 not available", e);
+    }
+  }
+  
+  /**
+   * Computes the fingerprint of the specified clause
+   * @param clause Clause of a LookupGrammar
+   * @param instructions Instructions the clause maps to
+   * @return Fingerprint, as a hex string
+   */
+  static String of(ClauseConf clause, List<Instruction> instructions) {
+    ClauseFingerprint fp = new ClauseFingerprint();
+    fp.add(VERSION);
+    fp.add(clause.getName());
+    fp.addElements(clause.getElements());
+    fp.add(instructions.size());
+    for (Instruction inst : instructions) {
+      fp.add(inst.output());
+      fp.add(inst.hasWildcard() ? 1 : 0);
+      fp.add(inst.hasEntity() ? inst.getEntity().getAlias() : null);
+    }
+    StringBuilder hex = new StringBuilder();
+    for (byte b : fp.digest.digest()) {
+      hex.append(String.format("%02x", b));
+    }
+    return hex.toString();
+  }
+  
+  private void addElements(List<Permutable> elements) {
+    add(elements.size());
+    for (Permutable elem : elements) {
+      add(elem.getClass().getName());
+      add(elem.getAttributes());
+      if (elem instanceof ClauseConf) {
+        addElements(((ClauseConf) elem).getElements());
+      } else {
+        // What a phrase or marker generates is all that matters about it
+        List<ClausePermutation> perms = elem.getPermutations();
+        add(perms.size());
+        for (ClausePermutation cp : perms) {
+          add(cp.getOutput());
+          add(cp.getMarkerInfo().size());
+          for (MarkerConf mc : cp.getMarkerInfo()) {
+            add(mc.getClass().getName());
+            add(mc.isKeep() ? 1 : 0);
+            add(mc instanceof EntityConf ? ((EntityConf) mc).getAlias() : null);
+            add(mc.getAttributes());
+          }
+        }
+      }
+    }
+  }
+  
+  private void add(EnumSet<GenAttr> attrs) {
+    int bits = 0;
+    for (GenAttr attr : attrs) {
+      bits |= 1 << attr.ordinal();
+    }
+    add(bits);
+  }
+  
+  private void add(int value) {
+    digest.update((byte) (value >>> 24));
+    digest.update((byte) (value >>> 16));
+    digest.update((byte) (value >>> 8));
+    digest.update((byte) value);
+  }
+  
+  // Strings are preceded by their length (-1 for null), so that they can't run into each other
+  private void add(String value) {
+    if (value == null) {
+      add(-1);
+      return;
+    }
+    byte[] bytes = value.getBytes(StandardCharsets.UTF_8);
+    add(bytes.length);
+    digest.update(bytes);
+  }
+}
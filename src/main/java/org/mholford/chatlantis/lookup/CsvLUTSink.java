@@ -0,0 +1,42 @@
+package org.mholford.chatlantis.lookup;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVPrinter;
+import org.apache.lucene.util.BytesRef;
+
+import java.io.BufferedWriter;
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * LUTSink writing the entries of a lookup table to a CSV file, one "term,payload" record per
+ * entry, in the order they are generated.  The file can be loaded by FSTLookupTable like any
+ * generated lookup table, or kept as a record of what was generated.  Output is buffered and
+ * only flushed when the sink is closed.
+ */
+public class CsvLUTSink implements LUTSink, Closeable {
+  private final CSVPrinter printer;
+  
+  /**
+   * Creates a sink writing to the specified file, replacing it if it exists
+   * @param file Path of the CSV file
+   * @throws IOException If the file can't be created
+   */
+  public CsvLUTSink(Path file) throws IOException {
+    BufferedWriter writer = Files.newBufferedWriter(file, StandardCharsets.UTF_8);
+    printer = new CSVPrinter(writer, CSVFormat.DEFAULT.withRecordSeparator('\n'));
+  }
+  
+  @Override
+  public void accept(BytesRef term, String payload) throws IOException {
+    printer.printRecord(term.utf8ToString(), payload);
+  }
+  
+  @Override
+  public void close() throws IOException {
+    printer.close();
+  }
+}
@@ -1,35 +1,74 @@
 package org.mholford.chatlantis.lookup;
 
 import com.google.common.base.Strings;
+import org.mholford.chatlantis.DictionaryRegistry;
 import org.mholford.chatlantis.Utils;
+import org.mholford.chatlantis.lookup.instruction.Instruction;
 import org.mholford.chatlantis.utterance.EntityToken;
 import org.mholford.chatlantis.utterance.LiteralToken;
 import org.mholford.chatlantis.utterance.Token;
 import org.mholford.chatlantis.utterance.Utterance;
-import org.mholford.fstdict.EntityInfo;
+import org.mholford.fstdict.DictionaryStats;
 import org.mholford.fstdict.FSTDictionaryManager;
 import org.mholford.fstdict.FSTDictionaryManagerFactory;
+import org.mholford.fstdict.TokenIdDictionaryManager;
+import org.mholford.fstdict.Range;
+import org.mholford.fstdict.SortedDictionaryBuilder;
+import org.mholford.fstdict.TokenVocabulary;
+import org.mholford.fstdict.WildcardMatch;
+import org.mholford.fstdict.WildcardMatcher;
 
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.*;
-import java.util.regex.Matcher;
-import java.util.regex.Pattern;
 
 /**
  * Represents a LookupTable backed by an FST dictionary.  We use lucene's FST
  * library.  The lookup tokenizes the original utterance and steps through the
- * lookup word by word.  If a word is not found, we try replacing with a wildcard.
- * The full algorithm is more complex and incorporates backchecking in the event
- * wildcards replace multiple words.  We keep a record of Wildcards and Entity markers
- * encountered in the lookup utterance.  These are then incorporated into the resulting
- * Context DSL statements, which are then returned.
+ * lookup word by word with a WildcardMatcher, which follows every way the words could
+ * match the keys of the table, a wildcard standing for one or more words, in a single
+ * pass.  Of the entries matched, the one matching the most words literally is chosen.
+ * We keep a record of Wildcards and Entity markers encountered in the lookup utterance.
+ * These are then incorporated into the resulting Context DSL statements, which are
+ * then returned.
+ * <p>
+ *   lookupAll() returns every entry matched, ranked by how specifically it matched: the more
+ *   words matched literally (and the fewer absorbed by wildcards), the better.  lookup()
+ *   answers with the best of them.
+ * </p>
+ * <p>
+ *   The payloads of the table are compiled into InstructionTemplates when it is loaded, so
+ *   lookupInstructions() binds the captured values straight into Instructions, without
+ *   resolving or parsing Context DSL strings per lookup.
+ * </p>
+ * <p>
+ *   Instead of being generated into a CSV, the table can be loaded from a LookupGrammar, or
+ *   from a StreamingLUTGenerator configured as the generator, which produce their entries in
+ *   sorted order straight into the FST.
+ * </p>
+ * <p>
+ *   If the compiledDir property is set, the compiled lookup table is kept in that directory
+ *   and only rebuilt when the generated CSV changes.
+ * </p>
+ * <p>
+ *   If the tokenIds property is set to true, the FST is keyed on token ids instead (see
+ *   TokenIdDictionaryManager) and is walked with the ids the Utterance's tokens were encoded
+ *   into when it was created: one arc per word, with no Strings joined or converted to bytes.
+ *   Such tables are always built from the CSV; compiledDir does not apply to them.  Their
+ *   tokens are added to the vocabulary of the DictionaryRegistry (see acquireVocabulary()).
+ * </p>
  */
 public class FSTLookupTable implements LookupTable, Utils {
+  private static final String WILDCARD = "*";
   private FSTDictionaryManager dm;
-  private final Pattern WC_PATTERN = Pattern.compile("WC_(\\d*)$");
-  private final Pattern MKR_PATTERN = Pattern.compile("(.*)_MKR_(\\d*)$");
+  private TokenIdDictionaryManager idDm;
+  private ThreadLocal<WildcardMatcher> matchers;
+  private Map<String, InstructionTemplate> templates = Collections.emptyMap();
   final static String DICT_PARAM = "dict";
   final static String GENERATOR_PARAM = "generator";
+  final static String COMPILED_DIR_PARAM = "compiledDir";
+  final static String TOKEN_IDS_PARAM = "tokenIds";
+  final static String DUMP_PARAM = "dump";
   
   /**
    * Creates a new FSTLookup table
@@ -40,67 +79,33 @@ public class FSTLookupTable implements LookupTable, Utils {
   
   @Override
   public String lookup(Utterance u) throws IOException {
-    List<String> wildcards = new ArrayList<>();
+    List<LookupResult> results = lookupAll(u, 1);
+    return results.isEmpty() ? null : results.get(0).getContextDsl();
+  }
+  
+  @Override
+  public List<Instruction> lookupInstructions(Utterance u) throws IOException {
+    List<LookupResult> results = lookupAll(u, 1);
+    return results.isEmpty() ? null : results.get(0).getInstructions();
+  }
+  
+  @Override
+  public List<LookupResult> lookupAll(Utterance u, int limit) throws IOException {
     Map<String, List<String>> entities = new HashMap<>();
-    List<String> soFar = new ArrayList<>();
-    List<String> luString = new ArrayList<>();
-    boolean matches = true;
+    List<String> walked = new ArrayList<>();
+    int entityTokens = 0;
     List<Token> tokens = map(u.getTokenRanges(), tr -> tr.getToken());
-    Iterator<Token> tokIter = tokens.iterator();
+    // Only tables keyed on token ids need the ids of the tokens
+    int[] ids = idDm != null ? u.getTokenIds(idDm.getVocabulary()) : null;
+    WildcardMatcher matcher = matchers.get();
+    matcher.reset();
     
-    while (tokIter.hasNext()) {
-      Token tok = tokIter.next();
+    for (int pos = 0; pos < tokens.size(); pos++) {
+      Token tok = tokens.get(pos);
+      int id = tokenId(tok, ids, pos);
+      boolean found;
       if (tok instanceof LiteralToken) {
-        soFar.add(tok.getValue());
-        if (dm.hasTokens(soFar)) {
-          luString = copyOf(soFar);
-        } else {
-          List<String> wcVal = new ArrayList<>();
-          
-          wcVal.add(0, soFar.get(soFar.size()-1));
-          soFar = soFar.subList(0, soFar.size()-1);
-          soFar.add("*");
-          while (!dm.hasTokens(soFar)) {
-            // try putting the * further back...
-            wcVal.add(0, soFar.get(soFar.size() - 2));
-            soFar = soFar.subList(0, soFar.size() - 2);
-            soFar.add("*");
-          }
-          
-          StringBuilder wildcard = new StringBuilder(String.join(" ", wcVal));
-          boolean addWc = true;
-          while (tokIter.hasNext()) {
-            tok = tokIter.next();
-            if (tok instanceof LiteralToken) {
-              soFar.add(tok.getValue());
-              if (!dm.hasTokens(soFar)) {
-                wildcard.append(" " + tok.getValue());
-                soFar = soFar.subList(0, soFar.size() - 1);
-              } else {
-                wildcards.add(wildcard.toString());
-                addWc = false;
-                break;
-              }
-            } else if (tok instanceof EntityToken) {
-              EntityToken etok = (EntityToken) tok;
-              String alias = etok.getAlias();
-              if (!entities.containsKey(alias)) {
-                entities.put(alias, new ArrayList<>());
-              }
-              entities.get(alias).add(tok.getValue());
-              soFar.add(etok.toLookupString());
-              break;
-            }
-          }
-          if (dm.hasTokens(soFar)) {
-            if (addWc) {
-              wildcards.add(wildcard.toString());
-            }
-            luString = copyOf(soFar);
-          } else {
-            matches = false;
-          }
-        }
+        found = matcher.advance(tok.getValue(), id, true);
       } else if (tok instanceof EntityToken) {
         EntityToken etok = (EntityToken) tok;
         String alias = etok.getAlias();
@@ -108,60 +113,61 @@ public class FSTLookupTable implements LookupTable, Utils {
           entities.put(alias, new ArrayList<>());
         }
         entities.get(alias).add(tok.getValue());
-        soFar.add(etok.toLookupString());
-        if (dm.hasTokens(soFar)) {
-          luString = copyOf(soFar);
-        } else {
-          matches = false;
-        }
+        entityTokens++;
+        // Wildcards don't absorb entities
+        found = matcher.advance(etok.toLookupString(), id, false);
+      } else {
+        continue;
+      }
+      walked.add(tok.getValue());
+      if (!found) {
+        break;
       }
     }
     
-    if (!matches || !dm.isCompleteMatch(luString)) {
-      return null;
+    List<LookupResult> results = new ArrayList<>();
+    for (WildcardMatch m : matcher.matches()) {
+      List<String> wildcards = new ArrayList<>();
+      int wildcardTokens = 0;
+      for (Range r : m.getWildcards()) {
+        wildcards.add(String.join(" ", walked.subList(r.getStart(), r.getEnd())));
+        wildcardTokens += r.size();
+      }
+      int literalTokens = walked.size() - entityTokens - wildcardTokens;
+      for (String payload : m.getEntity().getPayloads()) {
+        results.add(new LookupResult(template(payload), wildcards, entities, literalTokens,
+            entityTokens, wildcardTokens));
+      }
     }
-    EntityInfo ei = dm.getEntity(luString);
-    String payload = ei.getPayloads().get(0);
-    return resolvePayload(payload, wildcards, entities);
+    // The sort is stable, so equally specific results stay in the order they were matched in
+    results.sort(LookupResult.BY_SPECIFICITY);
+    return results.size() > limit ? new ArrayList<>(results.subList(0, limit)) : results;
   }
   
-  private String resolvePayload(String payload, List<String> wildcards,
-                                Map<String, List<String>> entities) {
-    List<String> payloadTokens = tokenize(payload, TokenizerMode.WHITESPACE);
-    List<String> output = new ArrayList<>();
-    
-    for (String tok : payloadTokens) {
-      // if ends with ;, strip it and replace later
-      boolean endsWithSemi = tok.endsWith(";");
-      String curr = endsWithSemi ? tok.substring(0, tok.length() - 1) : tok;
-      String ending = endsWithSemi ? ";" : "";
-      // extract number from e.g. WC_0 and replace with wildcards.get(0)
-      Matcher wcMatcher = WC_PATTERN.matcher(curr);
-      Matcher entMatcher = MKR_PATTERN.matcher(curr);
-      if (wcMatcher.matches()) {
-        String wcIdxString = wcMatcher.group(1);
-        int wcIdx = Integer.parseInt(wcIdxString);
-        String wcValue = wildcards.get(wcIdx);
-        output.add(wcValue + ending);
-      } else if (entMatcher.matches()) {
-        // extract alias and number from e.g. EMP_MKR_0 and replace with entities.get(EMP).get(0)
-        String alias = entMatcher.group(1);
-        String idxString = entMatcher.group(2);
-        int idx = Integer.parseInt(idxString);
-        String entValue = entities.get(alias).get(idx);
-        output.add(entValue + ending);
-      } else {
-        output.add(tok);
-      }
+  private InstructionTemplate template(String payload) {
+    InstructionTemplate template = templates.get(payload);
+    return template != null ? template : InstructionTemplate.compile(payload);
+  }
+  
+  // Tokens unknown when the ids were encoded may have been added to the vocabulary since
+  private int tokenId(Token tok, int[] ids, int pos) {
+    if (idDm == null) {
+      return TokenVocabulary.OOV;
     }
-    
-    return String.join(" ", output);
+    int id = ids[pos];
+    if (id != TokenVocabulary.OOV) {
+      return id;
+    }
+    return idDm.getVocabulary().id(tok.toLookupString());
   }
   
   /**
    * Initializes the FST lookup table from specified properties.  Creates a new instance
    * of the LUTGenerator specified in the properties; runs that generator and loads the
-   * generated entries into an FST-based dictionary.
+   * generated entries into an FST-based dictionary.  If the generator is a
+   * StreamingLUTGenerator, its entries are added to the FST as they are generated, and
+   * are also written to the CSV file named by the dump property if there is one; the dict,
+   * compiledDir and tokenIds properties do not apply then.
    * @param props Property map
    * @throws IOException If something went wrong
    */
@@ -169,14 +175,78 @@ public class FSTLookupTable implements LookupTable, Utils {
     String dict = props.get(DICT_PARAM);
     String generatorCls = props.get(GENERATOR_PARAM);
     if (!Strings.isNullOrEmpty(generatorCls)) {
+      Object generator;
       try {
-        Class<LUTGenerator> lgc = (Class<LUTGenerator>) Class.forName(generatorCls);
-        LUTGenerator lg = lgc.newInstance();
-        lg.generate();
+        generator = Class.forName(generatorCls).newInstance();
       } catch (ReflectiveOperationException e) {
         throw new IOException("Could not instatiate LUT generator: " + generatorCls, e);
       }
+      if (generator instanceof StreamingLUTGenerator) {
+        load((StreamingLUTGenerator) generator, props.get(DUMP_PARAM));
+        return;
+      }
+      if (!(generator instanceof LUTGenerator)) {
+        throw new IOException("Not a LUT generator: " + generatorCls);
+      }
+      ((LUTGenerator) generator).generate();
+    }
+    String compiledDir = props.get(COMPILED_DIR_PARAM);
+    if (Boolean.parseBoolean(props.get(TOKEN_IDS_PARAM))) {
+      // The vocabulary is held until the configuration that loaded the table is released
+      TokenVocabulary vocabulary = DictionaryRegistry.get().acquireVocabulary().get();
+      idDm = FSTDictionaryManagerFactory.get().createTokenId(vocabulary);
+      idDm.loadDictionary(getResource(dict));
+    } else if (!Strings.isNullOrEmpty(compiledDir)) {
+      dm.loadDictionary(getResourceURL(dict), Paths.get(compiledDir, dict + ".fst"));
+    } else {
+      dm.loadDictionary(getResource(dict));
+    }
+    prepare();
+  }
+  
+  private void load(StreamingLUTGenerator generator, String dump) throws IOException {
+    idDm = null;
+    SortedDictionaryBuilder builder = dm.newSortedBuilder();
+    if (Strings.isNullOrEmpty(dump)) {
+      generator.generate(LUTSink.of(builder));
+    } else {
+      try (CsvLUTSink csv = new CsvLUTSink(Paths.get(dump))) {
+        generator.generate(LUTSink.of(builder).andThen(csv));
+      }
+    }
+    builder.finish();
+    prepare();
+  }
+  
+  /**
+   * Loads the lookup table from the specified grammar, building the FST from its entries as
+   * the grammar produces them, in sorted order, rather than from a generated CSV.  Tables
+   * loaded from a grammar are keyed on UTF-8 bytes.
+   * @param grammar Compiled clauses of the lookup table
+   * @throws IOException If the FST can't be built
+   */
+  public void load(LookupGrammar grammar) throws IOException {
+    idDm = null;
+    grammar.build(dm.newSortedBuilder());
+    prepare();
+  }
+  
+  // Sets up the matchers and compiles the payloads of the dictionary just loaded
+  private void prepare() {
+    matchers = ThreadLocal.withInitial(() -> idDm != null ? idDm.newWildcardMatcher(WILDCARD) :
+        dm.newWildcardMatcher(WILDCARD));
+    Map<String, InstructionTemplate> templates = new HashMap<>();
+    for (String payload : idDm != null ? idDm.getPayloads() : dm.getPayloads()) {
+      templates.put(payload, InstructionTemplate.compile(payload));
     }
-    dm.loadDictionary(getResource(dict));
+    this.templates = templates;
+  }
+  
+  /**
+   * Gets the statistics of the dictionary the table is looked up in
+   * @return Dictionary statistics
+   */
+  public DictionaryStats getStats() {
+    return idDm != null ? idDm.getStats() : dm.getStats();
   }
 }
@@ -0,0 +1,278 @@
+package org.mholford.chatlantis.lookup;
+
+import org.mholford.chatlantis.Utils;
+import org.mholford.chatlantis.context.FullContext;
+import org.mholford.chatlantis.context.SubExpression;
+import org.mholford.chatlantis.lookup.instruction.*;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static org.mholford.chatlantis.context.SubExpression.CONV;
+import static org.mholford.chatlantis.context.SubExpression.UTT;
+
+/**
+ * Payload of a lookup table entry, compiled once when the table is loaded.  Payloads are
+ * Context DSL statements in which whitespace-separated tokens such as WC_0 or EMP_MKR_1 stand
+ * for the wildcards and entity markers captured by a lookup.  Compiling tokenizes the payload,
+ * resolves those tokens into typed slots and parses the statements into steps, each knowing
+ * which Instruction it makes and which of its strings hold slots.  bind() then fills the slots
+ * with the captured values and builds the Instructions straight away; render() builds the
+ * resolved Context DSL string, for callers of LookupTable.lookup().
+ * <p/>
+ * Statements are parsed as Utils.parseInstructions() would parse the rendered string, except
+ * that captured values are never parsed as Context DSL: a wildcard capturing ";" or "->" ends
+ * up in the slot value rather than splitting the statement.  Payloads that aren't Context DSL
+ * still render; bind() throws the error parseInstructions() would have.
+ * <p/>
+ * Templates are immutable and thread safe.
+ */
+final class InstructionTemplate implements Utils {
+  private static final Pattern WC_PATTERN = Pattern.compile("WC_(\\d+)$");
+  private static final Pattern MKR_PATTERN = Pattern.compile("(.*)_MKR_(\\d+)$");
+  // Slots are marked in the compiled strings by characters of the Private Use Area
+  private static final char SLOT_BASE = '\uE000';
+  private static final int MAX_SLOTS = '\uF8FF' - SLOT_BASE + 1;
+  private final Slot[] slots;
+  private final Text rendered;
+  private final List<Step> steps;
+  private final RuntimeException parseError;
+  
+  private InstructionTemplate(String payload, boolean resolved) {
+    List<Slot> slots = new ArrayList<>();
+    List<String> skeleton = new ArrayList<>();
+    // Resolved statements hold values rather than slots, whatever they look like
+    if (!resolved) {
+      for (String tok : tokenize(payload, TokenizerMode.WHITESPACE)) {
+        // if ends with ;, strip it and put it back after the slot
+        boolean endsWithSemi = tok.endsWith(";");
+        String curr = endsWithSemi ? tok.substring(0, tok.length() - 1) : tok;
+        Matcher wcMatcher = WC_PATTERN.matcher(curr);
+        Matcher entMatcher = MKR_PATTERN.matcher(curr);
+        Slot slot = null;
+        if (wcMatcher.matches()) {
+          slot = new Slot(null, Integer.parseInt(wcMatcher.group(1)));
+        } else if (entMatcher.matches()) {
+          slot = new Slot(entMatcher.group(1), Integer.parseInt(entMatcher.group(2)));
+        }
+        if (slot == null) {
+          skeleton.add(tok);
+        } else if (slots.size() == MAX_SLOTS) {
+          throw new IllegalArgumentException("Too many wildcards and markers in: " + payload);
+        } else {
+          skeleton.add((char) (SLOT_BASE + slots.size()) + (endsWithSemi ? ";" : ""));
+          slots.add(slot);
+        }
+      }
+    }
+    this.slots = slots.toArray(new Slot[0]);
+    String compiled = resolved ? payload : String.join(" ", skeleton);
+    rendered = text(compiled);
+    List<Step> steps = null;
+    RuntimeException parseError = null;
+    try {
+      steps = parse(compiled);
+    } catch (RuntimeException e) {
+      parseError = e;
+    }
+    this.steps = steps;
+    this.parseError = parseError;
+  }
+  
+  /**
+   * Compiles the specified payload
+   * @param payload Payload of a lookup table entry
+   * @return Compiled template
+   */
+  static InstructionTemplate compile(String payload) {
+    return new InstructionTemplate(payload, false);
+  }
+  
+  /**
+   * Wraps Context DSL statements whose wildcards and markers are already resolved, e.g. the
+   * result of LookupTable.lookup(), so that nothing in them is taken for a slot
+   * @param contextDsl Resolved Context DSL statements
+   * @return Template without slots
+   */
+  static InstructionTemplate resolved(String contextDsl) {
+    return new InstructionTemplate(contextDsl, true);
+  }
+  
+  /**
+   * Resolves the payload into a Context DSL string
+   * @param wildcards Values of the wildcards, in order
+   * @param entities Values of the entity markers, by alias and in order
+   * @return Context DSL statements
+   */
+  String render(List<String> wildcards, Map<String, List<String>> entities) {
+    return rendered.bind(wildcards, entities);
+  }
+  
+  /**
+   * Builds the Instructions of the payload
+   * @param wildcards Values of the wildcards, in order
+   * @param entities Values of the entity markers, by alias and in order
+   * @return Instructions to apply to the FullContext
+   */
+  List<Instruction> bind(List<String> wildcards, Map<String, List<String>> entities) {
+    if (parseError != null) {
+      throw parseError;
+    }
+    List<Instruction> output = new ArrayList<>(steps.size());
+    for (Step step : steps) {
+      output.add(step.bind(wildcards, entities));
+    }
+    return output;
+  }
+  
+  // Mirrors Utils.parseInstructions(), with slot characters standing in for the values
+  private List<Step> parse(String skeleton) {
+    List<Step> output = new ArrayList<>();
+    
+    String[] cmds = skeleton.split(";");
+    for (String cmd : cmds) {
+      cmd = cmd.trim();
+      SubExpression subEx = getSubEx(cmd);
+      InstructionContext instructionContext;
+      switch (subEx.getContext()) {
+        case UTT:
+          instructionContext = InstructionContext.UTTERANCE;
+          break;
+        case CONV:
+          instructionContext = InstructionContext.CONVERSATION;
+          break;
+        case FullContext.USER:
+          instructionContext = InstructionContext.USER;
+          break;
+        default:
+          throw new RuntimeException("Unknown context: " + subEx.getContext());
+      }
+      
+      cmd = subEx.getExpr();
+      if (cmd.contains("-!")) {
+        String[] ss = cmd.split("-!");
+        output.add(new Step(Kind.REMOVE, instructionContext, text(ss[1].trim()), null, false));
+      } else if (cmd.contains("->")) {
+        String[] ss = cmd.split("->");
+        boolean preFetch = false;
+        String ls = ss[0].trim();
+        String rs = ss[1].trim();
+        if (rs.startsWith("{") && rs.endsWith("}")) {
+          preFetch = true;
+          rs = rs.substring(1, rs.length() - 1);
+        }
+        if (ls.equals("/intent.name")) {
+          output.add(new Step(Kind.INTENT, instructionContext, null, text(rs), false));
+        } else if (ls.equals("/prompt.value")) {
+          output.add(new Step(Kind.PROMPT, instructionContext, null, text(rs), false));
+        } else {
+          output.add(new Step(Kind.STRING, instructionContext, text(ls), text(rs), preFetch));
+        }
+      }
+    }
+    
+    return Collections.unmodifiableList(output);
+  }
+  
+  private Text text(String s) {
+    List<String> literals = new ArrayList<>();
+    List<Slot> textSlots = new ArrayList<>();
+    int start = 0;
+    for (int i = 0; i < s.length(); i++) {
+      int slot = s.charAt(i) - SLOT_BASE;
+      if (slot >= 0 && slot < slots.length) {
+        literals.add(s.substring(start, i));
+        textSlots.add(slots[slot]);
+        start = i + 1;
+      }
+    }
+    literals.add(s.substring(start));
+    return new Text(literals.toArray(new String[0]), textSlots.toArray(new Slot[0]));
+  }
+  
+  private enum Kind {
+    REMOVE, INTENT, PROMPT, STRING
+  }
+  
+  /**
+   * One Context DSL statement of the payload
+   */
+  private static final class Step {
+    private final Kind kind;
+    private final InstructionContext instructionContext;
+    private final Text slotName;
+    private final Text value;
+    private final boolean preFetch;
+    
+    Step(Kind kind, InstructionContext instructionContext, Text slotName, Text value,
+         boolean preFetch) {
+      this.kind = kind;
+      this.instructionContext = instructionContext;
+      this.slotName = slotName;
+      this.value = value;
+      this.preFetch = preFetch;
+    }
+    
+    Instruction bind(List<String> wildcards, Map<String, List<String>> entities) {
+      switch (kind) {
+        case REMOVE:
+          return new RemoveSlot(instructionContext, slotName.bind(wildcards, entities));
+        case INTENT:
+          return new SetIntent(instructionContext, value.bind(wildcards, entities));
+        case PROMPT:
+          return new SetPrompt(instructionContext, value.bind(wildcards, entities));
+        default:
+          return new SetStringSlot(instructionContext, slotName.bind(wildcards, entities),
+              value.bind(wildcards, entities), preFetch);
+      }
+    }
+  }
+  
+  /**
+   * String made of literal parts with slots between them
+   */
+  private static final class Text {
+    private final String[] literals;
+    private final Slot[] slots;
+    
+    Text(String[] literals, Slot[] slots) {
+      this.literals = literals;
+      this.slots = slots;
+    }
+    
+    String bind(List<String> wildcards, Map<String, List<String>> entities) {
+      if (slots.length == 0) {
+        return literals[0];
+      }
+      if (slots.length == 1 && literals[0].isEmpty() && literals[1].isEmpty()) {
+        return slots[0].bind(wildcards, entities);
+      }
+      StringBuilder sb = new StringBuilder(literals[0]);
+      for (int i = 0; i < slots.length; i++) {
+        sb.append(slots[i].bind(wildcards, entities)).append(literals[i + 1]);
+      }
+      return sb.toString();
+    }
+  }
+  
+  /**
+   * A wildcard (alias is null) or entity marker, by index
+   */
+  private static final class Slot {
+    private final String alias;
+    private final int index;
+    
+    Slot(String alias, int index) {
+      this.alias = alias;
+      this.index = index;
+    }
+    
+    String bind(List<String> wildcards, Map<String, List<String>> entities) {
+      return alias == null ? wildcards.get(index) : entities.get(alias).get(index);
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package org.mholford.chatlantis.lookup;
+
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Utterance that several clauses of a LookupGrammar have an entry for, with different
+ * payloads.  Only one entry can be kept in the lookup table: that of the last of the clauses,
+ * as when their entries are put in a Map one clause after the other.
+ */
+public class LUTConflict {
+  private final String term;
+  private final List<String> clauses;
+  private final List<String> payloads;
+  
+  LUTConflict(String term, List<String> clauses, List<String> payloads) {
+    this.term = term;
+    this.clauses = Collections.unmodifiableList(clauses);
+    this.payloads = Collections.unmodifiableList(payloads);
+  }
+  
+  /**
+   * Gets the utterance the clauses have an entry for
+   * @return Term of the entries
+   */
+  public String getTerm() {
+    return term;
+  }
+  
+  /**
+   * Gets the names of the clauses, in the order they were added to the grammar
+   * @return Clause names
+   */
+  public List<String> getClauses() {
+    return clauses;
+  }
+  
+  /**
+   * Gets the payloads of the entries, in the same order as the clauses.  The last is the one
+   * kept.
+   * @return Payloads
+   */
+  public List<String> getPayloads() {
+    return payloads;
+  }
+  
+  @Override
+  public String toString() {
+    return term + ": " + clauses + " -> " + payloads;
+  }
+}
@@ -0,0 +1,45 @@
+package org.mholford.chatlantis.lookup;
+
+import org.apache.lucene.util.BytesRef;
+import org.mholford.fstdict.SortedDictionaryBuilder;
+
+import java.io.IOException;
+import java.util.Collections;
+
+/**
+ * Receives the entries of a lookup table as they are generated, e.g. by a
+ * StreamingLUTGenerator or a LookupGrammar.  Entries come in increasing order of the UTF-8
+ * bytes of their terms, each term once, so a sink can add them straight to an FST.
+ */
+public interface LUTSink {
+  /**
+   * Called with each entry of the lookup table
+   * @param term Utterance the entry is keyed on; only valid during the call
+   * @param payload Context DSL statements of the entry, possibly empty
+   * @throws IOException If the entry can't be consumed
+   */
+  void accept(BytesRef term, String payload) throws IOException;
+  
+  /**
+   * Gets a sink passing each entry to this sink, then to the specified one
+   * @param next Sink to pass the entries to next
+   * @return Combined sink
+   */
+  default LUTSink andThen(LUTSink next) {
+    return (term, payload) -> {
+      accept(term, payload);
+      next.accept(term, payload);
+    };
+  }
+  
+  /**
+   * Gets a sink adding the entries to the specified dictionary builder.  An entry with an
+   * empty payload is added with no payloads, as it would be from a CSV.
+   * @param builder Builder of the dictionary of the lookup table
+   * @return Sink feeding the builder
+   */
+  static LUTSink of(SortedDictionaryBuilder builder) {
+    return (term, payload) -> builder.add(term, payload.isEmpty() ?
+        Collections.emptyList() : Collections.singletonList(payload));
+  }
+}
@@ -0,0 +1,612 @@
+package org.mholford.chatlantis.lookup;
+
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.index.IndexFormatTooNewException;
+import org.apache.lucene.index.IndexFormatTooOldException;
+import org.apache.lucene.store.ChecksumIndexInput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.mholford.chatlantis.lookup.instruction.Instruction;
+import org.mholford.fstdict.SortedDictionaryBuilder;
+
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Compiles ClauseConfs, along with the Instructions each maps to, into an automaton over
+ * words, and walks it to produce the entries of the lookup table in sorted order.  The entries
+ * are the ones LookupUtil.createLookupEntries() would create for each clause (a later clause
+ * replacing the entries of an earlier one for the same utterance, as with Map.putAll()), but
+ * the permutations of the clauses are never listed: compiling takes time and memory in
+ * proportion to the size of the clauses, and the walk only holds the path to the current
+ * entry.  Entries can thus be fed straight to a SortedDictionaryBuilder, which builds the
+ * minimal FST for them, with no CSV or sorted map in between.
+ * <p/>
+ * Each element of a clause compiles to a choice between its variants (and skipping it, if it
+ * is OPTIONAL), each a chain of words followed by the markers it holds; a clause chains its
+ * elements.  The walk follows every path through the automaton that spells the same words at
+ * once, trying words in sorted order, and keeps the path a permutation would have last been
+ * put in the map by.  The payload of an entry only depends on its clause and on the markers
+ * along its path, so it is built once per combination of markers, however many phrase
+ * variants lead to it.
+ * <p/>
+ * Clauses can also be walked concurrently, each on its own, on a ForkJoinPool (see
+ * forEachEntry(LUTSink, ForkJoinPool)).  The entries of each clause come out sorted and are
+ * held compactly until all clauses are walked, then merged in order.  Utterances found in
+ * more than one clause with different payloads are reported as conflicts.  The entries of
+ * each clause can also be kept on disk between runs, so that only the clauses that changed
+ * since are walked again.
+ * <p/>
+ * Phrase variants must not contain characters below the space, which would not sort after
+ * the space separating words.  Clauses must not be added to a grammar while it is walked;
+ * walks themselves keep their state to themselves, and can run concurrently.
+ */
+public class LookupGrammar {
+  private static final String SEGMENT_CODEC = "ChatlantisLUTSegment";
+  private static final int SEGMENT_VERSION = 1;
+  private static final String SEGMENT_PREFIX = "lut-";
+  private static final String SEGMENT_SUFFIX = ".seg";
+  private final LookupUtil util;
+  private final List<Op> program = new ArrayList<>();
+  private final List<Integer> starts = new ArrayList<>();
+  private final List<Rule> rules = new ArrayList<>();
+  
+  /**
+   * Creates a grammar with no permutation budget: however many entries its clauses have,
+   * they are walked without ever being expanded
+   */
+  public LookupGrammar() {
+    this(new LookupUtil().setMaxPermutations(Long.MAX_VALUE));
+  }
+  
+  /**
+   * Creates a grammar that rejects clauses with more permutations than the budget of the
+   * specified LookupUtil allows.  The budget limits the number of entries each clause emits;
+   * its heap limit does not apply, as the grammar never expands clauses.
+   * @param util LookupUtil to build payloads with and take the budget from
+   */
+  public LookupGrammar(LookupUtil util) {
+    this.util = util;
+  }
+  
+  /**
+   * Adds a clause to the grammar
+   * @param clause Clause to compile
+   * @param instructions Instructions to be applied if the clause matches
+   * @return This grammar
+   * @throws PermutationBudgetException If the clause has more entries than the budget allows
+   */
+  public LookupGrammar add(ClauseConf clause, List<Instruction> instructions) {
+    util.checkEntries(clause);
+    Rule rule = new Rule(rules.size(), clause.getName(), instructions,
+        ClauseFingerprint.of(clause, instructions));
+    rules.add(rule);
+    int match = emit(new Op(Kind.MATCH, null, null, -1, null, rule));
+    starts.add(compileElements(clause.getElements(), match));
+    return this;
+  }
+  
+  /**
+   * Walks the grammar, passing each entry of the lookup table to the sink in increasing
+   * order of the UTF-8 bytes of its term
+   * @param sink Receives the entries
+   * @throws IOException If the sink fails
+   */
+  public void forEachEntry(LUTSink sink) throws IOException {
+    new Walk().run(starts, sink);
+  }
+  
+  /**
+   * Walks each clause of the grammar as a separate task on the specified pool, then merges
+   * their entries and passes them to the sink, on the calling thread, in increasing order of
+   * the UTF-8 bytes of their terms.  The entries are the ones forEachEntry(LUTSink) passes.
+   * The utterances more than one clause has an entry for are reported in the same order,
+   * however the tasks were scheduled.
+   * @param sink Receives the entries
+   * @param pool Pool to walk the clauses on
+   * @return Utterances found in several clauses with different payloads; the entry of the
+   * last of these clauses is the one passed to the sink
+   * @throws IOException If the sink fails
+   */
+  public List<LUTConflict> forEachEntry(LUTSink sink, ForkJoinPool pool) throws IOException {
+    return merge(segments(pool, null), sink);
+  }
+  
+  /**
+   * Does as forEachEntry(LUTSink, ForkJoinPool), but keeps the entries of each clause in a
+   * segment file in the specified directory, named after the fingerprint of the clause (see
+   * ClauseFingerprint).  Clauses whose segment is already there are not walked again: their
+   * entries are read back from it.  Only the clauses that were added or changed since the
+   * last call are thus walked, and the lookup table is merged from the segments.  Segments of
+   * clauses no longer in the grammar are deleted, so the directory should only be used for
+   * one grammar.
+   * @param sink Receives the entries
+   * @param pool Pool to walk the clauses on
+   * @param segmentDir Directory of the segment files; created if it does not exist
+   * @return Utterances found in several clauses with different payloads
+   * @throws IOException If the sink fails or the segments can't be read or written
+   */
+  public List<LUTConflict> forEachEntry(LUTSink sink, ForkJoinPool pool,
+                                        Path segmentDir) throws IOException {
+    Files.createDirectories(segmentDir);
+    try (FSDirectory dir = FSDirectory.open(segmentDir)) {
+      Map<String, Segment> segments = segments(pool, dir);
+      for (String file : dir.listAll()) {
+        if (file.startsWith(SEGMENT_PREFIX) && !segments.containsKey(file)) {
+          dir.deleteFile(file);
+        }
+      }
+      return merge(segments, sink);
+    }
+  }
+  
+  // Gets the segment of each distinct clause, keyed by the name of its file
+  private Map<String, Segment> segments(ForkJoinPool pool, Directory dir) throws IOException {
+    Set<String> existing = dir == null ? Collections.emptySet() :
+        new HashSet<>(Arrays.asList(dir.listAll()));
+    Map<String, ForkJoinTask<Segment>> tasks = new LinkedHashMap<>();
+    for (Rule rule : rules) {
+      String file = SEGMENT_PREFIX + rule.fingerprint + SEGMENT_SUFFIX;
+      tasks.computeIfAbsent(file, f -> pool.submit(() -> {
+        if (existing.contains(f)) {
+          Segment cached = Segment.read(dir, f);
+          if (cached != null) {
+            return cached;
+          }
+        }
+        Segment segment = new Segment();
+        new Walk().run(Collections.singletonList(starts.get(rule.index)), segment);
+        if (dir != null) {
+          segment.write(dir, f);
+        }
+        return segment;
+      }));
+    }
+    Map<String, Segment> segments = new HashMap<>();
+    for (Map.Entry<String, ForkJoinTask<Segment>> e : tasks.entrySet()) {
+      segments.put(e.getKey(), join(e.getValue()));
+    }
+    return segments;
+  }
+  
+  private List<LUTConflict> merge(Map<String, Segment> segments, LUTSink sink)
+      throws IOException {
+    PriorityQueue<Cursor> queue = new PriorityQueue<>(
+        Comparator.comparing((Cursor c) -> c.term).thenComparingInt(c -> c.rule.index));
+    for (Rule rule : rules) {
+      Cursor cursor = new Cursor(rule,
+          segments.get(SEGMENT_PREFIX + rule.fingerprint + SEGMENT_SUFFIX));
+      if (cursor.next()) {
+        queue.add(cursor);
+      }
+    }
+    List<LUTConflict> conflicts = new ArrayList<>();
+    List<Cursor> same = new ArrayList<>();
+    while (!queue.isEmpty()) {
+      same.clear();
+      same.add(queue.poll());
+      while (!queue.isEmpty() && queue.peek().term.equals(same.get(0).term)) {
+        same.add(queue.poll());
+      }
+      // As with Map.putAll(), the last clause wins
+      Cursor winner = same.get(same.size() - 1);
+      sink.accept(winner.term, winner.payload);
+      if (same.size() > 1) {
+        conflict(same, conflicts);
+      }
+      for (Cursor cursor : same) {
+        if (cursor.next()) {
+          queue.add(cursor);
+        }
+      }
+    }
+    return conflicts;
+  }
+  
+  private static Segment join(ForkJoinTask<Segment> task) throws IOException {
+    try {
+      return task.get();
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while walking clauses");
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+  
+  private static void conflict(List<Cursor> same, List<LUTConflict> conflicts) {
+    List<String> clauses = new ArrayList<>();
+    List<String> payloads = new ArrayList<>();
+    for (Cursor cursor : same) {
+      clauses.add(cursor.rule.name);
+      payloads.add(cursor.payload);
+    }
+    if (new HashSet<>(payloads).size() > 1) {
+      conflicts.add(new LUTConflict(same.get(0).term.utf8ToString(), clauses, payloads));
+    }
+  }
+  
+  /**
+   * Adds the entries of the grammar to the specified builder and finishes it
+   * @param builder Builder of the dictionary of the lookup table
+   * @throws IOException If the FST can't be built
+   */
+  public void build(SortedDictionaryBuilder builder) throws IOException {
+    forEachEntry(LUTSink.of(builder));
+    builder.finish();
+  }
+  
+  private int compileElements(List<Permutable> elements, int next) {
+    for (int i = elements.size() - 1; i >= 0; i--) {
+      next = compileElement(elements.get(i), next);
+    }
+    return next;
+  }
+  
+  private int compileElement(Permutable elem, int next) {
+    List<Integer> alternatives = new ArrayList<>();
+    if (elem.hasAttribute(GenAttr.OPTIONAL)) {
+      alternatives.add(next);
+    }
+    if (elem instanceof ClauseConf) {
+      alternatives.add(compileElements(((ClauseConf) elem).getElements(), next));
+    } else {
+      // Phrases, wildcards and entities only have a few permutations each
+      for (ClausePermutation cp : elem.getPermutations()) {
+        alternatives.add(compilePermutation(cp, next));
+      }
+    }
+    if (alternatives.size() == 1) {
+      return alternatives.get(0);
+    }
+    int[] targets = new int[alternatives.size()];
+    for (int i = 0; i < targets.length; i++) {
+      targets[i] = alternatives.get(i);
+    }
+    return emit(new Op(Kind.SPLIT, null, null, -1, targets, null));
+  }
+  
+  private int compilePermutation(ClausePermutation cp, int next) {
+    List<MarkerConf> markers = cp.getMarkerInfo();
+    for (int i = markers.size() - 1; i >= 0; i--) {
+      next = emit(new Op(Kind.MARK, null, markers.get(i), next, null, null));
+    }
+    String[] words = cp.getOutput().split(" ", -1);
+    for (int i = words.length - 1; i >= 0; i--) {
+      for (int j = 0; j < words[i].length(); j++) {
+        if (words[i].charAt(j) < ' ') {
+          throw new IllegalArgumentException("Control character in: " + cp.getOutput());
+        }
+      }
+      next = emit(new Op(Kind.WORD, new BytesRef(words[i]), null, next, null, null));
+    }
+    return next;
+  }
+  
+  private int emit(Op op) {
+    program.add(op);
+    return program.size() - 1;
+  }
+  
+  /**
+   * State of one walk of the grammar: the markers met along the paths walked, interned, and
+   * the payloads built from them
+   */
+  private final class Walk {
+    private final Markers noMarkers = new Markers(null, null, 0);
+    private final Map<Rule, Map<Markers, String>> payloads = new HashMap<>();
+    private int markerCount = 1;
+    
+    void run(List<Integer> starts, LUTSink sink) throws IOException {
+      List<Path> paths = new ArrayList<>();
+      for (int start : starts) {
+        paths.add(new Path(start, noMarkers));
+      }
+      walk(closure(paths, true), new BytesRefBuilder(), sink);
+    }
+    
+    private String payload(Rule rule, Markers markers) {
+      return payloads.computeIfAbsent(rule, r -> new HashMap<>()).computeIfAbsent(markers,
+          m -> util.adaptInstructions(rule.instructions, m.toList()));
+    }
+    
+    // Emits the entry the paths spell, if any, then the entries extending it, in order
+    private void walk(List<Path> paths, BytesRefBuilder term, LUTSink sink)
+        throws IOException {
+      Path match = null;
+      SortedMap<BytesRef, List<Path>> successors = new TreeMap<>();
+      for (Path p : paths) {
+        Op op = program.get(p.pc);
+        if (op.kind == Kind.MATCH) {
+          match = p;
+        } else {
+          BytesRef label = term.length() == 0 ? op.word : op.spacedWord;
+          successors.computeIfAbsent(label, l -> new ArrayList<>())
+              .add(new Path(op.next, p.markers));
+        }
+      }
+      if (match != null) {
+        sink.accept(term.get(), payload(program.get(match.pc).rule, match.markers));
+      }
+      int length = term.length();
+      for (Map.Entry<BytesRef, List<Path>> e : successors.entrySet()) {
+        term.append(e.getKey());
+        walk(closure(e.getValue(), false), term, sink);
+        term.setLength(length);
+      }
+    }
+    
+    /**
+     * Follows the choices and markers ahead of the paths, up to the words they read next or
+     * the end of their clause.  Paths are kept in the order of the permutations they stand
+     * for; of the paths that reached the same place with the same markers, only the last is
+     * kept, as it is the one whose permutations would be put in the map last.
+     */
+    private List<Path> closure(List<Path> paths, boolean atStart) {
+      List<Path> expanded = new ArrayList<>();
+      for (Path p : paths) {
+        expand(p.pc, p.markers, atStart, expanded);
+      }
+      Set<Long> seen = new HashSet<>();
+      LinkedList<Path> output = new LinkedList<>();
+      for (int i = expanded.size() - 1; i >= 0; i--) {
+        Path p = expanded.get(i);
+        if (seen.add((long) p.pc << 32 | p.markers.id)) {
+          output.addFirst(p);
+        }
+      }
+      return output;
+    }
+    
+    private void expand(int pc, Markers markers, boolean atStart, List<Path> output) {
+      Op op = program.get(pc);
+      switch (op.kind) {
+        case SPLIT:
+          for (int target : op.targets) {
+            expand(target, markers, atStart, output);
+          }
+          break;
+        case MARK:
+          expand(op.next, markers.with(op.marker), atStart, output);
+          break;
+        case WORD:
+          // Empty words are only joined to the term by a space once the term has started
+          if (atStart && op.word.length == 0) {
+            expand(op.next, markers, atStart, output);
+          } else {
+            output.add(new Path(pc, markers));
+          }
+          break;
+        default:
+          output.add(new Path(pc, markers));
+      }
+    }
+    
+    /**
+     * Markers met along a path, most recent first.  Markers are interned, so paths that met
+     * the same markers share the same instance.
+     */
+    private final class Markers {
+      private final Markers prev;
+      private final MarkerConf marker;
+      private final int id;
+      private Map<MarkerConf, Markers> successors;
+      
+      Markers(Markers prev, MarkerConf marker, int id) {
+        this.prev = prev;
+        this.marker = marker;
+        this.id = id;
+      }
+      
+      Markers with(MarkerConf next) {
+        if (successors == null) {
+          successors = new IdentityHashMap<>();
+        }
+        return successors.computeIfAbsent(next, m -> new Markers(this, m, markerCount++));
+      }
+      
+      List<MarkerConf> toList() {
+        LinkedList<MarkerConf> output = new LinkedList<>();
+        for (Markers m = this; m.marker != null; m = m.prev) {
+          output.addFirst(m.marker);
+        }
+        return new ArrayList<>(output);
+      }
+    }
+    
+    private final class Path {
+      private final int pc;
+      private final Markers markers;
+      
+      Path(int pc, Markers markers) {
+        this.pc = pc;
+        this.markers = markers;
+      }
+    }
+  }
+  
+  private enum Kind {
+    WORD, MARK, SPLIT, MATCH
+  }
+  
+  private static final class Op {
+    private final Kind kind;
+    private final BytesRef word;
+    private final MarkerConf marker;
+    private final int next;
+    private final int[] targets;
+    private final Rule rule;
+    private final BytesRef spacedWord;
+    
+    Op(Kind kind, BytesRef word, MarkerConf marker, int next, int[] targets, Rule rule) {
+      this.kind = kind;
+      this.word = word;
+      this.marker = marker;
+      this.next = next;
+      this.targets = targets;
+      this.rule = rule;
+      if (word != null) {
+        BytesRefBuilder b = new BytesRefBuilder();
+        b.append((byte) ' ');
+        b.append(word);
+        spacedWord = b.toBytesRef();
+      } else {
+        spacedWord = null;
+      }
+    }
+  }
+  
+  /**
+   * Instructions of a clause
+   */
+  private static final class Rule {
+    private final int index;
+    private final String name;
+    private final List<Instruction> instructions;
+    private final String fingerprint;
+    
+    Rule(int index, String name, List<Instruction> instructions, String fingerprint) {
+      this.index = index;
+      this.name = name;
+      this.instructions = instructions;
+      this.fingerprint = fingerprint;
+    }
+  }
+  
+  /**
+   * Entries of one clause, in sorted order.  Terms are packed into a single array and payloads
+   * are stored once per segment.
+   */
+  private static final class Segment implements LUTSink {
+    private final List<String> payloadList = new ArrayList<>();
+    private final Map<String, Integer> payloadIds = new HashMap<>();
+    private byte[] bytes = new byte[1024];
+    private int[] ends = new int[64];
+    private int[] payloads = new int[64];
+    private int size;
+    
+    @Override
+    public void accept(BytesRef term, String payload) {
+      add(term.bytes, term.offset, term.length, payloadIds.computeIfAbsent(payload, p -> {
+        payloadList.add(p);
+        return payloadList.size() - 1;
+      }));
+    }
+    
+    private void add(byte[] term, int offset, int length, int payload) {
+      int start = size == 0 ? 0 : ends[size - 1];
+      bytes = ArrayUtil.grow(bytes, start + length);
+      System.arraycopy(term, offset, bytes, start, length);
+      ends = ArrayUtil.grow(ends, size + 1);
+      payloads = ArrayUtil.grow(payloads, size + 1);
+      ends[size] = start + length;
+      payloads[size] = payload;
+      size++;
+    }
+    
+    /**
+     * Writes the segment to a file of the directory.  The file is written under a temporary
+     * name and then renamed, so readers never see a partially written file.
+     */
+    void write(Directory dir, String file) throws IOException {
+      String tmpName;
+      try (IndexOutput out = dir.createTempOutput(file, "tmp", IOContext.DEFAULT)) {
+        tmpName = out.getName();
+        CodecUtil.writeHeader(out, SEGMENT_CODEC, SEGMENT_VERSION);
+        out.writeVInt(payloadList.size());
+        for (String payload : payloadList) {
+          out.writeString(payload);
+        }
+        out.writeVInt(size);
+        for (int i = 0; i < size; i++) {
+          int start = i == 0 ? 0 : ends[i - 1];
+          out.writeVInt(ends[i] - start);
+          out.writeBytes(bytes, start, ends[i] - start);
+          out.writeVInt(payloads[i]);
+        }
+        CodecUtil.writeFooter(out);
+      }
+      dir.sync(Collections.singleton(tmpName));
+      dir.rename(tmpName, file);
+    }
+    
+    /**
+     * Reads a segment back from a file of the directory
+     * @return The segment, or null if the file was written by an incompatible version or is
+     * corrupt
+     */
+    static Segment read(Directory dir, String file) throws IOException {
+      try (ChecksumIndexInput in = dir.openChecksumInput(file, IOContext.READONCE)) {
+        CodecUtil.checkHeader(in, SEGMENT_CODEC, SEGMENT_VERSION, SEGMENT_VERSION);
+        Segment segment = new Segment();
+        int payloadCount = in.readVInt();
+        for (int i = 0; i < payloadCount; i++) {
+          String payload = in.readString();
+          segment.payloadIds.put(payload, i);
+          segment.payloadList.add(payload);
+        }
+        int size = in.readVInt();
+        byte[] term = new byte[64];
+        for (int i = 0; i < size; i++) {
+          int length = in.readVInt();
+          term = ArrayUtil.grow(term, length);
+          in.readBytes(term, 0, length);
+          segment.add(term, 0, length, in.readVInt());
+        }
+        CodecUtil.checkFooter(in);
+        return segment;
+      } catch (CorruptIndexException | IndexFormatTooOldException |
+          IndexFormatTooNewException | EOFException e) {
+        // A truncated segment, e.g. left by a full disk, is regenerated like a corrupt one
+        return null;
+      }
+    }
+  }
+  
+  /**
+   * Cursor over the entries of the segment of a clause, for merging them
+   */
+  private static final class Cursor {
+    private final Rule rule;
+    private final Segment segment;
+    private final BytesRef term = new BytesRef();
+    private String payload;
+    private int pos = -1;
+    
+    Cursor(Rule rule, Segment segment) {
+      this.rule = rule;
+      this.segment = segment;
+    }
+    
+    // Moves the cursor to the next entry
+    boolean next() {
+      if (++pos >= segment.size) {
+        return false;
+      }
+      term.bytes = segment.bytes;
+      term.offset = pos == 0 ? 0 : segment.ends[pos - 1];
+      term.length = segment.ends[pos] - term.offset;
+      payload = segment.payloadList.get(segment.payloads[pos]);
+      return true;
+    }
+  }
+}
@@ -0,0 +1,108 @@
+package org.mholford.chatlantis.lookup;
+
+import org.mholford.chatlantis.lookup.instruction.Instruction;
+
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One of the entries an Utterance matched in a LookupTable, as returned by
+ * LookupTable.lookupAll().  Besides the Context DSL of the entry, a result tells how
+ * specifically the entry matched: how many of the Utterance's tokens were matched by literal
+ * words or entity markers of the key, and how many were absorbed by its wildcards.  Results
+ * can thus be ranked, and the weaker ones dropped, before their Instructions are executed.
+ * <p/>
+ * The Instructions are only built when first asked for.  Results are not thread safe.
+ */
+public class LookupResult {
+  /**
+   * Orders results from the most to the least specific: by specificity, then by number of
+   * wildcards (fewest first), then by number of entity tokens (most first)
+   */
+  public static final Comparator<LookupResult> BY_SPECIFICITY =
+      Comparator.comparingDouble(LookupResult::getSpecificity).reversed()
+          .thenComparingInt(LookupResult::getWildcardCount)
+          .thenComparing(Comparator.comparingInt(LookupResult::getEntityTokens).reversed());
+  
+  private final InstructionTemplate template;
+  private final List<String> wildcards;
+  private final Map<String, List<String>> entities;
+  private final int literalTokens;
+  private final int entityTokens;
+  private final int wildcardTokens;
+  private List<Instruction> instructions;
+  
+  LookupResult(InstructionTemplate template, List<String> wildcards,
+               Map<String, List<String>> entities, int literalTokens, int entityTokens,
+               int wildcardTokens) {
+    this.template = template;
+    this.wildcards = wildcards;
+    this.entities = entities;
+    this.literalTokens = literalTokens;
+    this.entityTokens = entityTokens;
+    this.wildcardTokens = wildcardTokens;
+  }
+  
+  /**
+   * Gets the Context DSL statements of the entry, with its wildcards and entity markers
+   * resolved, i.e. what LookupTable.lookup() returns for the entry
+   * @return Context DSL statements
+   */
+  public String getContextDsl() {
+    return template.render(wildcards, entities);
+  }
+  
+  /**
+   * Gets the Instructions the Context DSL statements of the entry stand for
+   * @return Instructions to be executed
+   */
+  public List<Instruction> getInstructions() {
+    if (instructions == null) {
+      instructions = template.bind(wildcards, entities);
+    }
+    return instructions;
+  }
+  
+  /**
+   * Gets the share of the Utterance's tokens matched by the key itself, i.e. by its literal
+   * words and entity markers rather than by its wildcards
+   * @return Specificity, from 0 (all tokens absorbed by wildcards) to 1 (no wildcards)
+   */
+  public double getSpecificity() {
+    int tokens = literalTokens + entityTokens + wildcardTokens;
+    return tokens == 0 ? 0 : (double) (literalTokens + entityTokens) / tokens;
+  }
+  
+  /**
+   * Gets the number of tokens matched by literal words of the key
+   * @return Number of literal tokens
+   */
+  public int getLiteralTokens() {
+    return literalTokens;
+  }
+  
+  /**
+   * Gets the number of entity tokens matched by entity markers of the key
+   * @return Number of entity tokens
+   */
+  public int getEntityTokens() {
+    return entityTokens;
+  }
+  
+  /**
+   * Gets the number of tokens absorbed by wildcards
+   * @return Number of wildcarded tokens
+   */
+  public int getWildcardTokens() {
+    return wildcardTokens;
+  }
+  
+  /**
+   * Gets the number of wildcards in the key
+   * @return Number of wildcards
+   */
+  public int getWildcardCount() {
+    return wildcards.size();
+  }
+}
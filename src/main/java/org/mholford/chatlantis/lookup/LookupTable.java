@@ -1,15 +1,18 @@
 package org.mholford.chatlantis.lookup;
 
+import org.mholford.chatlantis.lookup.instruction.Instruction;
 import org.mholford.chatlantis.utterance.Utterance;
 
 import java.io.IOException;
+import java.util.Collections;
+import java.util.List;
 
 /**
  * Table where Utterances are looked up and Context DSL statements to be
  * applied to current Context are returned.
  */
 public interface LookupTable {
-
+  
   /**
    * Look up the utterance in the table and answer with Context DSL statements
    * to be executed against the FullContext snapshot.  This lookup is performed
@@ -21,4 +24,40 @@ public interface LookupTable {
    * @throws IOException If something went wrong
    */
   String lookup(Utterance u) throws IOException;
+  
+  /**
+   * Look up the utterance in the table and answer with the Instructions its Context DSL
+   * statements stand for, as Utils.parseInstructions() would parse the result of lookup().
+   * Implementations may build them without going through the Context DSL string; by default
+   * the result of lookup() is parsed.
+   * @param u Utterance (after going through Utterance processing)
+   * @return Instructions to be executed, or null if the utterance was not found
+   * @throws IOException If something went wrong
+   */
+  default List<Instruction> lookupInstructions(Utterance u) throws IOException {
+    String contextDsl = lookup(u);
+    return contextDsl == null ? null :
+        InstructionTemplate.resolved(contextDsl).bind(Collections.emptyList(),
+            Collections.emptyMap());
+  }
+  
+  /**
+   * Look up the utterance in the table and answer with all the entries it matches, the most
+   * specific first.  Entries with several payloads yield one result per payload.
+   * <p/>
+   * By default, the result of lookup() is the only one, and counts all the tokens of the
+   * Utterance as matched literally, as the table does not tell how it matched them.
+   * @param u Utterance (after going through Utterance processing)
+   * @param limit Maximum number of results
+   * @return Ranked results; empty if the utterance was not found
+   * @throws IOException If something went wrong
+   */
+  default List<LookupResult> lookupAll(Utterance u, int limit) throws IOException {
+    String contextDsl = lookup(u);
+    if (contextDsl == null || limit < 1) {
+      return Collections.emptyList();
+    }
+    return Collections.singletonList(new LookupResult(InstructionTemplate.resolved(contextDsl),
+        Collections.emptyList(), Collections.emptyMap(), u.getTokenRanges().size(), 0, 0));
+  }
 }
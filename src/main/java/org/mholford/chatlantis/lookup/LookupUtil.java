@@ -18,6 +18,86 @@ import java.util.Map;
  * if the utterance matches.  This map is then used to populate the Lookup table.
  */
 public class LookupUtil implements Utils {
+  /** Default maximum number of permutations a clause may expand into */
+  public static final long DEFAULT_MAX_PERMUTATIONS = 10_000_000L;
+  private long maxPermutations = DEFAULT_MAX_PERMUTATIONS;
+  private long maxBytes = Long.MAX_VALUE;
+  
+  /**
+   * Sets the maximum number of permutations a clause may expand into.  Clauses over it are
+   * rejected before any permutation is computed.
+   * @param maxPermutations Maximum number of permutations per clause
+   * @return This LookupUtil
+   */
+  public LookupUtil setMaxPermutations(long maxPermutations) {
+    this.maxPermutations = maxPermutations;
+    return this;
+  }
+  
+  /**
+   * Gets the maximum number of permutations a clause may expand into
+   * @return Maximum number of permutations per clause
+   */
+  public long getMaxPermutations() {
+    return maxPermutations;
+  }
+  
+  /**
+   * Sets the maximum heap, as estimated by PermutationEstimate, the permutations of a clause
+   * may take.  Unlimited by default.
+   * @param maxBytes Maximum estimated bytes per clause
+   * @return This LookupUtil
+   */
+  public LookupUtil setMaxBytes(long maxBytes) {
+    this.maxBytes = maxBytes;
+    return this;
+  }
+  
+  /**
+   * Gets the maximum heap the permutations of a clause may take
+   * @return Maximum estimated bytes per clause
+   */
+  public long getMaxBytes() {
+    return maxBytes;
+  }
+  
+  /**
+   * Estimates the expansion of a clause and checks it against the budget
+   * @param sentence Clause to check
+   * @return Estimate of the clause
+   * @throws PermutationBudgetException If the clause is over budget
+   */
+  PermutationEstimate check(ClauseConf sentence) {
+    return check(sentence, maxBytes);
+  }
+  
+  /**
+   * Checks the number of entries of a clause against the budget, but not the heap of its
+   * expansion, which is never listed when entries are walked rather than expanded
+   * @param sentence Clause to check
+   * @return Estimate of the clause
+   * @throws PermutationBudgetException If the clause has too many permutations
+   */
+  PermutationEstimate checkEntries(ClauseConf sentence) {
+    return check(sentence, Long.MAX_VALUE);
+  }
+  
+  private PermutationEstimate check(ClauseConf sentence, long maxBytes) {
+    PermutationEstimate estimate = PermutationEstimate.of(sentence);
+    if (estimate.getCount() > maxPermutations || estimate.getEstimatedBytes() > maxBytes) {
+      StringBuilder msg = new StringBuilder(fmt(
+          "Clause %s expands into %d permutations (~%d bytes); budget is %d (%d bytes)",
+          sentence.getName(), estimate.getCount(), estimate.getEstimatedBytes(),
+          maxPermutations, maxBytes));
+      PermutationEstimate largest = estimate.getLargestFactor();
+      if (largest != null) {
+        msg.append(fmt("; largest factor is %s (x%d)", largest.getName(),
+            largest.getFactor()));
+      }
+      throw new PermutationBudgetException(msg.toString(), estimate);
+    }
+    return estimate;
+  }
   
   /**
    * Create map of all legal permutations to concatenated Context DSL statements.  The
@@ -25,20 +105,25 @@ public class LookupUtil implements Utils {
    * @param sentence Base clause to get permutations of
    * @param instructions Instructions to be applied if this clause matches
    * @return Semi-colon delimited set of Context DSL statements to be performed on match
+   * @throws PermutationBudgetException If the clause would expand beyond the budget
    */
   public Map<String, String> createLookupEntries(ClauseConf sentence,
                                           List<Instruction> instructions) {
+    check(sentence);
     Map<String, String> output = new HashMap<>();
-    
-    for (ClausePermutation cp : sentence.getPermutations()) {
-      String term = cp.getOutput();
-      String value = adaptInstructions(instructions, cp.getMarkerInfo());
-      output.put(term, value);
+    // Permutations are only materialized one at a time, into the same builder and list
+    StringBuilder term = new StringBuilder();
+    List<MarkerConf> markerInfo = new ArrayList<>();
+    for (PermutationPath path : sentence.expand()) {
+      term.setLength(0);
+      markerInfo.clear();
+      String value = adaptInstructions(instructions, path.addMarkers(markerInfo));
+      output.put(path.appendOutput(term).toString(), value);
     }
     return output;
   }
   
-  private String adaptInstructions(List<Instruction> instructions, List<MarkerConf> markerInfo) {
+  String adaptInstructions(List<Instruction> instructions, List<MarkerConf> markerInfo) {
     int wcCount = 0;
     //int entCount = 0;
     Map<Boolean, List<MarkerConf>> mkrPartition =
@@ -0,0 +1,29 @@
+package org.mholford.chatlantis.lookup;
+
+/**
+ * Exception thrown when a clause would expand into more permutations, or take more heap, than
+ * the budget of the LookupUtil generating its entries allows.  It carries the estimate of the
+ * clause so that the elements responsible can be found.  This is a form of Runtime exception.
+ */
+public class PermutationBudgetException extends RuntimeException {
+  private static final long serialVersionUID = 1L;
+  private final transient PermutationEstimate estimate;
+  
+  /**
+   * Constructs a new exception
+   * @param message Message to show
+   * @param estimate Estimate of the clause over budget
+   */
+  public PermutationBudgetException(String message, PermutationEstimate estimate) {
+    super(message);
+    this.estimate = estimate;
+  }
+  
+  /**
+   * Gets the estimate of the clause over budget
+   * @return Estimate of the clause
+   */
+  public PermutationEstimate getEstimate() {
+    return estimate;
+  }
+}
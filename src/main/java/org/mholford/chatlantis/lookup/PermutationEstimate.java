@@ -0,0 +1,222 @@
+package org.mholford.chatlantis.lookup;
+
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Size of the expansion of a Permutable, computed from its structure without listing its
+ * permutations: how many permutations getPermutations() would return, how many characters
+ * and markers they would hold, and roughly how much heap they would take.  The counts are
+ * exact (saturating at Long.MAX_VALUE); the heap is an estimate of the ClausePermutations,
+ * Strings and marker lists of the expansion.
+ * <p/>
+ * The estimate of a clause holds the estimates of its elements, each with the factor it
+ * multiplies the permutations of the clause by (its own permutations, plus one if it is
+ * OPTIONAL), so that the elements responsible for a large expansion can be found.  Estimates
+ * take time in proportion to the size of the tree, and are immutable.
+ */
+public class PermutationEstimate {
+  private static final long PERMUTATION_BYTES =
+      RamUsageEstimator.shallowSizeOfInstance(ClausePermutation.class) +
+          RamUsageEstimator.shallowSizeOfInstance(String.class) +
+          RamUsageEstimator.shallowSizeOfInstance(ArrayList.class) +
+          2 * RamUsageEstimator.alignObjectSize(RamUsageEstimator.NUM_BYTES_ARRAY_HEADER) +
+          RamUsageEstimator.NUM_BYTES_OBJECT_REF;
+  // Permutations share the markers of their elements, so each only takes a reference
+  private static final long MARKER_BYTES = RamUsageEstimator.NUM_BYTES_OBJECT_REF;
+  private final String name;
+  private final long count;
+  private final long factor;
+  private final long chars;
+  private final long markers;
+  // Permutations with an empty output, which the next element is not separated from
+  private final long empties;
+  private final List<PermutationEstimate> elements;
+  
+  private PermutationEstimate(String name, long count, long factor, long chars, long markers,
+                              long empties, List<PermutationEstimate> elements) {
+    this.name = name;
+    this.count = count;
+    this.factor = factor;
+    this.chars = chars;
+    this.markers = markers;
+    this.empties = empties;
+    this.elements = elements;
+  }
+  
+  /**
+   * Estimates the expansion of the specified Permutable
+   * @param p Clause, phrase, wildcard or entity
+   * @return Estimate of its permutations
+   */
+  public static PermutationEstimate of(Permutable p) {
+    return estimate(p, false);
+  }
+  
+  private static PermutationEstimate estimate(Permutable p, boolean asElement) {
+    boolean optional = asElement && p.hasAttribute(GenAttr.OPTIONAL);
+    if (p instanceof ClauseConf) {
+      // Folds the elements in as getPermutations() does, starting from one empty permutation
+      long count = 1;
+      long chars = 0;
+      long markers = 0;
+      long empties = 1;
+      List<PermutationEstimate> elements = new ArrayList<>();
+      for (Permutable elem : ((ClauseConf) p).getElements()) {
+        PermutationEstimate e = estimate(elem, true);
+        elements.add(e);
+        // A space is added to each permutation that is not empty so far, unless it skips elem
+        chars = add(add(mul(chars, e.factor), mul(e.chars, count)),
+            mul(count - empties, e.count));
+        markers = add(mul(markers, e.factor), mul(e.markers, count));
+        empties = mul(empties, e.empties(optional(elem)));
+        count = mul(count, e.factor);
+      }
+      return new PermutationEstimate(((ClauseConf) p).getName(), count,
+          optional ? add(count, 1) : count, chars, markers, empties,
+          Collections.unmodifiableList(elements));
+    }
+    List<ClausePermutation> perms = p.getPermutations();
+    long chars = 0;
+    long markers = 0;
+    long empties = 0;
+    for (ClausePermutation cp : perms) {
+      chars += cp.getOutput().length();
+      markers += cp.getMarkerInfo().size();
+      empties += cp.getOutput().isEmpty() ? 1 : 0;
+    }
+    return new PermutationEstimate(name(p), perms.size(),
+        optional ? perms.size() + 1 : perms.size(), chars, markers, empties,
+        Collections.emptyList());
+  }
+  
+  private static boolean optional(Permutable p) {
+    return p.hasAttribute(GenAttr.OPTIONAL);
+  }
+  
+  private static String name(Permutable p) {
+    if (p instanceof PhraseConf) {
+      return ((PhraseConf) p).getName();
+    } else if (p instanceof EntityConf) {
+      return ((EntityConf) p).getAlias() + "_MKR";
+    } else if (p instanceof WildcardConf) {
+      return "*";
+    }
+    return p.getClass().getSimpleName();
+  }
+  
+  private long empties(boolean optional) {
+    return optional ? add(empties, 1) : empties;
+  }
+  
+  /**
+   * Gets the name of the clause or phrase, or the marker, estimated
+   * @return Name
+   */
+  public String getName() {
+    return name;
+  }
+  
+  /**
+   * Gets the number of permutations
+   * @return Number of permutations
+   */
+  public long getCount() {
+    return count;
+  }
+  
+  /**
+   * Gets the factor this element multiplies the permutations of its clause by: its number of
+   * permutations, plus one if it is OPTIONAL
+   * @return Factor of the element
+   */
+  public long getFactor() {
+    return factor;
+  }
+  
+  /**
+   * Gets the total number of characters in the outputs of the permutations
+   * @return Number of characters
+   */
+  public long getChars() {
+    return chars;
+  }
+  
+  /**
+   * Gets the total number of markers in the permutations
+   * @return Number of markers
+   */
+  public long getMarkers() {
+    return markers;
+  }
+  
+  /**
+   * Estimates the heap the permutations would take once listed
+   * @return Estimated bytes
+   */
+  public long getEstimatedBytes() {
+    return add(add(mul(count, PERMUTATION_BYTES), mul(chars, Character.BYTES)),
+        mul(markers, MARKER_BYTES));
+  }
+  
+  /**
+   * Gets the estimates of the elements of a clause
+   * @return Estimates of the elements, in order; empty if this is not a clause
+   */
+  public List<PermutationEstimate> getElements() {
+    return elements;
+  }
+  
+  /**
+   * Gets the element of a clause that multiplies its permutations the most, i.e. the one to
+   * look at first when a clause expands too much.  Follow getElements() down from there to
+   * find the phrase or sub-clause responsible.
+   * @return Element with the largest factor, or null if this is not a clause or is empty
+   */
+  public PermutationEstimate getLargestFactor() {
+    PermutationEstimate largest = null;
+    for (PermutationEstimate e : elements) {
+      if (largest == null || e.factor > largest.factor) {
+        largest = e;
+      }
+    }
+    return largest;
+  }
+  
+  /**
+   * Describes the estimate and those of its elements, one per line and indented by depth
+   * @return Description of the estimate
+   */
+  @Override
+  public String toString() {
+    StringBuilder sb = new StringBuilder();
+    describe(sb, 0);
+    return sb.toString();
+  }
+  
+  private void describe(StringBuilder sb, int depth) {
+    for (int i = 0; i < depth; i++) {
+      sb.append("  ");
+    }
+    sb.append(name).append(" x").append(factor).append(": ").append(count)
+        .append(" permutations, ~").append(getEstimatedBytes()).append(" bytes\n");
+    for (PermutationEstimate e : elements) {
+      e.describe(sb, depth + 1);
+    }
+  }
+  
+  private static long add(long a, long b) {
+    long sum = a + b;
+    return sum < 0 ? Long.MAX_VALUE : sum;
+  }
+  
+  private static long mul(long a, long b) {
+    if (a == 0 || b == 0) {
+      return 0;
+    }
+    return a > Long.MAX_VALUE / b ? Long.MAX_VALUE : a * b;
+  }
+}
@@ -0,0 +1,103 @@
+package org.mholford.chatlantis.lookup;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Compact form of a ClausePermutation used while a ClauseConf is expanded.  A path is a
+ * persistent cons-list: the path of the elements before, and the permutation chosen for the
+ * element that comes next, itself a path for a sub-clause or a leaf holding one of the
+ * permutations of a phrase, wildcard or entity.  Appending an element to a path thus takes a
+ * single small object, however long the path, and the paths of a clause share their prefixes
+ * and the permutations of its elements, markers included.  Skipping an OPTIONAL element takes
+ * no new object at all.
+ * <p/>
+ * The output and markers of a path are only materialized when asked for, into a String and
+ * a list the caller can reuse.  Paths are immutable.
+ */
+final class PermutationPath {
+  /** The path of a clause before any element is added to it */
+  static final PermutationPath EMPTY = new PermutationPath(null, null, null, 0, 0);
+  private final PermutationPath prev;
+  private final PermutationPath part;
+  private final ClausePermutation leaf;
+  private final int length;
+  private final int markers;
+  
+  private PermutationPath(PermutationPath prev, PermutationPath part, ClausePermutation leaf,
+                          int length, int markers) {
+    this.prev = prev;
+    this.part = part;
+    this.leaf = leaf;
+    this.length = length;
+    this.markers = markers;
+  }
+  
+  /**
+   * Wraps a permutation of a phrase, wildcard or entity, to be appended to paths
+   * @param cp Permutation of the element
+   * @return Leaf path
+   */
+  static PermutationPath leaf(ClausePermutation cp) {
+    return new PermutationPath(null, null, cp, cp.getOutput().length(),
+        cp.getMarkerInfo().size());
+  }
+  
+  /**
+   * Appends a permutation of the next element to this path.  As in
+   * ClauseConf.getPermutations(), a space separates the two unless this path is empty so far.
+   * @param next Path of the permutation to append
+   * @return New path
+   */
+  PermutationPath append(PermutationPath next) {
+    int space = length > 0 ? 1 : 0;
+    return new PermutationPath(this, next, null, length + space + next.length,
+        markers + next.markers);
+  }
+  
+  /**
+   * Materializes the output of the path
+   * @param sb Builder to append the output to
+   * @return The builder
+   */
+  StringBuilder appendOutput(StringBuilder sb) {
+    if (leaf != null) {
+      sb.append(leaf.getOutput());
+    } else if (prev != null) {
+      prev.appendOutput(sb);
+      if (prev.length > 0) {
+        sb.append(' ');
+      }
+      part.appendOutput(sb);
+    }
+    return sb;
+  }
+  
+  /**
+   * Materializes the markers of the path, in order.  The markers are those of the elements,
+   * not copies of them.
+   * @param out List to add the markers to
+   * @return The list
+   */
+  List<MarkerConf> addMarkers(List<MarkerConf> out) {
+    if (markers == 0) {
+      return out;
+    }
+    if (leaf != null) {
+      out.addAll(leaf.getMarkerInfo());
+    } else {
+      prev.addMarkers(out);
+      part.addMarkers(out);
+    }
+    return out;
+  }
+  
+  /**
+   * Materializes the path as a ClausePermutation
+   * @return Permutation the path stands for
+   */
+  ClausePermutation toPermutation() {
+    return new ClausePermutation(appendOutput(new StringBuilder(length)).toString(),
+        addMarkers(new ArrayList<>(markers)));
+  }
+}
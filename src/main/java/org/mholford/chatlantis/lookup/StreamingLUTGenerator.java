@@ -0,0 +1,19 @@
+package org.mholford.chatlantis.lookup;
+
+import java.io.IOException;
+
+/**
+ * Interface to be implemented by classes which generate an FST lookup table as a stream of
+ * entries rather than as a file.  The entries are passed to a LUTSink in sorted order (see
+ * LUTSink), typically by walking a LookupGrammar, and FSTLookupTable adds them straight to
+ * its FST: generating and loading the table is a single pass, with no file written and read
+ * back and no map of all the entries held in memory.
+ */
+public interface StreamingLUTGenerator {
+  /**
+   * Generate the lookup table
+   * @param sink Receives the entries of the table, in sorted order
+   * @throws IOException If something went wrong
+   */
+  void generate(LUTSink sink) throws IOException;
+}
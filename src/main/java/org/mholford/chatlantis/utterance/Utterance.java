@@ -4,6 +4,7 @@ import org.mholford.chatlantis.Conversation;
 import org.mholford.chatlantis.Utils;
 import org.mholford.chatlantis.context.Context;
 import org.mholford.fstdict.Range;
+import org.mholford.fstdict.TokenVocabulary;
 
 import java.util.ArrayList;
 import java.util.Iterator;
@@ -20,6 +21,15 @@ import java.util.List;
  * be moved into Conversation context.  This is typically the job of the IntentResolver.
  * Utterances are immutable.  New instances should be creating by using the singleton
  * UtteranceFactory which provides a handful of utility methods for this purpose.
+ * <p/>
+ * The lookup string of each token can also be encoded, once, into its id in a
+ * TokenVocabulary, so that lookup tables keyed on token ids can be walked without
+ * converting any Strings.  Ids are only encoded when first asked for, so Utterances only
+ * looked up in tables keyed on bytes never pay for them.
+ * <p/>
+ * Each token also records where it was found in the original input, as start and end
+ * character offsets, so that e.g. the text an entity was extracted from can be highlighted.
+ * Tokens that don't come from the original input have offsets of -1.
  */
 public class Utterance implements Utils {
   
@@ -34,7 +44,7 @@ public class Utterance implements Utils {
       this.token = token;
       this.range = range;
     }
-  
+    
     /**
      * Gets the token
      * @return Token
@@ -42,7 +52,7 @@ public class Utterance implements Utils {
     public Token getToken() {
       return token;
     }
-  
+    
     /**
      * Gets the Range object
      * @return Range
@@ -54,11 +64,16 @@ public class Utterance implements Utils {
   private Context context;
   private final Conversation conversation;
   private final List<TokenRange> tokenRanges;
+  private volatile TokenIds tokenIds;
+  private final int[] startOffsets;
+  private final int[] endOffsets;
   private final String originalInput;
   
-  Utterance(List<TokenRange> tokenRanges, Context context, Conversation conversation,
-            String originalInput) {
+  Utterance(List<TokenRange> tokenRanges, int[] startOffsets, int[] endOffsets,
+            Context context, Conversation conversation, String originalInput) {
     this.tokenRanges = tokenRanges;
+    this.startOffsets = startOffsets;
+    this.endOffsets = endOffsets;
     this.context = context;
     this.conversation = conversation;
     this.originalInput = originalInput;
@@ -119,6 +134,56 @@ public class Utterance implements Utils {
     return tokenRanges;
   }
   
+  /**
+   * Get the ids of the lookup strings of the tokens in the specified TokenVocabulary, as they
+   * were when first asked for.  The ids encoded last are kept, so they are only encoded again
+   * if asked for in another vocabulary.  The array is shared and must not be modified.
+   * @param vocabulary Vocabulary to encode the tokens with
+   * @return Token ids, TokenVocabulary.OOV for tokens not in the vocabulary
+   */
+  public int[] getTokenIds(TokenVocabulary vocabulary) {
+    TokenIds ids = tokenIds;
+    if (ids == null || ids.vocabulary != vocabulary) {
+      // Concurrent callers may both encode the ids, but they get equivalent arrays
+      int[] encoded = new int[tokenRanges.size()];
+      for (int i = 0; i < encoded.length; i++) {
+        encoded[i] = vocabulary.id(tokenRanges.get(i).getToken().toLookupString());
+      }
+      ids = new TokenIds(vocabulary, encoded);
+      tokenIds = ids;
+    }
+    return ids.ids;
+  }
+  
+  /**
+   * Gets the offset in the original input of the first character of the nth token
+   * @param pos Position of the token in the token/range list
+   * @return Start offset, or -1 if the token doesn't come from the original input
+   */
+  public int getStartOffset(int pos) {
+    return startOffsets[pos];
+  }
+  
+  /**
+   * Gets the offset in the original input just past the last character of the nth token
+   * @param pos Position of the token in the token/range list
+   * @return End offset, or -1 if the token doesn't come from the original input
+   */
+  public int getEndOffset(int pos) {
+    return endOffsets[pos];
+  }
+  
+  /**
+   * Gets the text of the original input the nth token was made from.  For an Entity token,
+   * this is the text the entity was extracted from.
+   * @param pos Position of the token in the token/range list
+   * @return Original text, or null if the token doesn't come from the original input
+   */
+  public String getOriginalText(int pos) {
+    int start = startOffsets[pos];
+    return start < 0 ? null : originalInput.substring(start, endOffsets[pos]);
+  }
+  
   /**
    * Get the user's original input, prior to any Utterance processing
    * @return Original string
@@ -158,4 +223,14 @@ public class Utterance implements Utils {
     }
     return sb.toString();
   }
+  
+  private static final class TokenIds {
+    private final TokenVocabulary vocabulary;
+    private final int[] ids;
+    
+    private TokenIds(TokenVocabulary vocabulary, int[] ids) {
+      this.vocabulary = vocabulary;
+      this.ids = ids;
+    }
+  }
 }
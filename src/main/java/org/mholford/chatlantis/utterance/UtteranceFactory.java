@@ -5,7 +5,10 @@ import org.mholford.chatlantis.Utils;
 import org.mholford.chatlantis.context.Context;
 import org.mholford.chatlantis.context.ContextFactory;
 import org.mholford.fstdict.Range;
+import org.mholford.fstdict.TokenBuffer;
 
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.stream.Collectors;
 import java.util.stream.IntStream;
@@ -15,12 +18,17 @@ import java.util.stream.IntStream;
  * or from a list of tokens.  When an Utterance is associated with an existing Conversation,
  * certain parts of Conversation context are copied into Utterance context.  See the javadoc
  * on createNew() or create() for details.
+ * <p/>
+ * Literal input is tokenized with the per-thread OffsetTokenizer of the standard
+ * TokenizerMode, and the offsets of the tokens in the input are kept in the Utterance.
+ * Utterances derived from another one (see create(List, int[], int[], Utterance)) carry the
+ * offsets over, so processors can tell where each of their tokens came from.
  */
 public class UtteranceFactory implements Utils {
   private static UtteranceFactory INSTANCE;
   
   private UtteranceFactory() {
-  
+    
   }
   
   /**
@@ -44,10 +52,20 @@ public class UtteranceFactory implements Utils {
    * @return new Utterance
    */
   public Utterance createNew(String input, Conversation conversation) {
-    List<Utterance.TokenRange> tokenRanges = tokenRanges(getTokens(input));
+    TokenBuffer buffer = TokenizerMode.STANDARD.getTokenizer().tokenize(input);
+    final TokenFactory tf = TokenFactory.get();
+    List<Token> tokens = new ArrayList<>(buffer.size());
+    int[] startOffsets = new int[buffer.size()];
+    int[] endOffsets = new int[buffer.size()];
+    for (int i = 0; i < buffer.size(); i++) {
+      tokens.add(tf.createLiteral(buffer.term(i)));
+      startOffsets[i] = buffer.startOffset(i);
+      endOffsets[i] = buffer.endOffset(i);
+    }
     Context newUttContext = conversation != null ? applyConversationContext(conversation) :
         ContextFactory.get().newContext();
-    return new Utterance(tokenRanges, newUttContext, conversation, input);
+    return new Utterance(tokenRanges(tokens), startOffsets, endOffsets,
+        newUttContext, conversation, input);
   }
   
   /**
@@ -60,9 +78,31 @@ public class UtteranceFactory implements Utils {
    * @return new Utterance
    */
   public Utterance create(List<Token> tokens, Conversation conversation) {
+    int[] offsets = new int[tokens.size()];
+    Arrays.fill(offsets, -1);
+    Context newUttContext = conversation != null ? applyConversationContext(conversation) :
+        ContextFactory.get().newContext();
+    return new Utterance(tokenRanges(tokens), offsets, offsets,
+        newUttContext, conversation, "");
+  }
+  
+  /**
+   * Creates a new Utterance from the specified tokens, derived from the specified source
+   * Utterance.  The new Utterance keeps the original input and the Conversation of the
+   * source, whose context is applied as in create(List, Conversation).
+   * @param tokens Tokens to build Utterance from
+   * @param startOffsets Offset in the original input of the start of each token, or -1
+   * @param endOffsets Offset in the original input of the end of each token, or -1
+   * @param source Utterance the tokens were derived from
+   * @return new Utterance
+   */
+  public Utterance create(List<Token> tokens, int[] startOffsets, int[] endOffsets,
+                          Utterance source) {
+    Conversation conversation = source.getConversation();
     Context newUttContext = conversation != null ? applyConversationContext(conversation) :
         ContextFactory.get().newContext();
-    return new Utterance(tokenRanges(tokens), newUttContext, conversation, "");
+    return new Utterance(tokenRanges(tokens), startOffsets, endOffsets,
+        newUttContext, conversation, source.getOriginalInput());
   }
   
   private Context applyConversationContext(Conversation conv) {
@@ -74,12 +114,6 @@ public class UtteranceFactory implements Utils {
     return c;
   }
   
-  private List<Token> getTokens(String input) {
-    List<String> tokens = tokenize(input, TokenizerMode.STANDARD);
-    final TokenFactory tf = TokenFactory.get();
-    return map(tokens, t -> tf.createLiteral(t));
-  }
-  
   private List<Utterance.TokenRange> tokenRanges(List<Token> tokens) {
     return IntStream.range(0, tokens.size())
         .mapToObj(i -> new Utterance.TokenRange(tokens.get(i), new Range(i, i)))
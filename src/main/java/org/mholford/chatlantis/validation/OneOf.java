@@ -1,20 +1,26 @@
 package org.mholford.chatlantis.validation;
 
+import org.mholford.chatlantis.DictionaryRegistry;
 import org.mholford.chatlantis.Utils;
 import org.mholford.chatlantis.context.FullContext;
+import org.mholford.fstdict.FSTDictionaryManager;
 
 import java.io.IOException;
-import java.io.InputStreamReader;
+import java.io.UncheckedIOException;
 import java.util.*;
 
 /**
  * Validates a String value to assure it is one of a list of terms.  The list of legal
- * terms is provided from a dictionary file specified by the "dict" parameter.  The terms
- * in this file are read into the Validator's memory when the Validator is initialized
- * during Chatlantis startup.  This Validator only support String slot types.
+ * terms is provided from a dictionary file specified by the "dict" parameter, a sorted CSV
+ * whose first column holds the terms, as for EEUtteranceProcessor.  The file is loaded into
+ * an FSTDictionaryManager obtained from the DictionaryRegistry (see acquireFST()), so the
+ * OneOf validators and EEUtteranceProcessors (of any Bot) that use the same file share a
+ * single dictionary.  Values are tokenized with the analyzer of the dictionary before they
+ * are looked up, so they match the terms as EEUtteranceProcessor extracts them.  This
+ * Validator only support String slot types.
  */
 public class OneOf implements Validator, Utils {
-  private List<String> legalValues;
+  private DictionaryRegistry.Handle<FSTDictionaryManager> legalValues;
   private final String DICT_PARAM = "dict";
   
   /**
@@ -28,8 +34,12 @@ public class OneOf implements Validator, Utils {
                                        String errorMessage) {
     Set<Violation> output = new HashSet<>();
     
-    if (!legalValues.contains(value)) {
-      output.add(new Violation(msg, path, errorMessage));
+    try {
+      if (value == null || !legalValues.get().hasTerm(value)) {
+        output.add(new Violation(msg, path, errorMessage));
+      }
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
     }
     
     return output;
@@ -37,18 +47,18 @@ public class OneOf implements Validator, Utils {
   
   @Override
   public void init(Map<String, String> props) throws IOException {
-    legalValues = new ArrayList<>();
-    String valFile = props.get(DICT_PARAM);
-    if (getResource(valFile) != null) {
-      legalValues.addAll(readLinesIntoList(new InputStreamReader(getResource(valFile))));
-    }
+    legalValues = DictionaryRegistry.get().acquireFST(props.get(DICT_PARAM));
   }
   
   /**
    * Gets the list of terms the value can be
-   * @return list of terms
+   * @return list of terms, in the order of their UTF-8 bytes
    */
   public List<String> getLegalValues() {
-    return legalValues;
+    try {
+      return legalValues.get().getTerms();
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
   }
 }
@@ -21,14 +21,17 @@ public class DefaultWorkflow implements Workflow, Utils {
   private final List<IntentMatcher> matchers;
   private final List<IntentResolver> resolvers;
   private final List<PromptHandler> promptHandlers;
+  private final int maxCandidates;
   
   DefaultWorkflow(String name, List<UtteranceProcessor> processors, List<IntentMatcher> matchers,
-                  List<IntentResolver> resolvers, List<PromptHandler> promptHandlers) {
+                  List<IntentResolver> resolvers, List<PromptHandler> promptHandlers,
+                  int maxCandidates) {
     this.name = name;
     this.processors = processors;
     this.matchers = matchers;
     this.resolvers = resolvers;
     this.promptHandlers = promptHandlers;
+    this.maxCandidates = maxCandidates;
   }
   
   @Override
@@ -51,6 +54,11 @@ public class DefaultWorkflow implements Workflow, Utils {
     return processors;
   }
   
+  @Override
+  public int getMaxCandidates() {
+    return maxCandidates;
+  }
+  
   @Override
   public String getName() {
     return name;
@@ -39,6 +39,27 @@ public class DefaultWorkflowFactory {
                                                List<IntentMatcher> matchers,
                                                List<IntentResolver> resolvers,
                                                List<PromptHandler> promptHandlers) {
-    return new DefaultWorkflow(name, processors, matchers, resolvers, promptHandlers);
+    return createDefaultWorkflow(name, processors, matchers, resolvers, promptHandlers,
+        Workflow.DEFAULT_MAX_CANDIDATES);
+  }
+  
+  /**
+   * Creates a new DefaultWorkflow with the specified name, helper classes and maximum number
+   * of lookup matches to resolve per Utterance.
+   * @param name Name of the workflow
+   * @param processors Utterance processors used by the workflow
+   * @param matchers Intent matchers used by the workflow
+   * @param resolvers Intent resolvers used by the workflow
+   * @param promptHandlers Prompt handlers used by the workflow
+   * @param maxCandidates Maximum number of lookup matches to resolve per Utterance
+   * @return Fully configured Default Workflow
+   */
+  public DefaultWorkflow createDefaultWorkflow(String name, List<UtteranceProcessor> processors,
+                                               List<IntentMatcher> matchers,
+                                               List<IntentResolver> resolvers,
+                                               List<PromptHandler> promptHandlers,
+                                               int maxCandidates) {
+    return new DefaultWorkflow(name, processors, matchers, resolvers, promptHandlers,
+        maxCandidates);
   }
 }
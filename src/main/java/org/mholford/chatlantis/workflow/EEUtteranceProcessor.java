@@ -1,12 +1,17 @@
 package org.mholford.chatlantis.workflow;
 
+import com.google.common.base.Strings;
+import org.mholford.chatlantis.DictionaryRegistry;
 import org.mholford.chatlantis.Utils;
 import org.mholford.chatlantis.utterance.*;
 import org.mholford.fstdict.*;
 
 import java.io.IOException;
-import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Paths;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
@@ -16,16 +21,39 @@ import java.util.Map;
  * the utterance, it will create two permutations for each entity extracted.  The first will
  * replace the literal token in the utterance with an Entity token (using the specified
  * alias).  The second will retain the matched literal string as is.  This allows multiple
- * interpretations of an utterance to match and is useful in resolving ambiguities.
+ * interpretations of an utterance to match and is useful in resolving ambiguities.  Entity
+ * tokens keep the offsets of the original text they replace (see Utterance.getOriginalText()).
+ * <p/>
+ * If the compiledDir property is set, the compiled dictionary is kept in that directory and
+ * only rebuilt from the CSV when the CSV changes.  Otherwise, if the shards property is set,
+ * the dictionary is split into that many shards which are built in parallel.  If the
+ * fuzzyEdits property is set, entities are also matched with up to that many typos (0-2).
+ * Setting the matcher property to ahoCorasick loads the dictionary into an Aho-Corasick
+ * automaton instead of an FST, which is faster to match but larger and can't match fuzzily.
+ * Setting it to tokenIds keys the FST on token ids rather than bytes (no fuzzy matching
+ * either).
+ * <p/>
+ * The dictionary is obtained from the DictionaryRegistry, so processors (of any Bot) that
+ * load the same file in the same way share a single dictionary.  A plain FST dictionary (no
+ * matcher, shards or compiledDir) is also shared with the OneOf validators of the same file
+ * (see DictionaryRegistry.acquireFST()).  It is loaded in the background and the first call
+ * to process() waits for it.
  */
 public class EEUtteranceProcessor implements UtteranceProcessor, Utils {
   private String dictFile;
   private String alias;
-  private FSTDictionaryManager dm;
+  private DictionaryRegistry.Handle<? extends DictionaryManager> dict;
+  private FuzzyOptions fuzzyOptions;
   private final TokenFactory tf = TokenFactory.get();
   private final UtteranceFactory uf = UtteranceFactory.get();
   public static final String DICT_FILE_PROP = "dict";
   public static final String ALIAS_PROP = "alias";
+  public static final String COMPILED_DIR_PROP = "compiledDir";
+  public static final String SHARDS_PROP = "shards";
+  public static final String FUZZY_EDITS_PROP = "fuzzyEdits";
+  public static final String MATCHER_PROP = "matcher";
+  public static final String AHO_CORASICK_MATCHER = "ahoCorasick";
+  public static final String TOKEN_IDS_MATCHER = "tokenIds";
   
   
   public EEUtteranceProcessor() {
@@ -37,9 +65,16 @@ public class EEUtteranceProcessor implements UtteranceProcessor, Utils {
     List<LiteralTokenSpan> ltss = input.findLiteralTokenSpans();
     Map<Integer, Range> refRanges = new HashMap<>();
     Map<Range, EntityInfo> infos = new HashMap<>();
+    DictionaryManager dm = dict.get();
+    
+    // init() only allows fuzzyEdits with matchers that load a FuzzyDictionaryManager
+    FuzzyDictionaryManager fuzzy = fuzzyOptions != null && dm instanceof FuzzyDictionaryManager ?
+        (FuzzyDictionaryManager) dm : null;
     
     for (LiteralTokenSpan lts : ltss) {
-      List<EntityAnnotation> entities = dm.findEntities(lts.asString(), true, true);
+      List<EntityAnnotation> entities = fuzzy == null ?
+          dm.findEntities(lts.asString(), true, true) :
+          fuzzy.findFuzzyEntities(lts.asString(), true, true, fuzzyOptions);
       // Translate range coordinates to phrase location
       for (EntityAnnotation ea : entities) {
         Range r = ea.getRange();
@@ -55,8 +90,12 @@ public class EEUtteranceProcessor implements UtteranceProcessor, Utils {
     for (List<Range> ranges : rangePermutations) {
       int i = 0;
       List<Token> tokens = new ArrayList<>();
+      int[] startOffsets = new int[input.size()];
+      int[] endOffsets = new int[input.size()];
       while (i < input.size()) {
         Token tok = null;
+        // An entity spans the original text of all the tokens it replaces
+        startOffsets[tokens.size()] = input.getStartOffset(i);
         if (refRanges.containsKey(i) && ranges.contains(refRanges.get(i))) {
           EntityInfo entity = infos.get(refRanges.get(i));
           
@@ -73,11 +112,13 @@ public class EEUtteranceProcessor implements UtteranceProcessor, Utils {
           }
           i++;
         }
+        endOffsets[tokens.size()] = input.getEndOffset(i - 1);
         if (tok != null) {
           tokens.add(tok);
         }
       }
-      Utterance u = uf.create(tokens, input.getConversation());
+      Utterance u = uf.create(tokens, Arrays.copyOf(startOffsets, tokens.size()),
+          Arrays.copyOf(endOffsets, tokens.size()), input);
       output.add(u);
     }
     
@@ -88,9 +129,50 @@ public class EEUtteranceProcessor implements UtteranceProcessor, Utils {
   public void init(Map<String, String> props) throws IOException {
     dictFile = props.get(DICT_FILE_PROP);
     alias = props.get(ALIAS_PROP);
-    InputStream dictIn = getResource(dictFile);
-    dm = FSTDictionaryManagerFactory.get().createDefault();
-    dm.loadDictionary(dictIn);
+    String compiledDir = props.get(COMPILED_DIR_PROP);
+    String shards = props.get(SHARDS_PROP);
+    String fuzzyEdits = props.get(FUZZY_EDITS_PROP);
+    fuzzyOptions = Strings.isNullOrEmpty(fuzzyEdits) ? null :
+        new FuzzyOptions(Integer.parseInt(fuzzyEdits), FuzzyOptions.DEFAULT.getPrefixLength(),
+            FuzzyOptions.DEFAULT.isTranspositions(), FuzzyOptions.DEFAULT.getMaxArcs());
+    FSTDictionaryManagerFactory factory = FSTDictionaryManagerFactory.get();
+    String matcher = props.get(MATCHER_PROP);
+    String file = dictFile;
+    int numShards = Strings.isNullOrEmpty(shards) ? 0 : Integer.parseInt(shards);
+    DictionaryRegistry registry = DictionaryRegistry.get();
+    if (AHO_CORASICK_MATCHER.equals(matcher) || TOKEN_IDS_MATCHER.equals(matcher)) {
+      if (fuzzyOptions != null) {
+        throw new IllegalArgumentException(
+            "The " + matcher + " matcher does not support " + FUZZY_EDITS_PROP);
+      }
+      // The tokens of a token id dictionary are added to the vocabulary shared by those of
+      // the configuration, which is dropped once none of them is used any more
+      DictionaryRegistry.Handle<TokenVocabulary> vocabulary =
+          TOKEN_IDS_MATCHER.equals(matcher) ? registry.acquireVocabulary() : null;
+      dict = registry.acquire(file, factory.getDefaultAnalyzer(), matcher, () -> {
+        DictionaryManager dm = vocabulary == null ?
+            factory.createAhoCorasick() : factory.createTokenId(vocabulary.get());
+        dm.loadDictionary(getResource(file));
+        return dm;
+      });
+    } else if (!Strings.isNullOrEmpty(compiledDir)) {
+      dict = registry.acquire(file, factory.getDefaultAnalyzer(),
+          COMPILED_DIR_PROP + ":" + compiledDir, () -> {
+            FSTDictionaryManager dm = factory.createDefault();
+            dm.loadDictionary(getResourceURL(file), Paths.get(compiledDir, file + ".fst"));
+            return dm;
+          });
+    } else if (numShards > 0) {
+      dict = registry.acquire(file, factory.getDefaultAnalyzer(), SHARDS_PROP + ":" + numShards,
+          () -> {
+            DictionaryManager dm = factory.createSharded(numShards);
+            dm.loadDictionary(getResource(file));
+            return dm;
+          });
+    } else {
+      // Shared with the validators (e.g. OneOf) that check values against the same file
+      dict = registry.acquireFST(file);
+    }
   }
   
   /**
@@ -108,4 +190,16 @@ public class EEUtteranceProcessor implements UtteranceProcessor, Utils {
   public String getAlias() {
     return alias;
   }
+  
+  @Override
+  public Map<String, DictionaryManager> getDictionaries() {
+    if (dict == null) {
+      return Collections.emptyMap();
+    }
+    try {
+      return Collections.singletonMap(alias, dict.get());
+    } catch (IOException e) {
+      throw new UncheckedIOException(e);
+    }
+  }
 }
@@ -0,0 +1,172 @@
+package org.mholford.chatlantis.workflow;
+
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import org.mholford.chatlantis.DictionaryRegistry;
+import org.mholford.chatlantis.Utils;
+import org.mholford.chatlantis.utterance.*;
+import org.mholford.fstdict.*;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.util.*;
+
+/**
+ * Performs Entity Extraction on an Utterance for several aliases at once.  It is equivalent to
+ * a chain of EEUtteranceProcessors, one per alias, but all the dictionaries are loaded into a
+ * single FST whose payloads are the aliases each term belongs to.  Each literal token span is
+ * therefore tokenized and matched once, rather than once per alias.
+ * <p/>
+ * As with EEUtteranceProcessor, an utterance is created for every way of choosing among the
+ * entities found, each one being either replaced by an Entity token or kept as literal
+ * tokens.  A term found in several dictionaries may be replaced with any one of its aliases.
+ * The chosen entities never overlap, so the utterances are those that the chain of
+ * EEUtteranceProcessors would produce.
+ * <p/>
+ * The dicts property lists the aliases and their dictionaries as comma-separated pairs, e.g.
+ * "EMP:abc-employees.csv, PRIO:tix-priorities.csv".  The combined dictionary is shared through
+ * the DictionaryRegistry by the processors that list the same pairs.
+ */
+public class MultiEEUtteranceProcessor implements UtteranceProcessor, Utils {
+  private Map<String, String> dictFiles;
+  private DictionaryRegistry.Handle<FSTDictionaryManager> dict;
+  private final TokenFactory tf = TokenFactory.get();
+  private final UtteranceFactory uf = UtteranceFactory.get();
+  public static final String DICTS_PROP = "dicts";
+  
+  public MultiEEUtteranceProcessor() {
+  }
+  
+  @Override
+  public List<Utterance> process(Utterance input) throws IOException {
+    List<Utterance> output = new ArrayList<>();
+    List<Candidate> candidates = new ArrayList<>();
+    FSTDictionaryManager dm = dict.get();
+    
+    for (LiteralTokenSpan lts : input.findLiteralTokenSpans()) {
+      for (EntityAnnotation ea : dm.findEntities(lts.asString(), true, true)) {
+        // Translate range coordinates to phrase location
+        Range r = ea.getRange();
+        Range n = new Range(r.getStart() + lts.getStart(), r.getEnd() + lts.getStart());
+        for (String alias : ea.getEntityInfo().getPayloads()) {
+          candidates.add(new Candidate(n, alias, ea.getEntityInfo().getTerm()));
+        }
+      }
+    }
+    
+    for (boolean[] chosen : getBooleanPermutations(candidates.size())) {
+      Map<Integer, Candidate> starts = choose(candidates, chosen);
+      if (starts == null) {
+        continue;
+      }
+      int i = 0;
+      List<Token> tokens = new ArrayList<>();
+      int[] startOffsets = new int[input.size()];
+      int[] endOffsets = new int[input.size()];
+      while (i < input.size()) {
+        Candidate c = starts.get(i);
+        // An entity spans the original text of all the tokens it replaces
+        startOffsets[tokens.size()] = input.getStartOffset(i);
+        if (c != null) {
+          tokens.add(tf.createEntity(c.alias, c.term));
+          i += c.range.size();
+        } else {
+          Token t = input.getToken(i);
+          if (t instanceof EntityToken) {
+            EntityToken et = (EntityToken) t;
+            tokens.add(tf.createEntity(et.getAlias(), et.getValue()));
+          } else {
+            tokens.add(tf.createLiteral(t.getValue()));
+          }
+          i++;
+        }
+        endOffsets[tokens.size() - 1] = input.getEndOffset(i - 1);
+      }
+      output.add(uf.create(tokens, Arrays.copyOf(startOffsets, tokens.size()),
+          Arrays.copyOf(endOffsets, tokens.size()), input));
+    }
+    
+    return output;
+  }
+  
+  /**
+   * Keys the chosen candidates by their start position
+   * @return The chosen candidates, or null if any two of them overlap
+   */
+  private Map<Integer, Candidate> choose(List<Candidate> candidates, boolean[] chosen) {
+    List<Candidate> choice = new ArrayList<>();
+    for (int i = 0; i < chosen.length; i++) {
+      if (chosen[i]) {
+        choice.add(candidates.get(i));
+      }
+    }
+    choice.sort(Comparator.comparing(c -> c.range));
+    Map<Integer, Candidate> starts = new HashMap<>();
+    for (int i = 0; i < choice.size(); i++) {
+      // Ranges are sorted, so each only needs checking against the next
+      if (i + 1 < choice.size() && rangesOverlap(choice.get(i).range, choice.get(i + 1).range)) {
+        return null;
+      }
+      starts.put(choice.get(i).range.getStart(), choice.get(i));
+    }
+    return starts;
+  }
+  
+  @Override
+  public void init(Map<String, String> props) throws IOException {
+    dictFiles = new LinkedHashMap<>(Splitter.on(',').trimResults().omitEmptyStrings()
+        .withKeyValueSeparator(':').split(props.get(DICTS_PROP)));
+    Map<String, String> files = dictFiles;
+    FSTDictionaryManagerFactory factory = FSTDictionaryManagerFactory.get();
+    dict = DictionaryRegistry.get().acquire(Joiner.on(',').withKeyValueSeparator(':').join(files),
+        factory.getDefaultAnalyzer(), "tagged", () -> {
+          Map<String, InputStream> sources = new LinkedHashMap<>();
+          for (Map.Entry<String, String> dictFile : files.entrySet()) {
+            sources.put(dictFile.getKey(), getResource(dictFile.getValue()));
+          }
+          FSTDictionaryManager dm = factory.createDefault();
+          dm.loadTaggedDictionaries(sources);
+          return dm;
+        });
+  }
+  
+  /**
+   * Gets the paths to the dictionary files used for Entity Extraction, keyed by alias
+   * @return Dictionary paths
+   */
+  public Map<String, String> getDictFiles() {
+    return dictFiles;
+  }
+  
+  /**
+   * {@inheritDoc}
+   * <p/>
+   * All the aliases share the one dictionary, so each reports the same statistics.
+   */
+  @Override
+  public Map<String, DictionaryManager> getDictionaries() {
+    Map<String, DictionaryManager> dictionaries = new LinkedHashMap<>();
+    if (dict != null) {
+      try {
+        DictionaryManager dm = dict.get();
+        dictFiles.keySet().forEach(alias -> dictionaries.put(alias, dm));
+      } catch (IOException e) {
+        throw new UncheckedIOException(e);
+      }
+    }
+    return dictionaries;
+  }
+  
+  private static final class Candidate {
+    private final Range range;
+    private final String alias;
+    private final String term;
+    
+    private Candidate(Range range, String alias, String term) {
+      this.range = range;
+      this.alias = alias;
+      this.term = term;
+    }
+  }
+}
@@ -1,8 +1,10 @@
 package org.mholford.chatlantis.workflow;
 
 import org.mholford.chatlantis.utterance.Utterance;
+import org.mholford.fstdict.DictionaryManager;
 
 import java.io.IOException;
+import java.util.Collections;
 import java.util.List;
 import java.util.Map;
 
@@ -13,7 +15,7 @@ import java.util.Map;
  * file.
  */
 public interface UtteranceProcessor {
-
+  
   /**
    * Processes the specified utterance and returns a list of utterances
    * @param u Original utterance
@@ -30,4 +32,13 @@ public interface UtteranceProcessor {
    */
   default void init(Map<String, String> props) throws IOException {
   }
+  
+  /**
+   * Gets the dictionaries this processor looks utterances up in, keyed by the alias of each,
+   * so that their statistics can be reported.  By default, there are none.
+   * @return Dictionary managers by alias
+   */
+  default Map<String, DictionaryManager> getDictionaries() {
+    return Collections.emptyMap();
+  }
 }
@@ -1,6 +1,5 @@
 package org.mholford.chatlantis.workflow;
 
-import com.google.common.base.Strings;
 import org.mholford.chatlantis.Conversation;
 import org.mholford.chatlantis.Utils;
 import org.mholford.chatlantis.bot.Bot;
@@ -9,7 +8,7 @@ import org.mholford.chatlantis.context.FullContext;
 import org.mholford.chatlantis.intent.Intent;
 import org.mholford.chatlantis.intent.IntentMatcher;
 import org.mholford.chatlantis.intent.IntentResolver;
-import org.mholford.chatlantis.lookup.instruction.Instruction;
+import org.mholford.chatlantis.lookup.LookupResult;
 import org.mholford.chatlantis.prompt.PromptHandler;
 import org.mholford.chatlantis.utterance.Utterance;
 
@@ -34,7 +33,9 @@ import java.util.*;
  *     <li>These "interpretations" are analyzed to determine which is most appropriate given
  *     the current situation.  That process is as follows:<ul>
  *       <li>The utterance is looked up against the FST lookup table</li>
- *       <li>If matched, the resulting instructions are executed against the Context snapshot</li>
+ *       <li>The matches of all the utterances are ranked by specificity, and only the most
+ *       specific (see getMaxCandidates()) go on</li>
+ *       <li>The instructions of each match are executed against the Context snapshot</li>
  *       <li>An IntentMatcher is selected</li>
  *       <li>The IntentMatcher assigns an Intent</li>
  *       <li>The PromptHandler is activate if applicable</li>
@@ -49,6 +50,8 @@ import java.util.*;
  * </p>
  */
 public interface Workflow extends Utils {
+  int DEFAULT_MAX_CANDIDATES = 8;
+  
   default Response process(Utterance input, Conversation conv, Bot bot) throws IOException {
     Set<Utterance> utts = new HashSet<>();
     utts.add(input);
@@ -61,32 +64,50 @@ public interface Workflow extends Utils {
       utts = newUtts;
     }
     
+    // Look up every variant, and only resolve the most specific matches.  The sort is stable
+    // and pickBestResponse() keeps the order of equal scores, so the more specific match wins
+    List<Map.Entry<Utterance, LookupResult>> matches = new ArrayList<>();
+    for (Utterance u : utts) {
+      for (LookupResult lr : bot.getLookupTable().lookupAll(u, getMaxCandidates())) {
+        matches.add(new AbstractMap.SimpleImmutableEntry<>(u, lr));
+      }
+    }
+    matches.sort(Map.Entry.comparingByValue(LookupResult.BY_SPECIFICITY));
+    if (matches.size() > getMaxCandidates()) {
+      matches = matches.subList(0, getMaxCandidates());
+    }
+    
     List<Response> candidateResponses = new ArrayList<>();
     Context convContext = conv.getContext();
     Context userContext = conv.getUser().getContext();
-    for (Utterance u : utts) {
+    for (Map.Entry<Utterance, LookupResult> match : matches) {
+      Utterance u = match.getKey();
       FullContext ctxSnapshot = new FullContext(userContext, convContext, u.getContext());
-      String ctxUpdate = bot.getLookupTable().lookup(u);
-      
-      if (!Strings.isNullOrEmpty(ctxUpdate)) {
-        List<Instruction> instructions = parseInstructions(ctxUpdate);
-        ctxSnapshot = ctxSnapshot.update(instructions);
-        IntentMatcher im = pickBestIntentMatcher(u);
-        Map<Intent, Double> intentDoubleMap = im.assignIntent(ctxSnapshot, bot);
-        Intent intent = topEntry(intentDoubleMap).getKey();
-        if (intent == null) {
-          continue;
-        }
-        PromptHandler ph = pickBestPromptHandler(intent, u);
-        ctxSnapshot = ph.handlePrompt(ctxSnapshot);
-        IntentResolver ir = pickBestIntentResolver(intent, u);
-        Response r = ir.resolve(intent, bot, ctxSnapshot);
-        candidateResponses.add(r);
+      ctxSnapshot = ctxSnapshot.update(match.getValue().getInstructions());
+      IntentMatcher im = pickBestIntentMatcher(u);
+      Map<Intent, Double> intentDoubleMap = im.assignIntent(ctxSnapshot, bot);
+      Intent intent = topEntry(intentDoubleMap).getKey();
+      if (intent == null) {
+        continue;
       }
+      PromptHandler ph = pickBestPromptHandler(intent, u);
+      ctxSnapshot = ph.handlePrompt(ctxSnapshot);
+      IntentResolver ir = pickBestIntentResolver(intent, u);
+      Response r = ir.resolve(intent, bot, ctxSnapshot);
+      candidateResponses.add(r);
     }
     return pickBestResponse(candidateResponses, input, conv);
   }
   
+  /**
+   * Gets the maximum number of lookup matches, across all the variants of an Utterance, for
+   * which an Intent is resolved.  The most specific matches are kept.
+   * @return Maximum number of candidates
+   */
+  default int getMaxCandidates() {
+    return DEFAULT_MAX_CANDIDATES;
+  }
+  
   /**
    * Picks the best Response for the Utterance by selecting the one with the highest score (i.e.
    * highest percentage of constraints on Intent met).  If there are no appropriate Responses,
@@ -36,6 +36,8 @@ public class WorkflowConfig implements Utils {
   @JsonProperty("promptHandlers")
   private List<PromptHandlerConfig> promptHandlerConfigs = new ArrayList<>();
   
+  private int maxCandidates = Workflow.DEFAULT_MAX_CANDIDATES;
+  
   /**
    * Initializes the Workflow by instantiating each of the configured helper classes
    * @return Fully initialized Workflow instance
@@ -75,7 +77,7 @@ public class WorkflowConfig implements Utils {
       }
     }
     return DefaultWorkflowFactory.get().createDefaultWorkflow(
-        name, processors, matchers, resolvers, promptHandlers);
+        name, processors, matchers, resolvers, promptHandlers, maxCandidates);
   }
   
   /**
@@ -157,4 +159,21 @@ public class WorkflowConfig implements Utils {
   public void setPromptHandlerConfigs(List<PromptHandlerConfig> promptHandlerConfigs) {
     this.promptHandlerConfigs = promptHandlerConfigs;
   }
+  
+  /**
+   * Gets the maximum number of lookup matches the workflow resolves per Utterance
+   * @return Maximum number of candidates
+   */
+  public int getMaxCandidates() {
+    return maxCandidates;
+  }
+  
+  /**
+   * Sets the maximum number of lookup matches the workflow resolves per Utterance to the
+   * specified value
+   * @param maxCandidates Maximum number of candidates
+   */
+  public void setMaxCandidates(int maxCandidates) {
+    this.maxCandidates = maxCandidates;
+  }
 }
@@ -0,0 +1,363 @@
+package org.mholford.fstdict;
+
+import org.apache.lucene.util.ArrayUtil;
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.util.*;
+
+/**
+ * Token-level Aho-Corasick automaton built by AhoCorasickDictionaryManager.  The states form a
+ * trie over the tokens of the dictionary terms, with a failure link from each state to the
+ * state of its longest proper suffix that is also in the trie, and a match link to the next
+ * state along the failure chain that is a complete entry.  Scanning the input once from left to
+ * right then finds every entry at every position, nested and overlapping ones included.
+ * <p/>
+ * Everything is held in primitive int arrays.  Tokens are mapped to ids through an
+ * open-addressing hash table over the sorted vocabulary, so ids follow the order of the
+ * tokens.  The transitions of all states are laid out one after another, sorted by token id,
+ * with the start of each state's run in edgeStart; the root also has a direct table indexed by
+ * token id, as nearly every step of a scan goes through it.  As ids are sorted, the tokens of
+ * a state's transitions that start with a given prefix form a contiguous run too, which lets
+ * cursors answer prefix queries on the last token just like the FST does.
+ * <p/>
+ * Instances are immutable.  Ordinals index into the PayloadTable built along with them.
+ */
+final class AhoCorasickAutomaton {
+  static final int ROOT = 0;
+  static final int NONE = -1;
+  private static final Comparator<EntityAnnotation> BY_START =
+      Comparator.comparingInt(ea -> ea.getRange().getStart());
+  
+  private final String[] vocabulary;
+  private final int[] vocabularyTable;
+  private final int[] rootNext;
+  private final int[] edgeStart;
+  private final int[] edgeLabel;
+  private final int[] edgeTarget;
+  private final int[] depth;
+  private final int[] ordinal;
+  private final int[] fail;
+  private final int[] matchLink;
+  final PayloadTable payloads;
+  
+  private AhoCorasickAutomaton(String[] vocabulary, int[] edgeStart, int[] edgeLabel,
+                               int[] edgeTarget, int[] depth, int[] ordinal,
+                               PayloadTable payloads) {
+    this.vocabulary = vocabulary;
+    this.edgeStart = edgeStart;
+    this.edgeLabel = edgeLabel;
+    this.edgeTarget = edgeTarget;
+    this.depth = depth;
+    this.ordinal = ordinal;
+    this.payloads = payloads;
+    
+    vocabularyTable = new int[Integer.highestOneBit(Math.max(vocabulary.length, 1)) << 2];
+    for (int id = 0; id < vocabulary.length; id++) {
+      int slot = slot(vocabulary[id]);
+      while (vocabularyTable[slot] != 0) {
+        slot = (slot + 1) & (vocabularyTable.length - 1);
+      }
+      vocabularyTable[slot] = id + 1;
+    }
+    rootNext = new int[vocabulary.length];
+    Arrays.fill(rootNext, NONE);
+    for (int e = edgeStart[ROOT]; e < edgeStart[ROOT + 1]; e++) {
+      rootNext[edgeLabel[e]] = edgeTarget[e];
+    }
+    
+    // States are numbered breadth first, so the failure link of a state (which is shallower)
+    // is always computed before those of its children
+    int numStates = depth.length;
+    fail = new int[numStates];
+    matchLink = new int[numStates];
+    matchLink[ROOT] = NONE;
+    for (int state = 0; state < numStates; state++) {
+      for (int e = edgeStart[state]; e < edgeStart[state + 1]; e++) {
+        int target = edgeTarget[e];
+        int suffix = ROOT;
+        if (state != ROOT) {
+          int f = fail[state];
+          int next;
+          while ((next = next(f, edgeLabel[e])) == NONE && f != ROOT) {
+            f = fail[f];
+          }
+          suffix = next == NONE ? ROOT : next;
+        }
+        fail[target] = suffix;
+        matchLink[target] = isMatch(suffix) ? suffix : matchLink[suffix];
+      }
+    }
+  }
+  
+  /**
+   * Gets the id of the specified token
+   * @param token Token
+   * @return Id, or NONE if no term contains the token
+   */
+  int tokenId(String token) {
+    int slot = slot(token);
+    int id;
+    while ((id = vocabularyTable[slot]) != 0) {
+      if (vocabulary[id - 1].equals(token)) {
+        return id - 1;
+      }
+      slot = (slot + 1) & (vocabularyTable.length - 1);
+    }
+    return NONE;
+  }
+  
+  /**
+   * Follows the transition from the specified state on the specified token
+   * @param state State
+   * @param label Token id
+   * @return Target state, or NONE if there is no such transition
+   */
+  int next(int state, int label) {
+    if (state == ROOT) {
+      return rootNext[label];
+    }
+    int e = Arrays.binarySearch(edgeLabel, edgeStart[state], edgeStart[state + 1], label);
+    return e < 0 ? NONE : edgeTarget[e];
+  }
+  
+  /**
+   * Answers whether the specified state has a transition on some token that starts with the
+   * specified prefix
+   * @param state State
+   * @param prefix Token prefix
+   * @return Whether there is such a transition
+   */
+  boolean hasNextWithPrefix(int state, String prefix) {
+    int first = Arrays.binarySearch(vocabulary, prefix);
+    if (first < 0) {
+      first = -first - 1;
+    }
+    // The first transition at or after the prefix is on a token starting with it if any is
+    int e = Arrays.binarySearch(edgeLabel, edgeStart[state], edgeStart[state + 1], first);
+    if (e < 0) {
+      e = -e - 1;
+    }
+    return e < edgeStart[state + 1] && vocabulary[edgeLabel[e]].startsWith(prefix);
+  }
+  
+  boolean isMatch(int state) {
+    return ordinal[state] != NONE;
+  }
+  
+  EntityInfo toEntityInfo(String term, int state) {
+    return new EntityInfo(term, payloads.get(ordinal[state]));
+  }
+  
+  /**
+   * Finds every entry at every position of the specified tokens in a single left to right
+   * pass, following failure links on mismatches and match links to report the entries ending
+   * at each position.
+   * @param tokens Tokenized input
+   * @return Entities found, ordered by start and then by end
+   */
+  List<EntityAnnotation> findAll(List<String> tokens) {
+    List<EntityAnnotation> output = new ArrayList<>();
+    int state = ROOT;
+    for (int end = 1; end <= tokens.size(); end++) {
+      int label = tokenId(tokens.get(end - 1));
+      if (label == NONE) {
+        state = ROOT;
+        continue;
+      }
+      int next;
+      while ((next = next(state, label)) == NONE && state != ROOT) {
+        state = fail[state];
+      }
+      state = next == NONE ? ROOT : next;
+      for (int m = isMatch(state) ? state : matchLink[state]; m != NONE; m = matchLink[m]) {
+        int start = end - depth[m];
+        output.add(new EntityAnnotation(new Range(start, end),
+            toEntityInfo(String.join(" ", tokens.subList(start, end)), m)));
+      }
+    }
+    // Entries are found by end, longest first; a stable sort by start orders them by end too
+    output.sort(BY_START);
+    return output;
+  }
+  
+  int numStates() {
+    return depth.length;
+  }
+  
+  int numTransitions() {
+    return edgeTarget.length;
+  }
+  
+  int numTerms() {
+    int terms = 0;
+    for (int o : ordinal) {
+      if (o != NONE) {
+        terms++;
+      }
+    }
+    return terms;
+  }
+  
+  /**
+   * Estimates the heap used by the arrays of the automaton, its vocabulary and its payloads
+   * @return Bytes used
+   */
+  long ramBytesUsed() {
+    long bytes = RamUsageEstimator.shallowSizeOf(vocabulary) + payloads.ramBytesUsed();
+    for (String token : vocabulary) {
+      bytes += PayloadTable.sizeOf(token);
+    }
+    for (int[] array : new int[][] {vocabularyTable, rootNext, edgeStart, edgeLabel, edgeTarget,
+        depth, ordinal, fail, matchLink}) {
+      bytes += RamUsageEstimator.sizeOf(array);
+    }
+    return bytes;
+  }
+  
+  private int slot(String token) {
+    int h = token.hashCode();
+    return (h ^ (h >>> 16)) & (vocabularyTable.length - 1);
+  }
+  
+  /**
+   * Builds an automaton from terms added in any order.  The trie is first built with
+   * first-child/next-sibling links (and a direct table for the root), then renumbered breadth
+   * first into the sorted transition arrays of the automaton.
+   */
+  static final class Builder {
+    private final Map<String, Integer> tokenIds = new HashMap<>();
+    private final List<String> tokens = new ArrayList<>();
+    private final PayloadTable table = new PayloadTable();
+    private int[] rootChild = new int[0];
+    private int[] firstChild = new int[16];
+    private int[] nextSibling = new int[16];
+    private int[] label = new int[16];
+    private int[] ordinal = new int[16];
+    private int numStates;
+    
+    Builder() {
+      newState(NONE);
+    }
+    
+    /**
+     * Adds a term.  If the term was added before, the payloads are merged with its payloads.
+     * @param term Tokens separated by single spaces
+     * @param payloads Payloads of the term
+     */
+    void add(String term, Collection<String> payloads) {
+      int state = ROOT;
+      for (String token : term.split(" ", -1)) {
+        Integer id = tokenIds.get(token);
+        if (id == null) {
+          id = tokens.size();
+          tokenIds.put(token, id);
+          tokens.add(token);
+        }
+        state = child(state, id);
+      }
+      if (ordinal[state] == NONE) {
+        ordinal[state] = table.intern(new ArrayList<>(payloads));
+      } else {
+        Set<String> merged = new LinkedHashSet<>(table.get(ordinal[state]));
+        merged.addAll(payloads);
+        ordinal[state] = table.intern(new ArrayList<>(merged));
+      }
+    }
+    
+    AhoCorasickAutomaton finish() {
+      Integer[] byToken = new Integer[tokens.size()];
+      for (int i = 0; i < byToken.length; i++) {
+        byToken[i] = i;
+      }
+      Arrays.sort(byToken, Comparator.comparing(tokens::get));
+      String[] vocabulary = new String[byToken.length];
+      int[] sortedId = new int[byToken.length];
+      for (int i = 0; i < byToken.length; i++) {
+        vocabulary[i] = tokens.get(byToken[i]);
+        sortedId[byToken[i]] = i;
+      }
+      
+      // order holds the states in breadth first order; the new number of a state is its
+      // position in it
+      int[] order = new int[numStates];
+      int[] edgeStart = new int[numStates + 1];
+      int[] edgeLabel = new int[numStates - 1];
+      int[] edgeTarget = new int[numStates - 1];
+      int[] depth = new int[numStates];
+      int[] newOrdinal = new int[numStates];
+      long[] children = new long[16];
+      int added = 1;
+      int numEdges = 0;
+      for (int n = 0; n < numStates; n++) {
+        int state = order[n];
+        newOrdinal[n] = ordinal[state];
+        int numChildren = 0;
+        int child = state == ROOT ? nextRootChild(NONE) : firstChild[state];
+        while (child != NONE) {
+          children = ArrayUtil.grow(children, numChildren + 1);
+          children[numChildren++] = ((long) sortedId[label[child]] << 32) | child;
+          child = state == ROOT ? nextRootChild(label[child]) : nextSibling[child];
+        }
+        Arrays.sort(children, 0, numChildren);
+        edgeStart[n] = numEdges;
+        for (int c = 0; c < numChildren; c++) {
+          edgeLabel[numEdges] = (int) (children[c] >>> 32);
+          edgeTarget[numEdges++] = added;
+          depth[added] = depth[n] + 1;
+          order[added++] = (int) children[c];
+        }
+      }
+      edgeStart[numStates] = numEdges;
+      return new AhoCorasickAutomaton(vocabulary, edgeStart, edgeLabel, edgeTarget, depth,
+          newOrdinal, table);
+    }
+    
+    private int nextRootChild(int afterId) {
+      for (int id = afterId + 1; id < rootChild.length; id++) {
+        if (rootChild[id] != NONE) {
+          return rootChild[id];
+        }
+      }
+      return NONE;
+    }
+    
+    private int child(int state, int id) {
+      if (state == ROOT) {
+        if (id >= rootChild.length) {
+          int length = rootChild.length;
+          rootChild = ArrayUtil.grow(rootChild, id + 1);
+          Arrays.fill(rootChild, length, rootChild.length, NONE);
+        }
+        if (rootChild[id] == NONE) {
+          rootChild[id] = newState(id);
+        }
+        return rootChild[id];
+      }
+      int child = firstChild[state];
+      while (child != NONE && label[child] != id) {
+        child = nextSibling[child];
+      }
+      if (child == NONE) {
+        child = newState(id);
+        nextSibling[child] = firstChild[state];
+        firstChild[state] = child;
+      }
+      return child;
+    }
+    
+    private int newState(int id) {
+      if (numStates == label.length) {
+        int size = ArrayUtil.oversize(numStates + 1, Integer.BYTES);
+        firstChild = Arrays.copyOf(firstChild, size);
+        nextSibling = Arrays.copyOf(nextSibling, size);
+        label = Arrays.copyOf(label, size);
+        ordinal = Arrays.copyOf(ordinal, size);
+      }
+      firstChild[numStates] = NONE;
+      nextSibling[numStates] = NONE;
+      label[numStates] = id;
+      ordinal[numStates] = NONE;
+      return numStates++;
+    }
+  }
+}
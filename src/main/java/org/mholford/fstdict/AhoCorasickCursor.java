@@ -0,0 +1,75 @@
+package org.mholford.fstdict;
+
+/**
+ * PrefixCursor over the trie of an AhoCorasickAutomaton.  Advancing by a token follows the
+ * transition on that token's id.  Where there is none, the cursor still advances if the token
+ * is a prefix of the token of some transition, as the FST cursor does; it is then left on a
+ * partial span, which is never a match and can't be advanced further.
+ * <p/>
+ * The cursor keeps a reference to the automaton that was loaded when it was created.
+ */
+class AhoCorasickCursor implements PrefixCursor {
+  private final AhoCorasickAutomaton automaton;
+  private final StringBuilder term = new StringBuilder();
+  private int state;
+  private boolean partial;
+  private int depth;
+  
+  AhoCorasickCursor(AhoCorasickAutomaton automaton) {
+    this.automaton = automaton;
+    reset();
+  }
+  
+  @Override
+  public void reset() {
+    state = AhoCorasickAutomaton.ROOT;
+    partial = false;
+    term.setLength(0);
+    depth = 0;
+  }
+  
+  @Override
+  public boolean advance(String token) {
+    if (partial) {
+      return false;
+    }
+    int label = automaton.tokenId(token);
+    int next = label == AhoCorasickAutomaton.NONE ? AhoCorasickAutomaton.NONE :
+        automaton.next(state, label);
+    if (next != AhoCorasickAutomaton.NONE) {
+      state = next;
+      if (depth > 0) {
+        term.append(' ');
+      }
+      term.append(token);
+    } else if (automaton.hasNextWithPrefix(state, token)) {
+      partial = true;
+    } else {
+      return false;
+    }
+    depth++;
+    return true;
+  }
+  
+  @Override
+  public boolean isMatch() {
+    return !partial && automaton.isMatch(state);
+  }
+  
+  @Override
+  public EntityInfo getEntity() {
+    if (!isMatch()) {
+      return null;
+    }
+    return automaton.toEntityInfo(term.toString(), state);
+  }
+  
+  @Override
+  public int depth() {
+    return depth;
+  }
+  
+  boolean isFor(AhoCorasickAutomaton other) {
+    return automaton == other;
+  }
+}
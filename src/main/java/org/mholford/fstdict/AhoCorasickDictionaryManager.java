@@ -0,0 +1,147 @@
+package org.mholford.fstdict;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.lucene.analysis.Analyzer;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+
+/**
+ * Dictionary Manager backed by a token-level Aho-Corasick automaton.  Where the FST walks the
+ * dictionary once from each start position, the automaton finds every entry in the input,
+ * nested and overlapping ones included, in a single left to right pass over the tokens:
+ * findEntities(input, true, true) thus costs one transition per token (plus the failure links
+ * followed on mismatches) however long the entries are.  The other modes of findEntities() walk
+ * the trie of the automaton from each start position, as FSTDictionaryManager does, and return
+ * the same results.
+ * <p/>
+ * The automaton is held in primitive int arrays on the heap and takes several times the
+ * memory of the FST for the same dictionary, so it pays off where throughput matters more
+ * than memory (see AhoCorasickBenchmark).  Fuzzy matching needs the character-level FST and
+ * is not supported: this is not a FuzzyDictionaryManager.
+ * <p/>
+ * Entries must contain a term followed by zero or more payloads, each separated by a comma.
+ * Terms are tokens separated by single spaces, as in the CSV of FSTDictionaryManager, but they
+ * need not be sorted; the payloads of a term found more than once are merged.  Each load
+ * publishes the new automaton together with its payload table.
+ * <p/>
+ * To build an AhoCorasickDictionaryManager, use FSTDictionaryManagerFactory.createAhoCorasick().
+ */
+public class AhoCorasickDictionaryManager implements DictionaryManager {
+  private volatile AhoCorasickAutomaton automaton = new AhoCorasickAutomaton.Builder().finish();
+  private final Analyzer analyzer;
+  private final CSVFormat csvFormat;
+  private final ThreadLocal<AhoCorasickCursor> cursors = new ThreadLocal<>();
+  private final LookupCounters counters = new LookupCounters();
+  private volatile long buildNanos = -1;
+  
+  AhoCorasickDictionaryManager(Analyzer analyzer, CSVFormat csvFormat) {
+    this.analyzer = analyzer;
+    this.csvFormat = csvFormat;
+  }
+  
+  @Override
+  public void loadDictionary(InputStream in) throws IOException {
+    long start = System.nanoTime();
+    AhoCorasickAutomaton.Builder b = new AhoCorasickAutomaton.Builder();
+    for (CSVRecord rec : csvFormat.parse(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+      b.add(FSTDictionaryManager.term(rec), FSTDictionaryManager.payloads(rec));
+    }
+    in.close();
+    automaton = b.finish();
+    buildNanos = System.nanoTime() - start;
+  }
+  
+  /**
+   * Gets the number of states of the automaton, i.e. the number of distinct token prefixes of
+   * the terms, plus the root
+   * @return Number of states
+   */
+  public int getNumStates() {
+    return automaton.numStates();
+  }
+  
+  @Override
+  public boolean hasTokens(List<String> tokens) {
+    boolean found = walk(tokens) != null;
+    counters.record(found, tokens.size());
+    return found;
+  }
+  
+  @Override
+  public EntityInfo getEntity(List<String> tokens) {
+    AhoCorasickCursor cursor = walk(tokens);
+    EntityInfo entity = cursor == null ? null : cursor.getEntity();
+    counters.record(entity != null, tokens.size());
+    return entity;
+  }
+  
+  @Override
+  public PrefixCursor newCursor() {
+    return new AhoCorasickCursor(automaton);
+  }
+  
+  /**
+   * {@inheritDoc}
+   * <p/>
+   * When both nested and overlapping entities are wanted, the input is scanned once with the
+   * automaton.  Otherwise the trie is walked from each start position with a PrefixCursor.
+   */
+  @Override
+  public List<EntityAnnotation> findEntities(String input, boolean doNested, boolean doOverlap)
+      throws IOException {
+    List<String> tokens = EntityFinder.tokenize(analyzer, input);
+    if (doNested && doOverlap) {
+      List<EntityAnnotation> found = automaton.findAll(tokens);
+      // A single scan is one lookup, walking every token
+      counters.record(!found.isEmpty(), tokens.size());
+      return found;
+    }
+    return EntityFinder.findEntities(tokens, cursor(), doNested, doOverlap, counters);
+  }
+  
+  @Override
+  public List<String> findEntityStrings(String input, boolean doNested, boolean doOverlap)
+      throws IOException {
+    return EntityFinder.toEntityStrings(findEntities(input, doNested, doOverlap));
+  }
+  
+  /**
+   * {@inheritDoc}
+   * <p/>
+   * Nodes are the states of the automaton and arcs its trie transitions; failure and match
+   * links are not counted as arcs, though their arrays are counted in the RAM figure.
+   */
+  @Override
+  public DictionaryStats getStats() {
+    AhoCorasickAutomaton current = automaton;
+    return new DictionaryStats(current.ramBytesUsed(), current.payloads.ramBytesUsed(),
+        current.numTerms(), current.numStates(), current.numTransitions(), buildNanos,
+        counters.hits(), counters.misses(), counters.totalDepth());
+  }
+  
+  private AhoCorasickCursor walk(List<String> tokens) {
+    AhoCorasickCursor cursor = cursor();
+    for (String token : tokens) {
+      if (!cursor.advance(token)) {
+        return null;
+      }
+    }
+    return cursor;
+  }
+  
+  private AhoCorasickCursor cursor() {
+    AhoCorasickCursor cursor = cursors.get();
+    AhoCorasickAutomaton current = automaton;
+    if (cursor == null || !cursor.isFor(current)) {
+      cursor = new AhoCorasickCursor(current);
+      cursors.set(cursor);
+    }
+    cursor.reset();
+    return cursor;
+  }
+}
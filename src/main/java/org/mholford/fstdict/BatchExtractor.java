@@ -0,0 +1,231 @@
+package org.mholford.fstdict;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.Executor;
+import java.util.concurrent.FutureTask;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.stream.Stream;
+
+/**
+ * Extracts entities from many inputs at once, spreading the work over an Executor.  The
+ * inputs are pulled lazily from an Iterable or Stream and handed to the workers in chunks
+ * (so that the hand-off doesn't cost more than the extraction).  At most twice the
+ * parallelism of chunks are held at any time (being processed, or waiting for their results
+ * to be handled), so memory use stays flat however many inputs there are: a slow
+ * ResultHandler holds up the reading of further inputs.
+ * <p/>
+ * Each input is handled by one worker thread.  The DictionaryManagers keep their lookup state
+ * per thread, and the Lucene analyzer reuses a TokenStream per thread, so the workers share
+ * nothing but the (immutable) dictionary.  Results are passed to the ResultHandler on the
+ * calling thread, either in input order or as soon as they are ready.
+ * <p/>
+ * To build a BatchExtractor, use FSTDictionaryManagerFactory.createBatchExtractor().
+ */
+public class BatchExtractor {
+  static final int CHUNK_SIZE = 32;
+  
+  /**
+   * Receives the entities found in each input of a batch.  Handlers are called on the thread
+   * that started the batch, one result at a time.
+   */
+  public interface ResultHandler {
+    /**
+     * Called with the entities found in an input
+     * @param index Position of the input in the batch, from 0
+     * @param input The input
+     * @param entities Entities found in the input
+     * @throws IOException If the result can't be handled; this stops the batch
+     */
+    void onResult(long index, String input, List<EntityAnnotation> entities) throws IOException;
+  }
+  
+  private interface Extraction {
+    List<EntityAnnotation> apply(String input) throws IOException;
+  }
+  
+  private final DictionaryManager dm;
+  private final Executor executor;
+  private final int parallelism;
+  
+  BatchExtractor(DictionaryManager dm, Executor executor, int parallelism) {
+    if (parallelism < 1) {
+      throw new IllegalArgumentException("parallelism must be >= 1; got " + parallelism);
+    }
+    this.dm = dm;
+    this.executor = executor;
+    this.parallelism = parallelism;
+  }
+  
+  /**
+   * Gets the number of inputs processed at once
+   * @return Parallelism
+   */
+  public int getParallelism() {
+    return parallelism;
+  }
+  
+  /**
+   * Finds the entities in each of the specified inputs.  See DictionaryManager.findEntities().
+   * All results are held in memory; use the ResultHandler variants for large batches.
+   * @param inputs Inputs to extract entities from
+   * @param doNested Extract nested entities
+   * @param doOverlap Extract overlapping entities
+   * @return Entities found in each input, in input order
+   * @throws IOException If the dictionary can't be read
+   */
+  public List<List<EntityAnnotation>> findEntities(List<String> inputs, boolean doNested,
+                                                   boolean doOverlap) throws IOException {
+    List<List<EntityAnnotation>> output = new ArrayList<>(inputs.size());
+    findEntities(inputs, doNested, doOverlap, true, (index, input, entities) ->
+        output.add(entities));
+    return output;
+  }
+  
+  /**
+   * Finds the entities in each of the specified inputs.  See DictionaryManager.findEntities().
+   * @param inputs Inputs to extract entities from
+   * @param doNested Extract nested entities
+   * @param doOverlap Extract overlapping entities
+   * @param ordered Whether to pass the results to the handler in input order; otherwise they
+   *                are passed as soon as they are ready
+   * @param handler Receives the entities found in each input
+   * @throws IOException If the dictionary can't be read, or the handler fails
+   */
+  public void findEntities(Iterable<String> inputs, boolean doNested, boolean doOverlap,
+                           boolean ordered, ResultHandler handler) throws IOException {
+    run(inputs.iterator(), input -> dm.findEntities(input, doNested, doOverlap), ordered,
+        handler);
+  }
+  
+  /**
+   * Finds the entities in each of the specified inputs.  See DictionaryManager.findEntities().
+   * The stream is consumed as the batch proceeds.
+   * @param inputs Inputs to extract entities from
+   * @param doNested Extract nested entities
+   * @param doOverlap Extract overlapping entities
+   * @param ordered Whether to pass the results to the handler in input order; otherwise they
+   *                are passed as soon as they are ready
+   * @param handler Receives the entities found in each input
+   * @throws IOException If the dictionary can't be read, or the handler fails
+   */
+  public void findEntities(Stream<String> inputs, boolean doNested, boolean doOverlap,
+                           boolean ordered, ResultHandler handler) throws IOException {
+    run(inputs.iterator(), input -> dm.findEntities(input, doNested, doOverlap), ordered,
+        handler);
+  }
+  
+  /**
+   * Finds the entities in each of the specified inputs, tolerating typos.  See
+   * FuzzyDictionaryManager.findFuzzyEntities().
+   * @param inputs Inputs to extract entities from
+   * @param doNested Extract shorter entities starting where a longer one starts
+   * @param doOverlap Extract entities starting inside another entity
+   * @param options Fuzzy matching settings; the arc budget applies to each input
+   * @param ordered Whether to pass the results to the handler in input order; otherwise they
+   *                are passed as soon as they are ready
+   * @param handler Receives the entities found in each input
+   * @throws IOException If the dictionary can't be read, or the handler fails
+   * @throws IllegalStateException If the dictionary is not a FuzzyDictionaryManager
+   */
+  public void findFuzzyEntities(Iterable<String> inputs, boolean doNested, boolean doOverlap,
+                                FuzzyOptions options, boolean ordered, ResultHandler handler)
+      throws IOException {
+    if (!(dm instanceof FuzzyDictionaryManager)) {
+      throw new IllegalStateException(
+          dm.getClass().getSimpleName() + " does not support fuzzy matching");
+    }
+    FuzzyDictionaryManager fuzzy = (FuzzyDictionaryManager) dm;
+    run(inputs.iterator(), input -> fuzzy.findFuzzyEntities(input, doNested, doOverlap, options),
+        ordered, handler);
+  }
+  
+  private void run(Iterator<String> inputs, Extraction extraction, boolean ordered,
+                   ResultHandler handler) throws IOException {
+    int window = parallelism * 2;
+    ArrayDeque<Task> inFlight = new ArrayDeque<>(window);
+    BlockingQueue<Task> completed = ordered ? null : new LinkedBlockingQueue<>();
+    long index = 0;
+    try {
+      while (true) {
+        while (inFlight.size() < window && inputs.hasNext()) {
+          List<String> chunk = new ArrayList<>(CHUNK_SIZE);
+          while (chunk.size() < CHUNK_SIZE && inputs.hasNext()) {
+            chunk.add(inputs.next());
+          }
+          Task task = new Task(index, chunk, extraction, completed);
+          index += chunk.size();
+          inFlight.add(task);
+          executor.execute(task);
+        }
+        if (inFlight.isEmpty()) {
+          return;
+        }
+        Task task = ordered ? inFlight.peek() : completed.take();
+        List<List<EntityAnnotation>> results = result(task);
+        inFlight.remove(task);
+        for (int i = 0; i < results.size(); i++) {
+          handler.onResult(task.index + i, task.inputs.get(i), results.get(i));
+        }
+      }
+    } catch (InterruptedException e) {
+      Thread.currentThread().interrupt();
+      throw new InterruptedIOException("Interrupted while extracting entities");
+    } finally {
+      // Only left non-empty if the batch failed; don't run the rest
+      for (Task task : inFlight) {
+        task.cancel(false);
+      }
+    }
+  }
+  
+  private static List<List<EntityAnnotation>> result(Task task)
+      throws IOException, InterruptedException {
+    try {
+      return task.get();
+    } catch (ExecutionException e) {
+      Throwable cause = e.getCause();
+      if (cause instanceof IOException) {
+        throw (IOException) cause;
+      } else if (cause instanceof RuntimeException) {
+        throw (RuntimeException) cause;
+      } else if (cause instanceof Error) {
+        throw (Error) cause;
+      }
+      throw new IOException(cause);
+    }
+  }
+  
+  private static final class Task extends FutureTask<List<List<EntityAnnotation>>> {
+    private final long index;
+    private final List<String> inputs;
+    private final BlockingQueue<Task> completed;
+    
+    private Task(long index, List<String> inputs, Extraction extraction,
+                 BlockingQueue<Task> completed) {
+      super(() -> {
+        List<List<EntityAnnotation>> results = new ArrayList<>(inputs.size());
+        for (String input : inputs) {
+          results.add(extraction.apply(input));
+        }
+        return results;
+      });
+      this.index = index;
+      this.inputs = inputs;
+      this.completed = completed;
+    }
+    
+    @Override
+    protected void done() {
+      if (completed != null) {
+        completed.add(this);
+      }
+    }
+  }
+}
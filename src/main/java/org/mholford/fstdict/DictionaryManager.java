@@ -34,6 +34,15 @@ public interface DictionaryManager {
    */
   EntityInfo getEntity(List<String> tokens) throws IOException;
   
+  /**
+   * Creates a new PrefixCursor positioned at the root of the dictionary.  The cursor can be
+   * advanced token by token, which is much cheaper than calling hasTokens() with successively
+   * longer lists of tokens.  Cursors are not thread safe.
+   * @return New cursor
+   * @throws IOException If the dictionary can't be read from
+   */
+  PrefixCursor newCursor() throws IOException;
+  
   /**
    * Retrieves list of all Entity's found in a given input.  This list will contains the
    * payloads of the entities if they are defined in the dictionary.  If not, the list will
@@ -59,4 +68,11 @@ public interface DictionaryManager {
    */
   List<EntityAnnotation> findEntities(String input, boolean doNested, boolean doOverlap)
       throws IOException;
+  
+  /**
+   * Gets a snapshot of the size of the loaded dictionary and of the lookups made against it.
+   * Lookups are counted with striped counters, so counting is cheap enough to leave on.
+   * @return Dictionary statistics
+   */
+  DictionaryStats getStats();
 }
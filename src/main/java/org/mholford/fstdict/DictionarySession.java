@@ -0,0 +1,182 @@
+package org.mholford.fstdict;
+
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.IntsRef;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.PairOutputs.Pair;
+import org.apache.lucene.util.fst.Util;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A lookup session against a single FST loaded by FSTDictionaryManager.  The session owns the
+ * arcs, the BytesReader and the scratch buffer used to walk the FST, and reuses them across
+ * calls.  Tokens are walked one at a time, so no key String or BytesRef is built
+ * either.  As a result hasTokens() and isCompleteMatch() do not allocate once the buffers have
+ * grown to fit the longest key seen; getEntity() only allocates the EntityInfo it returns, whose
+ * payload list is shared with the dictionary's payload table.
+ * <p/>
+ * complete() walks the prefix with the session's own arc and buffer as well, and builds the
+ * terms of the completions in that buffer; only the searcher, its queue entries and the
+ * returned EntityInfos are allocated.
+ * <p/>
+ * Sessions are not thread safe.  Obtain one per thread or per request by calling
+ * FSTDictionaryManager.newSession().  The manager also keeps one session per thread
+ * internally to serve its own lookup methods.  A session keeps using the FST that was loaded
+ * when it was created, even if the manager loads a new dictionary afterwards.
+ */
+public class DictionarySession {
+  private static final int SPACE = ' ';
+  private static final Comparator<Pair<Long, Long>> BY_COST = Comparator.comparing(p -> p.output1);
+  
+  private final FSTDictionary dictionary;
+  private final FST<Long> fst;
+  private final FST.BytesReader fstReader;
+  private final FST.Arc<Long> arc = new FST.Arc<>();
+  private final BytesRefBuilder scratchBytes = new BytesRefBuilder();
+  private long ordinal;
+  private final FSTPrefixCursor cursor;
+  private final FST<Pair<Long, Long>> completions;
+  private final FST.BytesReader completionReader;
+  private final FST.Arc<Pair<Long, Long>> completionArc = new FST.Arc<>();
+  
+  DictionarySession(FSTDictionary dictionary) {
+    this.dictionary = dictionary;
+    this.fst = dictionary.fst;
+    fstReader = fst.getBytesReader();
+    cursor = new FSTPrefixCursor(dictionary);
+    completions = dictionary.completions;
+    completionReader = completions == null ? null : completions.getBytesReader();
+  }
+  
+  /**
+   * Answers whether the String composed of the specified tokens is a prefix of some entry
+   * in the dictionary
+   * @param tokens List of String tokens
+   * @return Whether the tokens are found in the dictionary
+   * @throws IOException If the dictionary can't be read from
+   */
+  public boolean hasTokens(List<String> tokens) throws IOException {
+    return walk(tokens, false);
+  }
+  
+  /**
+   * Answers whether the String composed of the specified tokens is a complete entry in
+   * the dictionary
+   * @param tokens List of String tokens
+   * @return Whether the tokens match an entry completely
+   * @throws IOException If the dictionary can't be read from
+   */
+  public boolean isCompleteMatch(List<String> tokens) throws IOException {
+    return walk(tokens, false) && arc.isFinal();
+  }
+  
+  /**
+   * Retrieves the Entity found in the dictionary under the String composed from the
+   * specified tokens.
+   * @param tokens List of String tokens
+   * @return The entity found, or null if there is none
+   * @throws IOException If the dictionary can't be read from
+   */
+  public EntityInfo getEntity(List<String> tokens) throws IOException {
+    if (!walk(tokens, true) || !arc.isFinal()) {
+      return null;
+    }
+    return dictionary.toEntityInfo(String.join(" ", tokens), ordinal + arc.nextFinalOutput);
+  }
+  
+  /**
+   * Finds the heaviest terms that start with the specified prefix.  See
+   * FSTDictionaryManager.complete().
+   * @param prefix Start of the terms
+   * @param n Maximum number of completions to return
+   * @return The completions, heaviest first
+   * @throws IOException If the dictionary can't be read from
+   */
+  public List<EntityInfo> complete(String prefix, int n) throws IOException {
+    if (completions == null) {
+      throw new IllegalStateException("The dictionary was not loaded with weights");
+    }
+    if (n < 1) {
+      return Collections.emptyList();
+    }
+    completions.getFirstArc(completionArc);
+    Pair<Long, Long> prefixOutput = completions.outputs.getNoOutput();
+    scratchBytes.copyChars(prefix);
+    int prefixLength = scratchBytes.length();
+    for (int i = 0; i < prefixLength; i++) {
+      if (completions.findTargetArc(scratchBytes.byteAt(i) & 0xFF, completionArc, completionArc,
+          completionReader) == null) {
+        return Collections.emptyList();
+      }
+      prefixOutput = completions.outputs.add(prefixOutput, completionArc.output);
+    }
+    // Every path left in the queue leads to a different term, so a queue of n is enough
+    Util.TopNSearcher<Pair<Long, Long>> searcher =
+        new Util.TopNSearcher<>(completions, n, n, BY_COST);
+    searcher.addStartPaths(completionArc, prefixOutput, true, new IntsRefBuilder());
+    List<EntityInfo> output = new ArrayList<>(n);
+    for (Util.Result<Pair<Long, Long>> result : searcher.search()) {
+      IntsRef suffix = result.input;
+      scratchBytes.setLength(prefixLength);
+      for (int i = 0; i < suffix.length; i++) {
+        scratchBytes.append((byte) suffix.ints[suffix.offset + i]);
+      }
+      output.add(dictionary.toEntityInfo(scratchBytes.get().utf8ToString(),
+          result.output.output2));
+    }
+    return output;
+  }
+  
+  /**
+   * Gets this session's PrefixCursor, reset to the root of the dictionary.  The same cursor
+   * instance is handed out on every call.
+   * @return Cursor positioned at the root
+   */
+  public PrefixCursor getCursor() {
+    cursor.reset();
+    return cursor;
+  }
+  
+  /**
+   * Answers whether this session walks the specified dictionary
+   * @param other Dictionary to check
+   * @return Whether the session is bound to that dictionary
+   */
+  boolean isFor(FSTDictionary other) {
+    return dictionary == other;
+  }
+  
+  private boolean walk(List<String> tokens, boolean collectOutput) throws IOException {
+    fst.getFirstArc(arc);
+    ordinal = 0;
+    for (int t = 0; t < tokens.size(); t++) {
+      if (t > 0 && !step(SPACE, collectOutput)) {
+        return false;
+      }
+      scratchBytes.copyChars(tokens.get(t));
+      byte[] bytes = scratchBytes.bytes();
+      for (int i = 0; i < scratchBytes.length(); i++) {
+        if (!step(bytes[i] & 0xFF, collectOutput)) {
+          return false;
+        }
+      }
+    }
+    return true;
+  }
+  
+  private boolean step(int label, boolean collectOutput) throws IOException {
+    if (fst.findTargetArc(label, arc, arc, fstReader) == null) {
+      return false;
+    }
+    if (collectOutput) {
+      ordinal += arc.output;
+    }
+    return true;
+  }
+}
@@ -0,0 +1,135 @@
+package org.mholford.fstdict;
+
+/**
+ * Snapshot of the size and usage of a dictionary, as reported by DictionaryManager.getStats().
+ * The structure figures describe the dictionary that was loaded when the snapshot was taken;
+ * the lookup counters accumulate over all the dictionaries the manager has loaded.
+ * <p/>
+ * Figures a manager can't tell are reported as -1, e.g. the node and arc counts of an FST
+ * that was loaded from a compiled file rather than built.
+ */
+public class DictionaryStats {
+  private final long ramBytesUsed;
+  private final long payloadBytes;
+  private final long termCount;
+  private final long nodeCount;
+  private final long arcCount;
+  private final long buildTimeNanos;
+  private final long hits;
+  private final long misses;
+  private final long totalDepth;
+  
+  DictionaryStats(long ramBytesUsed, long payloadBytes, long termCount, long nodeCount,
+                  long arcCount, long buildTimeNanos, long hits, long misses, long totalDepth) {
+    this.ramBytesUsed = ramBytesUsed;
+    this.payloadBytes = payloadBytes;
+    this.termCount = termCount;
+    this.nodeCount = nodeCount;
+    this.arcCount = arcCount;
+    this.buildTimeNanos = buildTimeNanos;
+    this.hits = hits;
+    this.misses = misses;
+    this.totalDepth = totalDepth;
+  }
+  
+  /**
+   * Builds the snapshot of a dictionary held in an FSTDictionary
+   */
+  static DictionaryStats of(FSTDictionary dictionary, long buildTimeNanos,
+                            LookupCounters counters) {
+    if (dictionary == null) {
+      return new DictionaryStats(0, 0, 0, 0, 0, buildTimeNanos, counters.hits(),
+          counters.misses(), counters.totalDepth());
+    }
+    return new DictionaryStats(dictionary.ramBytesUsed(), dictionary.payloads.ramBytesUsed(),
+        dictionary.termCount, dictionary.nodeCount, dictionary.arcCount, buildTimeNanos,
+        counters.hits(), counters.misses(), counters.totalDepth());
+  }
+  
+  /**
+   * Gets the estimated heap used by the dictionary, payloads included.  Memory mapped FSTs
+   * only count their on-heap part.
+   * @return Bytes used
+   */
+  public long getRamBytesUsed() {
+    return ramBytesUsed;
+  }
+  
+  /**
+   * Gets the estimated heap used by the payloads of the dictionary
+   * @return Bytes used
+   */
+  public long getPayloadBytes() {
+    return payloadBytes;
+  }
+  
+  /**
+   * Gets the number of terms in the dictionary
+   * @return Number of terms, or -1 if unknown
+   */
+  public long getTermCount() {
+    return termCount;
+  }
+  
+  /**
+   * Gets the number of nodes (states) of the dictionary
+   * @return Number of nodes, or -1 if unknown
+   */
+  public long getNodeCount() {
+    return nodeCount;
+  }
+  
+  /**
+   * Gets the number of arcs (transitions) of the dictionary
+   * @return Number of arcs, or -1 if unknown
+   */
+  public long getArcCount() {
+    return arcCount;
+  }
+  
+  /**
+   * Gets how long the last load of the dictionary took
+   * @return Load time in nanoseconds, or -1 if nothing was loaded
+   */
+  public long getBuildTimeNanos() {
+    return buildTimeNanos;
+  }
+  
+  /**
+   * Gets the number of lookups that found something.  Each lookup method call counts once,
+   * and findEntities() counts once per start position in the input.
+   * @return Number of hits
+   */
+  public long getHits() {
+    return hits;
+  }
+  
+  /**
+   * Gets the number of lookups that found nothing
+   * @return Number of misses
+   */
+  public long getMisses() {
+    return misses;
+  }
+  
+  /**
+   * Gets the average number of tokens walked per lookup
+   * @return Average depth, or 0 if there were no lookups
+   */
+  public double getAverageDepth() {
+    long lookups = hits + misses;
+    return lookups == 0 ? 0 : (double) totalDepth / lookups;
+  }
+  
+  long getTotalDepth() {
+    return totalDepth;
+  }
+  
+  @Override
+  public String toString() {
+    return "DictionaryStats{ramBytesUsed=" + ramBytesUsed + ", payloadBytes=" + payloadBytes +
+        ", termCount=" + termCount + ", nodeCount=" + nodeCount + ", arcCount=" + arcCount +
+        ", buildTimeNanos=" + buildTimeNanos + ", hits=" + hits + ", misses=" + misses +
+        ", averageDepth=" + getAverageDepth() + "}";
+  }
+}
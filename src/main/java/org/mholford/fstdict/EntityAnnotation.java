@@ -5,11 +5,13 @@ import java.util.Objects;
 /**
  * Simple POJO representing a single Entity annotation.  It is composed
  * of the EntityInfo itself and a Range objects indicating where in the
- * original input it was found.
+ * original input it was found.  Annotations from a fuzzy extraction also
+ * carry the edit distance between the input and the matched term.
  */
 public class EntityAnnotation {
   private final Range range;
   private final EntityInfo entityInfo;
+  private final int editDistance;
   
   /**
    * Constructs a new Entity Annotation from the specified range and entity info.
@@ -17,8 +19,19 @@ public class EntityAnnotation {
    * @param entityInfo The entity (term and payloads)
    */
   public EntityAnnotation(Range range, EntityInfo entityInfo) {
+    this(range, entityInfo, 0);
+  }
+  
+  /**
+   * Constructs a new Entity Annotation for an inexact match.
+   * @param range Where the Entity occurs
+   * @param entityInfo The entity (term and payloads)
+   * @param editDistance Number of edits between the input and the matched term
+   */
+  public EntityAnnotation(Range range, EntityInfo entityInfo, int editDistance) {
     this.range = range;
     this.entityInfo = entityInfo;
+    this.editDistance = editDistance;
   }
   
   /**
@@ -37,18 +50,27 @@ public class EntityAnnotation {
     return entityInfo;
   }
   
+  /**
+   * Gets the number of edits between the input and the matched term; 0 for an exact match.
+   * @return Edit distance
+   */
+  public int getEditDistance() {
+    return editDistance;
+  }
+  
   @Override
   public boolean equals(Object o) {
     if (this == o) return true;
     if (o == null || getClass() != o.getClass()) return false;
     EntityAnnotation that = (EntityAnnotation) o;
-    return Objects.equals(range, that.range) &&
+    return editDistance == that.editDistance &&
+        Objects.equals(range, that.range) &&
         Objects.equals(entityInfo, that.entityInfo);
   }
   
   @Override
   public int hashCode() {
     
-    return Objects.hash(range, entityInfo);
+    return Objects.hash(range, entityInfo, editDistance);
   }
 }
@@ -0,0 +1,158 @@
+package org.mholford.fstdict;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.*;
+
+/**
+ * Entity extraction over a PrefixCursor, shared by the DictionaryManager implementations.
+ * Makes a single forward walk of the dictionary per start position, so the cost per start
+ * position is linear in the length of the longest matching span.
+ */
+final class EntityFinder {
+  private EntityFinder() {}
+  
+  /**
+   * Finds all entities in the specified tokens.  See DictionaryManager.findEntities().
+   * @param tokens Tokenized input
+   * @param cursor Cursor over the dictionary; it is reset at each start position
+   * @param doNested Extract nested entities
+   * @param doOverlap Extract overlapping entities
+   * @param counters Counters to record a lookup in per start position
+   * @return List of Entity Annotations (range + entity) found in the input
+   * @throws IOException If the dictionary can't be read
+   */
+  static List<EntityAnnotation> findEntities(List<String> tokens, PrefixCursor cursor,
+                                             boolean doNested, boolean doOverlap,
+                                             LookupCounters counters) throws IOException {
+    return findEntities(tokens, i -> cursor.advance(tokens.get(i)), cursor, doNested, doOverlap,
+        counters);
+  }
+  
+  /**
+   * Finds all entities in the specified tokens, walking their terms in place in the buffer.
+   * See findEntities(List, PrefixCursor, boolean, boolean, LookupCounters).
+   * @param tokens Tokenized input
+   * @param cursor Cursor over the dictionary; it is reset at each start position
+   * @param doNested Extract nested entities
+   * @param doOverlap Extract overlapping entities
+   * @param counters Counters to record a lookup in per start position
+   * @return List of Entity Annotations (range + entity) found in the input
+   * @throws IOException If the dictionary can't be read
+   */
+  static List<EntityAnnotation> findEntities(TokenBuffer tokens, PrefixCursor cursor,
+                                             boolean doNested, boolean doOverlap,
+                                             LookupCounters counters) throws IOException {
+    char[] buffer = tokens.buffer();
+    return findEntities(tokens.terms(),
+        i -> cursor.advance(buffer, tokens.termStart(i), tokens.termLength(i)), cursor,
+        doNested, doOverlap, counters);
+  }
+  
+  /**
+   * Finds the entities, advancing the cursor with the specified step.  The tokens are only
+   * read to key the entities found, so a view that builds each String on demand costs nothing
+   * for tokens that are in no entity.  Each start position is recorded as one lookup, whose
+   * depth is the longest span the cursor could walk from it.
+   */
+  private static List<EntityAnnotation> findEntities(List<String> tokens, Step step,
+                                                     PrefixCursor cursor, boolean doNested,
+                                                     boolean doOverlap, LookupCounters counters)
+      throws IOException {
+    List<EntityAnnotation> output = new ArrayList<>();
+    
+    int i = 0;
+    int maxMatchIdx = -1;
+    while (i < tokens.size()) {
+      int mark = i;
+      Map<List<String>, EntityInfo> adds = new HashMap<>();
+      boolean advanced;
+      cursor.reset();
+      do {
+        advanced = step.advance(mark++);
+        if (doNested && advanced && cursor.isMatch()) {
+          adds.put(tokens.subList(i, mark), cursor.getEntity());
+        }
+      } while (advanced && mark < tokens.size());
+      
+      // The cursor is left on the longest span that is still a prefix in the dictionary
+      int longestMatch = cursor.depth();
+      boolean hasCandidate = longestMatch > 0;
+      if (!doNested && hasCandidate) {
+        hasCandidate = i >= maxMatchIdx || (doOverlap && (i + longestMatch) >= maxMatchIdx);
+        if (hasCandidate && cursor.isMatch()) {
+          adds.put(tokens.subList(i, i + longestMatch), cursor.getEntity());
+        }
+      }
+      int longest = hasCandidate ? longestMatch : 0;
+      counters.record(!adds.isEmpty(), longestMatch);
+      
+      for (Map.Entry<List<String>, EntityInfo> add : adds.entrySet()) {
+        int size = add.getKey().size();
+        maxMatchIdx = i + size;
+        output.add(new EntityAnnotation(new Range(i, i + size), add.getValue()));
+      }
+      if (!doOverlap && hasCandidate) {
+        if (mark == tokens.size() && doNested) {
+          
+        } else {
+          i += longest - 1;
+        }
+      }
+      if (doOverlap && !doNested && mark == tokens.size()) {
+        i += Math.max(longest - 1, 0);
+      }
+      
+      i++;
+    }
+    
+    return output;
+  }
+  
+  /**
+   * Collects the payloads of the specified entities, or the matched terms of those without
+   * payloads.  See DictionaryManager.findEntityStrings().
+   * @param entities Entities found
+   * @return Distinct payloads and terms, in the order found
+   */
+  static List<String> toEntityStrings(List<EntityAnnotation> entities) {
+    Set<String> found = new LinkedHashSet<>();
+    for (EntityAnnotation ea : entities) {
+      EntityInfo ei = ea.getEntityInfo();
+      if (ei.getPayloads().size() > 0) {
+        found.addAll(ei.getPayloads());
+      } else {
+        found.add(ei.getTerm());
+      }
+    }
+    
+    return new ArrayList<>(found);
+  }
+  
+  /**
+   * Advances the cursor by the token at the specified index
+   */
+  private interface Step {
+    boolean advance(int i) throws IOException;
+  }
+  
+  static List<String> tokenize(Analyzer analyzer, String input) {
+    List<String> output = new ArrayList<>();
+    try {
+      TokenStream tstream = analyzer.tokenStream(null, new StringReader(input));
+      tstream.reset();
+      while (tstream.incrementToken()) {
+        output.add(tstream.getAttribute(CharTermAttribute.class).toString());
+      }
+      tstream.close();
+    } catch (IOException e) {
+      // Won't happen b/c we're using StringReader and not an IO-based reader
+      throw new RuntimeException();
+    }
+    return output;
+  }
+}
@@ -0,0 +1,76 @@
+package org.mholford.fstdict;
+
+import org.apache.lucene.util.fst.Builder;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.PairOutputs.Pair;
+
+import java.io.IOException;
+
+/**
+ * An FST built by FSTDictionaryManager together with the PayloadTable its outputs point
+ * into.  The two are always published as a pair, through a single volatile reference, so a
+ * reader can never see an FST with the payload table of another dictionary.  Dictionaries
+ * loaded with weights also carry a completion FST, which maps each term to its weight cost and
+ * payload ordinal (see FSTDictionaryManager.loadWeightedDictionary()).  The term, node and
+ * arc counts of the FST are recorded when it is built, and are -1 for FSTs loaded from a
+ * compiled file.  Instances are immutable.
+ */
+final class FSTDictionary {
+  final FST<Long> fst;
+  final PayloadTable payloads;
+  final FST<Pair<Long, Long>> completions;
+  final long termCount;
+  final long nodeCount;
+  final long arcCount;
+  
+  FSTDictionary(FST<Long> fst, PayloadTable payloads, FST<Pair<Long, Long>> completions) {
+    this(fst, payloads, completions, -1, -1, -1);
+  }
+  
+  FSTDictionary(FST<Long> fst, PayloadTable payloads, FST<Pair<Long, Long>> completions,
+                long termCount, long nodeCount, long arcCount) {
+    this.fst = fst;
+    this.payloads = payloads;
+    this.completions = completions;
+    this.termCount = termCount;
+    this.nodeCount = nodeCount;
+    this.arcCount = arcCount;
+  }
+  
+  /**
+   * Finishes the specified builder and pairs its FST with the payload table, recording the
+   * counts of the FST as built
+   * @param b Builder the terms were added to
+   * @param payloads Payload table of the terms
+   * @param completions Completion FST, or null
+   * @return The dictionary
+   * @throws IOException If the FST can't be built
+   */
+  static FSTDictionary build(Builder<Long> b, PayloadTable payloads,
+                             FST<Pair<Long, Long>> completions) throws IOException {
+    // finish() clears the root node, which holds the term count
+    long termCount = b.getTermCount();
+    FST<Long> fst = b.finish();
+    return new FSTDictionary(fst, payloads, completions, termCount, b.getNodeCount(),
+        b.getArcCount());
+  }
+  
+  /**
+   * Estimates the heap used by the FSTs and the payload table
+   * @return Bytes used
+   */
+  long ramBytesUsed() {
+    long bytes = payloads.ramBytesUsed();
+    if (fst != null) {
+      bytes += fst.ramBytesUsed();
+    }
+    if (completions != null) {
+      bytes += completions.ramBytesUsed();
+    }
+    return bytes;
+  }
+  
+  EntityInfo toEntityInfo(String key, long ordinal) {
+    return new EntityInfo(key, payloads.get(ordinal));
+  }
+}
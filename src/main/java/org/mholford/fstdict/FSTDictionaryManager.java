@@ -1,31 +1,72 @@
 package org.mholford.fstdict;
 
-import com.google.common.base.Strings;
 import org.apache.commons.csv.CSVFormat;
 import org.apache.commons.csv.CSVRecord;
 import org.apache.lucene.analysis.Analyzer;
-import org.apache.lucene.analysis.TokenStream;
-import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.codecs.CodecUtil;
+import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.index.IndexFormatTooNewException;
+import org.apache.lucene.index.IndexFormatTooOldException;
+import org.apache.lucene.store.ChecksumIndexInput;
+import org.apache.lucene.store.Directory;
+import org.apache.lucene.store.FSDirectory;
+import org.apache.lucene.store.IOContext;
+import org.apache.lucene.store.IndexInput;
+import org.apache.lucene.store.IndexOutput;
+import org.apache.lucene.store.MMapDirectory;
 import org.apache.lucene.util.BytesRef;
-import org.apache.lucene.util.IntsRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.FutureArrays;
+import org.apache.lucene.util.IOUtils;
 import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.OfflineSorter;
+import org.apache.lucene.util.UnicodeUtil;
 import org.apache.lucene.util.fst.Builder;
-import org.apache.lucene.util.fst.ByteSequenceOutputs;
+import org.apache.lucene.util.fst.BytesRefFSTEnum;
 import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.OffHeapFSTStore;
+import org.apache.lucene.util.fst.PairOutputs;
+import org.apache.lucene.util.fst.PairOutputs.Pair;
+import org.apache.lucene.util.fst.PositiveIntOutputs;
 import org.apache.lucene.util.fst.Util;
 
 import java.io.IOException;
 import java.io.InputStream;
 import java.io.InputStreamReader;
-import java.io.StringReader;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
 import java.util.*;
-import java.util.stream.Collectors;
+import java.util.zip.CRC32;
 
 /**
  * Dictionary Manager backed by FST.  We use Lucene's implementation of FST's for smoking fast
- * lookup of String keys.  The FST is built from a sorted list of CSV entries.  (If the list is
- * not sorted the FST can not be built).  Entries must contain a term followed by zero or more
- * payloads, each separated by a comma.
+ * lookup of String keys.  loadDictionary(InputStream) builds the FST from a sorted list of CSV
+ * entries.  (If the list is not sorted the FST can not be built).  Sources that are unsorted,
+ * contain duplicate terms or are too big to sort in memory can be loaded with
+ * loadUnsortedDictionary(), which sorts them offline using temp files.  Entries must contain a
+ * term followed by zero or more payloads, each separated by a comma.  Entries generated in
+ * sorted order can also be added straight to the FST with a SortedDictionaryBuilder.
+ * <p/>
+ * The FST maps each term to an ordinal in a PayloadTable, which holds every distinct payload
+ * set once as an immutable list.  Payloads keep the order they have in the CSV, also when
+ * loadUnsortedDictionary() merges the records of a duplicate term (duplicates within an entry
+ * are dropped), and the lists are shared between all entries and lookups that return them,
+ * so callers must not try to modify them.
+ * <p/>
+ * A compiled dictionary can be saved to a versioned binary file and loaded back later.  The
+ * compiled file records a checksum of the CSV it was built from; loadDictionary(URL, Path)
+ * only rebuilds the FST when that checksum no longer matches.  Compiled files are memory
+ * mapped and the FST is read in place, so it lives in the OS page cache rather than on
+ * the heap and can be shared by several JVMs on the same host.
+ * <p/>
+ * Each load publishes the new FST and its payload table together, so lookups running
+ * concurrently with a load see either the old dictionary or the new one in full.  To update
+ * a dictionary without rebuilding it, see OverlayDictionaryManager.
+ * <p/>
+ * Dictionaries loaded with loadWeightedDictionary() give each term a weight, and can also
+ * suggest the heaviest completions of a prefix with complete(), e.g. for typeahead.
  * <p/>
  * To build an FSTDictionaryManager, use the FSTDictionaryManagerFactory. The default manager
  * should be sufficient for most applications (see documentation on FSTDictionaryManagerFactory
@@ -33,66 +74,285 @@ import java.util.stream.Collectors;
  * <p/>
  * Created by matt on 4/20/17.
  */
-public class FSTDictionaryManager implements DictionaryManager {
-  private FST<BytesRef> fst;
+public class FSTDictionaryManager implements FuzzyDictionaryManager {
+  private volatile FSTDictionary dictionary;
   private final Analyzer analyzer;
+  private final OffsetTokenizer tokenizer;
   private final CSVFormat csvFormat;
-  private final String separator = ",";
+  static final String COMPILED_CODEC = "ChatlantisFSTDictionary";
+  static final int COMPILED_VERSION = 3;
+  public static final int DEFAULT_SORT_BUFFER_MB = 64;
+  public static final long MAX_WEIGHT = Integer.MAX_VALUE;
+  private static final String SORT_PREFIX = "dict-sort";
+  private static final long REPORT_INTERVAL = 1_000_000;
+  private final ThreadLocal<DictionarySession> sessions = new ThreadLocal<>();
+  private final LookupCounters counters = new LookupCounters();
+  private volatile long buildNanos = -1;
   
   FSTDictionaryManager(Analyzer analyzer, CSVFormat csvFormat) {
     this.analyzer = analyzer;
+    this.tokenizer = new OffsetTokenizer(analyzer);
     this.csvFormat = csvFormat;
   }
   
   @Override
   public void loadDictionary(InputStream in) throws IOException {
-    Builder<BytesRef> b = new Builder<>(FST.INPUT_TYPE.BYTE1, ByteSequenceOutputs.getSingleton());
-    Iterable<CSVRecord> recs = csvFormat.parse(new InputStreamReader(in));
+    loadRecords(csvFormat.parse(new InputStreamReader(in, StandardCharsets.UTF_8)));
+    in.close();
+  }
+  
+  /**
+   * Builds the FST from CSV records that are already parsed.  The records must be sorted.
+   * @param recs Dictionary records
+   */
+  void loadRecords(Iterable<CSVRecord> recs) throws IOException {
+    long start = System.nanoTime();
+    Builder<Long> b = new Builder<>(FST.INPUT_TYPE.BYTE1, PositiveIntOutputs.getSingleton());
+    PayloadTable table = new PayloadTable();
+    IntsRefBuilder scratchInts = new IntsRefBuilder();
     for (CSVRecord rec : recs) {
-      if (rec.size() == 1) {
-        b.add(toIntsRef(new BytesRef(rec.get(0).trim())), new BytesRef());
-      } else {
-        Set<String> payloads = new HashSet<>();
-        for (int i = 1; i < rec.size(); i++) {
-          payloads.add(rec.get(i));
-        }
-        String p = String.join(separator, payloads);
+      int ordinal = table.intern(new ArrayList<>(payloads(rec)));
+      b.add(Util.toIntsRef(new BytesRef(term(rec)), scratchInts), output(ordinal));
+    }
+    publish(FSTDictionary.build(b, table, null), start);
+  }
+  
+  /**
+   * Creates a builder that loads the dictionary from entries added to it in sorted order,
+   * without going through CSV.  The dictionary is replaced when the builder is finished.
+   * @return New builder
+   */
+  public SortedDictionaryBuilder newSortedBuilder() {
+    return new SortedDictionaryBuilder(this);
+  }
+  
+  /**
+   * Loads the dictionary from sorted CSV data in which each term is followed by its weight,
+   * then by zero or more payloads.  Weights are whole numbers from 0 to MAX_WEIGHT.  Besides
+   * the FST used for lookups, a completion FST is built in the same pass, which maps each term
+   * to its weight and payloads; complete() searches it for the heaviest completions of a
+   * prefix.  saveCompiled() saves the completion FST along with the lookup FST.
+   * @param in The stream to build the dictionary from
+   * @throws IOException If the stream can't be read
+   */
+  public void loadWeightedDictionary(InputStream in) throws IOException {
+    long start = System.nanoTime();
+    Builder<Long> b = new Builder<>(FST.INPUT_TYPE.BYTE1, PositiveIntOutputs.getSingleton());
+    PairOutputs<Long, Long> outputs = new PairOutputs<>(PositiveIntOutputs.getSingleton(),
+        PositiveIntOutputs.getSingleton());
+    Builder<Pair<Long, Long>> cb = new Builder<>(FST.INPUT_TYPE.BYTE1, outputs);
+    PayloadTable table = new PayloadTable();
+    IntsRefBuilder scratchInts = new IntsRefBuilder();
+    for (CSVRecord rec : csvFormat.parse(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+      String weight = rec.size() > 1 ? rec.get(1) : "";
+      long ordinal = table.intern(new ArrayList<>(payloads(rec, 2)));
+      Util.toIntsRef(new BytesRef(term(rec)), scratchInts);
+      b.add(scratchInts.get(), output(ordinal));
+      // The searcher looks for the lowest outputs, so the FST holds the cost of each weight
+      cb.add(scratchInts.get(), outputs.newPair(output(MAX_WEIGHT - weight(weight, rec)),
+          output(ordinal)));
+    }
+    in.close();
+    publish(FSTDictionary.build(b, table, cb.finish()), start);
+  }
+  
+  /**
+   * Loads the dictionary from CSV data which need not be sorted, using a sort buffer of
+   * DEFAULT_SORT_BUFFER_MB and no progress reporting.  See
+   * loadUnsortedDictionary(InputStream, Path, int, IngestListener).
+   * @param in The stream to build the dictionary from
+   * @param tempDir Directory for the temp files
+   * @throws IOException If the stream can't be read or the temp files can't be written
+   */
+  public void loadUnsortedDictionary(InputStream in, Path tempDir) throws IOException {
+    loadUnsortedDictionary(in, tempDir, DEFAULT_SORT_BUFFER_MB, IngestListener.NONE);
+  }
+  
+  /**
+   * Loads the dictionary from CSV data which need not be sorted and may contain the same term
+   * more than once, in which case the payloads of all its records are merged.  Records are
+   * streamed from the source and spilled to temp files, which are sorted offline in runs that
+   * fit in the specified memory budget and merged back together.  The merged entries are then
+   * fed to the FST builder in a single pass.  Heap usage is bounded by the sort buffer plus the
+   * FST and payload table being built, however large the source is.
+   * @param in The stream to build the dictionary from
+   * @param tempDir Directory for the temp files; they are deleted when the load completes
+   * @param ramBufferMB Memory budget for sorting, in megabytes
+   * @param listener Receives progress reports as the load goes along
+   * @throws IOException If the stream can't be read or the temp files can't be written
+   */
+  public void loadUnsortedDictionary(InputStream in, Path tempDir, int ramBufferMB,
+                                     IngestListener listener) throws IOException {
+    long loadStart = System.nanoTime();
+    Files.createDirectories(tempDir);
+    try (FSDirectory dir = FSDirectory.open(tempDir)) {
+      List<String> tempFiles = new ArrayList<>();
+      try {
+        long count = spill(in, dir, tempFiles, listener);
+        String unsorted = tempFiles.get(0);
+        
+        long start = System.nanoTime();
+        OfflineSorter sorter = new OfflineSorter(dir, SORT_PREFIX,
+            OfflineSorter.DEFAULT_COMPARATOR, OfflineSorter.BufferSize.megabytes(ramBufferMB),
+            OfflineSorter.MAX_TEMPFILES, -1, null, 0);
+        String sorted = sorter.sort(unsorted);
+        tempFiles.add(sorted);
+        listener.onProgress(new IngestProgress(IngestProgress.Phase.SORT, count,
+            System.nanoTime() - start, true));
         
-        b.add(toIntsRef(new BytesRef(rec.get(0))), new BytesRef(p));
+        build(dir, sorted, listener, loadStart);
+      } finally {
+        IOUtils.deleteFilesIgnoringExceptions(dir, tempFiles);
       }
     }
-    fst = b.finish();
-    in.close();
   }
   
+  /**
+   * Loads several dictionaries into a single FST, so that an input can be matched against all
+   * of them in one walk.  The payloads of each term are the tags of the dictionaries it is found
+   * in, in the order the sources are given; the payloads in the sources themselves are
+   * dropped.  The sources need not be sorted, but they are merged in memory.
+   * @param sources CSV sources keyed by the tag of each; the streams are closed once read
+   * @throws IOException If a source can't be read
+   */
+  public void loadTaggedDictionaries(Map<String, InputStream> sources) throws IOException {
+    long loadStart = System.nanoTime();
+    // BytesRef sorts in unsigned byte order, as the FST builder expects
+    SortedMap<BytesRef, Set<String>> tags = new TreeMap<>();
+    for (Map.Entry<String, InputStream> source : sources.entrySet()) {
+      try (InputStream in = source.getValue()) {
+        for (CSVRecord rec : csvFormat.parse(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+          tags.computeIfAbsent(new BytesRef(term(rec)), t -> new LinkedHashSet<>())
+              .add(source.getKey());
+        }
+      }
+    }
+    Builder<Long> b = new Builder<>(FST.INPUT_TYPE.BYTE1, PositiveIntOutputs.getSingleton());
+    PayloadTable table = new PayloadTable();
+    IntsRefBuilder scratchInts = new IntsRefBuilder();
+    for (Map.Entry<BytesRef, Set<String>> entry : tags.entrySet()) {
+      b.add(Util.toIntsRef(entry.getKey(), scratchInts),
+          output(table.intern(new ArrayList<>(entry.getValue()))));
+    }
+    publish(FSTDictionary.build(b, table, null), loadStart);
+  }
   
-  private IntsRef toIntsRef(BytesRef b) {
-    IntsRefBuilder irb = new IntsRefBuilder();
-    irb.grow(b.length);
-    irb.clear();
-    for (int i = 0; i < b.length; i++) {
-      irb.append(b.bytes[b.offset + i] & 0xFF);
+  /**
+   * Loads the dictionary from a compiled file if one exists and was built from the current
+   * contents of the source CSV.  Otherwise the FST is built from the source CSV and then saved
+   * to the compiled file for the next time.
+   * @param source Location of the CSV source
+   * @param compiled Path of the compiled dictionary file
+   * @throws IOException If the source can't be read or the compiled file can't be written
+   */
+  public void loadDictionary(URL source, Path compiled) throws IOException {
+    long checksum;
+    try (InputStream in = source.openStream()) {
+      checksum = checksum(in);
+    }
+    if (loadCompiled(compiled, checksum)) {
+      return;
     }
-    return irb.get();
+    loadDictionary(source.openStream());
+    saveCompiled(compiled, checksum);
   }
   
-  private <T> boolean hasPrefix(FST<T> fst, BytesRef input) throws IOException {
-    assert fst.inputType == FST.INPUT_TYPE.BYTE1;
-    
-    final FST.BytesReader fstReader = fst.getBytesReader();
-    
-    // TODO: would be nice not to alloc this on every lookup
-    final FST.Arc<T> arc = fst.getFirstArc(new FST.Arc<T>());
-    
-    // Accumulate output as we go
-    T output = fst.outputs.getNoOutput();
-    for (int i = 0; i < input.length; i++) {
-      if (fst.findTargetArc(input.bytes[i + input.offset] & 0xFF, arc, arc, fstReader) == null) {
+  /**
+   * Saves the currently loaded FST and its payload table to the specified file, along with the
+   * checksum of the source it was built from and the completion FST if there is one.  The file
+   * is written under a temporary name and then renamed, so readers never see a partially
+   * written file.
+   * @param compiled Path of the compiled dictionary file
+   * @param sourceChecksum Checksum of the source CSV (see checksum())
+   * @throws IOException If the file can't be written
+   */
+  public void saveCompiled(Path compiled, long sourceChecksum) throws IOException {
+    Path dir = compiled.toAbsolutePath().getParent();
+    Files.createDirectories(dir);
+    try (FSDirectory fsDir = FSDirectory.open(dir)) {
+      String tmpName;
+      try (IndexOutput out = fsDir.createTempOutput(
+          compiled.getFileName().toString(), "tmp", IOContext.DEFAULT)) {
+        tmpName = out.getName();
+        CodecUtil.writeHeader(out, COMPILED_CODEC, COMPILED_VERSION);
+        out.writeLong(sourceChecksum);
+        FSTDictionary current = dictionary;
+        current.payloads.write(out);
+        // The completion FST goes first: the lookup FST is read in place, which does not move
+        // past it
+        out.writeByte((byte) (current.completions == null ? 0 : 1));
+        if (current.completions != null) {
+          current.completions.save(out);
+        }
+        current.fst.save(out);
+        CodecUtil.writeFooter(out);
+      }
+      fsDir.sync(Collections.singleton(tmpName));
+      fsDir.rename(tmpName, compiled.getFileName().toString());
+      fsDir.syncMetaData();
+    }
+  }
+  
+  /**
+   * Loads a compiled dictionary file if it exists, has a compatible version and was built
+   * from a source with the specified checksum.  The file is memory mapped and the FST is
+   * read from the mapping rather than copied onto the heap; only the payload table and the
+   * completion FST, if there is one, are.
+   * @param compiled Path of the compiled dictionary file
+   * @param sourceChecksum Expected checksum of the source CSV
+   * @return Whether the compiled dictionary was loaded
+   * @throws IOException If the file exists but can't be read
+   */
+  public boolean loadCompiled(Path compiled, long sourceChecksum) throws IOException {
+    if (!Files.exists(compiled)) {
+      return false;
+    }
+    long loadStart = System.nanoTime();
+    Path dir = compiled.toAbsolutePath().getParent();
+    // The input is not closed here: the FST reads from the mapping for as long as it is in
+    // use, and the mapping is released once the FST is no longer reachable.
+    IndexInput in;
+    try (MMapDirectory mmapDir = new MMapDirectory(dir)) {
+      in = mmapDir.openInput(compiled.getFileName().toString(), IOContext.READ);
+    }
+    try {
+      CodecUtil.checkHeader(in, COMPILED_CODEC, COMPILED_VERSION, COMPILED_VERSION);
+      long start = in.getFilePointer();
+      CodecUtil.retrieveChecksum(in);
+      in.seek(start);
+      if (in.readLong() != sourceChecksum) {
+        in.close();
         return false;
       }
+      PayloadTable table = PayloadTable.read(in);
+      FST<Pair<Long, Long>> completions = in.readByte() == 0 ? null : new FST<>(in,
+          new PairOutputs<>(PositiveIntOutputs.getSingleton(), PositiveIntOutputs.getSingleton()));
+      FST<Long> loaded = new FST<>(in, PositiveIntOutputs.getSingleton(), new OffHeapFSTStore());
+      publish(new FSTDictionary(loaded, table, completions), loadStart);
+      return true;
+    } catch (CorruptIndexException | IndexFormatTooOldException | IndexFormatTooNewException e) {
+      // Written by an incompatible version or not completely written; rebuild from source
+      in.close();
+      return false;
     }
-    
-    return true;
+  }
+  
+  /**
+   * Computes the checksum recorded in compiled dictionary files for the specified source.
+   * The CSV format is included, as it changes how the source is parsed.
+   * @param in Source CSV
+   * @return Checksum
+   * @throws IOException If the source can't be read
+   */
+  public long checksum(InputStream in) throws IOException {
+    CRC32 crc = new CRC32();
+    crc.update(csvFormat.toString().getBytes(StandardCharsets.UTF_8));
+    byte[] buf = new byte[1 << 16];
+    int n;
+    while ((n = in.read(buf)) != -1) {
+      crc.update(buf, 0, n);
+    }
+    return crc.getValue();
   }
   
   public <T> boolean matchesCompletely(FST<T> fst, BytesRef input) throws IOException {
@@ -100,7 +360,7 @@ public class FSTDictionaryManager implements DictionaryManager {
     
     final FST.BytesReader fstReader = fst.getBytesReader();
     
-    // TODO: would be nice not to alloc this on every lookup
+    // Allocates on every call; repeated lookups should go through a DictionarySession
     final FST.Arc<T> arc = fst.getFirstArc(new FST.Arc<T>());
     
     // Accumulate output as we go
@@ -119,124 +379,327 @@ public class FSTDictionaryManager implements DictionaryManager {
     }
   }
   
-  private List<String> tokenize(String input) {
-    List<String> output = new ArrayList<>();
+  static String term(CSVRecord rec) {
+    return rec.size() == 1 ? rec.get(0).trim() : rec.get(0);
+  }
+  
+  static Set<String> payloads(CSVRecord rec) {
+    return payloads(rec, 1);
+  }
+  
+  private static Set<String> payloads(CSVRecord rec, int from) {
+    Set<String> payloads = new LinkedHashSet<>();
+    for (int i = from; i < rec.size(); i++) {
+      if (!rec.get(i).isEmpty()) {
+        payloads.add(rec.get(i));
+      }
+    }
+    return payloads;
+  }
+  
+  private static long weight(String weight, CSVRecord rec) {
     try {
-      TokenStream tstream = analyzer.tokenStream(null, new StringReader(input));
-      tstream.reset();
-      while (tstream.incrementToken()) {
-        output.add(tstream.getAttribute(CharTermAttribute.class).toString());
+      long value = Long.parseLong(weight);
+      if (value >= 0 && value <= MAX_WEIGHT) {
+        return value;
       }
-      tstream.close();
-    } catch (IOException e) {
-      // Won't happen b/c we're using StringReader and not an IO-based reader
-      throw new RuntimeException();
+    } catch (NumberFormatException e) {
+      // Reported below
     }
-    return output;
+    throw new IllegalArgumentException(
+        "Dictionary record " + rec.getRecordNumber() + " has an invalid weight: " + weight);
   }
   
-  @Override
-  public boolean hasTokens(List<String> t) throws IOException {
-    String key = String.join(" ", t);
-    return hasPrefix(fst, new BytesRef(key));
+  /**
+   * Makes the specified dictionary the current one, recording how long it took to load
+   */
+  void publish(FSTDictionary loaded, long start) {
+    dictionary = loaded;
+    buildNanos = System.nanoTime() - start;
   }
   
-  public boolean isCompleteMatch(List<String> t) throws IOException {
-    String key = String.join(" ", t);
-    return matchesCompletely(fst, new BytesRef(key));
+  // PositiveIntOutputs only accepts its own NO_OUTPUT instance for 0
+  static Long output(long ordinal) {
+    return ordinal == 0 ? PositiveIntOutputs.getSingleton().getNoOutput() : ordinal;
   }
   
-  @Override
-  public EntityInfo getEntity(List<String> tokens) throws IOException {
-    String key = String.join(" ", tokens);
-    EntityInfo ei = null;
-    BytesRef out = Util.get(fst, new BytesRef(key));
-    List<String> payloads = new ArrayList<>();
-    
-    if (out != null) {
-      String utf = out.utf8ToString();
-      utf = utf.trim();
-      if (!Strings.isNullOrEmpty(utf) && separator != null) {
-        String[] split = utf.split(separator);
-        payloads = Arrays.asList(split);
+  /**
+   * Writes each CSV record as a single entry to a temp file for OfflineSorter.  An entry holds
+   * the UTF-8 bytes of the term followed by each payload, all preceded by a 0 byte.  As 0 sorts
+   * lowest, entries for the same term end up next to each other and terms sort in the order
+   * the FST builder expects.
+   */
+  private long spill(InputStream in, Directory dir, List<String> tempFiles,
+                     IngestListener listener) throws IOException {
+    long start = System.nanoTime();
+    long count = 0;
+    BytesRefBuilder entry = new BytesRefBuilder();
+    try (IndexOutput out = dir.createTempOutput(SORT_PREFIX, "unsorted", IOContext.DEFAULT)) {
+      tempFiles.add(out.getName());
+      OfflineSorter.ByteSequencesWriter writer = new OfflineSorter.ByteSequencesWriter(out);
+      for (CSVRecord rec : csvFormat.parse(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+        entry.clear();
+        appendField(entry, term(rec), rec);
+        // The index of the record sorts the records of a term in CSV order
+        entry.append((byte) 0);
+        for (int shift = Long.SIZE - Byte.SIZE; shift >= 0; shift -= Byte.SIZE) {
+          entry.append((byte) (count >>> shift));
+        }
+        for (String payload : payloads(rec)) {
+          entry.append((byte) 0);
+          appendField(entry, payload, rec);
+        }
+        writer.write(entry.get());
+        if (++count % REPORT_INTERVAL == 0) {
+          listener.onProgress(new IngestProgress(IngestProgress.Phase.READ, count,
+              System.nanoTime() - start, false));
+        }
       }
-      ei = new EntityInfo(key, payloads);
+      CodecUtil.writeFooter(out);
+    } finally {
+      in.close();
     }
-    return ei;
+    listener.onProgress(new IngestProgress(IngestProgress.Phase.READ, count,
+        System.nanoTime() - start, true));
+    return count;
   }
   
-  @Override
-  public List<EntityAnnotation> findEntities(String input, boolean doNested, boolean doOverlap)
+  private static void appendField(BytesRefBuilder entry, String field, CSVRecord rec) {
+    if (field.indexOf(0) >= 0) {
+      throw new IllegalArgumentException(
+          "Dictionary record " + rec.getRecordNumber() + " contains a NUL character");
+    }
+    int length = entry.length();
+    entry.grow(length + UnicodeUtil.maxUTF8Length(field.length()));
+    entry.setLength(UnicodeUtil.UTF16toUTF8(field, 0, field.length(), entry.bytes(), length));
+  }
+  
+  /**
+   * Reads the sorted entries back, merges the payloads of consecutive entries for the same
+   * term and adds each term to a new FST.  Each entry is the term, a NUL, the index of its
+   * record as 8 big-endian bytes, then each payload preceded by a NUL.
+   */
+  private void build(Directory dir, String sorted, IngestListener listener, long loadStart)
       throws IOException {
-    List<EntityAnnotation> output = new ArrayList<>();
-    
-    List<String> tokens = tokenize(input);
-    int i = 0;
-    int maxMatchIdx = -1;
-    while (i < tokens.size()) {
-      int mark = i;
-      Set<List<String>> adds = new HashSet<>();
-      List<String> curr = new ArrayList<>();
-      do {
-        curr.add(tokens.get(mark++));
-        if (doNested && hasTokens(curr)) {
-          adds.add(new ArrayList<>(curr));
+    long start = System.nanoTime();
+    long count = 0;
+    Builder<Long> b = new Builder<>(FST.INPUT_TYPE.BYTE1, PositiveIntOutputs.getSingleton());
+    PayloadTable table = new PayloadTable();
+    IntsRefBuilder scratchInts = new IntsRefBuilder();
+    BytesRefBuilder term = new BytesRefBuilder();
+    Set<String> payloads = new LinkedHashSet<>();
+    try (ChecksumIndexInput input = dir.openChecksumInput(sorted, IOContext.READONCE)) {
+      OfflineSorter.ByteSequencesReader reader =
+          new OfflineSorter.ByteSequencesReader(input, sorted);
+      BytesRef entry;
+      while ((entry = reader.next()) != null) {
+        int end = entry.offset + entry.length;
+        int termEnd = entry.offset;
+        while (termEnd < end && entry.bytes[termEnd] != 0) {
+          termEnd++;
         }
-      } while (hasTokens(curr) && mark < tokens.size());
-      if (!doNested) {
-        List<String> longestMatch = (mark == tokens.size() && hasTokens(curr)) ?
-            curr : curr.subList(0, curr.size() - 1);
-        if (longestMatch.size() > 0) {
-          if (i >= maxMatchIdx) {
-            adds.add(longestMatch);
-          } else if (doOverlap && (i + longestMatch.size()) >= maxMatchIdx) {
-            adds.add(longestMatch);
+        if (count == 0 || !FutureArrays.equals(term.bytes(), 0, term.length(),
+            entry.bytes, entry.offset, termEnd)) {
+          if (count > 0) {
+            b.add(Util.toIntsRef(term.get(), scratchInts),
+                output(table.intern(new ArrayList<>(payloads))));
+          }
+          term.copyBytes(entry.bytes, entry.offset, termEnd - entry.offset);
+          payloads.clear();
+          if (++count % REPORT_INTERVAL == 0) {
+            listener.onProgress(new IngestProgress(IngestProgress.Phase.BUILD, count,
+                System.nanoTime() - start, false));
           }
         }
-      }
-      
-      int longest = 0;
-      for (List<String> add : adds) {
-        longest = Math.max(longest, add.size());
-        EntityInfo ei = add.size() > 0 ? getEntity(add) : null;
-        if (ei != null) {
-          maxMatchIdx = i + add.size();
-          output.add(new EntityAnnotation(new Range(i, i + add.size()), ei));
-        }
-      }
-      if (!doOverlap && adds.size() > 0) {
-        if (mark == tokens.size() && doNested) {
-        
-        } else {
-          i += longest - 1;
+        for (int i = termEnd + 1 + Long.BYTES; i < end; ) {
+          int from = i + 1;
+          i = from;
+          while (i < end && entry.bytes[i] != 0) {
+            i++;
+          }
+          payloads.add(new String(entry.bytes, from, i - from, StandardCharsets.UTF_8));
         }
       }
-      if (doOverlap && !doNested && mark == tokens.size()) {
-        i += Math.max(longest - 1, 0);
+      if (count > 0) {
+        b.add(Util.toIntsRef(term.get(), scratchInts),
+            output(table.intern(new ArrayList<>(payloads))));
       }
-      
-      i++;
+      CodecUtil.checkFooter(input);
     }
-    
-    return output;
+    publish(FSTDictionary.build(b, table, null), loadStart);
+    listener.onProgress(new IngestProgress(IngestProgress.Phase.BUILD, count,
+        System.nanoTime() - start, true));
+  }
+  
+  private List<String> tokenize(String input) {
+    return EntityFinder.tokenize(analyzer, input);
+  }
+  
+  @Override
+  public boolean hasTokens(List<String> t) throws IOException {
+    boolean found = session().hasTokens(t);
+    counters.record(found, t.size());
+    return found;
+  }
+  
+  public boolean isCompleteMatch(List<String> t) throws IOException {
+    boolean found = session().isCompleteMatch(t);
+    counters.record(found, t.size());
+    return found;
+  }
+  
+  /**
+   * Answers whether the specified input, once tokenized with the analyzer of the dictionary,
+   * is a whole term of the dictionary
+   * @param input Input to look up
+   * @return Whether the input is a term
+   * @throws IOException If the dictionary can't be read
+   */
+  public boolean hasTerm(String input) throws IOException {
+    return isCompleteMatch(tokenize(input));
+  }
+  
+  /**
+   * Lists the terms of the dictionary, in the order of their UTF-8 bytes.  This walks the
+   * whole FST, so is meant for small dictionaries or occasional use.
+   * @return Terms of the dictionary; empty if no dictionary is loaded
+   * @throws IOException If the dictionary can't be read
+   */
+  public List<String> getTerms() throws IOException {
+    List<String> terms = new ArrayList<>();
+    FSTDictionary d = dictionary;
+    if (d == null || d.fst == null) {
+      return terms;
+    }
+    BytesRefFSTEnum<Long> fstEnum = new BytesRefFSTEnum<>(d.fst);
+    for (BytesRefFSTEnum.InputOutput<Long> e = fstEnum.next(); e != null; e = fstEnum.next()) {
+      terms.add(e.input.utf8ToString());
+    }
+    return terms;
+  }
+  
+  @Override
+  public EntityInfo getEntity(List<String> tokens) throws IOException {
+    EntityInfo entity = session().getEntity(tokens);
+    counters.record(entity != null, tokens.size());
+    return entity;
+  }
+  
+  @Override
+  public PrefixCursor newCursor() {
+    return new FSTPrefixCursor(dictionary);
+  }
+  
+  /**
+   * Creates a new WildcardMatcher over the currently loaded dictionary, whose keys use the
+   * specified token as a wildcard.  Matchers are not thread safe.
+   * @param wildcard Wildcard token, e.g. "*"
+   * @return New matcher
+   */
+  public WildcardMatcher newWildcardMatcher(String wildcard) {
+    return new WildcardMatcher(dictionary, null, wildcard, counters);
+  }
+  
+  /**
+   * Creates a new lookup session against the currently loaded dictionary.  A session reuses
+   * its arcs and buffers across lookups, so holding on to one per thread (or per request)
+   * avoids allocating them on every call.  Sessions are not thread safe.
+   * @return New session
+   */
+  public DictionarySession newSession() {
+    return new DictionarySession(dictionary);
+  }
+  
+  /**
+   * Finds the heaviest terms in the dictionary that start with the specified prefix, heaviest
+   * first.  The prefix is matched against the terms as they are, without being analyzed, and
+   * a term equal to the prefix is a completion too.  Only dictionaries loaded with
+   * loadWeightedDictionary() can be completed.
+   * @param prefix Start of the terms, e.g. what has been typed so far
+   * @param n Maximum number of completions to return
+   * @return The completions, each with the payloads of its term
+   * @throws IOException If the dictionary can't be read from
+   * @throws IllegalStateException If the dictionary was not loaded with weights
+   */
+  public List<EntityInfo> complete(String prefix, int n) throws IOException {
+    return session().complete(prefix, n);
+  }
+  
+  FST<Long> getFST() {
+    return dictionary.fst;
+  }
+  
+  private DictionarySession session() {
+    DictionarySession session = sessions.get();
+    FSTDictionary current = dictionary;
+    if (session == null || !session.isFor(current)) {
+      session = new DictionarySession(current);
+      sessions.set(session);
+    }
+    return session;
+  }
+  
+  PayloadTable getPayloadTable() {
+    return dictionary.payloads;
+  }
+  
+  FSTDictionary getDictionary() {
+    return dictionary;
+  }
+  
+  /**
+   * {@inheritDoc}
+   * <p/>
+   * The RAM figure covers the FST, the completion FST if there is one, and the payload table.
+   * Dictionaries loaded from a compiled file report -1 nodes and arcs, as they are not
+   * recorded in the file.
+   */
+  @Override
+  public DictionaryStats getStats() {
+    return DictionaryStats.of(dictionary, buildNanos, counters);
+  }
+  
+  /**
+   * Gets the distinct payloads of the loaded dictionary, e.g. to precompile them.  Lookups
+   * hand out these same String instances.
+   * @return Unmodifiable view of the payloads; empty if no dictionary is loaded
+   */
+  public Collection<String> getPayloads() {
+    FSTDictionary current = dictionary;
+    return current == null ? Collections.emptySet() : current.payloads.strings();
+  }
+  
+  LookupCounters getCounters() {
+    return counters;
+  }
+  
+  /**
+   * {@inheritDoc}
+   * <p/>
+   * Makes a single forward walk of the FST per start position using a PrefixCursor, so the
+   * cost per start position is linear in the length of the longest matching span.  The input
+   * is tokenized into a reused TokenBuffer and the cursor walks the terms in place, so no
+   * String is built per token.
+   */
+  @Override
+  public List<EntityAnnotation> findEntities(String input, boolean doNested, boolean doOverlap)
+      throws IOException {
+    return EntityFinder.findEntities(tokenizer.tokenize(input), session().getCursor(), doNested,
+        doOverlap, counters);
   }
   
   @Override
   public List<String> findEntityStrings(String input, boolean doNested, boolean doOverlap)
       throws IOException {
-    List<EntityAnnotation> entities = findEntities(input, doNested, doOverlap);
-    List<EntityInfo> entityInfos = entities.stream()
-        .map(e -> e.getEntityInfo())
-        .collect(Collectors.toList());
-    Set<String> found = new HashSet<>();
-    for (EntityInfo ei : entityInfos) {
-      if (ei.getPayloads().size() > 0) {
-        found.addAll(ei.getPayloads());
-      } else {
-        found.add(ei.getTerm());
-      }
-    }
-    
-    return new ArrayList<>(found);
+    return EntityFinder.toEntityStrings(findEntities(input, doNested, doOverlap));
+  }
+  
+  @Override
+  public List<EntityAnnotation> findFuzzyEntities(String input, boolean doNested,
+                                                  boolean doOverlap, FuzzyOptions options)
+      throws IOException {
+    FSTDictionary dict = dictionary;
+    return FuzzyMatcher.findEntities(tokenize(input), doNested, doOverlap, options,
+        matcher -> matcher.intersect(dict, null));
   }
 }
\ No newline at end of file
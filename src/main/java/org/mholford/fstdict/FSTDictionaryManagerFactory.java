@@ -4,6 +4,9 @@ import org.apache.commons.csv.CSVFormat;
 import org.apache.lucene.analysis.Analyzer;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+
 /**
  * Factory to build FSTDictionaryManager.  The default settings should suffice in
  * most cases; but the following parameters may be specified:
@@ -31,6 +34,14 @@ public class FSTDictionaryManagerFactory {
     return INSTANCE;
   }
   
+  /**
+   * Gets the Lucene analyzer the managers created with default settings use
+   * @return Default analyzer
+   */
+  public Analyzer getDefaultAnalyzer() {
+    return defaultAnalyzer;
+  }
+  
   /**
    * Creates the default FST dictionary manager, using default CSV settings and Lucene
    * standard analyzer.  This should be sufficient for majority of cases.
@@ -50,4 +61,140 @@ public class FSTDictionaryManagerFactory {
   public FSTDictionaryManager create(Analyzer analyzer, CSVFormat csvFormat) {
     return new FSTDictionaryManager(analyzer, csvFormat);
   }
+  
+  /**
+   * Creates an overlay dictionary manager, which accepts updates while serving lookups, using
+   * default CSV settings, Lucene standard analyzer and compaction threshold.
+   * @return Overlay dictionary manager
+   */
+  public OverlayDictionaryManager createOverlay() {
+    return createOverlay(defaultAnalyzer, defaultCSVFormat,
+        OverlayDictionaryManager.DEFAULT_COMPACT_THRESHOLD);
+  }
+  
+  /**
+   * Creates an overlay dictionary manager with the specified Lucene analyzer, Commons-CSV
+   * format and compaction threshold.
+   * @param analyzer Lucene analyzer to handle tokenization
+   * @param csvFormat CSV format settings for the input
+   * @param compactThreshold Number of updates after which they are merged into the base FST
+   * @return Overlay dictionary manager
+   */
+  public OverlayDictionaryManager createOverlay(Analyzer analyzer, CSVFormat csvFormat,
+                                                int compactThreshold) {
+    return new OverlayDictionaryManager(create(analyzer, csvFormat), analyzer, compactThreshold);
+  }
+  
+  /**
+   * Creates a sharded dictionary manager using default CSV settings and Lucene standard
+   * analyzer.  The dictionary is split into one shard per available processor and the shards
+   * are built on the common ForkJoinPool.
+   * @return Sharded dictionary manager
+   */
+  public ShardedDictionaryManager createSharded() {
+    return createSharded(Runtime.getRuntime().availableProcessors());
+  }
+  
+  /**
+   * Creates a sharded dictionary manager with the specified number of shards, using default
+   * CSV settings and Lucene standard analyzer.  The shards are built on the common
+   * ForkJoinPool.
+   * @param numShards Number of shards to split the dictionary into
+   * @return Sharded dictionary manager
+   */
+  public ShardedDictionaryManager createSharded(int numShards) {
+    return createSharded(defaultAnalyzer, defaultCSVFormat, numShards, ForkJoinPool.commonPool());
+  }
+  
+  /**
+   * Creates a sharded dictionary manager with the specified Lucene analyzer, Commons-CSV
+   * format and number of shards.
+   * @param analyzer Lucene analyzer to handle tokenization
+   * @param csvFormat CSV format settings for the input
+   * @param numShards Number of shards to split the dictionary into
+   * @param pool Pool to build the shards on
+   * @return Sharded dictionary manager
+   */
+  public ShardedDictionaryManager createSharded(Analyzer analyzer, CSVFormat csvFormat,
+                                                int numShards, ForkJoinPool pool) {
+    return new ShardedDictionaryManager(analyzer, csvFormat, numShards, pool);
+  }
+  
+  /**
+   * Creates an Aho-Corasick dictionary manager, which finds all nested and overlapping
+   * entities in a single pass over the input, using default CSV settings and Lucene standard
+   * analyzer.
+   * @return Aho-Corasick dictionary manager
+   */
+  public AhoCorasickDictionaryManager createAhoCorasick() {
+    return createAhoCorasick(defaultAnalyzer, defaultCSVFormat);
+  }
+  
+  /**
+   * Creates an Aho-Corasick dictionary manager with the specified Lucene analyzer and
+   * Commons-CSV format.
+   * @param analyzer Lucene analyzer to handle tokenization
+   * @param csvFormat CSV format settings for the input
+   * @return Aho-Corasick dictionary manager
+   */
+  public AhoCorasickDictionaryManager createAhoCorasick(Analyzer analyzer, CSVFormat csvFormat) {
+    return new AhoCorasickDictionaryManager(analyzer, csvFormat);
+  }
+  
+  /**
+   * Creates a dictionary manager whose FST is keyed on token ids, using a vocabulary of its
+   * own, default CSV settings and Lucene standard analyzer.
+   * @return Token id dictionary manager
+   */
+  public TokenIdDictionaryManager createTokenId() {
+    return createTokenId(new TokenVocabulary());
+  }
+  
+  /**
+   * Creates a dictionary manager whose FST is keyed on token ids, using the specified token
+   * vocabulary, default CSV settings and Lucene standard analyzer.
+   * @param vocabulary Vocabulary to map the tokens of the terms to ids with
+   * @return Token id dictionary manager
+   */
+  public TokenIdDictionaryManager createTokenId(TokenVocabulary vocabulary) {
+    return createTokenId(vocabulary, defaultAnalyzer, defaultCSVFormat);
+  }
+  
+  /**
+   * Creates a dictionary manager whose FST is keyed on token ids, with the specified token
+   * vocabulary, Lucene analyzer and Commons-CSV format.
+   * @param vocabulary Vocabulary to map the tokens of the terms to ids with
+   * @param analyzer Lucene analyzer to handle tokenization
+   * @param csvFormat CSV format settings for the input
+   * @return Token id dictionary manager
+   */
+  public TokenIdDictionaryManager createTokenId(TokenVocabulary vocabulary, Analyzer analyzer,
+                                                CSVFormat csvFormat) {
+    return new TokenIdDictionaryManager(vocabulary, analyzer, csvFormat);
+  }
+  
+  /**
+   * Creates a batch extractor over the specified dictionary manager, which processes one
+   * input per available processor at once on the common ForkJoinPool.
+   * @param dm Dictionary manager to extract entities with
+   * @return Batch extractor
+   */
+  public BatchExtractor createBatchExtractor(DictionaryManager dm) {
+    return createBatchExtractor(dm, ForkJoinPool.commonPool(),
+        Runtime.getRuntime().availableProcessors());
+  }
+  
+  /**
+   * Creates a batch extractor over the specified dictionary manager, which processes the
+   * specified number of inputs at once on the specified executor.
+   * @param dm Dictionary manager to extract entities with
+   * @param executor Executor to run the extractions on
+   * @param parallelism Number of inputs to process at once; this should be the number of
+   *                    threads of the executor that may be used
+   * @return Batch extractor
+   */
+  public BatchExtractor createBatchExtractor(DictionaryManager dm, Executor executor,
+                                             int parallelism) {
+    return new BatchExtractor(dm, executor, parallelism);
+  }
 }
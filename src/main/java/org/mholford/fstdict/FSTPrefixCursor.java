@@ -0,0 +1,118 @@
+package org.mholford.fstdict;
+
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.fst.FST;
+
+import java.io.IOException;
+
+/**
+ * PrefixCursor over an FST built by FSTDictionaryManager.  The cursor holds on to the
+ * current FST.Arc and the payload ordinal accumulated along the way; advancing by a token follows
+ * the space byte and then the UTF-8 bytes of the token from there.  A scratch arc is used
+ * for the walk, so a failed advance leaves the cursor untouched.  Arcs and byte buffers are
+ * reused, so advancing does not allocate once the buffers have grown.
+ * <p/>
+ * The cursor keeps a reference to the dictionary that was loaded when it was created.
+ */
+class FSTPrefixCursor implements PrefixCursor {
+  private static final int SPACE = ' ';
+  
+  private final FSTDictionary dictionary;
+  private final FST<Long> fst;
+  private final FST.BytesReader fstReader;
+  private final FST.Arc<Long> arc = new FST.Arc<>();
+  private final FST.Arc<Long> scratchArc = new FST.Arc<>();
+  private final BytesRefBuilder scratchBytes = new BytesRefBuilder();
+  private final StringBuilder term = new StringBuilder();
+  private long ordinal;
+  private long scratchOrdinal;
+  private int depth;
+  
+  FSTPrefixCursor(FSTDictionary dictionary) {
+    this.dictionary = dictionary;
+    this.fst = dictionary.fst;
+    fstReader = fst.getBytesReader();
+    reset();
+  }
+  
+  @Override
+  public void reset() {
+    fst.getFirstArc(arc);
+    ordinal = 0;
+    term.setLength(0);
+    depth = 0;
+  }
+  
+  @Override
+  public boolean advance(String token) throws IOException {
+    scratchBytes.copyChars(token);
+    if (!walk()) {
+      return false;
+    }
+    term.append(token);
+    return true;
+  }
+  
+  @Override
+  public boolean advance(char[] buffer, int offset, int length) throws IOException {
+    scratchBytes.copyChars(buffer, offset, length);
+    if (!walk()) {
+      return false;
+    }
+    term.append(buffer, offset, length);
+    return true;
+  }
+  
+  /**
+   * Walks the space and then the token bytes in scratchBytes from the current arc.  On
+   * success the cursor moves forward, and the caller appends the token to the term.
+   */
+  private boolean walk() throws IOException {
+    scratchArc.copyFrom(arc);
+    scratchOrdinal = ordinal;
+    if (depth > 0 && !step(SPACE)) {
+      return false;
+    }
+    byte[] bytes = scratchBytes.bytes();
+    for (int i = 0; i < scratchBytes.length(); i++) {
+      if (!step(bytes[i] & 0xFF)) {
+        return false;
+      }
+    }
+    
+    arc.copyFrom(scratchArc);
+    ordinal = scratchOrdinal;
+    if (depth > 0) {
+      term.append(' ');
+    }
+    depth++;
+    return true;
+  }
+  
+  @Override
+  public boolean isMatch() {
+    return depth > 0 && arc.isFinal();
+  }
+  
+  @Override
+  public EntityInfo getEntity() {
+    if (!isMatch()) {
+      return null;
+    }
+    return dictionary.toEntityInfo(term.toString(), ordinal + arc.nextFinalOutput);
+  }
+  
+  @Override
+  public int depth() {
+    return depth;
+  }
+  
+  // The outputs of a PositiveIntOutputs FST are summed along the path
+  private boolean step(int label) throws IOException {
+    if (fst.findTargetArc(label, scratchArc, scratchArc, fstReader) == null) {
+      return false;
+    }
+    scratchOrdinal += scratchArc.output;
+    return true;
+  }
+}
@@ -0,0 +1,27 @@
+package org.mholford.fstdict;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * DictionaryManager that can also match entities with typos.  Only managers that keep the
+ * characters of their terms, and can thus intersect them with a Levenshtein automaton,
+ * implement it; callers holding a DictionaryManager should check for it with instanceof.
+ */
+public interface FuzzyDictionaryManager extends DictionaryManager {
+  /**
+   * Retrieves all entities found in a given input, tolerating typos.  Each span of the input
+   * is matched against the dictionary terms within the allowed edits of it, and the terms at
+   * the smallest edit distance are returned, along with that distance.  Exact matches thus
+   * take precedence over inexact ones.  The dictionary is searched by intersecting it with a
+   * Levenshtein automaton, so the cost does not grow with the size of the dictionary.
+   * @param input Input to extract entities from
+   * @param doNested Extract shorter entities starting where a longer one starts
+   * @param doOverlap Extract entities starting inside another entity
+   * @param options Fuzzy matching settings (maximum edits, exact prefix length, budget)
+   * @return List of Entity Annotations (range + entity + edit distance) found in the input
+   * @throws IOException If the dictionary can't be read
+   */
+  List<EntityAnnotation> findFuzzyEntities(String input, boolean doNested, boolean doOverlap,
+                                           FuzzyOptions options) throws IOException;
+}
@@ -0,0 +1,347 @@
+package org.mholford.fstdict;
+
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.UnicodeUtil;
+import org.apache.lucene.util.fst.FST;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+
+/**
+ * Fuzzy entity extraction, shared by the DictionaryManager implementations.  For each start
+ * position, the FST is walked while tracking the edit distance between the path walked so far
+ * and the rest of the input, one row of the edit distance matrix per character (the row is
+ * the state of the Levenshtein automaton of the input).  Only the cells within the maximum
+ * edits of the diagonal are computed, and a branch of the FST is dropped as soon as every cell
+ * of its row exceeds the maximum edits, so only the terms close to the input are ever visited.
+ * A single walk finds the matches of every span starting at that position.
+ * <p/>
+ * A FuzzyMatcher holds the state of a single call (the arc budget, and the input being
+ * matched), so it is not thread safe.
+ */
+final class FuzzyMatcher {
+  /**
+   * Source of the dictionary terms to match the input against
+   */
+  interface TermSource {
+    void intersect(FuzzyMatcher matcher) throws IOException;
+  }
+  
+  private final FuzzyOptions options;
+  private int arcsLeft;
+  private int[] query;
+  private int[] spanEnds;
+  private int[] spanEdits;
+  private int maxEdits;
+  private int limit;
+  private int prefixLength;
+  private final List<int[]> rows = new ArrayList<>();
+  private int[] termChars = new int[16];
+  private int[] rowMins = new int[16];
+  private final List<FST.Arc<Long>> arcs = new ArrayList<>();
+  private final byte[] utf8 = new byte[4];
+  private int[] bestDistance;
+  private List<List<EntityInfo>> best;
+  
+  private FuzzyMatcher(FuzzyOptions options) {
+    this.options = options;
+    arcsLeft = options.getMaxArcs();
+  }
+  
+  /**
+   * Finds all entities within the allowed edits of the specified tokens.  For each span, only
+   * the terms at the smallest edit distance are kept.  See findFuzzyEntities() in
+   * DictionaryManager.
+   * @param tokens Tokenized input
+   * @param doNested Extract shorter entities starting where a longer one starts
+   * @param doOverlap Extract entities starting inside another entity
+   * @param options Fuzzy matching settings
+   * @param source Dictionary to match against
+   * @return List of Entity Annotations (range + entity + edit distance) found in the input
+   * @throws IOException If the dictionary can't be read
+   */
+  static List<EntityAnnotation> findEntities(List<String> tokens, boolean doNested,
+                                             boolean doOverlap, FuzzyOptions options,
+                                             TermSource source) throws IOException {
+    FuzzyMatcher matcher = new FuzzyMatcher(options);
+    List<EntityAnnotation> output = new ArrayList<>();
+    int i = 0;
+    while (i < tokens.size() && matcher.arcsLeft > 0) {
+      matcher.start(tokens.subList(i, tokens.size()));
+      source.intersect(matcher);
+      List<EntityAnnotation> found = new ArrayList<>();
+      int longest = i;
+      for (int s = 0; s < matcher.spanEnds.length; s++) {
+        List<EntityInfo> infos = matcher.best.get(s);
+        if (infos.isEmpty()) {
+          continue;
+        }
+        if (!doNested) {
+          found.clear();
+        }
+        infos.sort(Comparator.comparing(EntityInfo::getTerm));
+        for (EntityInfo ei : infos) {
+          found.add(new EntityAnnotation(new Range(i, i + s + 1), ei, matcher.bestDistance[s]));
+        }
+        longest = i + s + 1;
+      }
+      output.addAll(found);
+      i = doOverlap || longest == i ? i + 1 : longest;
+    }
+    return output;
+  }
+  
+  /**
+   * Walks the specified dictionary, collecting the terms within the allowed edits of a span
+   * of the input.
+   * @param dict Dictionary to walk
+   * @param exclude Terms to skip, or null
+   * @throws IOException If the dictionary can't be read
+   */
+  void intersect(FSTDictionary dict, Predicate<String> exclude) throws IOException {
+    if (dict == null || dict.fst == null) {
+      return;
+    }
+    FST.Arc<Long> root = dict.fst.getFirstArc(new FST.Arc<>());
+    walk(dict, dict.fst.getBytesReader(), root, 0, 0, 0, 0, new BytesRefBuilder(), exclude);
+  }
+  
+  /**
+   * Collects the specified term if it is within the allowed edits of a span of the input.
+   * Used for terms that are not in an FST.
+   * @param term Term to check
+   * @param payloads Payloads of the term
+   */
+  void offer(String term, List<String> payloads) {
+    int depth = 0;
+    for (int i = 0; i < term.length(); i += Character.charCount(term.codePointAt(i))) {
+      arcsLeft--;
+      if (!step(depth++, term.codePointAt(i))) {
+        return;
+      }
+    }
+    collect(depth, () -> new EntityInfo(term, payloads));
+  }
+  
+  /**
+   * Prepares to match the spans starting with the first of the specified tokens
+   */
+  private void start(List<String> tokens) {
+    StringBuilder sb = new StringBuilder();
+    spanEnds = new int[tokens.size()];
+    spanEdits = new int[tokens.size()];
+    for (int t = 0; t < tokens.size(); t++) {
+      if (t > 0) {
+        sb.append(' ');
+      }
+      sb.append(tokens.get(t));
+      spanEnds[t] = sb.codePointCount(0, sb.length());
+      spanEdits[t] = options.editsFor(spanEnds[t]);
+    }
+    query = sb.codePoints().toArray();
+    maxEdits = spanEdits[spanEdits.length - 1];
+    limit = maxEdits + 1;
+    prefixLength = Math.min(options.getPrefixLength(), spanEnds[0]);
+    rows.clear();
+    int[] first = new int[query.length + 1];
+    for (int j = 0; j < first.length; j++) {
+      first[j] = Math.min(j, limit);
+    }
+    rows.add(first);
+    rowMins[0] = 0;
+    bestDistance = new int[spanEnds.length];
+    Arrays.fill(bestDistance, Integer.MAX_VALUE);
+    best = new ArrayList<>(spanEnds.length);
+    for (int s = 0; s < spanEnds.length; s++) {
+      best.add(new ArrayList<>());
+    }
+  }
+  
+  private void walk(FSTDictionary dict, FST.BytesReader in, FST.Arc<Long> node, int depth,
+                    int partial, int pending, long output, BytesRefBuilder term,
+                    Predicate<String> exclude) throws IOException {
+    if (!FST.targetHasArcs(node)) {
+      return;
+    }
+    if (pending == 0 && (depth < prefixLength || rowMins[depth] == maxEdits)) {
+      seek(dict, in, node, depth, output, term, exclude);
+      return;
+    }
+    FST.Arc<Long> arc = dict.fst.readFirstTargetArc(node, arc(term.length()), in);
+    while (arcsLeft-- > 0) {
+      if (arc.label != FST.END_LABEL) {
+        // Terms are UTF-8, so a character may take several arcs
+        int b = arc.label;
+        int c;
+        int remaining;
+        if (pending > 0) {
+          c = partial << 6 | (b & 0x3F);
+          remaining = pending - 1;
+        } else if (b < 0x80) {
+          c = b;
+          remaining = 0;
+        } else {
+          remaining = b >= 0xF0 ? 3 : b >= 0xE0 ? 2 : 1;
+          c = b & (0x3F >> remaining);
+        }
+        if (remaining > 0 || step(depth, c)) {
+          int length = term.length();
+          term.append((byte) b);
+          long out = output + arc.output;
+          int next = remaining > 0 ? depth : depth + 1;
+          if (remaining == 0 && arc.isFinal()) {
+            collect(dict, next, term, out + arc.nextFinalOutput, exclude);
+          }
+          walk(dict, in, arc, next, c, remaining, out, term, exclude);
+          term.setLength(length);
+        }
+      }
+      if (arc.isLast()) {
+        return;
+      }
+      dict.fst.readNextArc(arc, in);
+    }
+  }
+  
+  /**
+   * Follows only the arcs for the characters of the input around the current depth.  Used
+   * where no edits are left (or within the exact prefix), as then any other character would
+   * take every cell of the next row over the maximum edits; this saves scanning every arc of
+   * the node.
+   */
+  private void seek(FSTDictionary dict, FST.BytesReader in, FST.Arc<Long> node, int depth,
+                    long output, BytesRefBuilder term, Predicate<String> exclude)
+      throws IOException {
+    int lo = depth < prefixLength ? depth : Math.max(0, depth - maxEdits - 1);
+    int hi = depth < prefixLength ? depth : Math.min(query.length - 1, depth + maxEdits);
+    int length = term.length();
+    candidates:
+    for (int j = lo; j <= hi; j++) {
+      int c = query[j];
+      for (int k = lo; k < j; k++) {
+        if (query[k] == c) {
+          continue candidates;
+        }
+      }
+      FST.Arc<Long> arc = node;
+      long out = output;
+      int n = UnicodeUtil.UTF16toUTF8(Character.toChars(c), 0, Character.charCount(c), utf8);
+      for (int i = 0; i < n && arc != null; i++) {
+        arcsLeft--;
+        arc = dict.fst.findTargetArc(utf8[i] & 0xFF, arc, arc(term.length()), in);
+        if (arc != null) {
+          term.append(utf8[i]);
+          out += arc.output;
+        }
+      }
+      if (arc != null && step(depth, c)) {
+        if (arc.isFinal()) {
+          collect(dict, depth + 1, term, out + arc.nextFinalOutput, exclude);
+        }
+        walk(dict, in, arc, depth + 1, 0, 0, out, term, exclude);
+      }
+      term.setLength(length);
+    }
+  }
+  
+  /**
+   * Gets the arc to read the byte at the specified position of the term into.  Arcs are
+   * reused, as the walk only needs one per position at a time.
+   */
+  private FST.Arc<Long> arc(int position) {
+    while (arcs.size() <= position) {
+      arcs.add(new FST.Arc<>());
+    }
+    return arcs.get(position);
+  }
+  
+  /**
+   * Computes the row of the edit distance matrix for a term whose depth'th character is the
+   * specified character.  Counts a transposition as one edit if the options allow it (optimal
+   * string alignment distance).  Cells are capped at maxEdits + 1.
+   * @return Whether some cell of the new row is within the maximum edits
+   */
+  private boolean step(int depth, int c) {
+    if (depth < prefixLength && query[depth] != c) {
+      return false;
+    }
+    if (depth + 1 == rows.size()) {
+      int[] row = new int[query.length + 1];
+      Arrays.fill(row, limit);
+      rows.add(row);
+    }
+    if (depth + 1 == termChars.length) {
+      termChars = Arrays.copyOf(termChars, termChars.length * 2);
+      rowMins = Arrays.copyOf(rowMins, rowMins.length * 2);
+    }
+    termChars[depth] = c;
+    int[] prev = rows.get(depth);
+    int[] row = rows.get(depth + 1);
+    int d = depth + 1;
+    int lo = Math.max(0, d - maxEdits);
+    int hi = Math.min(query.length, d + maxEdits);
+    int min = limit;
+    for (int j = lo; j <= hi; j++) {
+      int v;
+      if (j == 0) {
+        v = d;
+      } else {
+        // Cells outside the band are never written, so they stay at the cap
+        v = Math.min(prev[j - 1] + (query[j - 1] == c ? 0 : 1), Math.min(prev[j], row[j - 1]) + 1);
+        if (options.isTranspositions() && depth > 0 && j > 1 &&
+            query[j - 1] == termChars[depth - 1] && query[j - 2] == c) {
+          v = Math.min(v, rows.get(depth - 1)[j - 2] + 1);
+        }
+      }
+      row[j] = Math.min(v, limit);
+      min = Math.min(min, row[j]);
+    }
+    rowMins[d] = min;
+    return min <= maxEdits;
+  }
+  
+  /**
+   * Records the term that was walked to for each span it is close enough to.
+   */
+  private void collect(FSTDictionary dict, int depth, BytesRefBuilder term, long ordinal,
+                       Predicate<String> exclude) {
+    collect(depth, () -> {
+      String key = term.get().utf8ToString();
+      return exclude != null && exclude.test(key) ? null : dict.toEntityInfo(key, ordinal);
+    });
+  }
+  
+  /**
+   * Records a term of the specified length (in characters) for each span it is close enough
+   * to; the term is only looked up if it is.  The supplier returns null for excluded terms.
+   */
+  private void collect(int depth, Supplier<EntityInfo> info) {
+    if (depth < prefixLength) {
+      return;
+    }
+    int[] row = rows.get(depth);
+    EntityInfo ei = null;
+    for (int s = 0; s < spanEnds.length; s++) {
+      int distance = row[spanEnds[s]];
+      if (distance > spanEdits[s] || distance > bestDistance[s]) {
+        continue;
+      }
+      if (ei == null) {
+        ei = info.get();
+        if (ei == null) {
+          return;
+        }
+      }
+      if (distance < bestDistance[s]) {
+        bestDistance[s] = distance;
+        best.get(s).clear();
+      }
+      best.get(s).add(ei);
+    }
+  }
+}
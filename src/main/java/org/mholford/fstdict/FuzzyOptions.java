@@ -0,0 +1,98 @@
+package org.mholford.fstdict;
+
+import org.apache.lucene.util.automaton.LevenshteinAutomata;
+
+/**
+ * Simple POJO holding the settings of a fuzzy (typo tolerant) entity extraction.  Spans of
+ * the input are matched against dictionary terms within a maximum number of edits, where an
+ * edit is the insertion, deletion or substitution of one character (or, optionally, the
+ * transposition of two adjacent characters).  Short spans are given fewer edits than the
+ * maximum, as they would otherwise match too many terms: spans of up to 2 characters must
+ * match exactly and spans of up to 5 characters are allowed at most 1 edit.
+ * FuzzyOptions objects are immutable.
+ */
+public class FuzzyOptions {
+  /**
+   * Up to 1 edit, the first character must match, transpositions allowed and a budget of
+   * 20,000 arcs.  Allowing 2 edits catches more typos, but visits many more terms of a large
+   * dictionary (an order of magnitude more on a dense one).
+   */
+  public static final FuzzyOptions DEFAULT = new FuzzyOptions(1, 1, true, 20_000);
+  
+  private final int maxEdits;
+  private final int prefixLength;
+  private final boolean transpositions;
+  private final int maxArcs;
+  
+  /**
+   * Constructs a new FuzzyOptions
+   * @param maxEdits Maximum number of edits between a span and the term it matches (0-2)
+   * @param prefixLength Number of leading characters of a span that must match exactly
+   * @param transpositions Whether to count a transposition as one edit, rather than two
+   * @param maxArcs Maximum number of dictionary arcs to visit in a single call; once it is
+   *                used up, the entities found so far are returned
+   */
+  public FuzzyOptions(int maxEdits, int prefixLength, boolean transpositions, int maxArcs) {
+    if (maxEdits < 0 || maxEdits > LevenshteinAutomata.MAXIMUM_SUPPORTED_DISTANCE) {
+      throw new IllegalArgumentException("maxEdits must be between 0 and " +
+          LevenshteinAutomata.MAXIMUM_SUPPORTED_DISTANCE + "; got " + maxEdits);
+    }
+    if (prefixLength < 0) {
+      throw new IllegalArgumentException("prefixLength must be >= 0; got " + prefixLength);
+    }
+    if (maxArcs < 1) {
+      throw new IllegalArgumentException("maxArcs must be >= 1; got " + maxArcs);
+    }
+    this.maxEdits = maxEdits;
+    this.prefixLength = prefixLength;
+    this.transpositions = transpositions;
+    this.maxArcs = maxArcs;
+  }
+  
+  /**
+   * Get the maximum number of edits between a span and the term it matches
+   * @return Maximum edits
+   */
+  public int getMaxEdits() {
+    return maxEdits;
+  }
+  
+  /**
+   * Get the number of leading characters of a span that must match exactly
+   * @return Prefix length
+   */
+  public int getPrefixLength() {
+    return prefixLength;
+  }
+  
+  /**
+   * Get whether a transposition of two adjacent characters counts as one edit
+   * @return Whether transpositions are allowed
+   */
+  public boolean isTranspositions() {
+    return transpositions;
+  }
+  
+  /**
+   * Get the maximum number of dictionary arcs to visit in a single call
+   * @return Arc budget
+   */
+  public int getMaxArcs() {
+    return maxArcs;
+  }
+  
+  /**
+   * Gets the number of edits allowed for a span of the specified length
+   * @param length Length of the span in characters (code points)
+   * @return Number of edits allowed
+   */
+  public int editsFor(int length) {
+    return Math.min(maxEdits, length <= 2 ? 0 : length <= 5 ? 1 : 2);
+  }
+  
+  @Override
+  public String toString() {
+    return "FuzzyOptions{maxEdits=" + maxEdits + ", prefixLength=" + prefixLength +
+        ", transpositions=" + transpositions + ", maxArcs=" + maxArcs + "}";
+  }
+}
@@ -0,0 +1,19 @@
+package org.mholford.fstdict;
+
+/**
+ * Receives progress reports while FSTDictionaryManager ingests an unsorted dictionary source.
+ * Reports are sent periodically during each phase and once more when the phase completes.
+ * Listeners are called on the ingesting thread, so they should return quickly.
+ */
+public interface IngestListener {
+  /**
+   * Listener that ignores all reports
+   */
+  IngestListener NONE = progress -> {};
+  
+  /**
+   * Called with the current progress of the ingestion
+   * @param progress Progress report
+   */
+  void onProgress(IngestProgress progress);
+}
@@ -0,0 +1,81 @@
+package org.mholford.fstdict;
+
+/**
+ * Simple POJO reporting the progress of a dictionary ingestion.  An ingestion of an unsorted
+ * source goes through three phases: the source records are read and spilled to temp files,
+ * the spilled entries are sorted offline, and the sorted entries are merged by key and fed to
+ * the FST builder.  IngestProgress objects are immutable.
+ */
+public class IngestProgress {
+  /**
+   * Phases of an ingestion, in the order they are run
+   */
+  public enum Phase {
+    READ, SORT, BUILD
+  }
+  
+  private final Phase phase;
+  private final long count;
+  private final long elapsedNanos;
+  private final boolean finished;
+  
+  /**
+   * Constructs a new IngestProgress
+   * @param phase Current phase
+   * @param count Number of records read (READ), entries sorted (SORT) or keys built (BUILD)
+   * @param elapsedNanos Time spent in the current phase so far
+   * @param finished Whether the current phase has completed
+   */
+  public IngestProgress(Phase phase, long count, long elapsedNanos, boolean finished) {
+    this.phase = phase;
+    this.count = count;
+    this.elapsedNanos = elapsedNanos;
+    this.finished = finished;
+  }
+  
+  /**
+   * Get the phase this progress report is for
+   * @return Current phase
+   */
+  public Phase getPhase() {
+    return phase;
+  }
+  
+  /**
+   * Get the number of items processed so far in the current phase
+   * @return Number of records read, entries sorted or keys built
+   */
+  public long getCount() {
+    return count;
+  }
+  
+  /**
+   * Get the time spent in the current phase so far
+   * @return Elapsed time in milliseconds
+   */
+  public long getElapsedMillis() {
+    return elapsedNanos / 1_000_000;
+  }
+  
+  /**
+   * Answers whether the current phase has completed
+   * @return Whether this is the last report for the phase
+   */
+  public boolean isFinished() {
+    return finished;
+  }
+  
+  /**
+   * Get the throughput of the current phase
+   * @return Items processed per second
+   */
+  public double getRate() {
+    return elapsedNanos == 0 ? 0 : count / (elapsedNanos / 1e9);
+  }
+  
+  @Override
+  public String toString() {
+    return String.format("%s%s: %,d in %,d ms (%,.0f/sec)", phase, finished ? " done" : "",
+        count, getElapsedMillis(), getRate());
+  }
+}
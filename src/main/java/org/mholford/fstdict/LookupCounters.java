@@ -0,0 +1,36 @@
+package org.mholford.fstdict;
+
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Hit, miss and depth counters of the lookups made against a dictionary manager.  The counters
+ * are striped LongAdders, so lookups on many threads can record into them without contending,
+ * and they can be left on in production.  Reads are not atomic across the counters.
+ */
+final class LookupCounters {
+  private final LongAdder hits = new LongAdder();
+  private final LongAdder misses = new LongAdder();
+  private final LongAdder totalDepth = new LongAdder();
+  
+  /**
+   * Records a lookup
+   * @param hit Whether the lookup found something
+   * @param depth Number of tokens walked
+   */
+  void record(boolean hit, int depth) {
+    (hit ? hits : misses).increment();
+    totalDepth.add(depth);
+  }
+  
+  long hits() {
+    return hits.sum();
+  }
+  
+  long misses() {
+    return misses.sum();
+  }
+  
+  long totalDepth() {
+    return totalDepth.sum();
+  }
+}
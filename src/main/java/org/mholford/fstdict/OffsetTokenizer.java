@@ -0,0 +1,64 @@
+package org.mholford.fstdict;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+import org.apache.lucene.analysis.tokenattributes.OffsetAttribute;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+
+/**
+ * Tokenizes inputs with a Lucene Analyzer into a TokenBuffer, keeping the start and end offset
+ * of each token in the input.  Each thread gets its own TokenBuffer, which is refilled on
+ * every call, and the Analyzer reuses its TokenStream per thread as well (it is handed the
+ * input as a String, so no Reader is built for it either).  Tokenizing thus allocates nothing
+ * per token once the buffer has grown to fit.
+ * <p/>
+ * The buffer returned by tokenize() is only valid until the next call to tokenize() on the
+ * same thread.  Components that tokenize inputs while holding on to the tokens of another
+ * one should each use their own OffsetTokenizer.
+ */
+public class OffsetTokenizer {
+  private final Analyzer analyzer;
+  private final ThreadLocal<TokenBuffer> buffers = ThreadLocal.withInitial(TokenBuffer::new);
+  
+  /**
+   * Creates a tokenizer that uses the specified Analyzer
+   * @param analyzer Lucene analyzer to tokenize with
+   */
+  public OffsetTokenizer(Analyzer analyzer) {
+    this.analyzer = analyzer;
+  }
+  
+  /**
+   * Tokenizes the specified input into this thread's buffer
+   * @param input Input to tokenize
+   * @return The tokens, valid until the next call on this thread
+   */
+  public TokenBuffer tokenize(String input) {
+    TokenBuffer buffer = buffers.get();
+    buffer.clear();
+    try (TokenStream tstream = analyzer.tokenStream(null, input)) {
+      CharTermAttribute term = tstream.getAttribute(CharTermAttribute.class);
+      OffsetAttribute offset = tstream.getAttribute(OffsetAttribute.class);
+      tstream.reset();
+      while (tstream.incrementToken()) {
+        buffer.add(term.buffer(), term.length(), offset.startOffset(), offset.endOffset());
+      }
+      tstream.end();
+    } catch (IOException e) {
+      // Won't happen b/c the input is read from a String
+      throw new UncheckedIOException(e);
+    }
+    return buffer;
+  }
+  
+  /**
+   * Gets the Analyzer this tokenizer uses
+   * @return Lucene analyzer
+   */
+  public Analyzer getAnalyzer() {
+    return analyzer;
+  }
+}
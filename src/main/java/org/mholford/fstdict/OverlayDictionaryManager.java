@@ -0,0 +1,512 @@
+package org.mholford.fstdict;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.fst.Builder;
+import org.apache.lucene.util.fst.BytesRefFSTEnum;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.PositiveIntOutputs;
+import org.apache.lucene.util.fst.Util;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Dictionary Manager that accepts updates while it is serving lookups.  Entries are looked up
+ * in an immutable base FST overlaid with a delta of inserted entries and tombstones for
+ * removed ones, so put() and remove() take effect immediately without rebuilding the FST.
+ * Once the delta reaches the compaction threshold, a background thread merges it into a new
+ * base FST and swaps that in.  The previous base can be collected as soon as the lookups
+ * using it have finished.
+ * <p/>
+ * The base and the delta are published together as an immutable snapshot through a single
+ * volatile reference; updates copy the delta and publish a new snapshot.  Lookups never take
+ * a lock, and each call (including a whole findEntities() call) sees one consistent snapshot.
+ * Updates are expected to be rare relative to lookups, and the delta small, as copying it is
+ * linear in its size.
+ * <p/>
+ * Terms are stored as given, so they must be in the form the dictionary is looked up with
+ * (i.e. tokens as produced by the analyzer, separated by single spaces), just as in the CSV.
+ * To build an OverlayDictionaryManager, use FSTDictionaryManagerFactory.createOverlay().
+ */
+public class OverlayDictionaryManager implements FuzzyDictionaryManager, Closeable {
+  public static final int DEFAULT_COMPACT_THRESHOLD = 1000;
+  
+  private final FSTDictionaryManager loader;
+  private final Analyzer analyzer;
+  private final int compactThreshold;
+  private volatile Snapshot snapshot = new Snapshot(null, new TreeMap<>(), new TreeSet<>());
+  private final ThreadLocal<OverlayCursor> cursors = new ThreadLocal<>();
+  private final LookupCounters counters = new LookupCounters();
+  private final Object compactLock = new Object();
+  private final AtomicBoolean compactScheduled = new AtomicBoolean();
+  private ExecutorService compactor;
+  private volatile IOException compactFailure;
+  
+  OverlayDictionaryManager(FSTDictionaryManager loader, Analyzer analyzer, int compactThreshold) {
+    if (compactThreshold < 1) {
+      throw new IllegalArgumentException(
+          "compactThreshold must be >= 1; got " + compactThreshold);
+    }
+    this.loader = loader;
+    this.analyzer = analyzer;
+    this.compactThreshold = compactThreshold;
+  }
+  
+  /**
+   * {@inheritDoc}
+   * <p/>
+   * Replaces the base dictionary and discards any updates made so far.
+   */
+  @Override
+  public void loadDictionary(InputStream in) throws IOException {
+    synchronized (compactLock) {
+      loader.loadDictionary(in);
+      FSTDictionary base = loader.getDictionary();
+      synchronized (this) {
+        // An empty CSV builds no FST; treat it as an empty base
+        base = base.fst == null ? null : base;
+        snapshot = new Snapshot(base, new TreeMap<>(), new TreeSet<>());
+      }
+    }
+  }
+  
+  /**
+   * Adds an entry to the dictionary, replacing the entry for the same term if there is one.
+   * The entry is visible to lookups started after this call returns.
+   * @param term Term to add; tokens separated by single spaces
+   * @param payloads Payloads of the entry (possibly empty)
+   */
+  public void put(String term, List<String> payloads) {
+    synchronized (this) {
+      Snapshot s = snapshot;
+      TreeMap<String, List<String>> inserts = new TreeMap<>(s.inserts);
+      inserts.put(term, Collections.unmodifiableList(new ArrayList<>(payloads)));
+      TreeSet<String> tombstones = s.tombstones;
+      if (tombstones.contains(term)) {
+        tombstones = new TreeSet<>(tombstones);
+        tombstones.remove(term);
+      }
+      snapshot = new Snapshot(s.base, inserts, tombstones);
+    }
+    compactIfNeeded();
+  }
+  
+  /**
+   * Removes the entry for the specified term from the dictionary, if there is one.  The
+   * removal is visible to lookups started after this call returns.
+   * @param term Term to remove
+   * @throws IOException If the base dictionary can't be read from
+   */
+  public void remove(String term) throws IOException {
+    synchronized (this) {
+      Snapshot s = snapshot;
+      TreeMap<String, List<String>> inserts = s.inserts;
+      if (inserts.containsKey(term)) {
+        inserts = new TreeMap<>(inserts);
+        inserts.remove(term);
+      }
+      TreeSet<String> tombstones = s.tombstones;
+      if (s.inBase(term)) {
+        tombstones = new TreeSet<>(tombstones);
+        tombstones.add(term);
+      }
+      snapshot = new Snapshot(s.base, inserts, tombstones);
+    }
+    compactIfNeeded();
+  }
+  
+  /**
+   * Merges the inserts and tombstones accumulated so far into a new base FST and swaps it in.
+   * Updates made while the merge is running are kept in the delta.  This is normally done in
+   * the background once the delta reaches the compaction threshold, but can be called directly.
+   * @throws IOException If the base dictionary can't be read from
+   */
+  public void compact() throws IOException {
+    synchronized (compactLock) {
+      Snapshot merged = snapshot;
+      if (merged.deltaSize() == 0) {
+        return;
+      }
+      FSTDictionary base = merge(merged);
+      synchronized (this) {
+        // Keep the updates made since the merge started.  The delta is copied on write, so an
+        // insert that was merged is still the same List instance if it hasn't been replaced.
+        Snapshot s = snapshot;
+        TreeMap<String, List<String>> inserts = new TreeMap<>();
+        for (Map.Entry<String, List<String>> e : s.inserts.entrySet()) {
+          if (merged.inserts.get(e.getKey()) != e.getValue()) {
+            inserts.put(e.getKey(), e.getValue());
+          }
+        }
+        TreeSet<String> tombstones = new TreeSet<>();
+        for (String t : s.tombstones) {
+          if (!merged.tombstones.contains(t)) {
+            tombstones.add(t);
+          }
+        }
+        // A merged insert removed since then is now in the new base, so it needs a tombstone
+        for (String t : merged.inserts.keySet()) {
+          if (!s.inserts.containsKey(t)) {
+            tombstones.add(t);
+          }
+        }
+        snapshot = new Snapshot(base, inserts, tombstones);
+      }
+    }
+  }
+  
+  /**
+   * Gets the number of inserts and tombstones not yet merged into the base FST
+   * @return Size of the delta
+   */
+  public int getDeltaSize() {
+    return snapshot.deltaSize();
+  }
+  
+  /**
+   * Gets the failure of the last background compaction, if it failed.  The delta is left in
+   * place when a compaction fails, so no updates are lost.
+   * @return Exception thrown by the last background compaction, or null
+   */
+  public IOException getCompactFailure() {
+    return compactFailure;
+  }
+  
+  /**
+   * Stops the background compactor.  Lookups and updates can still be made afterwards, but
+   * the delta will only be merged by calling compact().
+   */
+  @Override
+  public synchronized void close() {
+    if (compactor != null) {
+      compactor.shutdown();
+    }
+  }
+  
+  @Override
+  public boolean hasTokens(List<String> tokens) throws IOException {
+    PrefixCursor cursor = cursor();
+    for (String token : tokens) {
+      if (!cursor.advance(token)) {
+        counters.record(false, tokens.size());
+        return false;
+      }
+    }
+    counters.record(true, tokens.size());
+    return true;
+  }
+  
+  @Override
+  public EntityInfo getEntity(List<String> tokens) throws IOException {
+    PrefixCursor cursor = cursor();
+    for (String token : tokens) {
+      if (!cursor.advance(token)) {
+        counters.record(false, tokens.size());
+        return null;
+      }
+    }
+    EntityInfo entity = cursor.getEntity();
+    counters.record(entity != null, tokens.size());
+    return entity;
+  }
+  
+  /**
+   * {@inheritDoc}
+   * <p/>
+   * The cursor sees the dictionary as it was when the cursor was created; later updates are
+   * not visible through it.
+   */
+  @Override
+  public PrefixCursor newCursor() {
+    return new OverlayCursor(snapshot);
+  }
+  
+  @Override
+  public List<String> findEntityStrings(String input, boolean doNested, boolean doOverlap)
+      throws IOException {
+    return EntityFinder.toEntityStrings(findEntities(input, doNested, doOverlap));
+  }
+  
+  @Override
+  public List<EntityAnnotation> findEntities(String input, boolean doNested, boolean doOverlap)
+      throws IOException {
+    return EntityFinder.findEntities(EntityFinder.tokenize(analyzer, input), cursor(), doNested,
+        doOverlap, counters);
+  }
+  
+  /**
+   * {@inheritDoc}
+   * <p/>
+   * The base FST is intersected with the automaton, while the inserted entries are each run
+   * through it, so the cost grows with the size of the delta.
+   */
+  @Override
+  public List<EntityAnnotation> findFuzzyEntities(String input, boolean doNested,
+                                                  boolean doOverlap, FuzzyOptions options)
+      throws IOException {
+    Snapshot s = snapshot;
+    return FuzzyMatcher.findEntities(EntityFinder.tokenize(analyzer, input), doNested, doOverlap,
+        options, matcher -> {
+          matcher.intersect(s.base, t -> s.tombstones.contains(t) || s.inserts.containsKey(t));
+          for (Map.Entry<String, List<String>> e : s.inserts.entrySet()) {
+            matcher.offer(e.getKey(), e.getValue());
+          }
+        });
+  }
+  
+  /**
+   * {@inheritDoc}
+   * <p/>
+   * The structure figures are those of the base FST, as last loaded or compacted; entries in
+   * the delta are not counted (see getDeltaSize()).  The build time is that of the last load.
+   */
+  @Override
+  public DictionaryStats getStats() {
+    return DictionaryStats.of(snapshot.base, loader.getStats().getBuildTimeNanos(), counters);
+  }
+  
+  private OverlayCursor cursor() {
+    Snapshot s = snapshot;
+    OverlayCursor cursor = cursors.get();
+    if (cursor == null || cursor.snapshot.base != s.base) {
+      cursor = new OverlayCursor(s);
+      cursors.set(cursor);
+    } else {
+      cursor.snapshot = s;
+    }
+    cursor.reset();
+    return cursor;
+  }
+  
+  private void compactIfNeeded() {
+    if (snapshot.deltaSize() < compactThreshold || !compactScheduled.compareAndSet(false, true)) {
+      return;
+    }
+    synchronized (this) {
+      if (compactor == null) {
+        compactor = Executors.newSingleThreadExecutor(r -> {
+          Thread t = new Thread(r, "dictionary-compactor");
+          t.setDaemon(true);
+          return t;
+        });
+      }
+      if (compactor.isShutdown()) {
+        compactScheduled.set(false);
+        return;
+      }
+      compactor.execute(() -> {
+        boolean compacted = false;
+        try {
+          compact();
+          compactFailure = null;
+          compacted = true;
+        } catch (IOException e) {
+          compactFailure = e;
+        } finally {
+          compactScheduled.set(false);
+        }
+        // Updates made during the merge may have filled the delta again
+        if (compacted) {
+          compactIfNeeded();
+        }
+      });
+    }
+  }
+  
+  /**
+   * Builds a new base FST holding the entries of the base that were not removed, together
+   * with the inserts, all in UTF-8 byte order as the FST builder expects.
+   */
+  private static FSTDictionary merge(Snapshot s) throws IOException {
+    List<BytesRef> insertKeys = new ArrayList<>();
+    Map<BytesRef, List<String>> inserts = new HashMap<>();
+    for (Map.Entry<String, List<String>> e : s.inserts.entrySet()) {
+      BytesRef key = new BytesRef(e.getKey());
+      insertKeys.add(key);
+      inserts.put(key, e.getValue());
+    }
+    Collections.sort(insertKeys);
+    Set<BytesRef> tombstones = new HashSet<>();
+    for (String t : s.tombstones) {
+      tombstones.add(new BytesRef(t));
+    }
+    
+    Builder<Long> b = new Builder<>(FST.INPUT_TYPE.BYTE1, PositiveIntOutputs.getSingleton());
+    PayloadTable table = new PayloadTable();
+    IntsRefBuilder scratchInts = new IntsRefBuilder();
+    BytesRefFSTEnum<Long> baseEnum = s.base == null ? null : new BytesRefFSTEnum<>(s.base.fst);
+    BytesRefFSTEnum.InputOutput<Long> next = baseEnum == null ? null : baseEnum.next();
+    int i = 0;
+    while (next != null || i < insertKeys.size()) {
+      int cmp = next == null ? 1 : i == insertKeys.size() ? -1 :
+          next.input.compareTo(insertKeys.get(i));
+      if (cmp < 0) {
+        if (!tombstones.contains(next.input)) {
+          int ordinal = table.intern(s.base.payloads.get(next.output));
+          b.add(Util.toIntsRef(next.input, scratchInts), FSTDictionaryManager.output(ordinal));
+        }
+      } else {
+        BytesRef key = insertKeys.get(i++);
+        int ordinal = table.intern(inserts.get(key));
+        b.add(Util.toIntsRef(key, scratchInts), FSTDictionaryManager.output(ordinal));
+      }
+      if (cmp <= 0) {
+        next = baseEnum.next();
+      }
+    }
+    FSTDictionary merged = FSTDictionary.build(b, table, null);
+    return merged.fst == null ? null : merged;
+  }
+  
+  /**
+   * Base dictionary plus delta, as seen by lookups.  The maps are never modified once the
+   * snapshot has been published.
+   */
+  private static final class Snapshot {
+    private final FSTDictionary base;
+    private final TreeMap<String, List<String>> inserts;
+    private final TreeSet<String> tombstones;
+    
+    private Snapshot(FSTDictionary base, TreeMap<String, List<String>> inserts,
+                     TreeSet<String> tombstones) {
+      this.base = base;
+      this.inserts = inserts;
+      this.tombstones = tombstones;
+    }
+    
+    private int deltaSize() {
+      return inserts.size() + tombstones.size();
+    }
+    
+    private boolean inBase(String term) throws IOException {
+      return base != null && Util.get(base.fst, new BytesRef(term)) != null;
+    }
+    
+    private boolean insertedUnder(String prefix) {
+      String key = inserts.ceilingKey(prefix);
+      return key != null && key.startsWith(prefix);
+    }
+    
+    /**
+     * Answers whether some base entry under the specified prefix has not been removed.  Only
+     * called when the prefix is known to be in the base FST.
+     */
+    private boolean liveInBase(String prefix) throws IOException {
+      String removed = tombstones.ceiling(prefix);
+      if (removed == null || !removed.startsWith(prefix)) {
+        return true;
+      }
+      BytesRef prefixBytes = new BytesRef(prefix);
+      BytesRefFSTEnum<Long> baseEnum = new BytesRefFSTEnum<>(base.fst);
+      for (BytesRefFSTEnum.InputOutput<Long> e = baseEnum.seekCeil(prefixBytes);
+           e != null && startsWith(e.input, prefixBytes); e = baseEnum.next()) {
+        if (!tombstones.contains(e.input.utf8ToString())) {
+          return true;
+        }
+      }
+      return false;
+    }
+    
+    private static boolean startsWith(BytesRef ref, BytesRef prefix) {
+      return ref.length >= prefix.length && new BytesRef(ref.bytes, ref.offset, prefix.length)
+          .bytesEquals(prefix);
+    }
+  }
+  
+  /**
+   * PrefixCursor over a snapshot.  The cursor walks the base FST alongside and checks the
+   * delta for the span walked so far; it falls back to the delta alone once the base has no
+   * live entries under the span.
+   */
+  private static final class OverlayCursor implements PrefixCursor {
+    private Snapshot snapshot;
+    private final FSTPrefixCursor baseCursor;
+    private final List<String> tokens = new ArrayList<>();
+    private final StringBuilder term = new StringBuilder();
+    private String current = "";
+    private boolean onBase;
+    
+    private OverlayCursor(Snapshot snapshot) {
+      this.snapshot = snapshot;
+      baseCursor = snapshot.base == null ? null : new FSTPrefixCursor(snapshot.base);
+      reset();
+    }
+    
+    @Override
+    public void reset() {
+      tokens.clear();
+      term.setLength(0);
+      current = "";
+      onBase = baseCursor != null;
+      if (onBase) {
+        baseCursor.reset();
+      }
+    }
+    
+    @Override
+    public boolean advance(String token) throws IOException {
+      int length = term.length();
+      if (length > 0) {
+        term.append(' ');
+      }
+      term.append(token);
+      String candidate = term.toString();
+      
+      boolean base = onBase && baseCursor.advance(token);
+      if (base && !snapshot.liveInBase(candidate)) {
+        // Everything under the span was removed; put the base cursor back where it was
+        baseCursor.reset();
+        for (String t : tokens) {
+          baseCursor.advance(t);
+        }
+        base = false;
+      }
+      if (!base && !snapshot.insertedUnder(candidate)) {
+        term.setLength(length);
+        return false;
+      }
+      onBase = base;
+      tokens.add(token);
+      current = candidate;
+      return true;
+    }
+    
+    @Override
+    public boolean isMatch() {
+      if (tokens.isEmpty()) {
+        return false;
+      }
+      if (snapshot.inserts.containsKey(current)) {
+        return true;
+      }
+      return onBase && baseCursor.isMatch() && !snapshot.tombstones.contains(current);
+    }
+    
+    @Override
+    public EntityInfo getEntity() {
+      if (tokens.isEmpty()) {
+        return null;
+      }
+      List<String> payloads = snapshot.inserts.get(current);
+      if (payloads != null) {
+        return new EntityInfo(current, payloads);
+      }
+      if (onBase && !snapshot.tombstones.contains(current)) {
+        return baseCursor.getEntity();
+      }
+      return null;
+    }
+    
+    @Override
+    public int depth() {
+      return tokens.size();
+    }
+  }
+}
@@ -0,0 +1,130 @@
+package org.mholford.fstdict;
+
+import org.apache.lucene.index.CorruptIndexException;
+import org.apache.lucene.store.DataInput;
+import org.apache.lucene.store.DataOutput;
+import org.apache.lucene.util.RamUsageEstimator;
+
+import java.io.IOException;
+import java.util.*;
+
+/**
+ * Side table of the distinct payload sets found in a dictionary.  The FST maps each term to the
+ * ordinal of its payload set in this table, so identical payload sets are only stored once and
+ * entries that share them also share FST outputs.  Payload sets are kept pre-split as immutable
+ * lists and handed out as-is, so lookups don't have to parse or copy them.  Payload Strings are
+ * interned across sets as well.
+ * <p/>
+ * Ordinal 0 is always the empty payload set.
+ */
+class PayloadTable {
+  private static final long STRING_BYTES = RamUsageEstimator.shallowSizeOfInstance(String.class);
+  private static final long LIST_BYTES =
+      RamUsageEstimator.shallowSizeOfInstance(ArrayList.class);
+  private final List<List<String>> payloadSets = new ArrayList<>();
+  private final Map<List<String>, Integer> ordinals = new HashMap<>();
+  private final Map<String, String> strings = new HashMap<>();
+  
+  PayloadTable() {
+    payloadSets.add(Collections.emptyList());
+    ordinals.put(Collections.emptyList(), 0);
+  }
+  
+  /**
+   * Gets the ordinal of the specified payload set, adding it to the table if it is not there
+   * already.  Order of the payloads is preserved.
+   * @param payloads Payloads of a dictionary entry
+   * @return Ordinal of the payload set
+   */
+  int intern(List<String> payloads) {
+    Integer ordinal = ordinals.get(payloads);
+    if (ordinal != null) {
+      return ordinal;
+    }
+    List<String> copy = new ArrayList<>(payloads.size());
+    for (String payload : payloads) {
+      copy.add(strings.computeIfAbsent(payload, p -> p));
+    }
+    List<String> payloadSet = Collections.unmodifiableList(copy);
+    ordinal = payloadSets.size();
+    payloadSets.add(payloadSet);
+    ordinals.put(payloadSet, ordinal);
+    return ordinal;
+  }
+  
+  /**
+   * Gets the payload set with the specified ordinal
+   * @param ordinal Ordinal as output by the FST
+   * @return Immutable list of payloads, shared by all entries with that payload set
+   */
+  List<String> get(long ordinal) {
+    return payloadSets.get((int) ordinal);
+  }
+  
+  int size() {
+    return payloadSets.size();
+  }
+  
+  /**
+   * Gets the distinct payloads found in the table, across all payload sets.  These are the
+   * same String instances the payload sets hold.
+   * @return Unmodifiable view of the payloads
+   */
+  Collection<String> strings() {
+    return Collections.unmodifiableSet(strings.keySet());
+  }
+  
+  /**
+   * Estimates the heap used by the payload sets and the Strings they hold
+   * @return Bytes used
+   */
+  long ramBytesUsed() {
+    long bytes = 0;
+    for (String payload : strings.keySet()) {
+      bytes += sizeOf(payload);
+    }
+    for (List<String> payloadSet : payloadSets) {
+      // The unmodifiable wrapper and its ArrayList
+      bytes += 2 * LIST_BYTES + RamUsageEstimator.alignObjectSize(
+          RamUsageEstimator.NUM_BYTES_ARRAY_HEADER +
+              (long) RamUsageEstimator.NUM_BYTES_OBJECT_REF * payloadSet.size());
+    }
+    return bytes;
+  }
+  
+  /**
+   * Estimates the heap used by a String and its char array
+   * @param s String
+   * @return Bytes used
+   */
+  static long sizeOf(String s) {
+    return STRING_BYTES + RamUsageEstimator.alignObjectSize(
+        RamUsageEstimator.NUM_BYTES_ARRAY_HEADER + (long) Character.BYTES * s.length());
+  }
+  
+  void write(DataOutput out) throws IOException {
+    out.writeVInt(payloadSets.size());
+    for (List<String> payloadSet : payloadSets) {
+      out.writeVInt(payloadSet.size());
+      for (String payload : payloadSet) {
+        out.writeString(payload);
+      }
+    }
+  }
+  
+  static PayloadTable read(DataInput in) throws IOException {
+    PayloadTable table = new PayloadTable();
+    int size = in.readVInt();
+    for (int i = 0; i < size; i++) {
+      int n = in.readVInt();
+      List<String> payloads = new ArrayList<>(n);
+      for (int j = 0; j < n; j++) {
+        payloads.add(in.readString());
+      }
+      if (table.intern(payloads) != i) {
+        throw new CorruptIndexException("Duplicate payload set at ordinal " + i, in);
+      }
+    }
+    return table;
+  }
+}
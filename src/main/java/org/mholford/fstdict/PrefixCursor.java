@@ -0,0 +1,63 @@
+package org.mholford.fstdict;
+
+import java.io.IOException;
+
+/**
+ * Stateful cursor over the keys of a dictionary.  A cursor starts at the root of the
+ * dictionary and is advanced one token at a time.  Each advance only walks the bytes of
+ * the new token (plus the separating space), so testing successively longer token spans
+ * from the same start position costs a single forward walk rather than one walk from the
+ * root per span.
+ * <p/>
+ * Cursors are not thread safe.  They should be obtained from DictionaryManager.newCursor()
+ * and confined to the thread that uses them.  A cursor may be reused for any number of
+ * walks by calling reset().
+ */
+public interface PrefixCursor {
+  /**
+   * Moves the cursor back to the root of the dictionary
+   */
+  void reset();
+  
+  /**
+   * Advances the cursor by the specified token.  If the tokens walked so far followed by
+   * the new token are a prefix of some dictionary entry, the cursor moves forward and true
+   * is returned.  Otherwise, false is returned and the cursor is left where it was.
+   * @param token Next token
+   * @return Whether the extended span is a prefix of some entry in the dictionary
+   * @throws IOException If the dictionary can't be read from
+   */
+  boolean advance(String token) throws IOException;
+  
+  /**
+   * Advances the cursor by the token held in the specified range of a char buffer, e.g. a
+   * term in a TokenBuffer.  See advance(String).  By default the token is copied into a
+   * String; cursors that can walk the characters in place override this.
+   * @param buffer Buffer holding the token
+   * @param offset Start of the token in the buffer
+   * @param length Number of characters in the token
+   * @return Whether the extended span is a prefix of some entry in the dictionary
+   * @throws IOException If the dictionary can't be read from
+   */
+  default boolean advance(char[] buffer, int offset, int length) throws IOException {
+    return advance(new String(buffer, offset, length));
+  }
+  
+  /**
+   * Answers whether the tokens walked so far form a complete entry in the dictionary
+   * @return Whether the current span is a complete match
+   */
+  boolean isMatch();
+  
+  /**
+   * Retrieves the Entity found under the tokens walked so far
+   * @return The entity, or null if the current span is not a complete match
+   */
+  EntityInfo getEntity();
+  
+  /**
+   * Gets the number of tokens the cursor has been advanced by since the last reset
+   * @return Number of tokens walked
+   */
+  int depth();
+}
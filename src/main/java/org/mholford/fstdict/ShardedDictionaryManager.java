@@ -0,0 +1,345 @@
+package org.mholford.fstdict;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.util.UnicodeUtil;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.Reader;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+
+/**
+ * Dictionary Manager that splits the dictionary into shards and builds an FST for each shard
+ * concurrently on a ForkJoinPool.  Entries are partitioned by the first two UTF-8 bytes of
+ * their term; each shard holds a contiguous range of these leading bytes, chosen so that the
+ * shards get about the same number of entries.  Lookups are routed to the shard owning the
+ * leading bytes of the first token, so each lookup still walks a single FST.
+ * <p/>
+ * A one-byte term or first token is routed as if followed by a space, which is the byte
+ * that follows it in any longer key.  A one-byte first token can also be the start of longer
+ * first words held by other shards (e.g. "a" and "ab"); those shards are checked too, so
+ * hasTokens() and PrefixCursor.advance() answer exactly as FSTDictionaryManager does.
+ * <p/>
+ * As with FSTDictionaryManager, the CSV source must be sorted.  To build a
+ * ShardedDictionaryManager, use FSTDictionaryManagerFactory.createSharded().
+ */
+public class ShardedDictionaryManager implements FuzzyDictionaryManager {
+  private static final int NUM_PREFIXES = 1 << 16;
+  private static final int SPACE = ' ';
+  
+  private final Analyzer analyzer;
+  private final CSVFormat csvFormat;
+  private final int numShards;
+  private final ForkJoinPool pool;
+  private volatile Shards shards;
+  private final ThreadLocal<RoutingCursor> cursors = new ThreadLocal<>();
+  private final LookupCounters counters = new LookupCounters();
+  private volatile long buildNanos = -1;
+  
+  ShardedDictionaryManager(Analyzer analyzer, CSVFormat csvFormat, int numShards,
+                           ForkJoinPool pool) {
+    if (numShards < 1) {
+      throw new IllegalArgumentException("numShards must be >= 1; got " + numShards);
+    }
+    this.analyzer = analyzer;
+    this.csvFormat = csvFormat;
+    this.numShards = numShards;
+    this.pool = pool;
+  }
+  
+  /**
+   * {@inheritDoc}
+   * <p/>
+   * The source is parsed on the calling thread; the shard FSTs are then built in parallel.
+   */
+  @Override
+  public void loadDictionary(InputStream in) throws IOException {
+    long start = System.nanoTime();
+    List<CSVRecord> recs;
+    try (Reader reader = new InputStreamReader(in, StandardCharsets.UTF_8)) {
+      recs = csvFormat.parse(reader).getRecords();
+    }
+    
+    byte[] scratch = new byte[8];
+    char[] prefixes = new char[recs.size()];
+    int[] counts = new int[NUM_PREFIXES];
+    for (int i = 0; i < recs.size(); i++) {
+      String term = FSTDictionaryManager.term(recs.get(i));
+      prefixes[i] = (char) prefix(term, scratch);
+      counts[prefixes[i]]++;
+    }
+    
+    // Cut the prefix space into contiguous ranges holding about the same number of entries
+    int[] route = new int[NUM_PREFIXES];
+    int shard = 0;
+    long inShard = 0;
+    long seen = 0;
+    for (int p = 0; p < NUM_PREFIXES; p++) {
+      if (counts[p] > 0) {
+        if (inShard > 0 && seen >= (shard + 1) * (long) recs.size() / numShards) {
+          shard++;
+          inShard = 0;
+        }
+        seen += counts[p];
+        inShard += counts[p];
+      }
+      route[p] = shard;
+    }
+    
+    List<List<CSVRecord>> buckets = new ArrayList<>();
+    for (int s = 0; s <= shard; s++) {
+      buckets.add(new ArrayList<>());
+    }
+    for (int i = 0; i < recs.size(); i++) {
+      buckets.get(route[prefixes[i]]).add(recs.get(i));
+    }
+    
+    FSTDictionaryManager[] managers = new FSTDictionaryManager[buckets.size()];
+    List<ForkJoinTask<?>> tasks = new ArrayList<>();
+    for (int s = 0; s < managers.length; s++) {
+      FSTDictionaryManager manager = new FSTDictionaryManager(analyzer, csvFormat);
+      List<CSVRecord> bucket = buckets.get(s);
+      managers[s] = manager;
+      tasks.add(pool.submit(() -> {
+        manager.loadRecords(bucket);
+        return null;
+      }));
+    }
+    for (ForkJoinTask<?> task : tasks) {
+      try {
+        task.get();
+      } catch (InterruptedException e) {
+        Thread.currentThread().interrupt();
+        throw new InterruptedIOException("Interrupted while building dictionary shards");
+      } catch (ExecutionException e) {
+        Throwable cause = e.getCause();
+        if (cause instanceof IOException) {
+          throw (IOException) cause;
+        } else if (cause instanceof RuntimeException) {
+          throw (RuntimeException) cause;
+        }
+        throw new IOException(cause);
+      }
+    }
+    shards = new Shards(route, managers);
+    buildNanos = System.nanoTime() - start;
+  }
+  
+  @Override
+  public boolean hasTokens(List<String> tokens) throws IOException {
+    PrefixCursor cursor = cursor();
+    for (String token : tokens) {
+      if (!cursor.advance(token)) {
+        counters.record(false, tokens.size());
+        return false;
+      }
+    }
+    counters.record(true, tokens.size());
+    return true;
+  }
+  
+  @Override
+  public EntityInfo getEntity(List<String> tokens) throws IOException {
+    PrefixCursor cursor = cursor();
+    for (String token : tokens) {
+      if (!cursor.advance(token)) {
+        counters.record(false, tokens.size());
+        return null;
+      }
+    }
+    EntityInfo entity = cursor.getEntity();
+    counters.record(entity != null, tokens.size());
+    return entity;
+  }
+  
+  @Override
+  public PrefixCursor newCursor() {
+    return new RoutingCursor(shards);
+  }
+  
+  @Override
+  public List<String> findEntityStrings(String input, boolean doNested, boolean doOverlap)
+      throws IOException {
+    return EntityFinder.toEntityStrings(findEntities(input, doNested, doOverlap));
+  }
+  
+  @Override
+  public List<EntityAnnotation> findEntities(String input, boolean doNested, boolean doOverlap)
+      throws IOException {
+    return EntityFinder.findEntities(EntityFinder.tokenize(analyzer, input), cursor(), doNested,
+        doOverlap, counters);
+  }
+  
+  /**
+   * {@inheritDoc}
+   * <p/>
+   * An edit may change the leading bytes a span is routed on, so every shard is searched.
+   */
+  @Override
+  public List<EntityAnnotation> findFuzzyEntities(String input, boolean doNested,
+                                                  boolean doOverlap, FuzzyOptions options)
+      throws IOException {
+    FSTDictionaryManager[] managers = shards.managers;
+    return FuzzyMatcher.findEntities(EntityFinder.tokenize(analyzer, input), doNested, doOverlap,
+        options, matcher -> {
+          for (FSTDictionaryManager m : managers) {
+            matcher.intersect(m.getDictionary(), null);
+          }
+        });
+  }
+  
+  /**
+   * Gets the number of shards the current dictionary was split into.  This can be less than
+   * the number requested if the dictionary has fewer distinct leading bytes.
+   * @return Number of shards
+   */
+  public int getNumShards() {
+    return shards.managers.length;
+  }
+  
+  /**
+   * {@inheritDoc}
+   * <p/>
+   * The structure figures are summed over the shards.  The build time is that of the whole
+   * load, parsing included, rather than the sum of the shard builds.
+   */
+  @Override
+  public DictionaryStats getStats() {
+    Shards current = shards;
+    long ramBytes = 0;
+    long payloadBytes = 0;
+    long terms = 0;
+    long nodes = 0;
+    long arcs = 0;
+    if (current != null) {
+      for (FSTDictionaryManager m : current.managers) {
+        DictionaryStats shardStats = m.getStats();
+        ramBytes += shardStats.getRamBytesUsed();
+        payloadBytes += shardStats.getPayloadBytes();
+        terms += shardStats.getTermCount();
+        nodes += shardStats.getNodeCount();
+        arcs += shardStats.getArcCount();
+      }
+    }
+    return new DictionaryStats(ramBytes, payloadBytes, terms, nodes, arcs, buildNanos,
+        counters.hits(), counters.misses(), counters.totalDepth());
+  }
+  
+  private RoutingCursor cursor() {
+    Shards current = shards;
+    RoutingCursor cursor = cursors.get();
+    if (cursor == null || cursor.shards != current) {
+      cursor = new RoutingCursor(current);
+      cursors.set(cursor);
+    }
+    cursor.reset();
+    return cursor;
+  }
+  
+  /**
+   * Encodes the first two UTF-8 bytes of a term or token as an index into the routing table
+   */
+  private static int prefix(String s, byte[] scratch) {
+    int n = UnicodeUtil.UTF16toUTF8(s, 0, Math.min(2, s.length()), scratch);
+    int b0 = n > 0 ? scratch[0] & 0xFF : 0;
+    int b1 = n > 1 ? scratch[1] & 0xFF : SPACE;
+    return b0 << 8 | b1;
+  }
+  
+  private static final class Shards {
+    private final int[] route;
+    private final FSTDictionaryManager[] managers;
+    
+    private Shards(int[] route, FSTDictionaryManager[] managers) {
+      this.route = route;
+      this.managers = managers;
+    }
+  }
+  
+  /**
+   * PrefixCursor which picks the shard on the first advance and delegates to a cursor over
+   * that shard from then on.  Cursors over each shard are created as they are needed and
+   * reused after that.
+   */
+  private static final class RoutingCursor implements PrefixCursor {
+    private final Shards shards;
+    private final PrefixCursor[] shardCursors;
+    private final byte[] scratch = new byte[8];
+    private PrefixCursor current;
+    // Set when a one-byte first token only prefixes first words held by other shards
+    private boolean prefixOnly;
+    
+    private RoutingCursor(Shards shards) {
+      this.shards = shards;
+      shardCursors = new PrefixCursor[shards.managers.length];
+    }
+    
+    @Override
+    public void reset() {
+      current = null;
+      prefixOnly = false;
+    }
+    
+    @Override
+    public boolean advance(String token) throws IOException {
+      if (current != null) {
+        return current.advance(token);
+      } else if (prefixOnly) {
+        return false;
+      }
+      int prefix = prefix(token, scratch);
+      PrefixCursor cursor = shardCursor(shards.route[prefix]);
+      if (cursor.advance(token)) {
+        current = cursor;
+        return true;
+      }
+      if (token.length() == 1 && token.charAt(0) < 0x80) {
+        int first = prefix & 0xFF00;
+        for (int s = shards.route[first]; s <= shards.route[first | 0xFF]; s++) {
+          if (s != shards.route[prefix] && shardCursor(s).advance(token)) {
+            prefixOnly = true;
+            return true;
+          }
+        }
+      }
+      return false;
+    }
+    
+    @Override
+    public boolean isMatch() {
+      return current != null && current.isMatch();
+    }
+    
+    @Override
+    public EntityInfo getEntity() {
+      return current == null ? null : current.getEntity();
+    }
+    
+    @Override
+    public int depth() {
+      if (current != null) {
+        return current.depth();
+      }
+      return prefixOnly ? 1 : 0;
+    }
+    
+    private PrefixCursor shardCursor(int shard) {
+      PrefixCursor cursor = shardCursors[shard];
+      if (cursor == null) {
+        cursor = shards.managers[shard].newCursor();
+        shardCursors[shard] = cursor;
+      }
+      cursor.reset();
+      return cursor;
+    }
+  }
+}
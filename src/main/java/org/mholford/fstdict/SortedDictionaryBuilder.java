@@ -0,0 +1,91 @@
+package org.mholford.fstdict;
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.IntsRefBuilder;
+import org.apache.lucene.util.fst.Builder;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.PositiveIntOutputs;
+import org.apache.lucene.util.fst.Util;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * Builds the FST of an FSTDictionaryManager from entries pushed to it one at a time, in sorted
+ * order, e.g. by a generator that produces them in that order.  No CSV is written or parsed and
+ * the entries are never held together in memory: each is added to the FST as it arrives, so
+ * heap usage is bounded by the FST and payload table being built.
+ * <p/>
+ * Terms must be added in increasing order of their UTF-8 bytes, each once; finish() then makes
+ * the dictionary the current one of the manager.  Builders are obtained from
+ * FSTDictionaryManager.newSortedBuilder() and are not thread safe.
+ */
+public final class SortedDictionaryBuilder {
+  private final FSTDictionaryManager manager;
+  private final Builder<Long> builder =
+      new Builder<>(FST.INPUT_TYPE.BYTE1, PositiveIntOutputs.getSingleton());
+  private final PayloadTable table = new PayloadTable();
+  private final IntsRefBuilder scratchInts = new IntsRefBuilder();
+  private final BytesRefBuilder last = new BytesRefBuilder();
+  private final long start = System.nanoTime();
+  private long count;
+  private boolean finished;
+  
+  SortedDictionaryBuilder(FSTDictionaryManager manager) {
+    this.manager = manager;
+  }
+  
+  /**
+   * Adds an entry to the dictionary
+   * @param term Term of the entry; must sort after the terms added so far
+   * @param payloads Payloads of the entry, possibly empty
+   * @throws IOException If the FST can't be written
+   * @throws IllegalArgumentException If the term is out of order
+   */
+  public void add(BytesRef term, List<String> payloads) throws IOException {
+    if (finished) {
+      throw new IllegalStateException("Dictionary already built");
+    }
+    if (count > 0 && last.get().compareTo(term) >= 0) {
+      throw new IllegalArgumentException("Dictionary term out of order: " +
+          term.utf8ToString() + " after " + last.get().utf8ToString());
+    }
+    builder.add(Util.toIntsRef(term, scratchInts),
+        FSTDictionaryManager.output(table.intern(payloads)));
+    last.copyBytes(term);
+    count++;
+  }
+  
+  /**
+   * Adds an entry to the dictionary
+   * @param term Term of the entry; must sort after the terms added so far
+   * @param payloads Payloads of the entry, possibly empty
+   * @throws IOException If the FST can't be written
+   * @throws IllegalArgumentException If the term is out of order
+   */
+  public void add(String term, List<String> payloads) throws IOException {
+    add(new BytesRef(term), payloads);
+  }
+  
+  /**
+   * Gets the number of entries added so far
+   * @return Number of entries
+   */
+  public long size() {
+    return count;
+  }
+  
+  /**
+   * Finishes the FST and publishes it, along with its payload table, as the dictionary of the
+   * manager.  No entry can be added afterwards.
+   * @throws IOException If the FST can't be written
+   */
+  public void finish() throws IOException {
+    if (finished) {
+      throw new IllegalStateException("Dictionary already built");
+    }
+    finished = true;
+    manager.publish(FSTDictionary.build(builder, table, null), start);
+  }
+}
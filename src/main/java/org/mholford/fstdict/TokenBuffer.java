@@ -0,0 +1,137 @@
+package org.mholford.fstdict;
+
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * The tokens of one input, as emitted by an OffsetTokenizer.  The characters of all the terms
+ * are held back to back in a single char[], and each token records where its term starts in
+ * that buffer, its length, and the start and end offsets of the token in the original input.
+ * Terms can thus be read, or fed to a PrefixCursor, without building a String for each.
+ * <p/>
+ * A buffer is reused for every input its tokenizer processes on the same thread, and its
+ * arrays only grow, so once they fit the longest input seen tokenizing doesn't allocate.  The
+ * contents are only valid until the next call to the tokenizer on that thread: callers that
+ * need to keep tokens or offsets must copy them.  Buffers are not thread safe.
+ */
+public final class TokenBuffer {
+  private char[] chars = new char[256];
+  private int[] termStarts = new int[32];
+  private int[] termLengths = new int[32];
+  private int[] startOffsets = new int[32];
+  private int[] endOffsets = new int[32];
+  private int length;
+  private int size;
+  
+  TokenBuffer() {
+  }
+  
+  void clear() {
+    length = 0;
+    size = 0;
+  }
+  
+  void add(char[] term, int termLength, int startOffset, int endOffset) {
+    if (size == termStarts.length) {
+      int newSize = size * 2;
+      termStarts = Arrays.copyOf(termStarts, newSize);
+      termLengths = Arrays.copyOf(termLengths, newSize);
+      startOffsets = Arrays.copyOf(startOffsets, newSize);
+      endOffsets = Arrays.copyOf(endOffsets, newSize);
+    }
+    if (length + termLength > chars.length) {
+      chars = Arrays.copyOf(chars, Math.max(chars.length * 2, length + termLength));
+    }
+    System.arraycopy(term, 0, chars, length, termLength);
+    termStarts[size] = length;
+    termLengths[size] = termLength;
+    startOffsets[size] = startOffset;
+    endOffsets[size] = endOffset;
+    length += termLength;
+    size++;
+  }
+  
+  /**
+   * Gets the number of tokens
+   * @return Number of tokens
+   */
+  public int size() {
+    return size;
+  }
+  
+  /**
+   * Gets the buffer holding the characters of all the terms.  It must not be modified.
+   * @return Term buffer
+   */
+  public char[] buffer() {
+    return chars;
+  }
+  
+  /**
+   * Gets where the term of the specified token starts in the buffer
+   * @param i Index of the token
+   * @return Start of the term in buffer()
+   */
+  public int termStart(int i) {
+    return termStarts[i];
+  }
+  
+  /**
+   * Gets the number of characters in the term of the specified token
+   * @param i Index of the token
+   * @return Length of the term
+   */
+  public int termLength(int i) {
+    return termLengths[i];
+  }
+  
+  /**
+   * Gets the offset in the original input of the first character of the specified token
+   * @param i Index of the token
+   * @return Start offset
+   */
+  public int startOffset(int i) {
+    return startOffsets[i];
+  }
+  
+  /**
+   * Gets the offset in the original input just past the last character of the specified token
+   * @param i Index of the token
+   * @return End offset
+   */
+  public int endOffset(int i) {
+    return endOffsets[i];
+  }
+  
+  /**
+   * Gets the term of the specified token as a new String
+   * @param i Index of the token
+   * @return Term
+   */
+  public String term(int i) {
+    return new String(chars, termStarts[i], termLengths[i]);
+  }
+  
+  /**
+   * Gets a view of the terms as a list of Strings, for callers that take List&lt;String&gt;
+   * tokens.  Each get() builds a new String.
+   * @return Terms
+   */
+  public List<String> terms() {
+    return new AbstractList<String>() {
+      @Override
+      public String get(int index) {
+        if (index >= size) {
+          throw new IndexOutOfBoundsException("Token " + index + " of " + size);
+        }
+        return term(index);
+      }
+      
+      @Override
+      public int size() {
+        return size;
+      }
+    };
+  }
+}
@@ -0,0 +1,113 @@
+package org.mholford.fstdict;
+
+import org.apache.lucene.util.fst.FST;
+
+import java.io.IOException;
+
+/**
+ * PrefixCursor over an FST built by TokenIdDictionaryManager, whose labels are token ids.
+ * Advancing by a token follows a single arc, labelled with the id of the token; tokens that
+ * are not in the vocabulary are rejected without touching the FST.  Unlike the byte-keyed
+ * cursor, the cursor only advances over whole tokens.  A scratch arc is used for the walk,
+ * so a failed advance leaves the cursor untouched.
+ * <p/>
+ * The cursor keeps a reference to the dictionary that was loaded when it was created.
+ */
+class TokenIdCursor implements PrefixCursor {
+  private final FSTDictionary dictionary;
+  private final TokenVocabulary vocabulary;
+  private final FST<Long> fst;
+  private final FST.BytesReader fstReader;
+  private final FST.Arc<Long> arc = new FST.Arc<>();
+  private final FST.Arc<Long> scratchArc = new FST.Arc<>();
+  private final StringBuilder term = new StringBuilder();
+  private long ordinal;
+  private int depth;
+  
+  TokenIdCursor(FSTDictionary dictionary, TokenVocabulary vocabulary) {
+    this.dictionary = dictionary;
+    this.vocabulary = vocabulary;
+    this.fst = dictionary.fst;
+    fstReader = fst.getBytesReader();
+    reset();
+  }
+  
+  @Override
+  public void reset() {
+    fst.getFirstArc(arc);
+    ordinal = 0;
+    term.setLength(0);
+    depth = 0;
+  }
+  
+  @Override
+  public boolean advance(String token) throws IOException {
+    if (!advance(vocabulary.id(token))) {
+      return false;
+    }
+    if (depth > 1) {
+      term.append(' ');
+    }
+    term.append(token);
+    return true;
+  }
+  
+  /**
+   * Advances the cursor by the token with the specified id.  See advance(String).
+   * @param id Token id, or TokenVocabulary.OOV
+   * @return Whether the extended span is a prefix of some entry in the dictionary
+   * @throws IOException If the dictionary can't be read from
+   */
+  boolean advance(int id) throws IOException {
+    if (id == TokenVocabulary.OOV ||
+        fst.findTargetArc(id, arc, scratchArc, fstReader) == null) {
+      return false;
+    }
+    arc.copyFrom(scratchArc);
+    ordinal += arc.output;
+    depth++;
+    return true;
+  }
+  
+  @Override
+  public boolean isMatch() {
+    return depth > 0 && arc.isFinal();
+  }
+  
+  @Override
+  public EntityInfo getEntity() {
+    if (!isMatch()) {
+      return null;
+    }
+    return dictionary.toEntityInfo(term.toString(), ordinal + arc.nextFinalOutput);
+  }
+  
+  /**
+   * Retrieves the Entity found under the tokens walked so far, building its term from the
+   * vocabulary.  Used by cursors advanced by id, which don't collect the term as they go.
+   * @param ids Ids of the tokens walked
+   * @return The entity, or null if the current span is not a complete match
+   */
+  EntityInfo getEntity(int[] ids) {
+    if (!isMatch()) {
+      return null;
+    }
+    term.setLength(0);
+    for (int i = 0; i < depth; i++) {
+      if (i > 0) {
+        term.append(' ');
+      }
+      term.append(vocabulary.token(ids[i]));
+    }
+    return dictionary.toEntityInfo(term.toString(), ordinal + arc.nextFinalOutput);
+  }
+  
+  @Override
+  public int depth() {
+    return depth;
+  }
+  
+  boolean isFor(FSTDictionary other) {
+    return dictionary == other;
+  }
+}
@@ -0,0 +1,225 @@
+package org.mholford.fstdict;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.commons.csv.CSVRecord;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.util.IntsRef;
+import org.apache.lucene.util.fst.Builder;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.PositiveIntOutputs;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Dictionary Manager backed by an FST keyed on token ids.  Each term is split into its
+ * tokens, which are mapped to ids by a TokenVocabulary, and the FST is built over the id
+ * sequences with one int label per token.  Lookups then take one arc per token rather than
+ * one per byte, and tokens that are in no term are rejected before the FST is walked.  Inputs
+ * that are already encoded into ids (see hasTokenIds() and friends) are looked up without
+ * building or converting any Strings at all.
+ * <p/>
+ * A span is a prefix in the dictionary only if it is made of whole tokens of some term,
+ * whereas in FSTDictionaryManager the last token may also be a prefix of a token of the term.
+ * Otherwise lookups and findEntities() return what FSTDictionaryManager returns.  Fuzzy
+ * matching needs the character-level FST and is not supported: this is not a
+ * FuzzyDictionaryManager.
+ * <p/>
+ * Entries must contain a term followed by zero or more payloads, each separated by a comma.
+ * Terms are tokens separated by single spaces; they need not be sorted, and the payloads of
+ * a term found more than once are merged.  Each load publishes the new FST together with its
+ * payload table.
+ * <p/>
+ * To build a TokenIdDictionaryManager, use FSTDictionaryManagerFactory.createTokenId().
+ */
+public class TokenIdDictionaryManager implements DictionaryManager {
+  private static final Comparator<Entry> BY_IDS = Comparator.comparing(e -> e.ids);
+  
+  private volatile FSTDictionary dictionary;
+  private final TokenVocabulary vocabulary;
+  private final Analyzer analyzer;
+  private final CSVFormat csvFormat;
+  private final ThreadLocal<TokenIdCursor> cursors = new ThreadLocal<>();
+  private final LookupCounters counters = new LookupCounters();
+  private volatile long buildNanos = -1;
+  
+  TokenIdDictionaryManager(TokenVocabulary vocabulary, Analyzer analyzer, CSVFormat csvFormat) {
+    this.vocabulary = vocabulary;
+    this.analyzer = analyzer;
+    this.csvFormat = csvFormat;
+  }
+  
+  @Override
+  public void loadDictionary(InputStream in) throws IOException {
+    long start = System.nanoTime();
+    List<Entry> entries = new ArrayList<>();
+    for (CSVRecord rec : csvFormat.parse(new InputStreamReader(in, StandardCharsets.UTF_8))) {
+      String[] tokens = FSTDictionaryManager.term(rec).split(" ", -1);
+      int[] ids = new int[tokens.length];
+      for (int i = 0; i < tokens.length; i++) {
+        ids[i] = vocabulary.add(tokens[i]);
+      }
+      entries.add(new Entry(new IntsRef(ids, 0, ids.length), FSTDictionaryManager.payloads(rec)));
+    }
+    in.close();
+    // The sort is stable, so the payloads of duplicate terms are merged in the order read
+    entries.sort(BY_IDS);
+    
+    Builder<Long> b = new Builder<>(FST.INPUT_TYPE.BYTE4, PositiveIntOutputs.getSingleton());
+    PayloadTable table = new PayloadTable();
+    Set<String> payloads = new LinkedHashSet<>();
+    for (int i = 0; i < entries.size(); i++) {
+      Entry entry = entries.get(i);
+      payloads.addAll(entry.payloads);
+      if (i + 1 == entries.size() || !entries.get(i + 1).ids.equals(entry.ids)) {
+        b.add(entry.ids, FSTDictionaryManager.output(table.intern(new ArrayList<>(payloads))));
+        payloads.clear();
+      }
+    }
+    dictionary = FSTDictionary.build(b, table, null);
+    buildNanos = System.nanoTime() - start;
+  }
+  
+  /**
+   * Gets the vocabulary the tokens of the terms are mapped to ids with
+   * @return Token vocabulary
+   */
+  public TokenVocabulary getVocabulary() {
+    return vocabulary;
+  }
+  
+  @Override
+  public boolean hasTokens(List<String> tokens) throws IOException {
+    return hasTokenIds(vocabulary.encode(tokens), tokens.size());
+  }
+  
+  /**
+   * Answers whether the tokens with the specified ids are a prefix of some entry in the
+   * dictionary
+   * @param ids Token ids, as encoded by the vocabulary
+   * @param length Number of ids to look up, from the start of the array
+   * @return Whether the tokens are found in the dictionary
+   * @throws IOException If the dictionary can't be read from
+   */
+  public boolean hasTokenIds(int[] ids, int length) throws IOException {
+    boolean found = walk(ids, length) != null;
+    counters.record(found, length);
+    return found;
+  }
+  
+  /**
+   * Answers whether the tokens with the specified ids are a complete entry in the dictionary
+   * @param ids Token ids, as encoded by the vocabulary
+   * @param length Number of ids to look up, from the start of the array
+   * @return Whether the tokens match an entry completely
+   * @throws IOException If the dictionary can't be read from
+   */
+  public boolean isCompleteMatch(int[] ids, int length) throws IOException {
+    TokenIdCursor cursor = walk(ids, length);
+    boolean found = cursor != null && cursor.isMatch();
+    counters.record(found, length);
+    return found;
+  }
+  
+  @Override
+  public EntityInfo getEntity(List<String> tokens) throws IOException {
+    return getEntity(vocabulary.encode(tokens), tokens.size());
+  }
+  
+  /**
+   * Retrieves the Entity found in the dictionary under the tokens with the specified ids
+   * @param ids Token ids, as encoded by the vocabulary
+   * @param length Number of ids to look up, from the start of the array
+   * @return The entity found, or null if there is none
+   * @throws IOException If the dictionary can't be read from
+   */
+  public EntityInfo getEntity(int[] ids, int length) throws IOException {
+    TokenIdCursor cursor = walk(ids, length);
+    EntityInfo entity = cursor == null ? null : cursor.getEntity(ids);
+    counters.record(entity != null, length);
+    return entity;
+  }
+  
+  @Override
+  public PrefixCursor newCursor() {
+    return new TokenIdCursor(dictionary, vocabulary);
+  }
+  
+  /**
+   * Creates a new WildcardMatcher over the currently loaded dictionary, whose keys use the
+   * specified token as a wildcard.  Matchers are not thread safe.
+   * @param wildcard Wildcard token, e.g. "*"
+   * @return New matcher
+   */
+  public WildcardMatcher newWildcardMatcher(String wildcard) {
+    return new WildcardMatcher(dictionary, vocabulary, wildcard, counters);
+  }
+  
+  @Override
+  public List<EntityAnnotation> findEntities(String input, boolean doNested, boolean doOverlap)
+      throws IOException {
+    return EntityFinder.findEntities(EntityFinder.tokenize(analyzer, input), cursor(), doNested,
+        doOverlap, counters);
+  }
+  
+  @Override
+  public List<String> findEntityStrings(String input, boolean doNested, boolean doOverlap)
+      throws IOException {
+    return EntityFinder.toEntityStrings(findEntities(input, doNested, doOverlap));
+  }
+  
+  /**
+   * {@inheritDoc}
+   * <p/>
+   * The RAM figure covers the FST and the payload table but not the vocabulary, which may be
+   * shared with other managers.
+   */
+  @Override
+  public DictionaryStats getStats() {
+    return DictionaryStats.of(dictionary, buildNanos, counters);
+  }
+  
+  /**
+   * Gets the distinct payloads of the loaded dictionary, e.g. to precompile them.  Lookups
+   * hand out these same String instances.
+   * @return Unmodifiable view of the payloads; empty if no dictionary is loaded
+   */
+  public Collection<String> getPayloads() {
+    FSTDictionary current = dictionary;
+    return current == null ? Collections.emptySet() : current.payloads.strings();
+  }
+  
+  private TokenIdCursor walk(int[] ids, int length) throws IOException {
+    TokenIdCursor cursor = cursor();
+    for (int i = 0; i < length; i++) {
+      if (!cursor.advance(ids[i])) {
+        return null;
+      }
+    }
+    return cursor;
+  }
+  
+  private TokenIdCursor cursor() {
+    TokenIdCursor cursor = cursors.get();
+    FSTDictionary current = dictionary;
+    if (cursor == null || !cursor.isFor(current)) {
+      cursor = new TokenIdCursor(current, vocabulary);
+      cursors.set(cursor);
+    }
+    cursor.reset();
+    return cursor;
+  }
+  
+  private static final class Entry {
+    private final IntsRef ids;
+    private final Set<String> payloads;
+    
+    private Entry(IntsRef ids, Set<String> payloads) {
+      this.ids = ids;
+      this.payloads = payloads;
+    }
+  }
+}
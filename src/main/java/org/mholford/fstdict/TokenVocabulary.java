@@ -0,0 +1,90 @@
+package org.mholford.fstdict;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Maps tokens to int ids, for dictionaries whose FSTs are keyed on token ids rather than on
+ * the UTF-8 bytes of space-joined tokens (see TokenIdDictionaryManager).  Ids are assigned
+ * from 0 in the order tokens are first added, and never change.  Inputs can then be encoded
+ * into ids once and walked one FST arc per token; a token that was never added has no id, so
+ * it is rejected without walking the FST at all.
+ * <p/>
+ * Dictionaries add the tokens of their terms as they are loaded.  Lookups of ids and tokens
+ * never block, and may run while tokens are added.  Several dictionaries can share a
+ * vocabulary, so that inputs encoded once can be looked up in all of them.  Tokens are never
+ * removed, so a vocabulary should not outlive the dictionaries that use it; in Chatlantis,
+ * the DictionaryRegistry holds the vocabulary shared by the dictionaries of a configuration.
+ */
+public class TokenVocabulary {
+  /**
+   * Id of tokens that are not in the vocabulary
+   */
+  public static final int OOV = -1;
+  
+  private final Map<String, Integer> ids = new ConcurrentHashMap<>();
+  private volatile String[] tokens = new String[64];
+  private int size;
+  
+  /**
+   * Gets the id of the specified token
+   * @param token Token
+   * @return Id of the token, or OOV if it is not in the vocabulary
+   */
+  public int id(String token) {
+    Integer id = ids.get(token);
+    return id == null ? OOV : id;
+  }
+  
+  /**
+   * Gets the id of the specified token, adding it to the vocabulary if it is not there yet
+   * @param token Token
+   * @return Id of the token
+   */
+  public synchronized int add(String token) {
+    Integer id = ids.get(token);
+    if (id != null) {
+      return id;
+    }
+    if (size == tokens.length) {
+      tokens = Arrays.copyOf(tokens, size * 2);
+    }
+    // The token is stored before the id is published, so it can be read back as soon as
+    // the id is seen
+    tokens[size] = token;
+    ids.put(token, size);
+    return size++;
+  }
+  
+  /**
+   * Gets the token with the specified id
+   * @param id Id returned by add()
+   * @return The token
+   */
+  public String token(int id) {
+    return tokens[id];
+  }
+  
+  /**
+   * Encodes the specified tokens into their ids
+   * @param tokens Tokens
+   * @return Ids of the tokens, OOV for those not in the vocabulary
+   */
+  public int[] encode(List<String> tokens) {
+    int[] output = new int[tokens.size()];
+    for (int i = 0; i < output.length; i++) {
+      output[i] = id(tokens.get(i));
+    }
+    return output;
+  }
+  
+  /**
+   * Gets the number of tokens in the vocabulary
+   * @return Number of tokens
+   */
+  public synchronized int size() {
+    return size;
+  }
+}
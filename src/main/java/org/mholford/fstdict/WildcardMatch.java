@@ -0,0 +1,34 @@
+package org.mholford.fstdict;
+
+import java.util.List;
+
+/**
+ * A complete match found by a WildcardMatcher: the dictionary entry whose key matched, and
+ * the spans of input tokens captured by the wildcards of the key, in order.
+ */
+public class WildcardMatch {
+  private final EntityInfo entity;
+  private final List<Range> wildcards;
+  
+  WildcardMatch(EntityInfo entity, List<Range> wildcards) {
+    this.entity = entity;
+    this.wildcards = wildcards;
+  }
+  
+  /**
+   * Gets the entry that matched.  Its term is the key of the entry, wildcards included.
+   * @return Matching entry
+   */
+  public EntityInfo getEntity() {
+    return entity;
+  }
+  
+  /**
+   * Gets the spans of input tokens captured by the wildcards.  Spans are token positions,
+   * counted from the start of the walk, with exclusive ends.
+   * @return Immutable list of token spans, one per wildcard in the key
+   */
+  public List<Range> getWildcards() {
+    return wildcards;
+  }
+}
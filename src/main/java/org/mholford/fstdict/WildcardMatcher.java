@@ -0,0 +1,300 @@
+package org.mholford.fstdict;
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.BytesRefBuilder;
+import org.apache.lucene.util.fst.FST;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+
+/**
+ * Matches token sequences against a dictionary whose keys contain a wildcard token (such as
+ * "*") standing for one or more input tokens.  The FST is walked as an automaton in which the
+ * wildcard arc loops back on itself: the matcher keeps the set of states the tokens seen so
+ * far can lead to, and each advance steps every state by the new token at once, so a match
+ * costs a single pass over the input however many ways the wildcards could be placed.
+ * <p/>
+ * A state is a position in the FST, along with whether it was reached through a wildcard
+ * that can still absorb tokens.  Paths that reach the same state with the same output are
+ * merged, keeping the one with the higher priority, so the number of live states is bounded
+ * by the dictionary rather than by the input.  Priority follows the order in which paths are
+ * tried: at each token, matching the token itself comes first, then extending the current
+ * wildcard, then starting a new one.  The first match therefore matches as many tokens as
+ * possible literally, as early as possible.
+ * <p/>
+ * Only tokens advanced as wildcardable can be absorbed by a wildcard; the others (e.g. entity
+ * markers) must match an arc of their own.  Matchers are obtained from
+ * FSTDictionaryManager.newWildcardMatcher() or TokenIdDictionaryManager.newWildcardMatcher();
+ * they reuse their states across walks, are not thread safe, and keep a reference to the
+ * dictionary that was loaded when they were created.
+ */
+public final class WildcardMatcher {
+  private static final int SPACE = ' ';
+  
+  private final FSTDictionary dictionary;
+  private final TokenVocabulary vocabulary;
+  private final LookupCounters counters;
+  private final FST<Long> fst;
+  private final FST.BytesReader fstReader;
+  private final BytesRef wildcardBytes;
+  private final int wildcardId;
+  private final BytesRefBuilder tokenBytes = new BytesRefBuilder();
+  private final FST.Arc<Long> scratchArc = new FST.Arc<>();
+  private final List<String> tokens = new ArrayList<>();
+  private final List<State> pool = new ArrayList<>();
+  private List<State> states = new ArrayList<>();
+  private List<State> next = new ArrayList<>();
+  private int[] table = new int[64];
+  
+  /**
+   * Creates a matcher over a dictionary keyed on UTF-8 bytes (vocabulary is null) or on the
+   * ids of the specified vocabulary
+   */
+  WildcardMatcher(FSTDictionary dictionary, TokenVocabulary vocabulary, String wildcard,
+                  LookupCounters counters) {
+    this.dictionary = dictionary;
+    this.vocabulary = vocabulary;
+    this.counters = counters;
+    fst = dictionary.fst;
+    fstReader = fst.getBytesReader();
+    wildcardBytes = new BytesRef(wildcard);
+    wildcardId = vocabulary == null ? TokenVocabulary.OOV : vocabulary.id(wildcard);
+    reset();
+  }
+  
+  /**
+   * Starts a new walk from the root of the dictionary
+   */
+  public void reset() {
+    pool.addAll(states);
+    states.clear();
+    tokens.clear();
+    State root = state();
+    fst.getFirstArc(root.arc);
+    root.ordinal = 0;
+    root.inWildcard = false;
+    root.wildcards = null;
+    states.add(root);
+  }
+  
+  /**
+   * Advances the walk by the specified token
+   * @param token Next token
+   * @param wildcardable Whether a wildcard may absorb the token
+   * @return Whether some key of the dictionary still starts with the tokens walked so far
+   * @throws IOException If the dictionary can't be read from
+   */
+  public boolean advance(String token, boolean wildcardable) throws IOException {
+    return advance(token, vocabulary == null ? TokenVocabulary.OOV : vocabulary.id(token),
+        wildcardable);
+  }
+  
+  /**
+   * Advances the walk by the specified token, whose id in the vocabulary is already known.
+   * The id is only used by matchers over dictionaries keyed on token ids.
+   * @param token Next token
+   * @param id Id of the token, or TokenVocabulary.OOV
+   * @param wildcardable Whether a wildcard may absorb the token
+   * @return Whether some key of the dictionary still starts with the tokens walked so far
+   * @throws IOException If the dictionary can't be read from
+   */
+  public boolean advance(String token, int id, boolean wildcardable) throws IOException {
+    int pos = tokens.size();
+    tokens.add(token);
+    if (vocabulary == null) {
+      tokenBytes.copyChars(token);
+    }
+    BytesRef bytes = tokenBytes.get();
+    clearTable();
+    for (State s : states) {
+      step(s, bytes, id, false, pos);
+      if (wildcardable) {
+        if (s.inWildcard) {
+          absorb(s, pos);
+        }
+        step(s, wildcardBytes, wildcardId, true, pos);
+      }
+    }
+    pool.addAll(states);
+    states.clear();
+    List<State> swap = states;
+    states = next;
+    next = swap;
+    return !states.isEmpty();
+  }
+  
+  /**
+   * Gets the complete matches for the tokens walked so far, in priority order
+   * @return Matches, possibly empty
+   */
+  public List<WildcardMatch> matches() {
+    List<WildcardMatch> output = new ArrayList<>();
+    if (!tokens.isEmpty()) {
+      for (State s : states) {
+        if (s.arc.isFinal()) {
+          output.add(toMatch(s));
+        }
+      }
+    }
+    if (counters != null) {
+      counters.record(!output.isEmpty(), tokens.size());
+    }
+    return output;
+  }
+  
+  private WildcardMatch toMatch(State s) {
+    Range[] wildcards = new Range[s.wildcardCount()];
+    int i = wildcards.length;
+    for (Capture c = s.wildcards; c != null; c = c.prev) {
+      wildcards[--i] = new Range(c.start, c.end);
+    }
+    // The key walked is the input, with each wildcard span replaced by the wildcard
+    StringBuilder term = new StringBuilder();
+    int pos = 0;
+    for (Range r : wildcards) {
+      appendTokens(term, pos, r.getStart());
+      append(term, wildcardBytes.utf8ToString());
+      pos = r.getEnd();
+    }
+    appendTokens(term, pos, tokens.size());
+    EntityInfo entity = dictionary.toEntityInfo(term.toString(),
+        s.ordinal + s.arc.nextFinalOutput);
+    return new WildcardMatch(entity, Collections.unmodifiableList(Arrays.asList(wildcards)));
+  }
+  
+  private void appendTokens(StringBuilder term, int from, int to) {
+    for (int i = from; i < to; i++) {
+      append(term, tokens.get(i));
+    }
+  }
+  
+  private static void append(StringBuilder term, String token) {
+    if (term.length() > 0) {
+      term.append(' ');
+    }
+    term.append(token);
+  }
+  
+  // Follows the arc of the token (or of the wildcard) from s
+  private void step(State s, BytesRef bytes, int id, boolean wildcard, int pos)
+      throws IOException {
+    scratchArc.copyFrom(s.arc);
+    long ordinal = s.ordinal;
+    if (vocabulary == null) {
+      if (pos > 0) {
+        if (fst.findTargetArc(SPACE, scratchArc, scratchArc, fstReader) == null) {
+          return;
+        }
+        ordinal += scratchArc.output;
+      }
+      for (int i = 0; i < bytes.length; i++) {
+        int label = bytes.bytes[bytes.offset + i] & 0xFF;
+        if (fst.findTargetArc(label, scratchArc, scratchArc, fstReader) == null) {
+          return;
+        }
+        ordinal += scratchArc.output;
+      }
+    } else {
+      if (id == TokenVocabulary.OOV ||
+          fst.findTargetArc(id, scratchArc, scratchArc, fstReader) == null) {
+        return;
+      }
+      ordinal += scratchArc.output;
+    }
+    Capture wildcards = wildcard ? new Capture(pos, pos + 1, s.wildcards) : s.wildcards;
+    add(scratchArc, ordinal, wildcard, wildcards);
+  }
+  
+  // Stays where s is, the wildcard it came through taking one more token
+  private void absorb(State s, int pos) {
+    Capture c = s.wildcards;
+    add(s.arc, s.ordinal, true, new Capture(c.start, pos + 1, c.prev));
+  }
+  
+  private void add(FST.Arc<Long> arc, long ordinal, boolean inWildcard, Capture wildcards) {
+    if (next.size() * 2 >= table.length) {
+      table = new int[table.length * 2];
+      for (int i = 0; i < next.size(); i++) {
+        insert(next.get(i), i);
+      }
+    }
+    int mask = table.length - 1;
+    int slot = hash(arc, ordinal, inWildcard) & mask;
+    for (int i = table[slot]; i != 0; i = table[slot]) {
+      State s = next.get(i - 1);
+      if (s.arc.target == arc.target && s.arc.nextFinalOutput.equals(arc.nextFinalOutput) &&
+          s.arc.isFinal() == arc.isFinal() && s.ordinal == ordinal &&
+          s.inWildcard == inWildcard) {
+        // An earlier path got here first, and has priority
+        return;
+      }
+      slot = (slot + 1) & mask;
+    }
+    State s = state();
+    s.arc.copyFrom(arc);
+    s.ordinal = ordinal;
+    s.inWildcard = inWildcard;
+    s.wildcards = wildcards;
+    next.add(s);
+    table[slot] = next.size();
+  }
+  
+  private void insert(State s, int index) {
+    int mask = table.length - 1;
+    int slot = hash(s.arc, s.ordinal, s.inWildcard) & mask;
+    while (table[slot] != 0) {
+      slot = (slot + 1) & mask;
+    }
+    table[slot] = index + 1;
+  }
+  
+  private void clearTable() {
+    Arrays.fill(table, 0);
+  }
+  
+  private static int hash(FST.Arc<Long> arc, long ordinal, boolean inWildcard) {
+    long h = arc.target * 31 + ordinal;
+    h = h * 31 + (arc.isFinal() ? arc.nextFinalOutput + 1 : 0);
+    h = h * 2 + (inWildcard ? 1 : 0);
+    h ^= h >>> 32;
+    return (int) (h ^ h >>> 16) * 0x9E3779B1;
+  }
+  
+  private State state() {
+    return pool.isEmpty() ? new State() : pool.remove(pool.size() - 1);
+  }
+  
+  private static final class State {
+    private final FST.Arc<Long> arc = new FST.Arc<>();
+    private long ordinal;
+    private boolean inWildcard;
+    private Capture wildcards;
+    
+    int wildcardCount() {
+      int n = 0;
+      for (Capture c = wildcards; c != null; c = c.prev) {
+        n++;
+      }
+      return n;
+    }
+  }
+  
+  /**
+   * Token span captured by a wildcard.  Captures are linked back to the previous wildcard of
+   * the path and never modified, so paths forked from one another share them.
+   */
+  private static final class Capture {
+    private final int start;
+    private final int end;
+    private final Capture prev;
+    
+    Capture(int start, int end, Capture prev) {
+      this.start = start;
+      this.end = end;
+      this.prev = prev;
+    }
+  }
+}
@@ -7,6 +7,7 @@ import org.mholford.chatlantis.action.CreateTicketAction;
 import org.mholford.chatlantis.action.RevalidatingActionProcessor;
 import org.mholford.chatlantis.bot.Bot;
 import org.mholford.chatlantis.bot.BotRegistry;
+import org.mholford.chatlantis.bot.DictionaryStatsRegistry;
 import org.mholford.chatlantis.intent.*;
 import org.mholford.chatlantis.lookup.FSTLookupTable;
 import org.mholford.chatlantis.prompt.DefaultPromptHandler;
@@ -53,6 +54,10 @@ public class ConfigTest {
     EEUtteranceProcessor ee = (EEUtteranceProcessor) up;
     assertEquals("abc-employees.csv", ee.getDictFile());
     assertEquals("EMP", ee.getAlias());
+    DictionaryStatsRegistry statsRegistry = DictionaryStatsRegistry.get();
+    assertTrue(statsRegistry.get("default", "EMP").getTermCount() > 0);
+    assertTrue(statsRegistry.get("default", DictionaryStatsRegistry.LOOKUP_TABLE)
+        .getRamBytesUsed() > 0);
     
     List<IntentMatcher> intentMatchers = w.getMatchers();
     assertEquals(1, intentMatchers.size());
@@ -0,0 +1,124 @@
+package org.mholford.chatlantis;
+
+import org.junit.Test;
+import org.mholford.chatlantis.validation.OneOf;
+import org.mholford.chatlantis.workflow.EEUtteranceProcessor;
+import org.mholford.fstdict.TokenVocabulary;
+
+import java.io.IOException;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class DictionaryRegistryTest implements Utils {
+  private final DictionaryRegistry registry = DictionaryRegistry.get();
+  
+  @Test
+  public void testShared() throws IOException {
+    AtomicInteger loads = new AtomicInteger();
+    DictionaryRegistry.Loader<Object> loader = () -> {
+      loads.incrementAndGet();
+      return new Object();
+    };
+    int size = registry.size();
+    DictionaryRegistry.Handle<Object> a = registry.acquire("shared.csv", null, "test", loader);
+    DictionaryRegistry.Handle<Object> b = registry.acquire("shared.csv", null, "test", loader);
+    DictionaryRegistry.Handle<Object> c = registry.acquire("shared.csv", null, "other", loader);
+    assertSame(a.get(), b.get());
+    assertNotSame(a.get(), c.get());
+    assertEquals(2, loads.get());
+    assertEquals(size + 2, registry.size());
+    
+    // Released once its last handle is
+    a.release();
+    a.release();
+    c.release();
+    assertEquals(size + 1, registry.size());
+    b.release();
+    assertEquals(size, registry.size());
+  }
+  
+  @Test
+  public void testLease() throws IOException {
+    int size = registry.size();
+    DictionaryRegistry.Lease first = registry.openLease();
+    DictionaryRegistry.Handle<String> kept =
+        registry.acquire("kept.csv", null, "test", () -> "kept");
+    registry.acquire("dropped.csv", null, "test", () -> "dropped");
+    first.close();
+    
+    // A reload acquires what it still uses before the previous lease is released
+    DictionaryRegistry.Lease second = registry.openLease();
+    DictionaryRegistry.Handle<String> reloaded =
+        registry.acquire("kept.csv", null, "test", () -> "reloaded");
+    second.close();
+    first.release();
+    assertEquals(size + 1, registry.size());
+    assertSame(kept.get(), reloaded.get());
+    second.release();
+    assertEquals(size, registry.size());
+  }
+  
+  @Test(expected = IOException.class)
+  public void testLoadFailure() throws IOException {
+    DictionaryRegistry.Handle<String> handle = registry.acquire("missing.csv", null, "test",
+        () -> {
+          throw new IOException("missing.csv");
+        });
+    try {
+      handle.get();
+    } finally {
+      handle.release();
+    }
+  }
+  
+  @Test
+  public void testSharedWithValidator() throws IOException {
+    DictionaryRegistry.Lease lease = registry.openLease();
+    try {
+      EEUtteranceProcessor ee = new EEUtteranceProcessor();
+      ee.init(stringMapOf("dict", "abc-employees.csv", "alias", "EMP"));
+      int size = registry.size();
+      OneOf oneOf = new OneOf();
+      oneOf.init(stringMapOf("dict", "abc-employees.csv"));
+      // The validator checks values against the FST of the processor
+      assertEquals(size, registry.size());
+      assertSame(ee.getDictionaries().get("EMP"),
+          registry.acquireFST("abc-employees.csv").get());
+      assertEquals(8, oneOf.getLegalValues().size());
+      assertTrue(oneOf.validateString("Bill", null, "msg", "path", "error").isEmpty());
+      assertEquals(1, oneOf.validateString("bob", null, "msg", "path", "error").size());
+    } finally {
+      lease.release();
+    }
+  }
+  
+  @Test
+  public void testVocabularyReload() throws IOException {
+    DictionaryRegistry.Lease first = registry.openLease();
+    EEUtteranceProcessor ee = new EEUtteranceProcessor();
+    ee.init(stringMapOf("dict", "abc-employees.csv", "alias", "EMP", "matcher", "tokenIds"));
+    DictionaryRegistry.Handle<TokenVocabulary> held = registry.acquireVocabulary();
+    first.close();
+    registry.awaitLoaded();
+    TokenVocabulary vocabulary = held.get();
+    assertTrue(vocabulary.size() > 0);
+    
+    // Shared by a reload while the previous configuration still holds it
+    DictionaryRegistry.Lease second = registry.openLease();
+    DictionaryRegistry.Handle<TokenVocabulary> reloaded = registry.acquireVocabulary();
+    second.close();
+    first.release();
+    assertSame(vocabulary, reloaded.get());
+    
+    // Dropped with the last configuration that used it
+    second.release();
+    DictionaryRegistry.Handle<TokenVocabulary> next = registry.acquireVocabulary();
+    assertNotSame(vocabulary, next.get());
+    assertEquals(0, next.get().size());
+    next.release();
+  }
+}
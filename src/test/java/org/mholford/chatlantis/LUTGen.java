@@ -6,18 +6,14 @@ import org.mholford.chatlantis.lookup.instruction.SetIntent;
 import org.mholford.chatlantis.lookup.instruction.SetPrompt;
 import org.mholford.chatlantis.lookup.instruction.SetStringSlot;
 
-import java.io.BufferedWriter;
-import java.io.FileWriter;
 import java.io.IOException;
+import java.nio.file.Paths;
 import java.util.List;
-import java.util.Map;
-import java.util.TreeMap;
 
 import static org.mholford.chatlantis.lookup.GenAttr.OPTIONAL;
 
-public class LUTGen implements LUTGenerator, Utils {
+public class LUTGen implements StreamingLUTGenerator, LUTGenerator, Utils {
   private String outputFile = "/home/matt/kmw/chatlantis/src/test/resources/tix-gen-LUT.csv";
-  private LookupUtil lu;
   private List<String> ticketVariants;
   private List<String> openVariants;
   private List<String> indefArticleVariants;
@@ -26,14 +22,20 @@ public class LUTGen implements LUTGenerator, Utils {
   
   @Override
   public void generate() throws IOException {
-    lu = new LookupUtil();
+    try (CsvLUTSink csv = new CsvLUTSink(Paths.get(outputFile))) {
+      generate(csv);
+    }
+  }
+  
+  @Override
+  public void generate(LUTSink sink) throws IOException {
+    LookupGrammar grammar = new LookupGrammar();
     openVariants = listOf("open", "create", "start", "make", "assign");
     indefArticleVariants = listOf("a", "an");
     ticketVariants = listOf("ticket", "jira");
     namedVariants = listOf("called", "named", "with title");
     assignVariants = listOf("assign", "give", "assigned", "given");
     
-    Map<String, String> allPerms = new TreeMap<>();
     ClauseConf createTicket = new ClauseConf("createTicket")
         .addWildcard(false, OPTIONAL)
         .addPhrase("oper", openVariants)
@@ -52,7 +54,7 @@ public class LUTGen implements LUTGenerator, Utils {
         new SetStringSlot("/objects/ticket.priority", new EntityMarker("PRIO")),
         new SetStringSlot("/objects/ticket.title", new WildcardMarker()));
     
-    allPerms.putAll(lu.createLookupEntries(createTicket, instructions));
+    grammar.add(createTicket, instructions);
     
     ClauseConf changeAssignee1 = new ClauseConf("changeAssignee1")
         .addWildcard(false, OPTIONAL)
@@ -65,27 +67,18 @@ public class LUTGen implements LUTGenerator, Utils {
         new SetStringSlot("/objects/changeTicket.property", "$utt:/objects/ticket.assignee"),
         new SetStringSlot("/objects/changeTicket.propertyDisplayName", "assignee"),
         new SetStringSlot("/objects/changeTicket.value", new EntityMarker("EMP")));
-    allPerms.putAll(lu.createLookupEntries(changeAssignee1, instructions));
+    grammar.add(changeAssignee1, instructions);
     
     ClauseConf wcPrompt = new ClauseConf("wcPrompt").addWildcard(true);
-    allPerms.putAll(lu.createLookupEntries(wcPrompt, listOf(
-        new SetPrompt(new WildcardMarker()))));
+    grammar.add(wcPrompt, listOf(new SetPrompt(new WildcardMarker())));
     
     ClauseConf empPrompt = new ClauseConf("empPrompt").addEntity("EMP", true);
-    allPerms.putAll(lu.createLookupEntries(empPrompt, listOf(
-        new SetPrompt(new EntityMarker("EMP")))));
+    grammar.add(empPrompt, listOf(new SetPrompt(new EntityMarker("EMP"))));
     
     ClauseConf prioPrompt = new ClauseConf("prioPrompt").addEntity("PRIO", true);
-    allPerms.putAll(lu.createLookupEntries(prioPrompt, listOf(
-        new SetPrompt(new EntityMarker("PRIO")))));
+    grammar.add(prioPrompt, listOf(new SetPrompt(new EntityMarker("PRIO"))));
     
-    try (BufferedWriter bw = new BufferedWriter(new FileWriter(outputFile))) {
-      for (Map.Entry<String, String> e : allPerms.entrySet()) {
-        bw.write(fmt("%s,%s", e.getKey(), e.getValue()));
-        bw.write("\n");
-        bw.flush();
-      }
-    }
+    grammar.forEachEntry(sink);
   }
   
   public static void main(String[] args) {
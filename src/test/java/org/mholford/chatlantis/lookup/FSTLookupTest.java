@@ -1,24 +1,36 @@
 package org.mholford.chatlantis.lookup;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mholford.chatlantis.*;
+import org.mholford.chatlantis.lookup.instruction.Instruction;
+import org.mholford.chatlantis.lookup.instruction.SetIntent;
+import org.mholford.chatlantis.lookup.instruction.SetStringSlot;
 import org.mholford.chatlantis.utterance.Token;
 import org.mholford.chatlantis.utterance.TokenFactory;
 import org.mholford.chatlantis.utterance.Utterance;
 import org.mholford.chatlantis.utterance.UtteranceFactory;
 
+import java.io.File;
 import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
 
 public class FSTLookupTest implements Utils {
   FSTLookupTable fst;
   UtteranceFactory uf;
   Conversation conv;
   TokenFactory tf = TokenFactory.get();
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
   
   @Before
   public void before() {
@@ -29,7 +41,7 @@ public class FSTLookupTest implements Utils {
     conv = cf.createNew(user);
   }
   
-  private void initFst(String dict) throws IOException {
+  void initFst(String dict) throws IOException {
     fst.init(stringMapOf(FSTLookupTable.DICT_PARAM, dict));
   }
   
@@ -88,6 +100,50 @@ public class FSTLookupTest implements Utils {
         "$utt:/objects/ticket.title -> fix all bugs", o);
   }
   
+  @Test
+  public void testWCBacktrack() throws IOException {
+    initFst("wc-LUT.csv");
+    Utterance u = uf.createNew("open a big ticket fix ticket called bugs", conv);
+    String o = fst.lookup(u);
+    assertEquals("$utt:/intent.name -> createTicket; " +
+        "$utt:/objects/ticket.priority -> big ticket fix; " +
+        "$utt:/objects/ticket.title -> bugs", o);
+  }
+  
+  @Test
+  public void testWCLongInput() throws IOException {
+    initFst("wc-LUT.csv");
+    StringBuilder title = new StringBuilder();
+    for (int i = 0; i < 2000; i++) {
+      title.append("ticket called ");
+    }
+    title.append("bugs");
+    Utterance u = uf.createNew("open a ticket called " + title, conv);
+    String o = fst.lookup(u);
+    assertEquals("$utt:/intent.name -> createTicket; " +
+        "$utt:/objects/ticket.title -> " + title, o);
+  }
+  
+  @Test
+  public void testLookupAll() throws IOException {
+    initFst("wc-LUT.csv");
+    Utterance u = uf.createNew("open a blocker ticket called fix ticket", conv);
+    List<LookupResult> results = fst.lookupAll(u, 5);
+    assertEquals(2, results.size());
+    assertEquals("$utt:/intent.name -> createTicket; " +
+        "$utt:/objects/ticket.priority -> blocker; " +
+        "$utt:/objects/ticket.title -> fix ticket", results.get(0).getContextDsl());
+    assertEquals(4, results.get(0).getLiteralTokens());
+    assertEquals(3, results.get(0).getWildcardTokens());
+    assertEquals(2, results.get(0).getWildcardCount());
+    assertEquals("$utt:/intent.name -> createTicket; " +
+        "$utt:/objects/ticket.priority -> blocker ticket called fix",
+        results.get(1).getContextDsl());
+    assertEquals(3.0 / 7, results.get(1).getSpecificity(), 1e-9);
+    assertEquals(1, fst.lookupAll(u, 1).size());
+    assertEquals(results.get(0).getContextDsl(), fst.lookup(u));
+  }
+  
   @Test
   public void testBadMatch() throws IOException {
     initFst("wc-LUT.csv");
@@ -102,6 +158,35 @@ public class FSTLookupTest implements Utils {
     assertEquals("$utt:/intent.name -> createTicket", fst.lookup(u));
   }
   
+  @Test
+  public void testGrammar() throws IOException {
+    ClauseConf createTicket = new ClauseConf("createTicket")
+        .addPhrase("open", listOf("open", "create"))
+        .addPhrase("indef", listOf("a", "an"), GenAttr.OPTIONAL)
+        .addWildcard(true, GenAttr.OPTIONAL)
+        .addPhrase("ticket", listOf("ticket"))
+        .addSubClause(new ClauseConf("tixName")
+            .addPhrase("named", listOf("called"))
+            .addWildcard(true), GenAttr.OPTIONAL);
+    fst.load(new LookupGrammar().add(createTicket, listOf(new SetIntent("createTicket"),
+        new SetStringSlot("/objects/ticket.priority", new WildcardMarker()))));
+    Utterance u = uf.createNew("create a blocker ticket called fix the bugs", conv);
+    assertEquals("$utt:/intent.name -> createTicket; $utt:/objects/ticket.priority -> blocker",
+        fst.lookup(u));
+    assertNull(fst.lookup(uf.createNew("open a", conv)));
+  }
+  
+  @Test
+  public void testStreamingGenerator() throws IOException, URISyntaxException {
+    File dump = tmp.newFile("tix-gen-LUT.csv");
+    fst.init(stringMapOf(FSTLookupTable.GENERATOR_PARAM, LUTGen.class.getName(),
+        FSTLookupTable.DUMP_PARAM, dump.getPath()));
+    Utterance u = uf.createNew("open a ticket", conv);
+    assertEquals("$utt:/intent.name -> createTicket", fst.lookup(u));
+    assertEquals(Files.readAllLines(Paths.get(getResourceURL("tix-gen-LUT.csv").toURI())),
+        Files.readAllLines(dump.toPath()));
+  }
+  
   @Test
   public void testEnt() throws IOException {
     initFst("ent-LUT.csv");
@@ -185,4 +270,47 @@ public class FSTLookupTest implements Utils {
     String o = fst.lookup(u);
     assertEquals("match 1", o);
   }
+  
+  @Test
+  public void testInstructions() throws IOException {
+    initFst("ent-LUT.csv");
+    List<Token> tokens = listOf(
+        tf.createEntity("EMP", "george washington"), tf.createLiteral("gets"),
+        tf.createLiteral("a"), tf.createEntity("PRIO", "super blocker"),
+        tf.createLiteral("ticket"));
+    Utterance u = uf.create(tokens, conv);
+    assertEquals(map(parseInstructions(fst.lookup(u)), Instruction::output),
+        map(fst.lookupInstructions(u), Instruction::output));
+    
+    // Captured values are not parsed as Context DSL
+    tokens = listOf(
+        tf.createEntity("EMP", "a; $conv:/x -> y"), tf.createLiteral("gets"),
+        tf.createLiteral("a"), tf.createLiteral("ticket"));
+    u = uf.create(tokens, conv);
+    List<Instruction> instructions = fst.lookupInstructions(u);
+    assertEquals(2, instructions.size());
+    assertEquals("$utt:/objects/ticket.assignee -> a; $conv:/x -> y",
+        instructions.get(1).output());
+    assertNull(fst.lookupInstructions(uf.createNew("open a ticket", conv)));
+  }
+  
+  @Test
+  public void testDefaultLookups() throws IOException {
+    initFst("ent-LUT.csv");
+    // A table that only implements lookup()
+    LookupTable table = fst::lookup;
+    List<Token> tokens = listOf(
+        tf.createEntity("EMP", "george washington"), tf.createLiteral("gets"),
+        tf.createLiteral("a"), tf.createEntity("PRIO", "super blocker"),
+        tf.createLiteral("ticket"));
+    Utterance u = uf.create(tokens, conv);
+    assertEquals(map(fst.lookupInstructions(u), Instruction::output),
+        map(table.lookupInstructions(u), Instruction::output));
+    List<LookupResult> results = table.lookupAll(u, 5);
+    assertEquals(1, results.size());
+    assertEquals(fst.lookup(u), results.get(0).getContextDsl());
+    assertEquals(1.0, results.get(0).getSpecificity(), 0);
+    assertNull(table.lookupInstructions(uf.createNew("open a ticket", conv)));
+    assertTrue(table.lookupAll(uf.createNew("open a ticket", conv), 5).isEmpty());
+  }
 }
@@ -1,22 +1,41 @@
 package org.mholford.chatlantis.lookup;
 
+import org.junit.After;
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 import org.mholford.chatlantis.Utils;
 import org.mholford.chatlantis.lookup.instruction.Instruction;
 import org.mholford.chatlantis.lookup.instruction.SetIntent;
 import org.mholford.chatlantis.lookup.instruction.SetPrompt;
 import org.mholford.chatlantis.lookup.instruction.SetStringSlot;
 
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
 
+import static org.junit.Assert.assertArrayEquals;
 import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.mholford.chatlantis.lookup.GenAttr.OPTIONAL;
 
 public class LookupGenerationTest implements Utils {
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
   
+  // Workers are only started by the tests that walk grammars in parallel
+  private final ForkJoinPool pool = new ForkJoinPool(3);
   private LookupUtil lu;
   private List<String> ticketVariants;
   private List<String> openVariants;
@@ -32,6 +51,11 @@ public class LookupGenerationTest implements Utils {
     namedVariants = listOf("called", "named", "with title");
   }
   
+  @After
+  public void after() {
+    pool.shutdown();
+  }
+  
   private List<String> toList(Map<String, String> perms) {
     return map(perms.entrySet(), e -> fmt("%s,%s", e.getKey(), e.getValue()));
   }
@@ -91,6 +115,53 @@ public class LookupGenerationTest implements Utils {
     assertEquals(960, perms.size());
   }
   
+  @Test
+  public void testPermutationEstimate() {
+    ClauseConf createTicket = new ClauseConf("createTicket")
+        .addWildcard(false, OPTIONAL)
+        .addPhrase("oper", openVariants)
+        .addEntity("EMP", true, OPTIONAL)
+        .addPhrase("indef", indefArticleVariants, OPTIONAL)
+        .addEntity("PRIO", true, OPTIONAL)
+        .addPhrase("ticket", ticketVariants)
+        .addSubClause(
+            new ClauseConf("tixName")
+                .addPhrase("named", namedVariants)
+                .addWildcard(true),
+            OPTIONAL);
+    
+    List<ClausePermutation> perms = createTicket.getPermutations();
+    PermutationEstimate estimate = PermutationEstimate.of(createTicket);
+    assertEquals(perms.size(), estimate.getCount());
+    assertEquals(perms.stream().mapToLong(cp -> cp.getOutput().length()).sum(),
+        estimate.getChars());
+    assertEquals(perms.stream().mapToLong(cp -> cp.getMarkerInfo().size()).sum(),
+        estimate.getMarkers());
+    assertEquals("oper", estimate.getLargestFactor().getName());
+    assertEquals(5, estimate.getLargestFactor().getFactor());
+    
+    List<Instruction> instructions = listOf(new SetIntent("createTicket"));
+    lu.setMaxPermutations(959);
+    try {
+      lu.createLookupEntries(createTicket, instructions);
+      fail("Expected the clause to be over budget");
+    } catch (PermutationBudgetException e) {
+      assertEquals(960, e.getEstimate().getCount());
+      assertTrue(e.getMessage().contains("oper (x5)"));
+    }
+    try {
+      new LookupGrammar(lu).add(createTicket, instructions);
+      fail("Expected the clause to be over budget");
+    } catch (PermutationBudgetException e) {
+      assertTrue(e.getMessage().startsWith("Clause createTicket expands into 960"));
+    }
+    lu.setMaxPermutations(960).setMaxBytes(estimate.getEstimatedBytes());
+    assertEquals(960, lu.createLookupEntries(createTicket, instructions).size());
+    // Grammars never expand clauses, so only limit their entries, and are unbudgeted by default
+    new LookupGrammar(new LookupUtil().setMaxBytes(0)).add(createTicket, instructions);
+    new LookupGrammar().add(createTicket, instructions);
+  }
+  
   @Test
   public void testSubClause() {
     ClauseConf cc = new ClauseConf("createTicket")
@@ -153,4 +224,154 @@ public class LookupGenerationTest implements Utils {
     assertEquals(1, perms.size());
     assertEquals("EMP_MKR hey EMP_MKR,$utt:/prompt.value -> EMP_MKR_1", perms.get(0));
   }
+  
+  @Test
+  public void testGrammar() throws IOException {
+    ClauseConf createTicket = new ClauseConf("createTicket")
+        .addWildcard(false, OPTIONAL)
+        .addPhrase("oper", openVariants)
+        .addEntity("EMP", true, OPTIONAL)
+        .addPhrase("indef", indefArticleVariants, OPTIONAL)
+        .addEntity("PRIO", true, OPTIONAL)
+        .addPhrase("ticket", ticketVariants)
+        .addSubClause(
+            new ClauseConf("tixName")
+                .addPhrase("named", namedVariants)
+                .addWildcard(true),
+            OPTIONAL);
+    List<Instruction> createInstructions = listOf(new SetIntent("createTicket"),
+        new SetStringSlot("$utt:/objects/ticket.assignee", new EntityMarker("EMP")),
+        new SetStringSlot("$utt:/objects/ticket.priority", new EntityMarker("PRIO")),
+        new SetStringSlot("$utt:/objects/ticket.title", new WildcardMarker()));
+    // Same utterances from different paths, with different payloads
+    ClauseConf ambiguous = new ClauseConf("ambiguous")
+        .addPhrase("assign", listOf("assign", "assign a"), OPTIONAL)
+        .addWildcard(false, OPTIONAL)
+        .addWildcard(true, OPTIONAL)
+        .addPhrase("a", listOf("a", "a ticket"), OPTIONAL)
+        .addEntity("EMP", true);
+    List<Instruction> promptInstructions = listOf(new SetPrompt(new WildcardMarker()),
+        new SetStringSlot("$utt:/objects/ticket.assignee", new EntityMarker("EMP")));
+    
+    Map<String, String> expected = new TreeMap<>();
+    expected.putAll(lu.createLookupEntries(createTicket, createInstructions));
+    expected.putAll(lu.createLookupEntries(ambiguous, promptInstructions));
+    
+    LookupGrammar grammar = new LookupGrammar()
+        .add(createTicket, createInstructions)
+        .add(ambiguous, promptInstructions);
+    List<String> entries = new ArrayList<>();
+    grammar.forEachEntry((term, payload) -> entries.add(term.utf8ToString() + "," + payload));
+    assertEquals(toList(expected), entries);
+  }
+  
+  @Test
+  public void testParallelGrammar() throws IOException {
+    ClauseConf createTicket = new ClauseConf("createTicket")
+        .addWildcard(false, OPTIONAL)
+        .addPhrase("open", openVariants)
+        .addPhrase("indef", indefArticleVariants, OPTIONAL)
+        .addEntity("PRIO", true, OPTIONAL)
+        .addPhrase("ticket", ticketVariants);
+    List<Instruction> createInstructions = listOf(new SetIntent("createTicket"),
+        new SetStringSlot("$utt:/objects/ticket.priority", new EntityMarker("PRIO")));
+    ClauseConf openTicket = new ClauseConf("openTicket")
+        .addPhrase("open", listOf("open"))
+        .addPhrase("ticket", listOf("ticket"));
+    LookupGrammar grammar = new LookupGrammar()
+        .add(createTicket, createInstructions)
+        .add(openTicket, listOf(new SetIntent("openTicket")))
+        .add(createTicket, createInstructions);
+    
+    List<String> expected = new ArrayList<>();
+    grammar.forEachEntry((term, payload) -> expected.add(term.utf8ToString() + "," + payload));
+    List<String> entries = new ArrayList<>();
+    List<LUTConflict> conflicts = grammar.forEachEntry(
+        (term, payload) -> entries.add(term.utf8ToString() + "," + payload),
+        pool);
+    assertEquals(expected, entries);
+    assertTrue(entries.contains("open ticket,$utt:/intent.name -> createTicket"));
+    // Clauses agreeing on the payload are not in conflict
+    assertEquals(1, conflicts.size());
+    assertEquals("open ticket", conflicts.get(0).getTerm());
+    assertEquals(listOf("createTicket", "openTicket", "createTicket"),
+        conflicts.get(0).getClauses());
+  }
+  
+  @Test
+  public void testIncrementalGrammar() throws IOException {
+    ClauseConf createTicket = new ClauseConf("createTicket")
+        .addWildcard(false, OPTIONAL)
+        .addPhrase("open", openVariants)
+        .addPhrase("indef", indefArticleVariants, OPTIONAL)
+        .addPhrase("ticket", ticketVariants);
+    List<Instruction> createInstructions = listOf(new SetIntent("createTicket"));
+    ClauseConf closeTicket = new ClauseConf("closeTicket")
+        .addPhrase("close", listOf("close", "resolve"))
+        .addPhrase("ticket", ticketVariants);
+    Path segmentDir = tmp.getRoot().toPath().resolve("segments");
+    
+    LookupGrammar grammar = new LookupGrammar()
+        .add(createTicket, createInstructions)
+        .add(closeTicket, listOf(new SetIntent("closeTicket")));
+    assertEquals(entries(grammar), entries(grammar, pool, segmentDir));
+    Set<String> segments = listFiles(segmentDir);
+    assertEquals(2, segments.size());
+    // Read back from the segments
+    assertEquals(entries(grammar), entries(grammar, pool, segmentDir));
+    assertEquals(segments, listFiles(segmentDir));
+    
+    closeTicket.addPhrase("now", listOf("now"), OPTIONAL);
+    grammar = new LookupGrammar()
+        .add(createTicket, createInstructions)
+        .add(closeTicket, listOf(new SetIntent("closeTicket")));
+    List<String> entries = entries(grammar, pool, segmentDir);
+    assertEquals(entries(grammar), entries);
+    assertTrue(entries.contains("resolve jira now,$utt:/intent.name -> closeTicket"));
+    // Only the segment of the clause that changed is replaced
+    Set<String> changed = listFiles(segmentDir);
+    assertEquals(2, changed.size());
+    changed.retainAll(segments);
+    assertEquals(1, changed.size());
+  }
+  
+  @Test
+  public void testTruncatedSegment() throws IOException {
+    LookupGrammar grammar = new LookupGrammar()
+        .add(new ClauseConf("closeTicket")
+            .addPhrase("close", listOf("close", "resolve"))
+            .addPhrase("ticket", ticketVariants), listOf(new SetIntent("closeTicket")));
+    Path segmentDir = tmp.getRoot().toPath().resolve("segments");
+    List<String> expected = entries(grammar);
+    assertEquals(expected, entries(grammar, pool, segmentDir));
+    Path segment = segmentDir.resolve(listFiles(segmentDir).iterator().next());
+    byte[] bytes = Files.readAllBytes(segment);
+    
+    // Cut in the middle of the entries, then before the header is complete
+    for (int length : new int[] {bytes.length / 2, 0}) {
+      Files.write(segment, Arrays.copyOf(bytes, length));
+      assertEquals(expected, entries(grammar, pool, segmentDir));
+      assertArrayEquals(bytes, Files.readAllBytes(segment));
+    }
+  }
+  
+  private static List<String> entries(LookupGrammar grammar) throws IOException {
+    List<String> entries = new ArrayList<>();
+    grammar.forEachEntry((term, payload) -> entries.add(term.utf8ToString() + "," + payload));
+    return entries;
+  }
+  
+  private static List<String> entries(LookupGrammar grammar, ForkJoinPool pool, Path dir)
+      throws IOException {
+    List<String> entries = new ArrayList<>();
+    grammar.forEachEntry((term, payload) -> entries.add(term.utf8ToString() + "," + payload),
+        pool, dir);
+    return entries;
+  }
+  
+  private static Set<String> listFiles(Path dir) throws IOException {
+    try (Stream<Path> files = Files.list(dir)) {
+      return files.map(f -> f.getFileName().toString()).collect(Collectors.toSet());
+    }
+  }
 }
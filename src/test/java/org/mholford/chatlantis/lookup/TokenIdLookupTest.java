@@ -0,0 +1,32 @@
+package org.mholford.chatlantis.lookup;
+
+import org.junit.After;
+import org.mholford.chatlantis.DictionaryRegistry;
+
+import java.io.IOException;
+
+/**
+ * Runs the FSTLookupTest cases against lookup tables keyed on token ids
+ */
+public class TokenIdLookupTest extends FSTLookupTest {
+  private DictionaryRegistry.Lease lease;
+  
+  @Override
+  void initFst(String dict) throws IOException {
+    // Holds the vocabulary of the table as a configuration would
+    lease = DictionaryRegistry.get().openLease();
+    try {
+      fst.init(stringMapOf(FSTLookupTable.DICT_PARAM, dict, FSTLookupTable.TOKEN_IDS_PARAM,
+          "true"));
+    } finally {
+      lease.close();
+    }
+  }
+  
+  @After
+  public void after() {
+    if (lease != null) {
+      lease.release();
+    }
+  }
+}
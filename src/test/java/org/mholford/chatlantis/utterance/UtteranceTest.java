@@ -5,6 +5,7 @@ import org.mholford.chatlantis.Utils;
 
 import java.util.List;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
 
 public class UtteranceTest implements Utils {
   
@@ -46,4 +47,20 @@ public class UtteranceTest implements Utils {
     assertEquals("are", lts2.getTokens().get(1).getValue());
     assertEquals("you", lts2.getTokens().get(2).getValue());
   }
+  
+  @Test
+  public void testOffsets() {
+    UtteranceFactory uf = UtteranceFactory.get();
+    Utterance u = uf.createNew("Matt, Joe  and Steve!", null);
+    assertEquals(4, u.size());
+    assertEquals("joe", u.getToken(1).getValue());
+    assertEquals(6, u.getStartOffset(1));
+    assertEquals(9, u.getEndOffset(1));
+    assertEquals("Joe", u.getOriginalText(1));
+    assertEquals("Steve", u.getOriginalText(3));
+    
+    u = uf.create(listOf(TokenFactory.get().createLiteral("hello")), null);
+    assertEquals(-1, u.getStartOffset(0));
+    assertNull(u.getOriginalText(0));
+  }
 }
@@ -9,8 +9,11 @@ import java.io.IOException;
 import java.util.List;
 
 import static org.junit.Assert.assertEquals;
+import static org.mholford.chatlantis.workflow.EEUtteranceProcessor.AHO_CORASICK_MATCHER;
 import static org.mholford.chatlantis.workflow.EEUtteranceProcessor.ALIAS_PROP;
 import static org.mholford.chatlantis.workflow.EEUtteranceProcessor.DICT_FILE_PROP;
+import static org.mholford.chatlantis.workflow.EEUtteranceProcessor.FUZZY_EDITS_PROP;
+import static org.mholford.chatlantis.workflow.EEUtteranceProcessor.MATCHER_PROP;
 
 public class EEUtteranceProcessorTest implements Utils {
   
@@ -22,5 +25,35 @@ public class EEUtteranceProcessorTest implements Utils {
         null);
     List<Utterance> utts = ee.process(initU);
     assertEquals(8, utts.size());
+    
+    // Entities keep the offsets of the text they were extracted from
+    for (Utterance u : utts) {
+      for (int i = 0; i < u.size(); i++) {
+        String original = u.getOriginalText(i);
+        assertEquals(u.getToken(i).getValue(), original.toLowerCase());
+      }
+    }
+  }
+  
+  @Test
+  public void testFuzzy() throws IOException {
+    EEUtteranceProcessor ee = new EEUtteranceProcessor();
+    ee.init(stringMapOf(DICT_FILE_PROP, "employee-dict.csv", ALIAS_PROP, "EMP",
+        FUZZY_EDITS_PROP, "2"));
+    Utterance initU = UtteranceFactory.get().createNew("matt, joe and stev are abc employees",
+        null);
+    List<Utterance> utts = ee.process(initU);
+    assertEquals(8, utts.size());
+  }
+  
+  @Test
+  public void testAhoCorasick() throws IOException {
+    EEUtteranceProcessor ee = new EEUtteranceProcessor();
+    ee.init(stringMapOf(DICT_FILE_PROP, "employee-dict.csv", ALIAS_PROP, "EMP",
+        MATCHER_PROP, AHO_CORASICK_MATCHER));
+    Utterance initU = UtteranceFactory.get().createNew("matt, joe and steve are abc employees",
+        null);
+    List<Utterance> utts = ee.process(initU);
+    assertEquals(8, utts.size());
   }
 }
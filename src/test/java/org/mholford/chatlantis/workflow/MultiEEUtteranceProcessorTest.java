@@ -0,0 +1,62 @@
+package org.mholford.chatlantis.workflow;
+
+import org.junit.Test;
+import org.mholford.chatlantis.Utils;
+import org.mholford.chatlantis.utterance.Utterance;
+import org.mholford.chatlantis.utterance.UtteranceFactory;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.mholford.chatlantis.workflow.EEUtteranceProcessor.ALIAS_PROP;
+import static org.mholford.chatlantis.workflow.EEUtteranceProcessor.DICT_FILE_PROP;
+import static org.mholford.chatlantis.workflow.MultiEEUtteranceProcessor.DICTS_PROP;
+
+public class MultiEEUtteranceProcessorTest implements Utils {
+  
+  @Test
+  public void testMatchesChain() throws IOException {
+    // employee-dict is given twice so that every employee has two aliases
+    MultiEEUtteranceProcessor multi = new MultiEEUtteranceProcessor();
+    multi.init(stringMapOf(DICTS_PROP,
+        "EMP:employee-dict.csv, PRIO:tix-priorities.csv, USER:employee-dict.csv"));
+    List<UtteranceProcessor> chain = new ArrayList<>();
+    for (String[] dict : new String[][]{{"EMP", "employee-dict.csv"},
+        {"PRIO", "tix-priorities.csv"}, {"USER", "employee-dict.csv"}}) {
+      EEUtteranceProcessor ee = new EEUtteranceProcessor();
+      ee.init(stringMapOf(DICT_FILE_PROP, dict[1], ALIAS_PROP, dict[0]));
+      chain.add(ee);
+    }
+    
+    for (String input : new String[]{"matt and joe filed a high blocker",
+        "steve says low", "nothing to see here"}) {
+      Utterance initU = UtteranceFactory.get().createNew(input, null);
+      List<Utterance> utts = Collections.singletonList(initU);
+      for (UtteranceProcessor up : chain) {
+        List<Utterance> next = new ArrayList<>();
+        for (Utterance u : utts) {
+          next.addAll(up.process(u));
+        }
+        utts = next;
+      }
+      assertEquals(input, toSortedStrings(utts), toSortedStrings(multi.process(initU)));
+    }
+    
+    Utterance initU = UtteranceFactory.get().createNew("matt and joe filed a high blocker",
+        null);
+    // Each employee is literal, EMP or USER, and each priority literal or PRIO
+    assertEquals(36, multi.process(initU).size());
+  }
+  
+  private List<String> toSortedStrings(List<Utterance> utts) {
+    List<String> output = new ArrayList<>();
+    for (Utterance u : utts) {
+      output.add(u.toString());
+    }
+    Collections.sort(output);
+    return output;
+  }
+}
@@ -0,0 +1,118 @@
+package org.mholford.fstdict;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+
+import static org.mholford.fstdict.BenchmarkData.word;
+import static org.mholford.fstdict.BenchmarkData.words;
+
+/**
+ * Compares AhoCorasickDictionaryManager with FSTDictionaryManager on dictionaries of three
+ * shapes: names (one to three tokens from a few thousand first and last names), phrases (two
+ * to five tokens from a small vocabulary, like the sentences of a lookup table) and random
+ * words (one or two tokens from a vocabulary as large as the dictionary).  For each, prints
+ * the heap taken by the loaded dictionary and the throughput of findEntities() over 12-token
+ * inputs, in which a third of the tokens start a dictionary term.  Run it with a large heap
+ * (e.g. -Xmx2g) for the default number of entries.
+ * <p/>
+ * Usage: AhoCorasickBenchmark [numEntries] [numInputs]
+ */
+public class AhoCorasickBenchmark {
+  public static void main(String[] args) throws IOException {
+    int numEntries = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+    int numInputs = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+    Random rand = BenchmarkData.random();
+    List<String> firstNames = words(rand, 2_000);
+    List<String> lastNames = words(rand, 5_000);
+    List<String> vocabulary = words(rand, 300);
+    
+    run("names", numEntries, numInputs, r -> {
+      String name = firstNames.get(r.nextInt(firstNames.size()));
+      int tokens = 1 + r.nextInt(3);
+      for (int t = 1; t < tokens; t++) {
+        name += " " + lastNames.get(r.nextInt(lastNames.size()));
+      }
+      return name;
+    });
+    run("phrases", numEntries, numInputs, r -> {
+      StringBuilder phrase = new StringBuilder(vocabulary.get(r.nextInt(vocabulary.size())));
+      int tokens = 2 + r.nextInt(4);
+      for (int t = 1; t < tokens; t++) {
+        phrase.append(' ').append(vocabulary.get(r.nextInt(vocabulary.size())));
+      }
+      return phrase.toString();
+    });
+    run("words", numEntries, numInputs, r -> word(r) + (r.nextBoolean() ? " " + word(r) : ""));
+  }
+  
+  private static void run(String shape, int numEntries, int numInputs,
+                          BenchmarkData.TermGenerator generator) throws IOException {
+    // Every shape draws its terms and inputs from the same sequence
+    Random rand = BenchmarkData.random();
+    SortedSet<String> terms = BenchmarkData.terms(rand, numEntries, generator);
+    List<String> starts = new ArrayList<>();
+    for (String term : terms) {
+      if (starts.size() < 1000) {
+        starts.add(term);
+      }
+    }
+    byte[] bytes = BenchmarkData.csv(terms);
+    List<String> inputs = new ArrayList<>(numInputs);
+    for (int i = 0; i < numInputs; i++) {
+      StringBuilder sb = new StringBuilder();
+      for (int w = 0; w < 12; w++) {
+        String term = starts.get(rand.nextInt(starts.size()));
+        sb.append(rand.nextInt(3) == 0 ? term : term.substring(0, term.indexOf(' ') + 1) + "x")
+            .append(' ');
+      }
+      inputs.add(sb.toString());
+    }
+    System.out.printf("%s: %,d entries%n", shape, terms.size());
+    terms = null;
+    
+    long before = usedHeap();
+    FSTDictionaryManager fst = BenchmarkData.load(bytes);
+    long fstBytes = usedHeap() - before;
+    AhoCorasickDictionaryManager ac = FSTDictionaryManagerFactory.get().createAhoCorasick();
+    ac.loadDictionary(new ByteArrayInputStream(bytes));
+    long acBytes = usedHeap() - before - fstBytes;
+    System.out.printf("  heap     fst %,12d bytes   aho-corasick %,12d bytes (%,d states)%n",
+        fstBytes, acBytes, ac.getNumStates());
+    
+    for (int round = 0; round < 3; round++) {
+      for (boolean all : new boolean[]{true, false}) {
+        long fstNanos = time(fst, inputs, all);
+        long acNanos = time(ac, inputs, all);
+        System.out.printf("  %-8s fst %,12.0f inputs/s   aho-corasick %,12.0f inputs/s%n",
+            all ? "all" : "longest", numInputs / (fstNanos / 1e9),
+            numInputs / (acNanos / 1e9));
+      }
+    }
+  }
+  
+  private static long time(DictionaryManager dm, List<String> inputs, boolean all)
+      throws IOException {
+    long found = 0;
+    long start = System.nanoTime();
+    for (String input : inputs) {
+      found += dm.findEntities(input, all, all).size();
+    }
+    long nanos = System.nanoTime() - start;
+    if (found == 0) {
+      throw new IllegalStateException("Nothing found");
+    }
+    return nanos;
+  }
+  
+  private static long usedHeap() {
+    Runtime rt = Runtime.getRuntime();
+    for (int i = 0; i < 3; i++) {
+      System.gc();
+    }
+    return rt.totalMemory() - rt.freeMemory();
+  }
+}
@@ -0,0 +1,132 @@
+package org.mholford.fstdict;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.junit.Assert.*;
+
+public class AhoCorasickDictionaryManagerTest {
+  private static final String[] WORDS = {"a", "ab", "abe", "b", "bob", "carl", "carla", "dan",
+      "é", "éva", "x", "xavier", "zed", "zoe"};
+  
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+  
+  private FSTDictionaryManager fst;
+  private AhoCorasickDictionaryManager ac;
+  
+  @Before
+  public void before() throws IOException {
+    // Unsorted, with some terms given more than once
+    Random rand = new Random(7);
+    StringBuilder csv = new StringBuilder();
+    for (String word : WORDS) {
+      csv.append(word).append(",P").append(word.length() % 5).append('\n');
+    }
+    for (int i = 0; i < 600; i++) {
+      int words = 1 + rand.nextInt(4);
+      StringBuilder sb = new StringBuilder(WORDS[rand.nextInt(WORDS.length)]);
+      for (int w = 1; w < words; w++) {
+        sb.append(' ').append(WORDS[rand.nextInt(WORDS.length)]);
+      }
+      csv.append(sb).append(",P").append(sb.length() % 5).append('\n');
+    }
+    byte[] bytes = csv.toString().getBytes(StandardCharsets.UTF_8);
+    
+    fst = FSTDictionaryManagerFactory.get().createDefault();
+    fst.loadUnsortedDictionary(new ByteArrayInputStream(bytes), tmp.getRoot().toPath());
+    ac = FSTDictionaryManagerFactory.get().createAhoCorasick();
+    ac.loadDictionary(new ByteArrayInputStream(bytes));
+  }
+  
+  @Test
+  public void testLookups() throws IOException {
+    for (String first : WORDS) {
+      for (String second : WORDS) {
+        for (String third : new String[]{"", "c", "zo", "zoe", "q"}) {
+          List<String> tokens = newArrayList(first, second);
+          if (!third.isEmpty()) {
+            tokens.add(third);
+          }
+          assertEquals(tokens.toString(), fst.hasTokens(tokens), ac.hasTokens(tokens));
+          assertEquals(tokens.toString(), fst.getEntity(tokens), ac.getEntity(tokens));
+        }
+      }
+    }
+    // Like the FST, the last token may be a prefix of the one in the dictionary
+    assertTrue(ac.hasTokens(newArrayList("carl", "xav")));
+    assertNull(ac.getEntity(newArrayList("carl", "xav")));
+    assertFalse(ac.hasTokens(newArrayList("q")));
+  }
+  
+  @Test
+  public void testFindEntities() throws IOException {
+    Comparator<EntityAnnotation> byRange = Comparator
+        .comparingInt((EntityAnnotation ea) -> ea.getRange().getStart())
+        .thenComparingInt(ea -> ea.getRange().getEnd());
+    Random rand = new Random(11);
+    for (int i = 0; i < 200; i++) {
+      StringBuilder sb = new StringBuilder();
+      for (int w = 0; w < 12; w++) {
+        sb.append(WORDS[rand.nextInt(WORDS.length)]).append(rand.nextInt(4) == 0 ? "q " : " ");
+      }
+      String input = sb.toString();
+      List<EntityAnnotation> expected = fst.findEntities(input, true, true);
+      expected.sort(byRange);
+      assertEquals(input, expected, ac.findEntities(input, true, true));
+      for (boolean nested : new boolean[]{true, false}) {
+        for (boolean overlap : new boolean[]{true, false}) {
+          if (nested && overlap) {
+            continue;
+          }
+          assertEquals(input, fst.findEntities(input, nested, overlap),
+              ac.findEntities(input, nested, overlap));
+          assertEquals(input, fst.findEntityStrings(input, nested, overlap),
+              ac.findEntityStrings(input, nested, overlap));
+        }
+      }
+    }
+  }
+  
+  @Test
+  public void testTestDict() throws IOException {
+    ac.loadDictionary(AhoCorasickDictionaryManagerTest.class.getClassLoader()
+        .getResourceAsStream("test-dict.csv"));
+    assertEquals(8, ac.getNumStates());
+    List<EntityAnnotation> entities = ac.findEntities("george washington carver was cool", true,
+        true);
+    assertEquals(3, entities.size());
+    assertEquals(new Range(0, 2), entities.get(0).getRange());
+    assertEquals(new Range(0, 3), entities.get(1).getRange());
+    assertEquals(newArrayList("inventor"), entities.get(1).getEntityInfo().getPayloads());
+    assertEquals(new Range(1, 2), entities.get(2).getRange());
+    assertEquals(newArrayList("city", "state"), entities.get(2).getEntityInfo().getPayloads());
+    assertEquals("washington", entities.get(2).getEntityInfo().getTerm());
+    
+    // "paul george" fails over to "george" and must still find "george washington"
+    entities = ac.findEntities("paul george washington irving", true, true);
+    assertEquals(4, entities.size());
+    assertEquals(new Range(0, 2), entities.get(0).getRange());
+    assertEquals(new Range(1, 3), entities.get(1).getRange());
+    assertEquals(new Range(2, 3), entities.get(2).getRange());
+    assertEquals(new Range(2, 4), entities.get(3).getRange());
+  }
+  
+  @Test
+  public void testDuplicates() throws IOException {
+    String csv = "washington,city\npaul george,athlete\nwashington,state,city\n";
+    ac.loadDictionary(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+    assertEquals(newArrayList("city", "state"),
+        ac.getEntity(newArrayList("washington")).getPayloads());
+    assertEquals(newArrayList("city", "state", "athlete"),
+        ac.findEntityStrings("washington and paul george", true, true));
+  }
+}
@@ -0,0 +1,67 @@
+package org.mholford.fstdict;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.mholford.fstdict.BenchmarkData.word;
+
+/**
+ * Compares the throughput of extracting entities from many inputs in a single-threaded loop
+ * with BatchExtractor at increasing parallelism, up to the number of available processors.
+ * <p/>
+ * Usage: BatchExtractionBenchmark [numEntries] [numInputs]
+ */
+public class BatchExtractionBenchmark {
+  public static void main(String[] args) throws IOException {
+    int numEntries = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+    int numInputs = args.length > 1 ? Integer.parseInt(args[1]) : 200_000;
+    Random rand = BenchmarkData.random();
+    
+    SortedSet<String> terms = BenchmarkData.terms(rand, numEntries,
+        r -> word(r) + (r.nextBoolean() ? " " + word(r) : ""));
+    FSTDictionaryManager dm = BenchmarkData.load(BenchmarkData.csv(terms));
+    List<String> words = new ArrayList<>(terms);
+    List<String> inputs = new ArrayList<>(numInputs);
+    for (int i = 0; i < numInputs; i++) {
+      StringBuilder sb = new StringBuilder();
+      for (int w = 0; w < 12; w++) {
+        sb.append(rand.nextInt(3) == 0 ? words.get(rand.nextInt(words.size())) : word(rand))
+            .append(' ');
+      }
+      inputs.add(sb.toString());
+    }
+    
+    for (int round = 0; round < 3; round++) {
+      long found = 0;
+      long start = System.nanoTime();
+      for (String input : inputs) {
+        found += dm.findEntities(input, true, true).size();
+      }
+      report("loop", System.nanoTime() - start, numInputs, found);
+      
+      int cores = Runtime.getRuntime().availableProcessors();
+      for (int threads = 1; threads <= cores; threads *= 2) {
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        BatchExtractor batch = FSTDictionaryManagerFactory.get().createBatchExtractor(dm,
+            executor, threads);
+        AtomicLong batchFound = new AtomicLong();
+        start = System.nanoTime();
+        batch.findEntities(inputs, true, true, true,
+            (index, input, entities) -> batchFound.addAndGet(entities.size()));
+        report(threads + " threads", System.nanoTime() - start, numInputs, batchFound.get());
+        executor.shutdown();
+      }
+    }
+  }
+  
+  private static void report(String name, long nanos, int numInputs, long found) {
+    System.out.printf("%-12s %,10.0f inputs/s  (%d found)%n", name,
+        numInputs / (nanos / 1e9), found);
+  }
+}
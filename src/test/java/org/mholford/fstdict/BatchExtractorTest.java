@@ -0,0 +1,120 @@
+package org.mholford.fstdict;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class BatchExtractorTest {
+  private static final String[] INPUTS = {"george washington carver was cool",
+      "paul george, washington irving and others", "nothing to see here",
+      "here comes george washington", "washington"};
+  
+  private FSTDictionaryManager dm;
+  private ExecutorService executor;
+  private BatchExtractor batch;
+  private List<String> inputs;
+  
+  @Before
+  public void before() throws IOException {
+    dm = FSTDictionaryManagerFactory.get().createDefault();
+    dm.loadDictionary(BatchExtractorTest.class.getClassLoader()
+        .getResourceAsStream("test-dict.csv"));
+    executor = Executors.newFixedThreadPool(4);
+    batch = FSTDictionaryManagerFactory.get().createBatchExtractor(dm, executor, 4);
+    inputs = new ArrayList<>();
+    for (int i = 0; i < 1000; i++) {
+      inputs.add(INPUTS[i % INPUTS.length] + " " + i);
+    }
+  }
+  
+  @After
+  public void after() {
+    executor.shutdownNow();
+  }
+  
+  @Test
+  public void testOrdered() throws IOException {
+    List<List<EntityAnnotation>> results = batch.findEntities(inputs, true, true);
+    assertEquals(inputs.size(), results.size());
+    for (int i = 0; i < inputs.size(); i++) {
+      assertEquals(dm.findEntities(inputs.get(i), true, true), results.get(i));
+    }
+    
+    List<Long> indexes = new ArrayList<>();
+    batch.findEntities(inputs.stream(), false, false, true, (index, input, entities) -> {
+      assertEquals(inputs.get((int) index), input);
+      assertEquals(dm.findEntities(input, false, false), entities);
+      indexes.add(index);
+    });
+    for (int i = 0; i < inputs.size(); i++) {
+      assertEquals(i, (long) indexes.get(i));
+    }
+  }
+  
+  @Test
+  public void testUnordered() throws IOException {
+    Set<Long> indexes = new HashSet<>();
+    batch.findFuzzyEntities(inputs, true, true, FuzzyOptions.DEFAULT, false,
+        (index, input, entities) -> {
+          assertEquals(dm.findFuzzyEntities(input, true, true, FuzzyOptions.DEFAULT), entities);
+          assertTrue(indexes.add(index));
+        });
+    assertEquals(inputs.size(), indexes.size());
+  }
+  
+  @Test(expected = IllegalStateException.class)
+  public void testFuzzyUnsupported() throws IOException {
+    DictionaryManager ac = FSTDictionaryManagerFactory.get().createAhoCorasick();
+    ac.loadDictionary(BatchExtractorTest.class.getClassLoader()
+        .getResourceAsStream("test-dict.csv"));
+    FSTDictionaryManagerFactory.get().createBatchExtractor(ac, executor, 4)
+        .findFuzzyEntities(inputs, true, true, FuzzyOptions.DEFAULT, false,
+            (index, input, entities) -> fail("Fuzzy matching is not supported"));
+  }
+  
+  @Test
+  public void testBackPressure() throws IOException {
+    AtomicInteger read = new AtomicInteger();
+    Iterable<String> counted = () -> new Iterator<String>() {
+      @Override
+      public boolean hasNext() {
+        return read.get() < inputs.size();
+      }
+      
+      @Override
+      public String next() {
+        return inputs.get(read.getAndIncrement());
+      }
+    };
+    AtomicInteger handled = new AtomicInteger();
+    batch.findEntities(counted, true, true, false, (index, input, entities) -> {
+      assertTrue(read.get() - handled.getAndIncrement() <=
+          2 * batch.getParallelism() * BatchExtractor.CHUNK_SIZE);
+    });
+    assertEquals(inputs.size(), handled.get());
+  }
+  
+  @Test
+  public void testHandlerFailure() {
+    AtomicInteger handled = new AtomicInteger();
+    try {
+      batch.findEntities(inputs, true, true, true, (index, input, entities) -> {
+        if (handled.incrementAndGet() == 10) {
+          throw new IOException("Disk full");
+        }
+      });
+      fail();
+    } catch (IOException e) {
+      assertEquals("Disk full", e.getMessage());
+    }
+    assertEquals(10, handled.get());
+  }
+}
@@ -0,0 +1,106 @@
+package org.mholford.fstdict;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+import java.util.TreeSet;
+
+/**
+ * Generates the random words, terms and dictionaries the benchmarks run against.  Data is
+ * drawn from Randoms seeded with SEED, so that runs of a benchmark with the same arguments
+ * are comparable.
+ */
+final class BenchmarkData {
+  static final long SEED = 42;
+  
+  /**
+   * Generates a term of a dictionary
+   */
+  interface TermGenerator {
+    String term(Random rand);
+  }
+  
+  private BenchmarkData() {
+  }
+  
+  /**
+   * Creates a Random seeded with SEED
+   * @return New Random
+   */
+  static Random random() {
+    return new Random(SEED);
+  }
+  
+  /**
+   * Generates a word of 3 to 8 random lowercase letters
+   * @param rand Source of randomness
+   * @return Random word
+   */
+  static String word(Random rand) {
+    char[] c = new char[3 + rand.nextInt(6)];
+    for (int i = 0; i < c.length; i++) {
+      c[i] = (char) ('a' + rand.nextInt(26));
+    }
+    return new String(c);
+  }
+  
+  /**
+   * Generates a list of random words, which may repeat
+   * @param rand Source of randomness
+   * @param n Number of words
+   * @return Random words
+   */
+  static List<String> words(Random rand, int n) {
+    List<String> words = new ArrayList<>(n);
+    for (int i = 0; i < n; i++) {
+      words.add(word(rand));
+    }
+    return words;
+  }
+  
+  /**
+   * Generates distinct terms until there are n of them.  Gives up after 10n attempts, so
+   * generators that can't produce n distinct terms yield fewer.
+   * @param rand Source of randomness
+   * @param n Number of terms
+   * @param generator Generates each term
+   * @return Sorted terms
+   */
+  static SortedSet<String> terms(Random rand, int n, TermGenerator generator) {
+    SortedSet<String> terms = new TreeSet<>();
+    for (int i = 0; i < n * 10 && terms.size() < n; i++) {
+      terms.add(generator.term(rand));
+    }
+    return terms;
+  }
+  
+  /**
+   * Writes the terms as a dictionary CSV, with a payload drawn from 20 types
+   * @param terms Terms, in sorted order
+   * @return UTF-8 bytes of the CSV
+   */
+  static byte[] csv(Collection<String> terms) {
+    StringBuilder csv = new StringBuilder();
+    for (String term : terms) {
+      csv.append(term).append(",T").append(term.length() % 20).append('\n');
+    }
+    return csv.toString().getBytes(StandardCharsets.UTF_8);
+  }
+  
+  /**
+   * Loads a dictionary CSV into a default FSTDictionaryManager
+   * @param csv UTF-8 bytes of the CSV
+   * @return Loaded dictionary
+   * @throws IOException If the CSV could not be read
+   */
+  static FSTDictionaryManager load(byte[] csv) throws IOException {
+    FSTDictionaryManager dm = FSTDictionaryManagerFactory.get().createDefault();
+    dm.loadDictionary(new ByteArrayInputStream(csv));
+    return dm;
+  }
+}
@@ -0,0 +1,57 @@
+package org.mholford.fstdict;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+
+import static org.mholford.fstdict.BenchmarkData.word;
+
+/**
+ * Measures complete() on a weighted dictionary of one and two word terms, as typeahead would
+ * call it: each query completes every prefix of a term, one keystroke at a time.
+ * <p/>
+ * Usage: CompletionBenchmark [numEntries] [numQueries] [topN]
+ */
+public class CompletionBenchmark {
+  public static void main(String[] args) throws IOException {
+    int numEntries = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+    int numQueries = args.length > 1 ? Integer.parseInt(args[1]) : 20_000;
+    int topN = args.length > 2 ? Integer.parseInt(args[2]) : 10;
+    Random rand = BenchmarkData.random();
+    SortedSet<String> terms = BenchmarkData.terms(rand, numEntries,
+        r -> r.nextBoolean() ? word(r) : word(r) + " " + word(r));
+    StringBuilder csv = new StringBuilder();
+    for (String term : terms) {
+      csv.append(term).append(',').append(rand.nextInt(1_000_000)).append(",T")
+          .append(term.length() % 20).append('\n');
+    }
+    FSTDictionaryManager dm = FSTDictionaryManagerFactory.get().createDefault();
+    dm.loadWeightedDictionary(new ByteArrayInputStream(
+        csv.toString().getBytes(StandardCharsets.UTF_8)));
+    
+    List<String> termList = new ArrayList<>(terms);
+    List<String> queries = new ArrayList<>(numQueries);
+    for (int i = 0; i < numQueries; i++) {
+      queries.add(termList.get(rand.nextInt(termList.size())));
+    }
+    
+    for (int round = 0; round < 5; round++) {
+      long found = 0;
+      long keystrokes = 0;
+      long start = System.nanoTime();
+      for (String query : queries) {
+        for (int n = 1; n <= query.length(); n++) {
+          found += dm.complete(query.substring(0, n), topN).size();
+          keystrokes++;
+        }
+      }
+      long nanos = System.nanoTime() - start;
+      System.out.printf("%6.2f us/keystroke   (%d completions)%n",
+          nanos / 1000.0 / keystrokes, found);
+    }
+  }
+}
@@ -0,0 +1,90 @@
+package org.mholford.fstdict;
+
+import org.apache.lucene.util.BytesRef;
+import org.apache.lucene.util.fst.FST;
+import org.apache.lucene.util.fst.Util;
+
+import java.io.IOException;
+import java.lang.management.ManagementFactory;
+import java.util.*;
+
+import static org.mholford.fstdict.BenchmarkData.word;
+
+/**
+ * Measures allocation and throughput of dictionary lookups made through a DictionarySession
+ * against the previous approach, which joined the tokens into a key, wrapped it in a new
+ * BytesRef and allocated a fresh Arc and BytesReader for every lookup.  Allocated bytes are
+ * read from the HotSpot ThreadMXBean, so this needs to run on a HotSpot-based JVM.
+ * <p/>
+ * Usage: DictionarySessionBenchmark [numEntries] [iterations]
+ */
+public class DictionarySessionBenchmark {
+  private static final com.sun.management.ThreadMXBean threads =
+      (com.sun.management.ThreadMXBean) ManagementFactory.getThreadMXBean();
+  
+  public static void main(String[] args) throws IOException {
+    int numEntries = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+    int iterations = args.length > 1 ? Integer.parseInt(args[1]) : 5_000_000;
+    Random rand = BenchmarkData.random();
+    
+    SortedSet<String> terms = BenchmarkData.terms(rand, numEntries,
+        r -> word(r) + " " + word(r) + (r.nextBoolean() ? " " + word(r) : ""));
+    FSTDictionaryManager dm = BenchmarkData.load(BenchmarkData.csv(terms));
+    FST<Long> fst = dm.getFST();
+    
+    List<List<String>> probes = new ArrayList<>();
+    List<String> termList = new ArrayList<>(terms);
+    for (int i = 0; i < 1024; i++) {
+      List<String> probe = new ArrayList<>(
+          Arrays.asList(termList.get(rand.nextInt(termList.size())).split(" ")));
+      if (rand.nextBoolean()) {
+        probe.set(probe.size() - 1, word(rand));
+      }
+      probes.add(probe);
+    }
+    
+    DictionarySession session = dm.newSession();
+    measure("legacy hasTokens", iterations, probes, p -> legacyHasPrefix(fst, p));
+    measure("session hasTokens", iterations, probes, session::hasTokens);
+    measure("session isCompleteMatch", iterations, probes, session::isCompleteMatch);
+  }
+  
+  private interface Lookup {
+    boolean apply(List<String> tokens) throws IOException;
+  }
+  
+  private static void measure(String name, int iterations, List<List<String>> probes, Lookup l)
+      throws IOException {
+    int hits = 0;
+    // Warm up so the JIT has compiled the lookup path before we count bytes
+    for (int i = 0; i < iterations / 2; i++) {
+      hits += l.apply(probes.get(i & 1023)) ? 1 : 0;
+    }
+    long tid = Thread.currentThread().getId();
+    long startBytes = threads.getThreadAllocatedBytes(tid);
+    long start = System.nanoTime();
+    for (int i = 0; i < iterations; i++) {
+      hits += l.apply(probes.get(i & 1023)) ? 1 : 0;
+    }
+    long elapsed = System.nanoTime() - start;
+    long bytes = threads.getThreadAllocatedBytes(tid) - startBytes;
+    System.out.printf("%-25s %,12.0f ops/sec %8.1f bytes/op (%d hits)%n", name,
+        iterations / (elapsed / 1e9), (double) bytes / iterations, hits);
+  }
+  
+  /**
+   * hasTokens as it was before lookup sessions were introduced
+   */
+  private static boolean legacyHasPrefix(FST<Long> fst, List<String> tokens)
+      throws IOException {
+    BytesRef input = new BytesRef(String.join(" ", tokens));
+    final FST.BytesReader fstReader = fst.getBytesReader();
+    final FST.Arc<Long> arc = fst.getFirstArc(new FST.Arc<>());
+    for (int i = 0; i < input.length; i++) {
+      if (fst.findTargetArc(input.bytes[i + input.offset] & 0xFF, arc, arc, fstReader) == null) {
+        return false;
+      }
+    }
+    return true;
+  }
+}
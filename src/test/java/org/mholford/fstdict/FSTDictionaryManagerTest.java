@@ -1,12 +1,23 @@
 package org.mholford.fstdict;
 
 import org.junit.Before;
+import org.junit.Rule;
 import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
 
+import java.io.ByteArrayInputStream;
 import java.io.IOException;
 import java.io.InputStream;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
 import java.util.Collections;
+import java.util.Comparator;
 import java.util.List;
+import java.util.Random;
+import java.util.TreeMap;
 
 import static com.google.common.collect.Lists.newArrayList;
 import static junit.framework.TestCase.*;
@@ -26,6 +37,9 @@ public class FSTDictionaryManagerTest {
   private final String WASHINGTON_IRVING = "washington irving";
   private final String WASHINGTON = "washington";
   
+  @Rule
+  public TemporaryFolder tmp = new TemporaryFolder();
+  
   private FSTDictionaryManager dm;
   private InputStream in;
   
@@ -68,6 +82,137 @@ public class FSTDictionaryManagerTest {
     assertNull(dm.getEntity(newArrayList("george")));
   }
   
+  @Test
+  public void testCursor() throws IOException {
+    dm.loadDictionary(in);
+    PrefixCursor cursor = dm.newCursor();
+    assertTrue(cursor.advance("george"));
+    assertFalse(cursor.isMatch());
+    assertNull(cursor.getEntity());
+    assertTrue(cursor.advance("washington"));
+    assertTrue(cursor.isMatch());
+    assertEquals(new EntityInfo(GEORGE_WASHINGTON, newArrayList()), cursor.getEntity());
+    assertFalse(cursor.advance("bridge"));
+    // A failed advance leaves the cursor where it was
+    assertEquals(2, cursor.depth());
+    assertTrue(cursor.advance("carver"));
+    assertEquals(new EntityInfo(GEORGE_WASHINGTON_CARVER, newArrayList(INVENTOR)),
+        cursor.getEntity());
+    
+    cursor.reset();
+    assertEquals(0, cursor.depth());
+    assertTrue(cursor.advance("washington"));
+    assertEquals(new EntityInfo(WASHINGTON, newArrayList(CITY, STATE)), cursor.getEntity());
+  }
+  
+  @Test
+  public void testSession() throws IOException {
+    dm.loadDictionary(in);
+    DictionarySession session = dm.newSession();
+    assertTrue(session.hasTokens(newArrayList("george", "washington")));
+    assertFalse(session.isCompleteMatch(newArrayList("george")));
+    assertTrue(session.isCompleteMatch(newArrayList("george", "washington")));
+    assertFalse(session.hasTokens(newArrayList("george", "washington", "bridge")));
+    assertEquals(new EntityInfo(GEORGE_WASHINGTON_CARVER, newArrayList(INVENTOR)),
+        session.getEntity(newArrayList("george", "washington", "carver")));
+    assertNull(session.getEntity(newArrayList("george")));
+    // Buffers are reused; a shorter lookup after a longer one must not see stale bytes
+    assertEquals(new EntityInfo(WASHINGTON, newArrayList(CITY, STATE)),
+        session.getEntity(newArrayList("washington")));
+  }
+  
+  @Test
+  public void testPayloadOrdinals() throws IOException {
+    String csv = "alpha,x,y\nbeta,y,x\ndelta,x,x,y\ngamma,x,y\nomega\n";
+    dm.loadDictionary(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+    // Payloads keep their CSV order; identical payload sets are stored once and shared
+    List<String> alpha = dm.getEntity(newArrayList("alpha")).getPayloads();
+    assertEquals(newArrayList("x", "y"), alpha);
+    assertEquals(newArrayList("y", "x"), dm.getEntity(newArrayList("beta")).getPayloads());
+    assertSame(alpha, dm.getEntity(newArrayList("gamma")).getPayloads());
+    assertSame(alpha, dm.getEntity(newArrayList("delta")).getPayloads());
+    assertEquals(Collections.emptyList(), dm.getEntity(newArrayList("omega")).getPayloads());
+    assertEquals(3, dm.getPayloadTable().size());
+    assertEquals(newArrayList("x", "y"), dm.findEntityStrings("alpha beta", false, false));
+  }
+  
+  @Test
+  public void testUnsorted() throws IOException {
+    String csv = "paul george,coach\n" +
+        "washington irving,author\nwashington,city,state\ngeorge washington\n" +
+        "paul george,athlete\nwashington,state,capital\ngeorge washington carver,inventor\n";
+    Path tempDir = tmp.newFolder().toPath();
+    List<IngestProgress> progress = new ArrayList<>();
+    dm.loadUnsortedDictionary(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)),
+        tempDir, 1, progress::add);
+    
+    assertEquals(new EntityInfo(GEORGE_WASHINGTON_CARVER, newArrayList(INVENTOR)),
+        dm.getEntity(newArrayList("george", "washington", "carver")));
+    // Payloads of duplicate terms are merged
+    assertEquals(new EntityInfo(WASHINGTON, newArrayList(CITY, STATE, "capital")),
+        dm.getEntity(newArrayList("washington")));
+    // ...in CSV order rather than the order of their bytes
+    assertEquals(newArrayList("coach", "athlete"),
+        dm.getEntity(newArrayList("paul", "george")).getPayloads());
+    assertEquals(3, dm.findEntities("george washington carver was cool", true, true).size());
+    
+    assertEquals(3, progress.size());
+    assertEquals(IngestProgress.Phase.BUILD, progress.get(2).getPhase());
+    assertEquals(7, progress.get(0).getCount());
+    assertEquals(5, progress.get(2).getCount());
+    // Temp files are cleaned up
+    assertEquals(0, tempDir.toFile().list().length);
+  }
+  
+  @Test
+  public void testCompiled() throws IOException {
+    URL source = FSTDictionaryManagerTest.class.getClassLoader().getResource("test-dict.csv");
+    Path compiled = tmp.getRoot().toPath().resolve("test-dict.csv.fst");
+    dm.loadDictionary(source, compiled);
+    assertTrue(Files.exists(compiled));
+    
+    FSTDictionaryManager loaded = FSTDictionaryManagerFactory.get().createDefault();
+    assertTrue(loaded.loadCompiled(compiled, loaded.checksum(source.openStream())));
+    assertTrue(loaded.hasTokens(newArrayList("george", "washington", "carver")));
+    assertEquals(new EntityInfo(GEORGE_WASHINGTON_CARVER, newArrayList(INVENTOR)),
+        loaded.getEntity(newArrayList("george", "washington", "carver")));
+    assertEquals(3, loaded.findEntities("george washington carver was cool", true, true).size());
+    
+    // A compiled file built from different source content is not used
+    assertFalse(loaded.loadCompiled(compiled, 42L));
+    assertFalse(loaded.loadCompiled(tmp.getRoot().toPath().resolve("missing.fst"), 42L));
+  }
+  
+  @Test
+  public void testStats() throws IOException {
+    assertEquals(-1, dm.getStats().getBuildTimeNanos());
+    dm.loadDictionary(in);
+    assertTrue(dm.hasTokens(newArrayList("george", "washington")));
+    assertFalse(dm.hasTokens(newArrayList("george", "washington", "bridge")));
+    // One lookup per start position; matches start at "george" and "washington"
+    dm.findEntities("george washington carver was cool", true, true);
+    
+    DictionaryStats stats = dm.getStats();
+    assertEquals(5, stats.getTermCount());
+    assertTrue(stats.getNodeCount() > 0);
+    assertTrue(stats.getArcCount() >= stats.getNodeCount() - 1);
+    assertTrue(stats.getPayloadBytes() > 0);
+    assertTrue(stats.getRamBytesUsed() > stats.getPayloadBytes());
+    assertTrue(stats.getBuildTimeNanos() > 0);
+    assertEquals(3, stats.getHits());
+    assertEquals(4, stats.getMisses());
+    assertEquals(10.0 / 7, stats.getAverageDepth(), 1e-9);
+    
+    // Compiled files don't record the node and arc counts
+    URL source = FSTDictionaryManagerTest.class.getClassLoader().getResource("test-dict.csv");
+    Path compiled = tmp.getRoot().toPath().resolve("test-dict.csv.fst");
+    dm.loadDictionary(source, compiled);
+    FSTDictionaryManager loaded = FSTDictionaryManagerFactory.get().createDefault();
+    assertTrue(loaded.loadCompiled(compiled, loaded.checksum(source.openStream())));
+    assertEquals(-1, loaded.getStats().getNodeCount());
+    assertEquals(stats.getPayloadBytes(), loaded.getStats().getPayloadBytes());
+  }
+  
   @Test
   public void testFindEntities() throws IOException {
     dm.loadDictionary(in);
@@ -139,7 +284,7 @@ public class FSTDictionaryManagerTest {
         new Range(2, 4), new EntityInfo(GEORGE_WASHINGTON, newArrayList())), ea.get(1));
     assertEquals(new EntityAnnotation(
         new Range(3, 4), new EntityInfo(WASHINGTON, newArrayList(CITY, STATE))), ea.get(2));
-  
+    
     ea = dm.findEntities(input, false, false);
     assertEquals(1, ea.size());
     assertEquals(new EntityAnnotation(
@@ -186,4 +331,105 @@ public class FSTDictionaryManagerTest {
     assertEquals(1, entities.size());
     assertThat(entities).contains(INVENTOR);
   }
+  
+  @Test
+  public void testFindFuzzyEntities() throws IOException {
+    dm.loadDictionary(in);
+    FuzzyOptions options = new FuzzyOptions(2, 1, true, 100_000);
+    
+    String input = "geroge washington carvr was cool";
+    List<EntityAnnotation> ea = dm.findFuzzyEntities(input, false, false, options);
+    assertEquals(1, ea.size());
+    assertEquals(new Range(0, 3), ea.get(0).getRange());
+    assertEquals("george washington carver", ea.get(0).getEntityInfo().getTerm());
+    assertEquals(2, ea.get(0).getEditDistance());
+    
+    ea = dm.findFuzzyEntities(input, true, false, options);
+    assertEquals(2, ea.size());
+    assertEquals(new Range(0, 2), ea.get(0).getRange());
+    assertEquals("george washington", ea.get(0).getEntityInfo().getTerm());
+    
+    // Exact matches win over inexact ones, and are the same as findEntities()
+    input = "paul george, washington irving and others";
+    assertEquals(dm.findEntities(input, true, true),
+        dm.findFuzzyEntities(input, true, true, options));
+    
+    // A transposition is one edit, but the prefix can't be edited
+    ea = dm.findFuzzyEntities("pual gorge", true, true, options);
+    assertEquals(1, ea.size());
+    assertEquals(2, ea.get(0).getEditDistance());
+    assertTrue(dm.findFuzzyEntities("waul george", true, true, options).isEmpty());
+    assertEquals(0, options.editsFor(2));
+    assertEquals(1, options.editsFor(5));
+    
+    // Stops once the arc budget is used up
+    FuzzyOptions small = new FuzzyOptions(2, 0, true, 10);
+    assertTrue(dm.findFuzzyEntities(input, true, true, small).size() <
+        dm.findFuzzyEntities(input, true, true, options).size());
+  }
+  
+  @Test
+  public void testComplete() throws IOException {
+    String csv = "george,5,person\ngeorge washington,9,person,city\ngeorgia,7,state\n" +
+        "washington,3,city,state\nwashington irving,0,author\n";
+    dm.loadWeightedDictionary(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+    List<EntityInfo> completions = dm.complete("geo", 2);
+    assertEquals(2, completions.size());
+    assertEquals(GEORGE_WASHINGTON, completions.get(0).getTerm());
+    assertEquals(newArrayList("person", CITY), completions.get(0).getPayloads());
+    assertEquals("georgia", completions.get(1).getTerm());
+    // The prefix itself is a completion, and the lookup FST is built too
+    assertEquals("george", dm.complete("george", 5).get(1).getTerm());
+    assertEquals(newArrayList(CITY, STATE), dm.getEntity(newArrayList(WASHINGTON)).getPayloads());
+    assertEquals(WASHINGTON, dm.complete("", 5).get(3).getTerm());
+    assertTrue(dm.complete("x", 5).isEmpty());
+    
+    // Same as sorting the matching terms by weight
+    Random rand = new Random(3);
+    TreeMap<String, Integer> weights = new TreeMap<>();
+    while (weights.size() < 2000) {
+      StringBuilder sb = new StringBuilder();
+      for (int i = 0; i < 2 + rand.nextInt(6); i++) {
+        sb.append((char) ('a' + rand.nextInt(4)));
+      }
+      weights.put(sb.toString(), rand.nextInt(10_000));
+    }
+    StringBuilder sb = new StringBuilder();
+    weights.forEach((term, weight) -> sb.append(term).append(',').append(weight).append('\n'));
+    dm.loadWeightedDictionary(new ByteArrayInputStream(sb.toString().getBytes(
+        StandardCharsets.UTF_8)));
+    for (String prefix : new String[]{"", "a", "ab", "dcb", "abcd"}) {
+      List<String> expected = new ArrayList<>();
+      weights.keySet().stream().filter(t -> t.startsWith(prefix))
+          .sorted(Comparator.comparing((String t) -> -weights.get(t))
+              .thenComparing(Comparator.naturalOrder()))
+          .limit(10).forEach(expected::add);
+      List<String> actual = new ArrayList<>();
+      dm.complete(prefix, 10).forEach(info -> actual.add(info.getTerm()));
+      assertEquals(prefix, expected, actual);
+    }
+  }
+  
+  @Test
+  public void testCompleteCompiled() throws IOException {
+    String csv = "george,5,person\ngeorge washington,9,person,city\ngeorgia,7,state\n";
+    dm.loadWeightedDictionary(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+    Path compiled = tmp.getRoot().toPath().resolve("weighted.csv.fst");
+    dm.saveCompiled(compiled, 42L);
+    
+    // The completion FST is saved along with the lookup FST
+    FSTDictionaryManager loaded = FSTDictionaryManagerFactory.get().createDefault();
+    assertTrue(loaded.loadCompiled(compiled, 42L));
+    List<EntityInfo> completions = loaded.complete("geo", 2);
+    assertEquals(GEORGE_WASHINGTON, completions.get(0).getTerm());
+    assertEquals(newArrayList("person", CITY), completions.get(0).getPayloads());
+    assertEquals("georgia", completions.get(1).getTerm());
+    assertTrue(loaded.hasTokens(newArrayList("george", "washington")));
+  }
+  
+  @Test(expected = IllegalStateException.class)
+  public void testCompleteUnweighted() throws IOException {
+    dm.loadDictionary(in);
+    dm.complete("geo", 5);
+  }
 }
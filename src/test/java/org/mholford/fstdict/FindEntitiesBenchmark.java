@@ -0,0 +1,192 @@
+package org.mholford.fstdict;
+
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.TokenStream;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.apache.lucene.analysis.tokenattributes.CharTermAttribute;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.StringReader;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+/**
+ * Compares throughput of FSTDictionaryManager.findEntities with the previous implementation,
+ * which rebuilt the key and walked the FST from the root (via hasTokens) every time a span
+ * was extended by one token.  The legacy algorithm is kept here, written against the public
+ * DictionaryManager API, so both can be run against the same dictionary.
+ * <p/>
+ * Usage: FindEntitiesBenchmark [numEntries] [tokensPerInput] [seconds]
+ */
+public class FindEntitiesBenchmark {
+  private static final Analyzer analyzer = new StandardAnalyzer();
+  private static final String[] FIRST = {"alice", "bob", "carol", "dave", "denise", "erin",
+      "frank", "grace", "heidi", "ivan", "joe", "karla", "leo", "mallory", "nina", "oscar",
+      "peggy", "quinn", "rupert", "steve", "trent", "ursula", "victor", "walter", "xavier",
+      "yolanda", "zed"};
+  private static final String[] NOISE = {"please", "assign", "the", "ticket", "to", "and",
+      "tell", "about", "a", "blocker", "for", "with", "from", "team", "product", "review"};
+  
+  public static void main(String[] args) throws IOException {
+    int numEntries = args.length > 0 ? Integer.parseInt(args[0]) : 500_000;
+    int tokensPerInput = args.length > 1 ? Integer.parseInt(args[1]) : 60;
+    int seconds = args.length > 2 ? Integer.parseInt(args[2]) : 5;
+    Random rand = new Random(42);
+    
+    List<String> terms = new ArrayList<>(generateTerms(numEntries, rand));
+    StringBuilder csv = new StringBuilder();
+    for (String term : terms) {
+      csv.append(term).append(',').append("ID").append(term.hashCode()).append('\n');
+    }
+    FSTDictionaryManager dm = FSTDictionaryManagerFactory.get().createDefault();
+    long start = System.nanoTime();
+    dm.loadDictionary(new ByteArrayInputStream(csv.toString().getBytes(StandardCharsets.UTF_8)));
+    System.out.printf("Loaded %,d entries in %,d ms%n", terms.size(),
+        (System.nanoTime() - start) / 1_000_000);
+    
+    List<String> inputs = generateInputs(terms, tokensPerInput, 1000, rand);
+    for (String input : inputs) {
+      for (boolean nested : new boolean[]{true, false}) {
+        for (boolean overlap : new boolean[]{true, false}) {
+          if (!new HashSet<>(legacyFindEntities(dm, input, nested, overlap))
+              .equals(new HashSet<>(dm.findEntities(input, nested, overlap)))) {
+            throw new IllegalStateException("Results differ for: " + input);
+          }
+        }
+      }
+    }
+    
+    double legacy = run("legacy (hasTokens per span)", seconds, inputs,
+        in -> legacyFindEntities(dm, in, true, true));
+    double cursor = run("prefix cursor", seconds, inputs, in -> dm.findEntities(in, true, true));
+    System.out.printf("Speedup: %.2fx%n", cursor / legacy);
+  }
+  
+  private interface Extraction {
+    List<EntityAnnotation> apply(String input) throws IOException;
+  }
+  
+  private static double run(String name, int seconds, List<String> inputs, Extraction e)
+      throws IOException {
+    // Warm up
+    long end = System.nanoTime() + seconds * 1_000_000_000L / 2;
+    int i = 0;
+    while (System.nanoTime() < end) {
+      e.apply(inputs.get(i++ % inputs.size()));
+    }
+    long found = 0;
+    long calls = 0;
+    long start = System.nanoTime();
+    end = start + seconds * 1_000_000_000L;
+    while (System.nanoTime() < end) {
+      found += e.apply(inputs.get(i++ % inputs.size())).size();
+      calls++;
+    }
+    double elapsed = (System.nanoTime() - start) / 1e9;
+    double perSec = calls / elapsed;
+    System.out.printf("%-30s %,12.0f lookups/sec (%,d entities found)%n", name, perSec, found);
+    return perSec;
+  }
+  
+  private static SortedSet<String> generateTerms(int n, Random rand) {
+    SortedSet<String> terms = new TreeSet<>();
+    while (terms.size() < n) {
+      StringBuilder sb = new StringBuilder(FIRST[rand.nextInt(FIRST.length)]);
+      int words = 1 + rand.nextInt(4);
+      for (int w = 1; w < words; w++) {
+        sb.append(' ').append(FIRST[rand.nextInt(FIRST.length)]);
+        if (rand.nextBoolean()) {
+          sb.append(rand.nextInt(100));
+        }
+      }
+      terms.add(sb.toString());
+    }
+    return terms;
+  }
+  
+  private static List<String> generateInputs(List<String> terms, int tokens, int n, Random rand) {
+    List<String> inputs = new ArrayList<>();
+    for (int i = 0; i < n; i++) {
+      StringBuilder sb = new StringBuilder();
+      int count = 0;
+      while (count < tokens) {
+        String next = rand.nextInt(3) == 0 ? NOISE[rand.nextInt(NOISE.length)] :
+            terms.get(rand.nextInt(terms.size()));
+        sb.append(next).append(' ');
+        count += next.split(" ").length;
+      }
+      inputs.add(sb.toString().trim());
+    }
+    return inputs;
+  }
+  
+  private static List<String> tokenize(String input) throws IOException {
+    List<String> output = new ArrayList<>();
+    try (TokenStream tstream = analyzer.tokenStream(null, new StringReader(input))) {
+      tstream.reset();
+      while (tstream.incrementToken()) {
+        output.add(tstream.getAttribute(CharTermAttribute.class).toString());
+      }
+      tstream.end();
+    }
+    return output;
+  }
+  
+  /**
+   * The findEntities algorithm as it was before the prefix cursor was introduced
+   */
+  private static List<EntityAnnotation> legacyFindEntities(DictionaryManager dm, String input,
+                                                           boolean doNested, boolean doOverlap)
+      throws IOException {
+    List<EntityAnnotation> output = new ArrayList<>();
+    
+    List<String> tokens = tokenize(input);
+    int i = 0;
+    int maxMatchIdx = -1;
+    while (i < tokens.size()) {
+      int mark = i;
+      Set<List<String>> adds = new HashSet<>();
+      List<String> curr = new ArrayList<>();
+      do {
+        curr.add(tokens.get(mark++));
+        if (doNested && dm.hasTokens(curr)) {
+          adds.add(new ArrayList<>(curr));
+        }
+      } while (dm.hasTokens(curr) && mark < tokens.size());
+      if (!doNested) {
+        List<String> longestMatch = (mark == tokens.size() && dm.hasTokens(curr)) ?
+            curr : curr.subList(0, curr.size() - 1);
+        if (longestMatch.size() > 0) {
+          if (i >= maxMatchIdx) {
+            adds.add(longestMatch);
+          } else if (doOverlap && (i + longestMatch.size()) >= maxMatchIdx) {
+            adds.add(longestMatch);
+          }
+        }
+      }
+      
+      int longest = 0;
+      for (List<String> add : adds) {
+        longest = Math.max(longest, add.size());
+        EntityInfo ei = add.size() > 0 ? dm.getEntity(add) : null;
+        if (ei != null) {
+          maxMatchIdx = i + add.size();
+          output.add(new EntityAnnotation(new Range(i, i + add.size()), ei));
+        }
+      }
+      if (!doOverlap && adds.size() > 0) {
+        if (!(mark == tokens.size() && doNested)) {
+          i += longest - 1;
+        }
+      }
+      if (doOverlap && !doNested && mark == tokens.size()) {
+        i += Math.max(longest - 1, 0);
+      }
+      
+      i++;
+    }
+    
+    return output;
+  }
+}
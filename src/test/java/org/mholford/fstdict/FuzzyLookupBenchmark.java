@@ -0,0 +1,61 @@
+package org.mholford.fstdict;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+
+import static org.mholford.fstdict.BenchmarkData.word;
+
+/**
+ * Measures the latency of findFuzzyEntities() against findEntities() on a large dictionary.
+ * Each query is a dictionary term with one typo, surrounded by a few words not in the
+ * dictionary.  The terms are random strings, which makes the dictionary much denser (and so
+ * fuzzy matching slower) than one of names or phrases of the same size.
+ * <p/>
+ * Usage: FuzzyLookupBenchmark [numEntries] [numQueries]
+ */
+public class FuzzyLookupBenchmark {
+  public static void main(String[] args) throws IOException {
+    int numEntries = args.length > 0 ? Integer.parseInt(args[0]) : 1_000_000;
+    int numQueries = args.length > 1 ? Integer.parseInt(args[1]) : 10_000;
+    Random rand = BenchmarkData.random();
+    
+    SortedSet<String> terms = BenchmarkData.terms(rand, numEntries,
+        r -> word(r) + (r.nextBoolean() ? " " + word(r) : ""));
+    List<String> queries = new ArrayList<>();
+    for (String term : terms) {
+      if (queries.size() < numQueries && rand.nextInt(numEntries / numQueries) == 0) {
+        char[] c = term.toCharArray();
+        c[1 + rand.nextInt(c.length - 1)] = 'q';
+        queries.add("please find " + new String(c) + " for me");
+      }
+    }
+    FSTDictionaryManager dm = BenchmarkData.load(BenchmarkData.csv(terms));
+    terms = null;
+    
+    FuzzyOptions twoEdits = new FuzzyOptions(2, 1, true, FuzzyOptions.DEFAULT.getMaxArcs());
+    for (int round = 0; round < 3; round++) {
+      long start = System.nanoTime();
+      for (String q : queries) {
+        dm.findEntities(q, true, true);
+      }
+      long exact = System.nanoTime() - start;
+      long fuzzy = time(dm, queries, FuzzyOptions.DEFAULT);
+      long fuzzy2 = time(dm, queries, twoEdits);
+      System.out.printf("exact %6.1f us/query   1 edit %6.1f us/query   2 edits %6.1f us/query%n",
+          exact / 1000.0 / queries.size(), fuzzy / 1000.0 / queries.size(),
+          fuzzy2 / 1000.0 / queries.size());
+    }
+  }
+  
+  private static long time(FSTDictionaryManager dm, List<String> queries, FuzzyOptions options)
+      throws IOException {
+    long start = System.nanoTime();
+    for (String q : queries) {
+      dm.findFuzzyEntities(q, true, true, options);
+    }
+    return System.nanoTime() - start;
+  }
+}
@@ -0,0 +1,159 @@
+package org.mholford.fstdict;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.junit.Assert.*;
+
+public class OverlayDictionaryManagerTest {
+  private static final String[] WORDS = {"a", "ab", "abe", "bob", "carl", "carla", "dan", "zoe"};
+  private static final FuzzyOptions FUZZY = new FuzzyOptions(2, 0, true, Integer.MAX_VALUE);
+  
+  private OverlayDictionaryManager overlay;
+  private SortedMap<String, List<String>> expected;
+  
+  @Before
+  public void before() throws IOException {
+    expected = new TreeMap<>();
+    Random rand = new Random(3);
+    while (expected.size() < 100) {
+      expected.put(randomTerm(rand), newArrayList("P" + rand.nextInt(5)));
+    }
+    overlay = FSTDictionaryManagerFactory.get().createOverlay(new StandardAnalyzer(),
+        CSVFormat.DEFAULT, Integer.MAX_VALUE);
+    overlay.loadDictionary(toCsv(expected));
+  }
+  
+  @After
+  public void after() {
+    overlay.close();
+  }
+  
+  @Test
+  public void testPutAndRemove() throws IOException {
+    overlay.put("zoe zoe zoe zoe", newArrayList("NEW"));
+    assertTrue(overlay.hasTokens(newArrayList("zoe", "zoe", "zoe")));
+    assertEquals(newArrayList("NEW"),
+        overlay.getEntity(newArrayList("zoe", "zoe", "zoe", "zoe")).getPayloads());
+    assertTrue(overlay.findEntityStrings("so zoe zoe zoe zoe", false, false).contains("NEW"));
+    
+    String base = expected.firstKey();
+    List<String> tokens = Arrays.asList(base.split(" "));
+    assertNotNull(overlay.getEntity(tokens));
+    overlay.remove(base);
+    assertNull(overlay.getEntity(tokens));
+    overlay.put(base, newArrayList("BACK"));
+    assertEquals(newArrayList("BACK"), overlay.getEntity(tokens).getPayloads());
+    assertEquals(2, overlay.getDeltaSize());
+    
+    overlay.remove("zoe zoe zoe zoe");
+    assertFalse(overlay.hasTokens(newArrayList("zoe", "zoe", "zoe")));
+  }
+  
+  @Test
+  public void testRemovedPrefix() throws IOException {
+    overlay.put("dan dan dan dan", Collections.emptyList());
+    overlay.compact();
+    assertTrue(overlay.hasTokens(newArrayList("dan", "dan", "dan")));
+    overlay.remove("dan dan dan dan");
+    assertFalse(overlay.hasTokens(newArrayList("dan", "dan", "dan")));
+    assertNull(overlay.getEntity(newArrayList("dan", "dan", "dan", "dan")));
+  }
+  
+  @Test
+  public void testMatchesRebuiltDictionary() throws IOException {
+    Random rand = new Random(5);
+    for (int i = 0; i < 300; i++) {
+      if (rand.nextInt(3) == 0 && !expected.isEmpty()) {
+        String term = new ArrayList<>(expected.keySet()).get(rand.nextInt(expected.size()));
+        expected.remove(term);
+        overlay.remove(term);
+      } else {
+        String term = randomTerm(rand);
+        List<String> payloads = newArrayList("Q" + rand.nextInt(5));
+        expected.put(term, payloads);
+        overlay.put(term, payloads);
+      }
+      if (i % 100 == 50) {
+        overlay.compact();
+        assertEquals(0, overlay.getDeltaSize());
+      }
+    }
+    FSTDictionaryManager rebuilt = FSTDictionaryManagerFactory.get().createDefault();
+    rebuilt.loadDictionary(toCsv(expected));
+    assertSameResults(rebuilt, rand);
+    overlay.compact();
+    assertSameResults(rebuilt, rand);
+  }
+  
+  @Test
+  public void testBackgroundCompaction() throws Exception {
+    OverlayDictionaryManager dm = FSTDictionaryManagerFactory.get().createOverlay(
+        new StandardAnalyzer(), CSVFormat.DEFAULT, 10);
+    try {
+      dm.loadDictionary(toCsv(expected));
+      for (int i = 0; i < 25; i++) {
+        dm.put("carl dan " + i, newArrayList("C" + i));
+      }
+      for (int i = 0; i < 100 && dm.getDeltaSize() >= 10; i++) {
+        Thread.sleep(50);
+      }
+      assertNull(dm.getCompactFailure());
+      assertTrue(dm.getDeltaSize() < 10);
+      for (int i = 0; i < 25; i++) {
+        assertEquals(newArrayList("C" + i),
+            dm.getEntity(newArrayList("carl", "dan", "" + i)).getPayloads());
+      }
+    } finally {
+      dm.close();
+    }
+  }
+  
+  private void assertSameResults(FSTDictionaryManager rebuilt, Random rand) throws IOException {
+    for (int i = 0; i < 200; i++) {
+      StringBuilder sb = new StringBuilder();
+      for (int w = 0; w < 10; w++) {
+        sb.append(WORDS[rand.nextInt(WORDS.length)]).append(rand.nextInt(4) == 0 ? "x " : " ");
+      }
+      String input = sb.toString();
+      for (boolean nested : new boolean[]{true, false}) {
+        for (boolean overlap : new boolean[]{true, false}) {
+          assertEquals(input, rebuilt.findEntities(input, nested, overlap),
+              overlay.findEntities(input, nested, overlap));
+          assertEquals(input, rebuilt.findFuzzyEntities(input, nested, overlap, FUZZY),
+              overlay.findFuzzyEntities(input, nested, overlap, FUZZY));
+        }
+      }
+    }
+  }
+  
+  private static String randomTerm(Random rand) {
+    int words = 1 + rand.nextInt(3);
+    StringBuilder sb = new StringBuilder(WORDS[rand.nextInt(WORDS.length)]);
+    for (int w = 1; w < words; w++) {
+      sb.append(' ').append(WORDS[rand.nextInt(WORDS.length)]);
+    }
+    return sb.toString();
+  }
+  
+  private static ByteArrayInputStream toCsv(SortedMap<String, List<String>> entries) {
+    StringBuilder csv = new StringBuilder();
+    for (Map.Entry<String, List<String>> e : entries.entrySet()) {
+      csv.append(e.getKey());
+      for (String p : e.getValue()) {
+        csv.append(',').append(p);
+      }
+      csv.append('\n');
+    }
+    return new ByteArrayInputStream(csv.toString().getBytes(StandardCharsets.UTF_8));
+  }
+}
@@ -0,0 +1,47 @@
+package org.mholford.fstdict;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.Random;
+
+import static org.mholford.fstdict.BenchmarkData.word;
+
+/**
+ * Compares dictionary build time of FSTDictionaryManager with ShardedDictionaryManager at
+ * increasing shard counts, up to the number of available processors.  Times include parsing
+ * the CSV, which is done on a single thread in both cases.
+ * <p/>
+ * Usage: ShardedBuildBenchmark [numEntries] [rounds]
+ */
+public class ShardedBuildBenchmark {
+  public static void main(String[] args) throws IOException {
+    int numEntries = args.length > 0 ? Integer.parseInt(args[0]) : 2_000_000;
+    int rounds = args.length > 1 ? Integer.parseInt(args[1]) : 3;
+    Random rand = BenchmarkData.random();
+    
+    byte[] bytes = BenchmarkData.csv(BenchmarkData.terms(rand, numEntries,
+        r -> word(r) + " " + word(r) + (r.nextBoolean() ? " " + word(r) : "")));
+    
+    long single = Long.MAX_VALUE;
+    for (int r = 0; r < rounds; r++) {
+      FSTDictionaryManager dm = FSTDictionaryManagerFactory.get().createDefault();
+      long start = System.nanoTime();
+      dm.loadDictionary(new ByteArrayInputStream(bytes));
+      single = Math.min(single, System.nanoTime() - start);
+    }
+    System.out.printf("%-12s %,8d ms%n", "single", single / 1_000_000);
+    
+    int cores = Runtime.getRuntime().availableProcessors();
+    for (int shards = 1; shards <= cores; shards *= 2) {
+      long best = Long.MAX_VALUE;
+      for (int r = 0; r < rounds; r++) {
+        ShardedDictionaryManager dm = FSTDictionaryManagerFactory.get().createSharded(shards);
+        long start = System.nanoTime();
+        dm.loadDictionary(new ByteArrayInputStream(bytes));
+        best = Math.min(best, System.nanoTime() - start);
+      }
+      System.out.printf("%-12s %,8d ms  %.2fx%n", shards + " shards", best / 1_000_000,
+          (double) single / best);
+    }
+  }
+}
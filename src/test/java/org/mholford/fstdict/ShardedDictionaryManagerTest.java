@@ -0,0 +1,105 @@
+package org.mholford.fstdict;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.junit.Assert.*;
+
+public class ShardedDictionaryManagerTest {
+  private static final String[] WORDS = {"a", "ab", "abe", "b", "bob", "carl", "carla", "dan",
+      "é", "éva", "x", "xavier", "zed", "zoe"};
+  private static final FuzzyOptions FUZZY = new FuzzyOptions(2, 0, true, Integer.MAX_VALUE);
+  
+  private FSTDictionaryManager single;
+  private ShardedDictionaryManager sharded;
+  
+  @Before
+  public void before() throws IOException {
+    Random rand = new Random(7);
+    SortedSet<String> terms = new TreeSet<>(Comparator.comparing(
+        (String t) -> new String(t.getBytes(StandardCharsets.UTF_8), StandardCharsets.ISO_8859_1)));
+    for (String word : WORDS) {
+      terms.add(word);
+    }
+    while (terms.size() < 500) {
+      int words = 1 + rand.nextInt(3);
+      StringBuilder sb = new StringBuilder(WORDS[rand.nextInt(WORDS.length)]);
+      for (int w = 1; w < words; w++) {
+        sb.append(' ').append(WORDS[rand.nextInt(WORDS.length)]);
+      }
+      terms.add(sb.toString());
+    }
+    StringBuilder csv = new StringBuilder();
+    for (String term : terms) {
+      csv.append(term).append(",P").append(term.length()).append('\n');
+    }
+    byte[] bytes = csv.toString().getBytes(StandardCharsets.UTF_8);
+    
+    single = FSTDictionaryManagerFactory.get().createDefault();
+    single.loadDictionary(new ByteArrayInputStream(bytes));
+    sharded = FSTDictionaryManagerFactory.get().createSharded(4);
+    sharded.loadDictionary(new ByteArrayInputStream(bytes));
+  }
+  
+  @Test
+  public void testSharding() {
+    assertEquals(4, sharded.getNumShards());
+  }
+  
+  @Test
+  public void testLookups() throws IOException {
+    for (String first : WORDS) {
+      assertEquals(first, single.hasTokens(newArrayList(first)),
+          sharded.hasTokens(newArrayList(first)));
+      assertEquals(first, single.getEntity(newArrayList(first)),
+          sharded.getEntity(newArrayList(first)));
+      for (String second : WORDS) {
+        List<String> tokens = newArrayList(first, second);
+        assertEquals(tokens.toString(), single.hasTokens(tokens), sharded.hasTokens(tokens));
+        assertEquals(tokens.toString(), single.getEntity(tokens), sharded.getEntity(tokens));
+      }
+    }
+    // "a" is a prefix of "ab" and "abe", which may live in other shards than "a ..."
+    assertTrue(sharded.hasTokens(newArrayList("a")));
+    assertFalse(sharded.hasTokens(newArrayList("q")));
+  }
+  
+  @Test
+  public void testFindEntities() throws IOException {
+    Random rand = new Random(11);
+    for (int i = 0; i < 200; i++) {
+      StringBuilder sb = new StringBuilder();
+      for (int w = 0; w < 12; w++) {
+        sb.append(WORDS[rand.nextInt(WORDS.length)]).append(rand.nextInt(4) == 0 ? "q " : " ");
+      }
+      String input = sb.toString();
+      for (boolean nested : new boolean[]{true, false}) {
+        for (boolean overlap : new boolean[]{true, false}) {
+          assertEquals(input, single.findEntities(input, nested, overlap),
+              sharded.findEntities(input, nested, overlap));
+          assertEquals(input, single.findEntityStrings(input, nested, overlap),
+              sharded.findEntityStrings(input, nested, overlap));
+          assertEquals(input, single.findFuzzyEntities(input, nested, overlap, FUZZY),
+              sharded.findFuzzyEntities(input, nested, overlap, FUZZY));
+        }
+      }
+    }
+  }
+  
+  @Test
+  public void testTestDict() throws IOException {
+    ClassLoader cl = ShardedDictionaryManagerTest.class.getClassLoader();
+    single.loadDictionary(cl.getResourceAsStream("test-dict.csv"));
+    sharded.loadDictionary(cl.getResourceAsStream("test-dict.csv"));
+    String input = "george washington carver was cool";
+    List<String> entities = sharded.findEntityStrings(input, true, true);
+    assertEquals(4, entities.size());
+    assertEquals(single.findEntityStrings(input, true, true), entities);
+  }
+}
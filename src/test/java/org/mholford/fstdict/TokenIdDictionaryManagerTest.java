@@ -0,0 +1,100 @@
+package org.mholford.fstdict;
+
+import org.apache.commons.csv.CSVFormat;
+import org.apache.lucene.analysis.standard.StandardAnalyzer;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+
+import static com.google.common.collect.Lists.newArrayList;
+import static org.junit.Assert.*;
+
+public class TokenIdDictionaryManagerTest {
+  private static final String[] WORDS = {"a", "ab", "abe", "b", "bob", "carl", "carla", "dan",
+      "x", "xavier", "zed", "zoe"};
+  
+  private FSTDictionaryManager bytes;
+  private TokenIdDictionaryManager ids;
+  private TokenVocabulary vocabulary;
+  private SortedSet<String> terms;
+  
+  @Before
+  public void before() throws IOException {
+    Random rand = new Random(7);
+    terms = new TreeSet<>(Arrays.asList(WORDS));
+    while (terms.size() < 500) {
+      int words = 1 + rand.nextInt(3);
+      StringBuilder sb = new StringBuilder(WORDS[rand.nextInt(WORDS.length)]);
+      for (int w = 1; w < words; w++) {
+        sb.append(' ').append(WORDS[rand.nextInt(WORDS.length)]);
+      }
+      terms.add(sb.toString());
+    }
+    StringBuilder csv = new StringBuilder();
+    for (String term : terms) {
+      csv.append(term).append(",P").append(term.length()).append('\n');
+    }
+    byte[] data = csv.toString().getBytes(StandardCharsets.UTF_8);
+    
+    bytes = FSTDictionaryManagerFactory.get().createDefault();
+    bytes.loadDictionary(new ByteArrayInputStream(data));
+    vocabulary = new TokenVocabulary();
+    ids = FSTDictionaryManagerFactory.get().createTokenId(vocabulary, new StandardAnalyzer(),
+        CSVFormat.DEFAULT);
+    ids.loadDictionary(new ByteArrayInputStream(data));
+  }
+  
+  @Test
+  public void testLookups() throws IOException {
+    assertEquals(WORDS.length, vocabulary.size());
+    for (String first : WORDS) {
+      for (String second : WORDS) {
+        List<String> tokens = newArrayList(first, second);
+        assertEquals(tokens.toString(), bytes.getEntity(tokens), ids.getEntity(tokens));
+        int[] encoded = vocabulary.encode(tokens);
+        assertEquals(tokens.toString(), bytes.getEntity(tokens), ids.getEntity(encoded, 2));
+        assertEquals(tokens.toString(), bytes.isCompleteMatch(tokens),
+            ids.isCompleteMatch(encoded, 2));
+        // Only whole tokens make a prefix
+        String span = first + " " + second;
+        boolean prefix = terms.stream().anyMatch(t -> t.equals(span) || t.startsWith(span + " "));
+        assertEquals(tokens.toString(), prefix, ids.hasTokenIds(encoded, 2));
+        assertEquals(tokens.toString(), prefix, ids.hasTokens(tokens));
+      }
+    }
+    assertTrue(ids.hasTokens(newArrayList("carl")));
+    assertFalse(ids.hasTokens(newArrayList("car")));
+    assertFalse(ids.hasTokens(newArrayList("q")));
+    assertEquals(TokenVocabulary.OOV, vocabulary.id("q"));
+    assertEquals("carl", vocabulary.token(vocabulary.id("carl")));
+  }
+  
+  @Test
+  public void testFindEntities() throws IOException {
+    Random rand = new Random(11);
+    for (int i = 0; i < 200; i++) {
+      StringBuilder sb = new StringBuilder();
+      for (int w = 0; w < 12; w++) {
+        sb.append(WORDS[rand.nextInt(WORDS.length)]).append(rand.nextInt(4) == 0 ? "q " : " ");
+      }
+      String input = sb.toString();
+      assertEquals(input, bytes.findEntities(input, true, true),
+          ids.findEntities(input, true, true));
+    }
+  }
+  
+  @Test
+  public void testLongestMatch() throws IOException {
+    String csv = "carl,P1\ncarl bobby,P2\n";
+    bytes.loadDictionary(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+    ids.loadDictionary(new ByteArrayInputStream(csv.getBytes(StandardCharsets.UTF_8)));
+    // "bob" is a prefix of "bobby", but not a token of it: "carl" is the longest match
+    assertEquals(Collections.emptyList(), bytes.findEntityStrings("carl bob", false, false));
+    assertEquals(newArrayList("P1"), ids.findEntityStrings("carl bob", false, false));
+    assertEquals(newArrayList("P1", "P2"), ids.findEntityStrings("carl bobby", true, true));
+  }
+}
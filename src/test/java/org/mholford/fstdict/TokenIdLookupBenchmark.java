@@ -0,0 +1,74 @@
+package org.mholford.fstdict;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+import java.util.SortedSet;
+
+import static org.mholford.fstdict.BenchmarkData.word;
+
+/**
+ * Compares prefix lookups of token spans in a byte-keyed FST (hasTokens()) with lookups of
+ * the same spans, encoded once into ids, in an FST keyed on token ids (hasTokenIds()).  The
+ * dictionary is made of phrases of two to six tokens from a small vocabulary, like the
+ * sentences of a lookup table, and each query probes every prefix of a phrase, as the lookup
+ * table does while stepping through an utterance.  A quarter of the phrases end in a word that
+ * is not in the vocabulary.
+ * <p/>
+ * Usage: TokenIdLookupBenchmark [numEntries] [numQueries]
+ */
+public class TokenIdLookupBenchmark {
+  public static void main(String[] args) throws IOException {
+    int numEntries = args.length > 0 ? Integer.parseInt(args[0]) : 200_000;
+    int numQueries = args.length > 1 ? Integer.parseInt(args[1]) : 100_000;
+    Random rand = BenchmarkData.random();
+    List<String> vocabulary = BenchmarkData.words(rand, 500);
+    SortedSet<String> terms = BenchmarkData.terms(rand, numEntries, r -> {
+      StringBuilder sb = new StringBuilder(vocabulary.get(r.nextInt(vocabulary.size())));
+      int tokens = 2 + r.nextInt(5);
+      for (int t = 1; t < tokens; t++) {
+        sb.append(' ').append(vocabulary.get(r.nextInt(vocabulary.size())));
+      }
+      return sb.toString();
+    });
+    byte[] bytes = BenchmarkData.csv(terms);
+    FSTDictionaryManager byteDm = BenchmarkData.load(bytes);
+    TokenIdDictionaryManager idDm = FSTDictionaryManagerFactory.get().createTokenId();
+    idDm.loadDictionary(new ByteArrayInputStream(bytes));
+    
+    List<String> termList = new ArrayList<>(terms);
+    List<List<String>> queries = new ArrayList<>(numQueries);
+    for (int i = 0; i < numQueries; i++) {
+      List<String> tokens = new ArrayList<>(Arrays.asList(
+          termList.get(rand.nextInt(termList.size())).split(" ")));
+      if (rand.nextInt(4) == 0) {
+        tokens.set(tokens.size() - 1, word(rand) + "q");
+      }
+      queries.add(tokens);
+    }
+    
+    for (int round = 0; round < 5; round++) {
+      long found = 0;
+      long start = System.nanoTime();
+      for (List<String> tokens : queries) {
+        for (int n = 1; n <= tokens.size(); n++) {
+          found += byteDm.hasTokens(tokens.subList(0, n)) ? 1 : 0;
+        }
+      }
+      long byteNanos = System.nanoTime() - start;
+      start = System.nanoTime();
+      for (List<String> tokens : queries) {
+        int[] ids = idDm.getVocabulary().encode(tokens);
+        for (int n = 1; n <= ids.length; n++) {
+          found -= idDm.hasTokenIds(ids, n) ? 1 : 0;
+        }
+      }
+      long idNanos = System.nanoTime() - start;
+      System.out.printf("bytes %6.2f us/query   token ids %6.2f us/query   (%d)%n",
+          byteNanos / 1000.0 / numQueries, idNanos / 1000.0 / numQueries, found);
+    }
+  }
+}
@@ -0,0 +1,51 @@
+package org.mholford.fstdict;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+
+import static org.mholford.fstdict.BenchmarkData.word;
+
+/**
+ * Generates an unsorted CSV source with duplicate terms and loads it with
+ * FSTDictionaryManager.loadUnsortedDictionary, printing the progress reports.  Run it with a
+ * small heap (e.g. -Xmx256m) to check that the load does not depend on the size of the source.
+ * The heap still has to hold the FST and the payload table being built, so payloads are drawn
+ * from a small set of types, as they usually are in real dictionaries.
+ * <p/>
+ * Usage: UnsortedIngestBenchmark [numRecords] [ramBufferMB]
+ */
+public class UnsortedIngestBenchmark {
+  public static void main(String[] args) throws IOException {
+    int numRecords = args.length > 0 ? Integer.parseInt(args[0]) : 5_000_000;
+    int ramBufferMB = args.length > 1 ? Integer.parseInt(args[1]) : 32;
+    Random rand = BenchmarkData.random();
+    
+    Path tempDir = Files.createTempDirectory("ingest");
+    Path source = tempDir.resolve("source.csv");
+    try (BufferedWriter w = Files.newBufferedWriter(source, StandardCharsets.UTF_8)) {
+      for (int i = 0; i < numRecords; i++) {
+        // About one term in ten shows up more than once, with a different payload
+        int id = rand.nextInt(numRecords - numRecords / 10);
+        w.write(word(new Random(id)) + " " + word(new Random(~id)) + ",T" + (i % 50));
+        w.newLine();
+      }
+    }
+    System.out.printf("Wrote %,d records (%,d MB)%n", numRecords, Files.size(source) >> 20);
+    
+    FSTDictionaryManager dm = FSTDictionaryManagerFactory.get().createDefault();
+    long start = System.nanoTime();
+    try (InputStream in = Files.newInputStream(source)) {
+      dm.loadUnsortedDictionary(in, tempDir.resolve("sort"), ramBufferMB, System.out::println);
+    }
+    Runtime rt = Runtime.getRuntime();
+    System.out.printf("Loaded in %,d ms; %,d payload sets; heap used %,d MB of %,d MB max%n",
+        (System.nanoTime() - start) / 1_000_000, dm.getPayloadTable().size(),
+        (rt.totalMemory() - rt.freeMemory()) >> 20, rt.maxMemory() >> 20);
+    Files.delete(source);
+  }
+}